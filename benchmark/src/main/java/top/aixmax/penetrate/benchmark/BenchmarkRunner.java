@@ -0,0 +1,43 @@
+package top.aixmax.penetrate.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 16:05
+ * @description 基准测试入口，参数与JMH命令行一致；未指定 -prof 时默认挂载GC分析器输出分配速率
+ * <p>
+ * 运行：java -jar benchmark/target/benchmarks.jar [include正则] [JMH参数]
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if (cmd.shouldHelp()) {
+            cmd.showHelp();
+            return;
+        }
+        if (cmd.shouldList() || cmd.shouldListWithParams()) {
+            Runner runner = new Runner(cmd);
+            if (cmd.shouldList()) {
+                runner.list();
+            } else {
+                runner.listWithParams(cmd);
+            }
+            return;
+        }
+        if (cmd.shouldListProfilers()) {
+            cmd.listProfilers();
+            return;
+        }
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(cmd);
+        if (cmd.getProfilers().isEmpty()) {
+            builder.addProfiler(GCProfiler.class);
+        }
+        new Runner(builder.build()).run();
+    }
+}
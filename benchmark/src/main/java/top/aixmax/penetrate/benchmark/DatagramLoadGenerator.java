@@ -0,0 +1,309 @@
+package top.aixmax.penetrate.benchmark;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import top.aixmax.penetrate.client.NatClient;
+import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.config.ClientConfig;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+import top.aixmax.penetrate.core.transport.DatagramTransport;
+import top.aixmax.penetrate.server.NatServer;
+import top.aixmax.penetrate.server.config.ServerConfig;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 23:40
+ * @description UDP映射单机压测：同一JVM内启动服务端、客户端和本地UDP回显服务，
+ * 多个发送方经远程UDP端口保持固定数量的数据报在途，输出每秒回显的数据报数、往返延迟分位数和丢包数
+ * <p>
+ * 运行：java -cp benchmark/target/benchmarks.jar top.aixmax.penetrate.benchmark.DatagramLoadGenerator --senders=32
+ * <p>
+ * 参数：
+ * <ul>
+ *     <li>--senders=N 并发发送方（即会话）数量</li>
+ *     <li>--window=N 每个发送方的在途数据报数，超过100ms未收到回显时重新补满</li>
+ *     <li>--size=字节 数据报大小，至少8字节</li>
+ *     <li>--duration=秒 测量时长，--warmup=秒 预热时长</li>
+ * </ul>
+ */
+public class DatagramLoadGenerator {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private final Map<String, String> options;
+
+    private final EventLoopGroup group = new NioEventLoopGroup();
+
+    private final Histogram rtt = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+
+    private final LongAdder sent = new LongAdder();
+
+    private final LongAdder received = new LongAdder();
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private volatile boolean running = true;
+
+    private volatile boolean recording = false;
+
+    public DatagramLoadGenerator(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Invalid argument: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            options.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq), eq < 0 ? "true" : arg.substring(eq + 1));
+        }
+        int status = 0;
+        try {
+            new DatagramLoadGenerator(options).run();
+        } catch (Exception e) {
+            e.printStackTrace();
+            status = 1;
+        }
+        // 服务端监听线程常驻，压测结束直接退出
+        System.exit(status);
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(options.getOrDefault(name, String.valueOf(defaultValue)));
+    }
+
+    public void run() throws Exception {
+        int senders = intOption("senders", 32);
+        int window = intOption("window", 16);
+        int size = Math.max(8, intOption("size", 128));
+        int duration = intOption("duration", 20);
+        int warmup = intOption("warmup", 3);
+
+        int echoPort = startEcho();
+        int tunnelPort = freePort();
+        int remotePort = freeDatagramPort();
+        startRelay(tunnelPort, echoPort, remotePort);
+
+        List<Sender> all = new ArrayList<>(senders);
+        for (int i = 0; i < senders; i++) {
+            Sender sender = new Sender(window, size);
+            sender.start(remotePort);
+            all.add(sender);
+        }
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+        rtt.reset();
+        sent.reset();
+        received.reset();
+        recording = true;
+        long start = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+        recording = false;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        running = false;
+
+        System.out.printf("senders=%d window=%d size=%d duration=%ds transport=%s%n", senders, window, size,
+                duration, DatagramTransport.isEpoll() ? "epoll" : "nio");
+        System.out.printf("throughput: %.0f datagrams/s echoed, %.2f MB/s, sent=%d received=%d%n",
+                received.sum() / seconds, received.sum() * size / seconds / (1024 * 1024), sent.sum(), received.sum());
+        if (rtt.getTotalCount() > 0) {
+            System.out.printf("rtt(us) p50=%d p99=%d p999=%d max=%d (n=%d)%n", rtt.getValueAtPercentile(50),
+                    rtt.getValueAtPercentile(99), rtt.getValueAtPercentile(99.9), rtt.getMaxValue(),
+                    rtt.getTotalCount());
+        }
+        for (Counter dropped : registry.find("penetrate.datagrams.dropped").counters()) {
+            System.out.printf("dropped    %-6s %.0f%n", dropped.getId().getTag("role"), dropped.count());
+        }
+        for (Gauge sessions : registry.find("penetrate.datagram.sessions").gauges()) {
+            System.out.printf("sessions   %-6s %.0f%n", sessions.getId().getTag("role"), sessions.value());
+        }
+        for (Sender sender : all) {
+            sender.channel.close();
+        }
+    }
+
+    /**
+     * 启动本地UDP回显服务
+     */
+    private int startEcho() throws InterruptedException {
+        Channel channel = new Bootstrap().group(group)
+                .channel(NioDatagramChannel.class)
+                .handler(new EchoHandler())
+                .bind("127.0.0.1", 0).sync().channel();
+        return ((InetSocketAddress) channel.localAddress()).getPort();
+    }
+
+    private void startRelay(int tunnelPort, int echoPort, int remotePort) throws Exception {
+        ServerConfig serverConfig = new ServerConfig();
+        serverConfig.setEnabled(true);
+        serverConfig.setClientPort(tunnelPort);
+        serverConfig.setAcceptRate(0);
+        serverConfig.setRegisterRate(0);
+        NatServer server = new NatServer(serverConfig, new RelayMetrics(registry, "server"));
+        server.start();
+
+        PortMapping mapping = new PortMapping();
+        mapping.setProtocol("udp");
+        mapping.setLocalHost("127.0.0.1");
+        mapping.setLocalPort(echoPort);
+        mapping.setRemotePort(remotePort);
+
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setEnabled(true);
+        clientConfig.setServerHost("127.0.0.1");
+        clientConfig.setServerPort(tunnelPort);
+        clientConfig.setClientId("udp-load");
+        clientConfig.setPortMappings(Collections.singletonList(mapping));
+        new NatClient(clientConfig, new RelayMetrics(registry, "client")).start();
+        awaitEcho(remotePort);
+    }
+
+    /**
+     * 客户端注册后服务端才会监听远程端口，发送探测数据报直到收到回显
+     */
+    private void awaitEcho(int remotePort) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < deadline) {
+            try (DatagramSocket socket = new DatagramSocket()) {
+                socket.setSoTimeout(200);
+                byte[] probe = new byte[8];
+                socket.send(new java.net.DatagramPacket(probe, probe.length,
+                        new InetSocketAddress("127.0.0.1", remotePort)));
+                socket.receive(new java.net.DatagramPacket(new byte[64], 64));
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Datagram port " + remotePort + " not relaying");
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static int freeDatagramPort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private static final class EchoHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
+            ctx.write(new DatagramPacket(packet.content().retain(), packet.sender()));
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            ctx.flush();
+        }
+    }
+
+    /**
+     * 单个发送方：保持 window 个数据报在途，收到回显后立即补发，数据报开头携带发送时间
+     */
+    private final class Sender extends SimpleChannelInboundHandler<DatagramPacket> {
+
+        private final int window;
+
+        private final int size;
+
+        private Channel channel;
+
+        private volatile long lastReceiveNanos = System.nanoTime();
+
+        Sender(int window, int size) {
+            this.window = window;
+            this.size = size;
+        }
+
+        void start(int remotePort) throws InterruptedException {
+            channel = new Bootstrap().group(group)
+                    .channel(NioDatagramChannel.class)
+                    .handler(this)
+                    .connect("127.0.0.1", remotePort).sync().channel();
+            CountDownLatch primed = new CountDownLatch(1);
+            channel.eventLoop().execute(() -> {
+                sendWindow();
+                primed.countDown();
+            });
+            primed.await();
+            // 丢包后在途数量减少，超时未收到回显时重新补满
+            channel.eventLoop().scheduleAtFixedRate(() -> {
+                if (running && System.nanoTime() - lastReceiveNanos > TimeUnit.MILLISECONDS.toNanos(100)) {
+                    sendWindow();
+                }
+            }, 100, 100, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
+            long now = System.nanoTime();
+            lastReceiveNanos = now;
+            ByteBuf content = packet.content();
+            if (recording && content.readableBytes() >= 8) {
+                received.increment();
+                rtt.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, (now - content.getLong(0)) / 1000));
+            }
+            if (running) {
+                send(ctx.channel());
+            }
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            ctx.flush();
+        }
+
+        private void sendWindow() {
+            for (int i = 0; i < window; i++) {
+                send(channel);
+            }
+            channel.flush();
+        }
+
+        private void send(Channel ch) {
+            ByteBuf buf = ch.alloc().buffer(size);
+            buf.writeLong(System.nanoTime());
+            buf.writeZero(size - 8);
+            ch.write(buf);
+            if (recording) {
+                sent.increment();
+            }
+        }
+    }
+}
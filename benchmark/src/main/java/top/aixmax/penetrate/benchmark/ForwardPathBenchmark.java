@@ -0,0 +1,101 @@
+package top.aixmax.penetrate.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.*;
+import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.client.manager.PortMappingManager;
+import top.aixmax.penetrate.config.ClientConfig;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+import top.aixmax.penetrate.core.metrics.TrafficMeter;
+import top.aixmax.penetrate.core.protocol.FrameCodec;
+import top.aixmax.penetrate.core.protocol.Message;
+import top.aixmax.penetrate.core.protocol.MessageFactory;
+import top.aixmax.penetrate.server.config.ServerConfig;
+import top.aixmax.penetrate.server.manager.ClientManager;
+import top.aixmax.penetrate.server.model.ClientInfo;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 16:05
+ * @description 转发路径：服务端外部数据写入隧道、客户端隧道数据写入本地连接，使用 EmbeddedChannel 排除网络开销
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ForwardPathBenchmark {
+
+    private static final int REMOTE_PORT = 16622;
+
+    @Param({"64", "1024", "16384", "65536"})
+    private int size;
+
+    private ClientManager clientManager;
+
+    private EmbeddedChannel tunnel;
+
+    private EmbeddedChannel external;
+
+    private ByteBuf payload;
+
+    private PortMappingManager portMappingManager;
+
+    private EmbeddedChannel local;
+
+    private Message dataMessage;
+
+    @Setup
+    public void setup() {
+        PortMapping mapping = new PortMapping();
+        mapping.setLocalPort(8080);
+        mapping.setRemotePort(REMOTE_PORT);
+        payload = Unpooled.directBuffer(size).writeZero(size);
+
+        // 服务端：一个已注册客户端和一条外部连接
+        clientManager = new ClientManager(new ServerConfig());
+        tunnel = new EmbeddedChannel();
+        tunnel.attr(FrameCodec.CODEC).set(FrameCodec.V2);
+        ClientInfo info = new ClientInfo("benchmark", tunnel);
+        info.setPortMappings(Collections.singletonList(mapping));
+        clientManager.registerClient(info, tunnel);
+        external = new EmbeddedChannel();
+        clientManager.handleExternalConnect(external, REMOTE_PORT);
+        tunnel.releaseOutbound();
+
+        // 客户端：流1001对应一条本地连接
+        ClientConfig config = new ClientConfig();
+        config.setPortMappings(Collections.singletonList(mapping));
+        portMappingManager = new PortMappingManager(config);
+        local = new EmbeddedChannel();
+        local.attr(TrafficMeter.METER).set(RelayMetrics.NOOP.portMeter(REMOTE_PORT));
+        portMappingManager.addConnection(1001, local);
+        dataMessage = MessageFactory.createDataMessage(new byte[size]).setChannelId(1001);
+    }
+
+    @TearDown
+    public void tearDown() {
+        portMappingManager.destroy();
+        tunnel.finishAndReleaseAll();
+        external.finishAndReleaseAll();
+        payload.release();
+    }
+
+    @Benchmark
+    public boolean serverExternalToTunnel() {
+        clientManager.handleExternalData(external, payload.duplicate(), REMOTE_PORT);
+        return tunnel.releaseOutbound();
+    }
+
+    @Benchmark
+    public boolean clientTunnelToLocal() {
+        portMappingManager.handleIncomingData(dataMessage);
+        return local.releaseOutbound();
+    }
+}
@@ -0,0 +1,68 @@
+package top.aixmax.penetrate.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+import top.aixmax.penetrate.common.enums.MessageType;
+import top.aixmax.penetrate.core.protocol.FrameCodec;
+import top.aixmax.penetrate.core.protocol.Message;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 16:05
+ * @description v1/v2帧编解码，负载从1B到1MB
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrameCodecBenchmark {
+
+    @Param({"1", "2"})
+    private int version;
+
+    @Param({"1", "64", "1024", "16384", "65536", "1048576"})
+    private int size;
+
+    private final ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+
+    private FrameCodec codec;
+
+    private ByteBuf payload;
+
+    private ByteBuf frame;
+
+    @Setup
+    public void setup() {
+        codec = FrameCodec.forVersion(version);
+        payload = Unpooled.wrappedBuffer(new byte[size]);
+        frame = codec.encode(alloc, MessageType.DATA, 123_456, 16622, payload.duplicate(), size);
+    }
+
+    @TearDown
+    public void tearDown() {
+        frame.release();
+    }
+
+    @Benchmark
+    public int encode() {
+        ByteBuf out = codec.encode(alloc, MessageType.DATA, 123_456, 16622, payload.duplicate(), size);
+        int length = out.readableBytes();
+        out.release();
+        return length;
+    }
+
+    @Benchmark
+    public Message decode() {
+        int readerIndex = frame.readerIndex();
+        Message message = codec.decode(frame, Integer.MAX_VALUE);
+        frame.readerIndex(readerIndex);
+        return message;
+    }
+}
@@ -0,0 +1,167 @@
+package top.aixmax.penetrate.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 18:10
+ * @description 网络损伤模拟，放在隧道管道最前端，对写出的数据施加时延、抖动、带宽限制和丢包停顿，并可按随机间隔断线。
+ * <p>
+ * 每次写出计算释放时间且不早于上一次写出，因此不会乱序；丢包表现为整条链路停顿，与TCP重传时的队头阻塞一致。
+ * 延迟中的字节计入用户自定义可写性，超过写水位时通道变为不可写，上层的流控可以感知到慢链路
+ */
+public class ImpairmentHandler extends ChannelDuplexHandler {
+
+    /**
+     * 用户自定义可写性的索引
+     */
+    private static final int WRITABILITY_INDEX = 1;
+
+    private final NetworkImpairment impairment;
+
+    private long nextReleaseNanos;
+
+    private long pendingBytes;
+
+    /**
+     * 等待释放的写出，按释放时间先后排列
+     */
+    private final ArrayDeque<PendingWrite> queue = new ArrayDeque<>();
+
+    private ScheduledFuture<?> disconnect;
+
+    public ImpairmentHandler(NetworkImpairment impairment) {
+        this.impairment = impairment;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        if (ctx.channel().isActive()) {
+            scheduleDisconnect(ctx);
+        }
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        scheduleDisconnect(ctx);
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (disconnect != null) {
+            disconnect.cancel(false);
+        }
+        super.channelInactive(ctx);
+    }
+
+    /**
+     * 按指数分布的间隔断开隧道
+     */
+    private void scheduleDisconnect(ChannelHandlerContext ctx) {
+        long interval = impairment.getDisconnectIntervalSeconds();
+        if (interval <= 0 || disconnect != null) {
+            return;
+        }
+        double u = ThreadLocalRandom.current().nextDouble();
+        long delayMillis = (long) (-Math.log(1 - u) * TimeUnit.SECONDS.toMillis(interval));
+        disconnect = ctx.executor().schedule((Runnable) ctx::close, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long now = System.nanoTime();
+        long delay = TimeUnit.MILLISECONDS.toNanos(impairment.getDelayMillis());
+        if (impairment.getJitterMillis() > 0) {
+            delay += random.nextLong(TimeUnit.MILLISECONDS.toNanos(impairment.getJitterMillis()) + 1);
+        }
+        long release = Math.max(now + delay, nextReleaseNanos);
+
+        int bytes = msg instanceof ByteBuf ? ((ByteBuf) msg).readableBytes() : 0;
+        if (impairment.getBandwidthBytesPerSecond() > 0) {
+            // 串行化时间
+            release += bytes * TimeUnit.SECONDS.toNanos(1) / impairment.getBandwidthBytesPerSecond();
+        }
+        if (impairment.getLossRate() > 0 && random.nextDouble() < impairment.getLossRate()) {
+            release += TimeUnit.MILLISECONDS.toNanos(impairment.getStallMillis());
+        }
+        nextReleaseNanos = release;
+
+        if (queue.isEmpty() && release <= now) {
+            ctx.write(msg, promise);
+            return;
+        }
+        queue.add(new PendingWrite(msg, promise, bytes, release));
+        addPending(ctx, bytes);
+        // 只为队首安排一个定时任务，避免相同释放时间的任务因调度误差乱序
+        if (queue.size() == 1) {
+            ctx.executor().schedule(() -> drain(ctx), release - now, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 写出所有已到释放时间的数据，并为下一个安排定时任务
+     */
+    private void drain(ChannelHandlerContext ctx) {
+        long now = System.nanoTime();
+        boolean written = false;
+        while (!queue.isEmpty() && queue.peek().release <= now) {
+            PendingWrite write = queue.poll();
+            addPending(ctx, -write.bytes);
+            ctx.write(write.msg, write.promise);
+            written = true;
+        }
+        if (written) {
+            ctx.flush();
+        }
+        if (!queue.isEmpty()) {
+            ctx.executor().schedule(() -> drain(ctx), queue.peek().release - now, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 统计延迟中的字节，按通道写水位切换可写性
+     */
+    private void addPending(ChannelHandlerContext ctx, long delta) {
+        pendingBytes += delta;
+        ChannelOutboundBuffer buffer = ctx.channel().unsafe().outboundBuffer();
+        if (buffer == null) {
+            return;
+        }
+        WriteBufferWaterMark waterMark = ctx.channel().config().getWriteBufferWaterMark();
+        if (pendingBytes > waterMark.high()) {
+            buffer.setUserDefinedWritability(WRITABILITY_INDEX, false);
+        } else if (pendingBytes < waterMark.low()) {
+            buffer.setUserDefinedWritability(WRITABILITY_INDEX, true);
+        }
+    }
+
+    private static final class PendingWrite {
+
+        private final Object msg;
+
+        private final ChannelPromise promise;
+
+        private final int bytes;
+
+        private final long release;
+
+        PendingWrite(Object msg, ChannelPromise promise, int bytes, long release) {
+            this.msg = msg;
+            this.promise = promise;
+            this.bytes = bytes;
+            this.release = release;
+        }
+    }
+}
@@ -0,0 +1,604 @@
+package top.aixmax.penetrate.benchmark;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import top.aixmax.penetrate.client.NatClient;
+import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.config.ClientConfig;
+import top.aixmax.penetrate.core.flow.BackpressureMode;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+import top.aixmax.penetrate.core.tls.TlsProvider;
+import top.aixmax.penetrate.server.NatServer;
+import top.aixmax.penetrate.server.config.ServerConfig;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 17:20
+ * @description 单机端到端压测：同一JVM内启动服务端、客户端和本地回显服务，通过映射的远程端口发起并发外部连接，
+ * 输出吞吐、建连速率以及往返延迟分位数
+ * <p>
+ * 运行：mvn -B -f benchmark/pom.xml compile exec:java -Dexec.args="--profile=mixed --connections=200 --duration=30"
+ * <p>
+ * 参数：
+ * <ul>
+ *     <li>--profile=interactive|bulk|mixed 交互型为单个小包往返，批量型为多个大块流水线发送，混合型按比例分配</li>
+ *     <li>--connections=N 并发外部连接数</li>
+ *     <li>--clients=N 注册到同一远程端口的客户端数</li>
+ *     <li>--duration=秒 测量时长，--warmup=秒 预热时长</li>
+ *     <li>--message-size=字节 交互型消息大小，--chunk-size=字节 批量型块大小，--window=N 批量型在途块数</li>
+ *     <li>--bulk-ratio=0~1 混合型中批量连接的比例</li>
+ *     <li>--trace-sample-rate=0~1 流延迟追踪采样比例，结束时输出各阶段耗时</li>
+ *     <li>--client-quota-kb=N 服务端每个客户端的缓冲内存额度，结束时输出缓冲和暂停情况</li>
+ *     <li>--backpressure=local|none 两端的背压模式，结束时输出各原因的读取暂停次数和时长</li>
+ *     <li>--compression=snappy|zlib 映射的负载压缩，--payload=zero|text|random 负载内容，结束时输出压缩率和耗时</li>
+ *     <li>--tls=jdk|openssl 隧道启用TLS（自签名证书）并指定实现，结束时输出握手次数和耗时</li>
+ *     <li>网络损伤参数见 {@link NetworkImpairment#parse(Map)}，两端隧道各自施加，往返时延为单向的两倍</li>
+ *     <li>--session-resume=false 客户端关闭会话恢复，与断线模拟配合对比失败连接数，结束时输出恢复次数和重放字节数</li>
+ *     <li>--cluster-nodes=N 启动N个集群节点，客户端只连接第一个节点，外部连接轮流发往各节点，其余节点经节点间链路转发</li>
+ * </ul>
+ * 外部连接断开后会在100ms后重新建立，断线次数计入失败连接数
+ */
+public class LoopbackLoadGenerator {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private static final CountDownLatch ESTABLISHED = new CountDownLatch(0);
+
+    private final Map<String, String> options;
+
+    private final EventLoopGroup group = new NioEventLoopGroup();
+
+    private final Histogram setupLatency = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+
+    private final Histogram interactiveRtt = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+
+    private final Histogram bulkRtt = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+
+    private final LongAdder bytesIn = new LongAdder();
+
+    private final LongAdder messages = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+
+    private ByteBuf interactivePayload;
+
+    private ByteBuf bulkPayload;
+
+    private int window;
+
+    private int remotePort;
+
+    /**
+     * 外部连接的目标端口，集群时为各节点映射后的远程端口
+     */
+    private int[] entryPorts;
+
+    private final AtomicInteger nextEntry = new AtomicInteger();
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private volatile boolean running = true;
+
+    private volatile boolean recording = false;
+
+    public LoopbackLoadGenerator(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Invalid argument: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            options.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq), eq < 0 ? "true" : arg.substring(eq + 1));
+        }
+        int status = 0;
+        try {
+            new LoopbackLoadGenerator(options).run();
+        } catch (Exception e) {
+            e.printStackTrace();
+            status = 1;
+        }
+        // 服务端监听线程常驻，压测结束直接退出
+        System.exit(status);
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(option(name, String.valueOf(defaultValue)));
+    }
+
+    public void run() throws Exception {
+        String profile = option("profile", "interactive");
+        int connections = intOption("connections", 100);
+        int clients = intOption("clients", 1);
+        int duration = intOption("duration", 30);
+        int warmup = intOption("warmup", 5);
+        int messageSize = intOption("message-size", 64);
+        int chunkSize = intOption("chunk-size", 32 * 1024);
+        window = intOption("window", 8);
+        double bulkRatio = Double.parseDouble(option("bulk-ratio", "0.2"));
+
+        int bulkConnections;
+        switch (profile) {
+            case "interactive": {
+                bulkConnections = 0;
+                break;
+            }
+            case "bulk": {
+                bulkConnections = connections;
+                break;
+            }
+            case "mixed": {
+                bulkConnections = (int) Math.round(connections * bulkRatio);
+                break;
+            }
+            default: throw new IllegalArgumentException("Unknown profile: " + profile);
+        }
+
+        int echoPort = startEcho();
+        int tunnelPort = freePort();
+        remotePort = freePort();
+        NetworkImpairment impairment = NetworkImpairment.parse(options);
+        startRelay(clients, tunnelPort, echoPort, impairment);
+
+        String payload = option("payload", "zero");
+        interactivePayload = payload(payload, messageSize);
+        bulkPayload = payload(payload, chunkSize);
+
+        // 全部连接同时发起，以最后一个连接收到首个回显的时间计算建连速率
+        CountDownLatch established = new CountDownLatch(connections);
+        long setupStart = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            connect(i < bulkConnections, established);
+        }
+        if (!established.await(60, TimeUnit.SECONDS)) {
+            throw new IllegalStateException((established.getCount()) + " connections not established");
+        }
+        double setupSeconds = (System.nanoTime() - setupStart) / 1e9;
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+        interactiveRtt.reset();
+        bulkRtt.reset();
+        recording = true;
+        long start = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+        recording = false;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        running = false;
+
+        System.out.printf("profile=%s connections=%d (bulk %d) clients=%d duration=%ds%n",
+                profile, connections, bulkConnections, clients, duration);
+        if (impairment != null) {
+            System.out.printf("impairment: %s%n", impairment);
+        }
+        System.out.printf("setup:      %d connections in %.0f ms, %.1f conn/s, p50=%.2f ms p99=%.2f ms%n",
+                connections, setupSeconds * 1000, connections / setupSeconds,
+                setupLatency.getValueAtPercentile(50) / 1000.0, setupLatency.getValueAtPercentile(99) / 1000.0);
+        System.out.printf("throughput: %.2f MB/s echoed, %.0f round trips/s, %d failed connections%n",
+                bytesIn.sum() / seconds / (1024 * 1024), messages.sum() / seconds, failures.sum());
+        printRtt("interactive", interactiveRtt);
+        printRtt("bulk", bulkRtt);
+        for (Timer stage : registry.find("penetrate.stream.stage").timers()) {
+            if (stage.count() > 0) {
+                System.out.printf("stage(us) %-16s mean=%.0f max=%.0f (n=%d)%n", stage.getId().getTag("stage"),
+                        stage.mean(TimeUnit.MICROSECONDS), stage.max(TimeUnit.MICROSECONDS), stage.count());
+            }
+        }
+        for (Gauge gauge : registry.find("penetrate.client.buffered").gauges()) {
+            System.out.printf("buffered   %-12s %.0f KB%n", gauge.getId().getTag("client"), gauge.value() / 1024);
+        }
+        Gauge paused = registry.find("penetrate.memory.paused.sources").gauge();
+        if (paused != null) {
+            System.out.printf("memory:     %.0f sources paused at end%n", paused.value());
+        }
+        for (Timer pause : registry.find("penetrate.read.pause").timers()) {
+            if (pause.count() > 0) {
+                System.out.printf("pause(ms) %-6s %-12s count=%d total=%.0f max=%.1f%n", pause.getId().getTag("role"),
+                        pause.getId().getTag("reason"), pause.count(), pause.totalTime(TimeUnit.MILLISECONDS),
+                        pause.max(TimeUnit.MILLISECONDS));
+            }
+        }
+        for (FunctionCounter input : registry.find("penetrate.compression.bytes").tag("stage", "input")
+                .functionCounters()) {
+            Meter.Id id = input.getId();
+            List<Tag> tags = new ArrayList<>();
+            for (Tag tag : id.getTags()) {
+                if (!"stage".equals(tag.getKey())) {
+                    tags.add(tag);
+                }
+            }
+            FunctionCounter output = registry.find("penetrate.compression.bytes").tags(tags)
+                    .tag("stage", "output").functionCounter();
+            FunctionTimer time = registry.find("penetrate.compression.time").tags(tags).functionTimer();
+            if (input.count() > 0 && output != null && time != null) {
+                System.out.printf("compress  %-6s %-6s ratio=%.3f cpu=%.0f ns/KB (%.0f MB in)%n", id.getTag("role"),
+                        id.getTag("codec"), output.count() / input.count(),
+                        time.totalTime(TimeUnit.NANOSECONDS) * 1024 / input.count(), input.count() / (1024 * 1024));
+            }
+        }
+        Timer decompression = registry.find("penetrate.decompression.time").tag("role", "server").timer();
+        if (decompression != null && decompression.count() > 0) {
+            System.out.printf("decompress(us) server mean=%.1f (n=%d)%n",
+                    decompression.mean(TimeUnit.MICROSECONDS), decompression.count());
+        }
+        for (Counter resume : registry.find("penetrate.session.resume").counters()) {
+            Counter replayed = registry.find("penetrate.replay.bytes").tag("role", resume.getId().getTag("role"))
+                    .counter();
+            System.out.printf("resume    %-6s %-8s count=%.0f (replayed %.0f KB)%n", resume.getId().getTag("role"),
+                    resume.getId().getTag("result"), resume.count(), replayed == null ? 0 : replayed.count() / 1024);
+        }
+        for (Timer handshake : registry.find("penetrate.tls.handshake").timers()) {
+            if (handshake.count() > 0) {
+                System.out.printf("tls(ms)   %-6s %-12s count=%d mean=%.1f max=%.1f%n",
+                        handshake.getId().getTag("role"), handshake.getId().getTag("result"), handshake.count(),
+                        handshake.mean(TimeUnit.MILLISECONDS), handshake.max(TimeUnit.MILLISECONDS));
+            }
+        }
+        channels.close();
+    }
+
+    /**
+     * 负载内容：zero 全零，text 类似JSON接口返回的文本，random 随机字节（不可压缩）
+     */
+    private static ByteBuf payload(String kind, int size) {
+        ByteBuf buf = Unpooled.directBuffer(size);
+        Random random = new Random(size);
+        switch (kind) {
+            case "zero": {
+                buf.writeZero(size);
+                break;
+            }
+            case "text": {
+                StringBuilder text = new StringBuilder(size + 128);
+                for (int i = 0; text.length() < size; i++) {
+                    text.append("{\"id\":").append(random.nextInt(100000))
+                            .append(",\"name\":\"user-").append(i)
+                            .append("\",\"status\":\"").append(random.nextBoolean() ? "active" : "disabled")
+                            .append("\",\"score\":").append(random.nextInt(1000) / 10.0).append("},\n");
+                }
+                buf.writeBytes(text.substring(0, size).getBytes(StandardCharsets.US_ASCII));
+                break;
+            }
+            case "random": {
+                byte[] bytes = new byte[size];
+                random.nextBytes(bytes);
+                buf.writeBytes(bytes);
+                break;
+            }
+            default: throw new IllegalArgumentException("Unknown payload: " + kind);
+        }
+        return Unpooled.unreleasableBuffer(buf);
+    }
+
+    /**
+     * 发起一条外部连接
+     */
+    private void connect(boolean bulk, CountDownLatch established) {
+        LoadConnection handler = bulk
+                ? new LoadConnection(bulk, bulkPayload, window, bulkRtt, established)
+                : new LoadConnection(bulk, interactivePayload, 1, interactiveRtt, established);
+        ChannelFuture future = new Bootstrap().group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(handler)
+                .connect("127.0.0.1", entryPorts[Math.floorMod(nextEntry.getAndIncrement(), entryPorts.length)]);
+        channels.add(future.channel());
+    }
+
+    private static void printRtt(String name, Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            return;
+        }
+        System.out.printf("rtt(us) %-12s p50=%d p99=%d p999=%d max=%d (n=%d)%n", name,
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(99),
+                histogram.getValueAtPercentile(99.9), histogram.getMaxValue(), histogram.getTotalCount());
+    }
+
+    /**
+     * 启动本地回显服务
+     */
+    private int startEcho() throws InterruptedException {
+        Channel channel = new ServerBootstrap().group(group)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new EchoHandler())
+                .bind("127.0.0.1", 0).sync().channel();
+        return ((InetSocketAddress) channel.localAddress()).getPort();
+    }
+
+    /**
+     * 启动服务端和客户端，等待远程端口开始监听
+     */
+    private void startRelay(int clients, int tunnelPort, int echoPort, NetworkImpairment impairment)
+            throws Exception {
+        ServerConfig serverConfig = new ServerConfig();
+        serverConfig.setEnabled(true);
+        serverConfig.setClientPort(tunnelPort);
+        // 压测时不限制注册速率
+        serverConfig.setAcceptRate(0);
+        serverConfig.setRegisterRate(0);
+        serverConfig.setStreamTraceSampleRate(Double.parseDouble(option("trace-sample-rate", "0")));
+        if (options.containsKey("client-quota-kb")) {
+            serverConfig.setClientMemoryQuota(Long.parseLong(option("client-quota-kb", "0")) * 1024);
+        }
+        BackpressureMode backpressure = BackpressureMode.valueOf(option("backpressure", "local").toUpperCase());
+        serverConfig.setBackpressureMode(backpressure);
+        TlsProvider tls = options.containsKey("tls") ? TlsProvider.valueOf(option("tls", "jdk").toUpperCase()) : null;
+        SelfSignedCertificate certificate = null;
+        if (tls != null) {
+            certificate = new SelfSignedCertificate("localhost");
+            serverConfig.setEnableSsl(true);
+            serverConfig.setCertPath(certificate.certificate().getPath());
+            serverConfig.setKeyPath(certificate.privateKey().getPath());
+            serverConfig.setSslProvider(tls);
+        }
+        // 其余节点的客户端端口和远程端口，各节点以端口偏移区分同一映射
+        int nodes = intOption("cluster-nodes", 1);
+        int[] nodePorts = new int[nodes];
+        entryPorts = new int[nodes];
+        nodePorts[0] = tunnelPort;
+        entryPorts[0] = remotePort;
+        for (int i = 1; i < nodes; i++) {
+            nodePorts[i] = freePort();
+            entryPorts[i] = freePort();
+        }
+        if (nodes > 1) {
+            serverConfig.setClusterNodeId("node-0");
+            serverConfig.setClusterPeers(peers(nodePorts, 0));
+        }
+        NatServer server = new NatServer(serverConfig, new RelayMetrics(registry, "server"));
+        if (impairment != null) {
+            // 断线只由客户端一侧触发
+            NetworkImpairment serverSide = impairment.withoutDisconnects();
+            server.setPipelineCustomizer(pipeline -> pipeline.addLast(new ImpairmentHandler(serverSide)));
+        }
+        server.start();
+        awaitListening(tunnelPort);
+
+        for (int i = 0; i < clients; i++) {
+            PortMapping mapping = new PortMapping();
+            mapping.setLocalHost("127.0.0.1");
+            mapping.setLocalPort(echoPort);
+            mapping.setRemotePort(remotePort);
+            mapping.setCompression(option("compression", "none"));
+
+            ClientConfig clientConfig = new ClientConfig();
+            clientConfig.setEnabled(true);
+            clientConfig.setServerHost("127.0.0.1");
+            clientConfig.setServerPort(tunnelPort);
+            clientConfig.setClientId("load-" + i);
+            clientConfig.setSort(i);
+            clientConfig.setPortMappings(Collections.singletonList(mapping));
+            // 模拟断线时尽快重连
+            clientConfig.setRetryInterval(1);
+            clientConfig.setMaxRetryInterval(2);
+            clientConfig.setBackpressureMode(backpressure);
+            clientConfig.setSessionResume(Boolean.parseBoolean(option("session-resume", "true")));
+            if (certificate != null) {
+                clientConfig.setEnableSsl(true);
+                clientConfig.setTrustCertPath(certificate.certificate().getPath());
+                clientConfig.setVerifyHostname(false);
+                clientConfig.setSslProvider(tls);
+            }
+            NatClient client = new NatClient(clientConfig, new RelayMetrics(registry, "client"));
+            if (impairment != null) {
+                client.setPipelineCustomizer(pipeline -> pipeline.addLast(new ImpairmentHandler(impairment)));
+            }
+            client.start();
+        }
+        // 客户端注册成功后服务端才会监听远程端口
+        awaitListening(remotePort);
+
+        for (int i = 1; i < nodes; i++) {
+            ServerConfig nodeConfig = new ServerConfig();
+            nodeConfig.setEnabled(true);
+            nodeConfig.setClientPort(nodePorts[i]);
+            nodeConfig.setAcceptRate(0);
+            nodeConfig.setRegisterRate(0);
+            nodeConfig.setBackpressureMode(backpressure);
+            nodeConfig.setClusterNodeId("node-" + i);
+            nodeConfig.setClusterPeers(peers(nodePorts, i));
+            nodeConfig.setExternalPortOffset(entryPorts[i] - remotePort);
+            if (certificate != null) {
+                nodeConfig.setEnableSsl(true);
+                nodeConfig.setCertPath(certificate.certificate().getPath());
+                nodeConfig.setKeyPath(certificate.privateKey().getPath());
+                nodeConfig.setSslProvider(tls);
+            }
+            new NatServer(nodeConfig, new RelayMetrics(registry, "server")).start();
+        }
+        // 第一个节点注册到其余节点后才会监听
+        for (int i = 1; i < nodes; i++) {
+            awaitListening(entryPorts[i]);
+        }
+    }
+
+    private static List<String> peers(int[] nodePorts, int self) {
+        List<String> peers = new ArrayList<>();
+        for (int i = 0; i < nodePorts.length; i++) {
+            if (i != self) {
+                peers.add("127.0.0.1:" + nodePorts[i]);
+            }
+        }
+        return peers;
+    }
+
+    private static void awaitListening(int port) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < deadline) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", port), 200);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Port " + port + " not listening");
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private static final class EchoHandler extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ctx.write(msg);
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            ctx.flush();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+    }
+
+    /**
+     * 单个外部连接：保持 window 个数据块在途，每收满一块回显记录一次往返延迟
+     */
+    private final class LoadConnection extends ChannelInboundHandlerAdapter {
+
+        private final ByteBuf payload;
+
+        private final int chunkSize;
+
+        private final int window;
+
+        private final Histogram rtt;
+
+        private final boolean bulk;
+
+        private final CountDownLatch established;
+
+        private final ArrayDeque<Long> inFlight = new ArrayDeque<>();
+
+        private final long connectStart = System.nanoTime();
+
+        private long received;
+
+        private boolean first = true;
+
+        LoadConnection(boolean bulk, ByteBuf payload, int window, Histogram rtt, CountDownLatch established) {
+            this.bulk = bulk;
+            this.payload = payload;
+            this.chunkSize = payload.readableBytes();
+            this.window = window;
+            this.rtt = rtt;
+            this.established = established;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            sendMore(ctx);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ByteBuf buf = (ByteBuf) msg;
+            int length = buf.readableBytes();
+            buf.release();
+            long now = System.nanoTime();
+            if (first) {
+                first = false;
+                setupLatency.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, (now - connectStart) / 1000));
+                established.countDown();
+            }
+            received += length;
+            if (recording) {
+                bytesIn.add(length);
+            }
+            while (received >= chunkSize && !inFlight.isEmpty()) {
+                received -= chunkSize;
+                long sentAt = inFlight.poll();
+                if (recording) {
+                    rtt.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, (now - sentAt) / 1000));
+                    messages.increment();
+                }
+            }
+            sendMore(ctx);
+        }
+
+        private void sendMore(ChannelHandlerContext ctx) {
+            if (!running) {
+                return;
+            }
+            while (inFlight.size() < window) {
+                inFlight.add(System.nanoTime());
+                ctx.write(payload.duplicate());
+            }
+            ctx.flush();
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            if (first) {
+                first = false;
+                established.countDown();
+            }
+            if (running) {
+                failures.increment();
+                // 经隧道断线后重新建立，保持并发连接数
+                ctx.executor().schedule(() -> connect(bulk, ESTABLISHED), 100, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package top.aixmax.penetrate.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.*;
+import top.aixmax.penetrate.core.protocol.FrameCodec;
+import top.aixmax.penetrate.core.protocol.Message;
+import top.aixmax.penetrate.core.protocol.MessageFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 16:05
+ * @description Message.getBytes 与池化v1编码对比
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageBytesBenchmark {
+
+    @Param({"1", "64", "1024", "16384", "65536", "1048576"})
+    private int size;
+
+    private Message message;
+
+    @Setup
+    public void setup() {
+        message = MessageFactory.createDataMessage(new byte[size])
+                .setChannelId(123_456)
+                .setExternalPort(16622);
+    }
+
+    @Benchmark
+    public byte[] getBytes() {
+        return message.getBytes();
+    }
+
+    @Benchmark
+    public int encodePooled() {
+        ByteBuf out = FrameCodec.V1.encode(PooledByteBufAllocator.DEFAULT, message);
+        int length = out.readableBytes();
+        out.release();
+        return length;
+    }
+}
@@ -0,0 +1,114 @@
+package top.aixmax.penetrate.benchmark;
+
+import java.util.Map;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 18:10
+ * @description 模拟的广域网链路参数，作用于单个方向
+ */
+public class NetworkImpairment {
+
+    /**
+     * 单向固定时延（毫秒）
+     */
+    private final long delayMillis;
+
+    /**
+     * 单向时延抖动上限（毫秒），在 [0, jitter] 内均匀分布
+     */
+    private final long jitterMillis;
+
+    /**
+     * 带宽上限（字节/秒），小于等于0表示不限制
+     */
+    private final long bandwidthBytesPerSecond;
+
+    /**
+     * 丢包率，按TCP重传的行为模拟为链路停顿，不乱序
+     */
+    private final double lossRate;
+
+    /**
+     * 每次丢包造成的停顿（毫秒），近似一次重传超时
+     */
+    private final long stallMillis;
+
+    /**
+     * 平均断线间隔（秒），小于等于0表示不断线
+     */
+    private final long disconnectIntervalSeconds;
+
+    public NetworkImpairment(long delayMillis, long jitterMillis, long bandwidthBytesPerSecond,
+                             double lossRate, long stallMillis, long disconnectIntervalSeconds) {
+        this.delayMillis = delayMillis;
+        this.jitterMillis = jitterMillis;
+        this.bandwidthBytesPerSecond = bandwidthBytesPerSecond;
+        this.lossRate = lossRate;
+        this.stallMillis = stallMillis;
+        this.disconnectIntervalSeconds = disconnectIntervalSeconds;
+    }
+
+    /**
+     * 从压测参数解析，未指定任何损伤参数时返回null
+     * <ul>
+     *     <li>--delay-ms、--jitter-ms 单向时延与抖动</li>
+     *     <li>--bandwidth-kbps 单向带宽上限</li>
+     *     <li>--loss 丢包率（0~1），--stall-ms 每次丢包的停顿，默认200ms</li>
+     *     <li>--disconnect-every-s 客户端隧道平均断线间隔</li>
+     * </ul>
+     */
+    public static NetworkImpairment parse(Map<String, String> options) {
+        if (!options.containsKey("delay-ms") && !options.containsKey("jitter-ms")
+                && !options.containsKey("bandwidth-kbps") && !options.containsKey("loss")
+                && !options.containsKey("disconnect-every-s")) {
+            return null;
+        }
+        return new NetworkImpairment(
+                Long.parseLong(options.getOrDefault("delay-ms", "0")),
+                Long.parseLong(options.getOrDefault("jitter-ms", "0")),
+                Long.parseLong(options.getOrDefault("bandwidth-kbps", "0")) * 1000 / 8,
+                Double.parseDouble(options.getOrDefault("loss", "0")),
+                Long.parseLong(options.getOrDefault("stall-ms", "200")),
+                Long.parseLong(options.getOrDefault("disconnect-every-s", "0")));
+    }
+
+    /**
+     * 同样的链路参数但不主动断线，用于只需一端触发断线的场景
+     */
+    public NetworkImpairment withoutDisconnects() {
+        return new NetworkImpairment(delayMillis, jitterMillis, bandwidthBytesPerSecond, lossRate, stallMillis, 0);
+    }
+
+    public long getDelayMillis() {
+        return delayMillis;
+    }
+
+    public long getJitterMillis() {
+        return jitterMillis;
+    }
+
+    public long getBandwidthBytesPerSecond() {
+        return bandwidthBytesPerSecond;
+    }
+
+    public double getLossRate() {
+        return lossRate;
+    }
+
+    public long getStallMillis() {
+        return stallMillis;
+    }
+
+    public long getDisconnectIntervalSeconds() {
+        return disconnectIntervalSeconds;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("delay=%dms jitter=%dms bandwidth=%s loss=%.3f stall=%dms disconnect-every=%s",
+                delayMillis, jitterMillis,
+                bandwidthBytesPerSecond > 0 ? bandwidthBytesPerSecond * 8 / 1000 + "kbps" : "unlimited",
+                lossRate, stallMillis, disconnectIntervalSeconds > 0 ? disconnectIntervalSeconds + "s" : "never");
+    }
+}
@@ -0,0 +1,79 @@
+package top.aixmax.penetrate.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.client.manager.PortMappingManager;
+import top.aixmax.penetrate.config.ClientConfig;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/19 18:20
+ * @description 按远程端口查找映射，端口段展开为1/1k/10k个端口后随机访问，对照原来按端口装箱的哈希表
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PortLookupBenchmark {
+
+    private static final int FIRST_PORT = 30000;
+
+    @Param({"1", "1000", "10000"})
+    private int ports;
+
+    private PortMappingManager manager;
+
+    private Map<Integer, PortMapping> hashTable;
+
+    private int[] lookups;
+
+    @Setup
+    public void setup() {
+        PortMapping range = new PortMapping();
+        range.setRemotePort(FIRST_PORT);
+        range.setLocalPort(FIRST_PORT);
+        range.setPortCount(ports);
+        ClientConfig config = new ClientConfig();
+        config.setPortMappings(Collections.singletonList(range));
+        manager = new PortMappingManager(config);
+
+        hashTable = new ConcurrentHashMap<>();
+        for (PortMapping mapping : range.expand()) {
+            hashTable.put(mapping.getRemotePort(), mapping);
+        }
+        Random random = new Random(42);
+        lookups = new int[4096];
+        for (int i = 0; i < lookups.length; i++) {
+            lookups[i] = FIRST_PORT + random.nextInt(ports);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int index;
+    }
+
+    @Benchmark
+    public PortMapping flatArray(Cursor cursor) {
+        return manager.getMapping(next(cursor));
+    }
+
+    @Benchmark
+    public PortMapping hashMap(Cursor cursor) {
+        return hashTable.get(next(cursor));
+    }
+
+    private int next(Cursor cursor) {
+        int port = lookups[cursor.index];
+        cursor.index = (cursor.index + 1) & (lookups.length - 1);
+        return port;
+    }
+}
@@ -0,0 +1,80 @@
+package top.aixmax.penetrate.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.*;
+import top.aixmax.penetrate.common.constants.ProtocolConstants;
+import top.aixmax.penetrate.core.handler.AbstractMessageHandler;
+import top.aixmax.penetrate.core.protocol.DataFrameWriter;
+import top.aixmax.penetrate.core.protocol.FrameCodec;
+import top.aixmax.penetrate.core.protocol.Message;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 16:05
+ * @description AbstractMessageHandler.channelRead0 在任意切分的读缓冲上重组分片帧，单位为完整负载/秒
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReassemblyBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    private int size;
+
+    /**
+     * 每次读到的字节数，模拟MSS和大读缓冲
+     */
+    @Param({"1460", "16384", "65536"})
+    private int readSize;
+
+    private ByteBuf wire;
+
+    private EmbeddedChannel receiver;
+
+    private long received;
+
+    @Setup
+    public void setup() {
+        EmbeddedChannel sender = new EmbeddedChannel();
+        sender.attr(FrameCodec.CODEC).set(FrameCodec.V2);
+        DataFrameWriter.writeData(sender, 1001, 16622, Unpooled.wrappedBuffer(new byte[size]),
+                ProtocolConstants.DEFAULT_MAX_FRAME_PAYLOAD);
+        wire = Unpooled.directBuffer();
+        for (ByteBuf frame; (frame = sender.readOutbound()) != null; ) {
+            wire.writeBytes(frame);
+            frame.release();
+        }
+        sender.finishAndReleaseAll();
+
+        receiver = new EmbeddedChannel(new AbstractMessageHandler(ProtocolConstants.MAX_FRAME_LENGTH) {
+            @Override
+            protected void handleData(ChannelHandlerContext ctx, Message msg) {
+                received += msg.getData().length;
+            }
+        });
+        receiver.attr(FrameCodec.CODEC).set(FrameCodec.V2);
+    }
+
+    @TearDown
+    public void tearDown() {
+        receiver.finishAndReleaseAll();
+        wire.release();
+    }
+
+    @Benchmark
+    public long reassemble() {
+        int length = wire.readableBytes();
+        for (int offset = 0; offset < length; offset += readSize) {
+            receiver.writeInbound(wire.retainedSlice(offset, Math.min(readSize, length - offset)));
+        }
+        return received;
+    }
+}
@@ -0,0 +1,63 @@
+package top.aixmax.penetrate.benchmark;
+
+import com.alibaba.fastjson.JSON;
+import org.openjdk.jmh.annotations.*;
+import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.common.constants.ProtocolConstants;
+import top.aixmax.penetrate.core.protocol.RegisterCodec;
+import top.aixmax.penetrate.server.model.ClientInfo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 16:05
+ * @description 注册握手：JSON与二进制格式，客户端编码 + 服务端解码，单位 registrations/sec
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegisterCodecBenchmark {
+
+    @Param({"1", "8", "64"})
+    private int mappingCount;
+
+    private List<PortMapping> mappings;
+
+    private int sequence;
+
+    @Setup
+    public void setup() {
+        mappings = new ArrayList<>(mappingCount);
+        for (int i = 0; i < mappingCount; i++) {
+            PortMapping mapping = new PortMapping();
+            mapping.setLocalPort(20 + i);
+            mapping.setRemotePort(16000 + i);
+            mappings.add(mapping);
+        }
+    }
+
+    @Benchmark
+    public ClientInfo json() {
+        int i = sequence++;
+        ClientInfo ci = new ClientInfo("client-" + i, null);
+        ci.setSort(i);
+        ci.setVersion(String.valueOf(ProtocolConstants.VERSION));
+        ci.setPortMappings(mappings);
+        byte[] register = JSON.toJSONString(ci).getBytes(StandardCharsets.UTF_8);
+        return JSON.parseObject(new String(register, StandardCharsets.UTF_8), ClientInfo.class);
+    }
+
+    @Benchmark
+    public ClientInfo binary() {
+        int i = sequence++;
+        byte[] register = RegisterCodec.encode("client-" + i, ProtocolConstants.VERSION, i, mappings);
+        return RegisterCodec.decode(register);
+    }
+}
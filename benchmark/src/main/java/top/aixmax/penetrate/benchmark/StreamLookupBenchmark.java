@@ -0,0 +1,76 @@
+package top.aixmax.penetrate.benchmark;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.*;
+import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.server.config.ServerConfig;
+import top.aixmax.penetrate.server.manager.ClientManager;
+import top.aixmax.penetrate.server.model.ClientInfo;
+import top.aixmax.penetrate.server.model.StreamInfo;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 16:05
+ * @description 按流ID查找外部连接，分别在1k/10k/100k个打开的流上随机访问
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamLookupBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int streams;
+
+    private ClientManager clientManager;
+
+    private int[] ids;
+
+    @Setup
+    public void setup() {
+        clientManager = new ClientManager(new ServerConfig());
+        EmbeddedChannel tunnel = new EmbeddedChannel();
+        PortMapping mapping = new PortMapping();
+        mapping.setLocalPort(8080);
+        mapping.setRemotePort(16622);
+        ClientInfo info = new ClientInfo("benchmark", tunnel);
+        info.setPortMappings(Collections.singletonList(mapping));
+        clientManager.registerClient(info, tunnel);
+
+        ids = new int[streams];
+        for (int i = 0; i < streams; i++) {
+            EmbeddedChannel external = new EmbeddedChannel();
+            clientManager.handleExternalConnect(external, 16622);
+            ids[i] = external.attr(StreamInfo.STREAM).get().getStreamId();
+            tunnel.releaseOutbound();
+        }
+        // 打乱顺序，避免顺序访问掩盖缓存未命中
+        Random random = new Random(42);
+        for (int i = ids.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = ids[i];
+            ids[i] = ids[j];
+            ids[j] = tmp;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int index;
+    }
+
+    @Benchmark
+    public StreamInfo lookup(Cursor cursor) {
+        int i = cursor.index++;
+        if (cursor.index == ids.length) {
+            cursor.index = 0;
+        }
+        return clientManager.getStream(ids[i]);
+    }
+}
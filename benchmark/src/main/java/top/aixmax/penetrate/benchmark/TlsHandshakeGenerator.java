@@ -0,0 +1,239 @@
+package top.aixmax.penetrate.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.util.ReferenceCountUtil;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+import top.aixmax.penetrate.core.tls.TlsProvider;
+import top.aixmax.penetrate.core.tls.TunnelSsl;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/19 00:40
+ * @description 隧道TLS握手压测：同一JVM内用 {@link TunnelSsl} 构建服务端和客户端上下文，
+ * 多个连接循环执行“建连-握手-断开”，分别测量完整握手和会话复用握手的速率与延迟，按实现（JDK/OpenSSL）对比
+ * <p>
+ * 运行：java -cp benchmark/target/benchmarks.jar top.aixmax.penetrate.benchmark.TlsHandshakeGenerator --providers=jdk,openssl
+ * <p>
+ * 参数：
+ * <ul>
+ *     <li>--providers=jdk,openssl 依次测量的实现</li>
+ *     <li>--concurrency=N 并发连接数</li>
+ *     <li>--duration=秒 每种组合的测量时长，--warmup=秒 预热时长</li>
+ * </ul>
+ * 批量吞吐见 {@link LoopbackLoadGenerator} 的 --tls 参数
+ */
+public class TlsHandshakeGenerator {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.SECONDS.toMicros(10);
+
+    private final Map<String, String> options;
+
+    private final EventLoopGroup group = new NioEventLoopGroup();
+
+    public TlsHandshakeGenerator(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Invalid argument: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            options.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq), eq < 0 ? "true" : arg.substring(eq + 1));
+        }
+        int status = 0;
+        try {
+            new TlsHandshakeGenerator(options).run();
+        } catch (Exception e) {
+            e.printStackTrace();
+            status = 1;
+        }
+        System.exit(status);
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(options.getOrDefault(name, String.valueOf(defaultValue)));
+    }
+
+    public void run() throws Exception {
+        int concurrency = intOption("concurrency", 8);
+        int duration = intOption("duration", 10);
+        int warmup = intOption("warmup", 3);
+        SelfSignedCertificate certificate = new SelfSignedCertificate("localhost");
+
+        System.out.printf("concurrency=%d duration=%ds%n", concurrency, duration);
+        for (String name : options.getOrDefault("providers", "jdk,openssl").split(",")) {
+            TlsProvider provider = TlsProvider.valueOf(name.trim().toUpperCase());
+            SslContext server = TunnelSsl.forServer(certificate.certificate().getPath(),
+                    certificate.privateKey().getPath(), null, provider, 20480, 3600);
+            SslContext client = TunnelSsl.forClient(certificate.certificate().getPath(), provider, 64, 3600);
+            Channel listener = startServer(server);
+            int port = ((InetSocketAddress) listener.localAddress()).getPort();
+            try {
+                for (boolean resume : new boolean[]{false, true}) {
+                    new Round(client, port, resume).run(concurrency, warmup, duration, name);
+                }
+            } finally {
+                listener.close().sync();
+            }
+        }
+        group.shutdownGracefully();
+    }
+
+    private Channel startServer(SslContext context) throws InterruptedException {
+        RelayMetrics metrics = RelayMetrics.NOOP;
+        return new ServerBootstrap().group(group)
+                .channel(NioServerSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, 1024)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        SslHandler handler = TunnelSsl.newServerHandler(context, ch.alloc(), metrics);
+                        // 握手后回一个字节，TLS 1.3 的会话票据在它之前发出，客户端读到它时已保存票据
+                        handler.handshakeFuture().addListener(future -> {
+                            if (future.isSuccess()) {
+                                ch.writeAndFlush(Unpooled.wrappedBuffer(new byte[]{1}));
+                            }
+                        });
+                        ch.pipeline().addLast(handler);
+                    }
+                })
+                .bind("127.0.0.1", 0).sync().channel();
+    }
+
+    /**
+     * 一种实现和握手方式的测量：完整握手时客户端不传服务端地址，会话缓存无从匹配
+     */
+    private final class Round {
+
+        private final SslContext context;
+
+        private final int port;
+
+        private final boolean resume;
+
+        private final Histogram latency = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+
+        private final LongAdder completed = new LongAdder();
+
+        private final LongAdder failures = new LongAdder();
+
+        private final RelayMetrics metrics = new RelayMetrics(new SimpleMeterRegistry(), "client");
+
+        private volatile boolean running = true;
+
+        private volatile boolean recording = false;
+
+        Round(SslContext context, int port, boolean resume) {
+            this.context = context;
+            this.port = port;
+            this.resume = resume;
+        }
+
+        void run(int concurrency, int warmup, int duration, String provider) throws InterruptedException {
+            for (int i = 0; i < concurrency; i++) {
+                next();
+            }
+            Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+            long full = metrics.tlsHandshake(true, false).count();
+            long resumed = metrics.tlsHandshake(true, true).count();
+            recording = true;
+            long start = System.nanoTime();
+            Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+            recording = false;
+            double seconds = (System.nanoTime() - start) / 1e9;
+            running = false;
+
+            System.out.printf("%-8s %-8s %8.0f handshakes/s p50=%.2f ms p99=%.2f ms failures=%d",
+                    provider, resume ? "resumed" : "full", completed.sum() / seconds,
+                    latency.getValueAtPercentile(50) / 1000.0, latency.getValueAtPercentile(99) / 1000.0,
+                    failures.sum());
+            // 按会话创建时间判断是否真正复用
+            System.out.printf(" (full=%d resumed=%d)%n", metrics.tlsHandshake(true, false).count() - full,
+                    metrics.tlsHandshake(true, true).count() - resumed);
+            // 等待在途连接结束，避免影响下一轮
+            Thread.sleep(500);
+        }
+
+        private void next() {
+            if (!running) {
+                return;
+            }
+            long start = System.nanoTime();
+            new Bootstrap().group(group)
+                    .channel(NioSocketChannel.class)
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            SslHandler handler = TunnelSsl.newClientHandler(context, ch.alloc(),
+                                    resume ? "127.0.0.1" : null, resume ? port : -1, false, metrics);
+                            handler.handshakeFuture().addListener(future -> {
+                                if (recording) {
+                                    if (future.isSuccess()) {
+                                        completed.increment();
+                                        latency.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS,
+                                                (System.nanoTime() - start) / 1000));
+                                    } else {
+                                        failures.increment();
+                                    }
+                                }
+                                if (!future.isSuccess()) {
+                                    ch.close();
+                                }
+                            });
+                            ch.pipeline().addLast(handler).addLast(new ChannelInboundHandlerAdapter() {
+                                @Override
+                                public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                                    ReferenceCountUtil.release(msg);
+                                    ctx.close();
+                                }
+
+                                @Override
+                                public void channelInactive(ChannelHandlerContext ctx) {
+                                    next();
+                                }
+
+                                @Override
+                                public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                                    ctx.close();
+                                }
+                            });
+                        }
+                    })
+                    .connect("127.0.0.1", port)
+                    .addListener(future -> {
+                        if (!future.isSuccess()) {
+                            failures.increment();
+                            group.schedule(this::next, 10, TimeUnit.MILLISECONDS);
+                        }
+                    });
+        }
+    }
+}
@@ -7,16 +7,30 @@ import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.concurrent.Promise;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.client.failover.ServerEndpoint;
+import top.aixmax.penetrate.client.failover.ServerSelector;
 import top.aixmax.penetrate.client.handler.ClientHandler;
+import top.aixmax.penetrate.client.manager.LocalResources;
 import top.aixmax.penetrate.client.manager.PortMappingManager;
-import top.aixmax.penetrate.common.constants.ProtocolConstants;
+import top.aixmax.penetrate.common.utils.ReconnectBackoff;
 import top.aixmax.penetrate.config.ClientConfig;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+import top.aixmax.penetrate.core.tls.TunnelSsl;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import javax.net.ssl.SSLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * @author wangxu
@@ -31,26 +45,71 @@ public class NatClient {
 
     private final EventLoopGroup group;
 
-    private final ClientHandler clientHandler;
+    private final RelayMetrics metrics;
+
+    /**
+     * 各隧道的端口映射管理器共享的本地事件循环组和内存预算
+     */
+    private final LocalResources localResources;
+
+    /**
+     * 隧道TLS上下文，跨重连复用，会话缓存按服务端地址恢复会话，未启用SSL时为null
+     */
+    private final SslContext sslContext;
+
+    private final ServerSelector selector;
+
+    /**
+     * 每个同时连接的服务端一条隧道，各自独立注册和重连
+     */
+    private final List<Tunnel> tunnels = new ArrayList<>();
 
     private volatile boolean running = true;
 
+    /**
+     * 隧道管道定制，在消息处理器之前执行，用于测试时插入网络损伤等处理器
+     */
+    private Consumer<ChannelPipeline> pipelineCustomizer = pipeline -> {
+    };
+
     public NatClient(ClientConfig config) {
+        this(config, RelayMetrics.NOOP);
+    }
+
+    public NatClient(ClientConfig config, RelayMetrics metrics) {
         int processors = Runtime.getRuntime().availableProcessors();
         this.config = config;
         this.group = new NioEventLoopGroup(processors * 2);
-        // 创建一个共享的handler实例
-        this.clientHandler = new ClientHandler(new PortMappingManager(config), config);
+        metrics.gaugeEventLoop("tunnel", group);
+        this.metrics = metrics;
+        this.localResources = new LocalResources(config, metrics);
+        this.sslContext = config.isEnableSsl() ? buildSslContext(config) : null;
+        this.selector = new ServerSelector(config, group, metrics, this::serverUnhealthy);
+        int active = Math.max(1, Math.min(config.getActiveServers(), selector.getEndpoints().size()));
+        for (int i = 0; i < active; i++) {
+            tunnels.add(new Tunnel());
+        }
         // 日志输出配置信息
         logConfiguration();
     }
 
+    private static SslContext buildSslContext(ClientConfig config) {
+        try {
+            SslContext context = TunnelSsl.forClient(config.getTrustCertPath(), config.getSslProvider(),
+                    config.getSslSessionCacheSize(), config.getSslSessionTimeout());
+            log.info("Tunnel TLS enabled, provider: {}", TunnelSsl.resolve(config.getSslProvider()));
+            return context;
+        } catch (SSLException e) {
+            throw new IllegalStateException("Failed to build tunnel TLS context", e);
+        }
+    }
+
     /**
      * 日志输出
      */
     private void logConfiguration() {
         log.info("Initializing NAT client with configuration:");
-        log.info("Server: {}:{}", config.getServerHost(), config.getServerPort());
+        log.info("Servers: {}, active: {}", selector.getEndpoints(), tunnels.size());
         log.info("Client ID: {}", config.getClientId());
         log.info("Heartbeat interval: {}s", config.getHeartbeatInterval());
         log.info("Port mappings:");
@@ -68,52 +127,301 @@ public class NatClient {
             return;
         }
         log.info("Starting NAT client...");
+        selector.start();
         // 连接至服务器
-        connectToServer();
+        for (Tunnel tunnel : tunnels) {
+            tunnel.connectToServer();
+        }
+    }
+
+    /**
+     * 隧道所在的服务端探测失败，有其他可用服务端时断开隧道，由重连切换过去
+     */
+    private void serverUnhealthy(ServerEndpoint endpoint) {
+        for (Tunnel tunnel : tunnels) {
+            Channel channel = tunnel.channel;
+            if (tunnel.endpoint == endpoint && channel != null) {
+                ServerEndpoint next = selector.select(tunnel.otherEndpoints());
+                if (next != null && next.isHealthy()) {
+                    log.warn("Server {} is unhealthy, switching tunnel to {}", endpoint, next);
+                    tunnel.failoverReason = "unhealthy";
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    public void setPipelineCustomizer(Consumer<ChannelPipeline> pipelineCustomizer) {
+        this.pipelineCustomizer = pipelineCustomizer;
+    }
+
+    /**
+     * 第一条隧道的端口映射管理器，多活时其他隧道的本地连接不包括在内
+     */
+    public PortMappingManager getPortMappingManager() {
+        return tunnels.get(0).portMappingManager;
+    }
+
+    /**
+     * 运行时新增或修改映射：应用到全部隧道，已注册的隧道随即通知服务端，不断开隧道；
+     * 同时写回配置，之后的注册和新建的隧道使用新的映射
+     *
+     * @param mapping 映射或端口段，按起始远程端口和协议覆盖原映射
+     * @throws IllegalArgumentException 映射非法或与其他映射冲突
+     */
+    public synchronized void putMapping(PortMapping mapping) {
+        PortMapping previous = findMapping(mapping.getRemotePort(), mapping.getProtocol());
+        int count = mapping.getPortCount() == null ? 1 : mapping.getPortCount();
+        if (config.getPortMappings() != null) {
+            for (PortMapping other : config.getPortMappings()) {
+                if (other != previous && overlaps(other, mapping.getRemotePort(), count, mapping.getProtocol())) {
+                    throw new IllegalArgumentException("Remote ports overlap with mapping " + other.getRemotePort());
+                }
+            }
+        }
+        for (Tunnel tunnel : tunnels) {
+            tunnel.portMappingManager.putMapping(mapping);
+        }
+        if (previous != null && previous.getPortCount() != null && previous.getPortCount() > count) {
+            // 缩小的端口段，多出的端口删除
+            PortMapping tail = new PortMapping();
+            tail.setRemotePort(mapping.getRemotePort() + count);
+            tail.setLocalPort(previous.getLocalPort() + count);
+            tail.setPortCount(previous.getPortCount() - count);
+            tail.setProtocol(mapping.getProtocol());
+            for (Tunnel tunnel : tunnels) {
+                tunnel.portMappingManager.removeMapping(tail);
+            }
+        }
+        List<PortMapping> mappings = mappingsExcept(previous);
+        mappings.add(mapping);
+        config.setPortMappings(mappings);
     }
 
     /**
-     * 连接服务器
+     * 运行时删除映射，已建立的连接继续到结束
+     *
+     * @param remotePort 远程端口，端口段为起始端口
+     * @param protocol   协议
      */
-    private void connectToServer() {
-        if (!running) {
+    public synchronized void removeMapping(int remotePort, String protocol) {
+        PortMapping previous = findMapping(remotePort, protocol);
+        if (previous == null) {
             return;
         }
+        for (Tunnel tunnel : tunnels) {
+            tunnel.portMappingManager.removeMapping(previous);
+        }
+        config.setPortMappings(mappingsExcept(previous));
+    }
 
-        new Thread(() -> {
-            while (true) {
-                try {
-                    Bootstrap bootstrap = new Bootstrap();
-                    bootstrap.group(group)
-                            .channel(NioSocketChannel.class)
-                            .option(ChannelOption.TCP_NODELAY, true)
-                            .option(ChannelOption.SO_KEEPALIVE, true)
-                            .option(ChannelOption.SO_REUSEADDR, true)
-                            .option(ChannelOption.SO_RCVBUF, 1048576) // 1M
-                            .option(ChannelOption.SO_SNDBUF, 1048576)
-                            .handler(clientHandler);
-
-                    // Connect to the server
-                    ChannelFuture future = bootstrap.connect(config.getServerHost(), config.getServerPort()).sync();
-                    // Wait until the connection is closed
-                    future.channel().closeFuture().sync();
-                } catch (Exception ex) {
-                    log.error(ex.getMessage(), ex);
-                } finally {
-                    try {
-                        Thread.sleep(ProtocolConstants.waitTime);
-                    } catch (InterruptedException e) {
-                        log.error(e.getMessage(), e);
-                    }
+    private PortMapping findMapping(int remotePort, String protocol) {
+        if (config.getPortMappings() != null) {
+            for (PortMapping mapping : config.getPortMappings()) {
+                if (mapping.getRemotePort() == remotePort && mapping.getProtocol().equalsIgnoreCase(protocol)) {
+                    return mapping;
                 }
             }
-        }).start();
+        }
+        return null;
+    }
+
+    private static boolean overlaps(PortMapping mapping, int remotePort, int count, String protocol) {
+        int mappingCount = mapping.getPortCount() == null ? 1 : mapping.getPortCount();
+        return mapping.getProtocol().equalsIgnoreCase(protocol)
+                && mapping.getRemotePort() < remotePort + count && remotePort < mapping.getRemotePort() + mappingCount;
+    }
+
+    /**
+     * 配置的映射去掉指定的一个，返回新列表，注册线程读到的总是完整的列表
+     */
+    private List<PortMapping> mappingsExcept(PortMapping excluded) {
+        List<PortMapping> mappings = new ArrayList<>();
+        if (config.getPortMappings() != null) {
+            for (PortMapping mapping : config.getPortMappings()) {
+                if (mapping != excluded) {
+                    mappings.add(mapping);
+                }
+            }
+        }
+        return mappings;
     }
 
     @PreDestroy
     public void stop() {
         running = false;
+        selector.stop();
+        for (Tunnel tunnel : tunnels) {
+            tunnel.portMappingManager.destroy();
+        }
+        localResources.shutdown();
         group.shutdownGracefully();
     }
 
+    /**
+     * 一条到服务端的隧道，断开后优先立即切换到其他可用的服务端，没有时按退避重连
+     */
+    private final class Tunnel {
+
+        /**
+         * 服务端排空时换成新的实例，旧实例随旧隧道关闭释放
+         */
+        private volatile PortMappingManager portMappingManager;
+
+        private volatile ClientHandler clientHandler;
+
+        private final ReconnectBackoff backoff;
+
+        /**
+         * 正在连接或已连接的服务端，多条隧道不连接同一个服务端
+         */
+        private volatile ServerEndpoint endpoint;
+
+        private volatile Channel channel;
+
+        /**
+         * 下次切换服务端的原因
+         */
+        private volatile String failoverReason = "closed";
+
+        /**
+         * 当前隧道关闭或服务端排空时完成，连接线程随即连接下一个服务端
+         */
+        private volatile Promise<Void> released;
+
+        Tunnel() {
+            this.backoff = new ReconnectBackoff(TimeUnit.SECONDS.toMillis(config.getRetryInterval()),
+                    TimeUnit.SECONDS.toMillis(config.getMaxRetryInterval()), config.getMaxRetryTimes());
+            createHandler();
+        }
+
+        private void createHandler() {
+            // 创建一个共享的handler实例
+            this.portMappingManager = new PortMappingManager(config, localResources);
+            this.clientHandler = new ClientHandler(portMappingManager, config, backoff, this::goAway);
+        }
+
+        /**
+         * 服务端排空：有其他服务端时先在其上建立新隧道，旧隧道只为现有的流保留，到服务端关闭为止
+         *
+         * @param retiring 收到排空通知的隧道
+         * @return 是否已转往其他服务端
+         */
+        private boolean goAway(Channel retiring) {
+            ServerEndpoint draining = endpoint;
+            if (retiring != channel || draining == null) {
+                return false;
+            }
+            Set<ServerEndpoint> exclude = otherEndpoints();
+            exclude.add(draining);
+            if (selector.select(exclude) == null) {
+                log.info("Server {} is draining and no other server is available, keeping the tunnel", draining);
+                return false;
+            }
+            selector.markFailed(draining);
+            failoverReason = "draining";
+            createHandler();
+            released.trySuccess(null);
+            return true;
+        }
+
+        private Set<ServerEndpoint> otherEndpoints() {
+            Set<ServerEndpoint> others = new HashSet<>();
+            for (Tunnel tunnel : tunnels) {
+                if (tunnel != this && tunnel.endpoint != null) {
+                    others.add(tunnel.endpoint);
+                }
+            }
+            return others;
+        }
+
+        /**
+         * 连接服务器
+         */
+        private void connectToServer() {
+            if (!running) {
+                return;
+            }
+
+            new Thread(() -> {
+                ServerEndpoint previous = null;
+                while (running) {
+                    ServerEndpoint target = selector.select(otherEndpoints());
+                    if (target == null) {
+                        // 服务端数量少于隧道数量，构造时已限制，不会发生
+                        break;
+                    }
+                    if (previous != null && previous != target) {
+                        log.info("Failing over from server {} to {}", previous, target);
+                        metrics.serverFailover(target.toString(), failoverReason).increment();
+                    }
+                    failoverReason = "closed";
+                    endpoint = target;
+                    try {
+                        Bootstrap bootstrap = new Bootstrap();
+                        bootstrap.group(group)
+                                .channel(NioSocketChannel.class)
+                                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, config.getConnectTimeout())
+                                .option(ChannelOption.TCP_NODELAY, true)
+                                .option(ChannelOption.SO_KEEPALIVE, true)
+                                .option(ChannelOption.SO_REUSEADDR, true)
+                                .option(ChannelOption.SO_RCVBUF, 1048576) // 1M
+                                .option(ChannelOption.SO_SNDBUF, 1048576)
+                                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                                        config.getTunnelHighWaterMark() / 2, config.getTunnelHighWaterMark()))
+                                .handler(new ChannelInitializer<SocketChannel>() {
+                                    @Override
+                                    protected void initChannel(SocketChannel ch) {
+                                        pipelineCustomizer.accept(ch.pipeline());
+                                        if (sslContext != null) {
+                                            ch.pipeline().addLast(TunnelSsl.newClientHandler(sslContext,
+                                                    ch.alloc(), target.getHost(), target.getPort(),
+                                                    config.isVerifyHostname(), metrics));
+                                        }
+                                        ch.pipeline().addLast(clientHandler);
+                                    }
+                                });
+
+                        // Connect to the server
+                        ChannelFuture future = bootstrap.connect(target.getHost(), target.getPort()).sync();
+                        Promise<Void> promise = future.channel().eventLoop().newPromise();
+                        released = promise;
+                        channel = future.channel();
+                        future.channel().closeFuture().addListener(f -> promise.trySuccess(null));
+                        // Wait until the connection is closed
+                        promise.sync();
+                    } catch (Exception ex) {
+                        log.error(ex.getMessage(), ex);
+                    } finally {
+                        channel = null;
+                    }
+
+                    if (!running) {
+                        break;
+                    }
+                    selector.markFailed(target);
+                    previous = target;
+                    // 其他服务端可用时立即切换，每轮失败只跳过一次退避，服务端要求的 retry-after 始终遵守
+                    ServerEndpoint next = selector.select(otherEndpoints());
+                    if (next != null && next != target && next.isHealthy() && backoff.takeImmediateRetry()) {
+                        continue;
+                    }
+                    if (backoff.exhausted()) {
+                        log.error("Giving up reconnecting after {} attempts", config.getMaxRetryTimes());
+                        break;
+                    }
+                    // 抖动指数退避，服务端限流时至少等待其要求的时间
+                    long delay = backoff.nextDelayMillis();
+                    log.info("Reconnecting to server in {}ms", delay);
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        log.error(e.getMessage(), e);
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }).start();
+        }
+    }
 }
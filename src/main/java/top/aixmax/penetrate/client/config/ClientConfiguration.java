@@ -1,13 +1,20 @@
 package top.aixmax.penetrate.client.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import top.aixmax.penetrate.client.NatClient;
+import top.aixmax.penetrate.client.endpoint.LocalConnectionEndpoint;
+import top.aixmax.penetrate.client.endpoint.PortMappingEndpoint;
+import top.aixmax.penetrate.common.constants.ProtocolConstants;
 import top.aixmax.penetrate.config.ClientConfig;
 import top.aixmax.penetrate.config.CommonConfig;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
 
 /**
  * @author wangxu
@@ -21,7 +28,8 @@ public class ClientConfiguration {
 
     @Bean
     @ConditionalOnProperty(prefix = "nat.client", name = "enabled", havingValue = "true")
-    public NatClient natClient(ClientConfig clientConfig, CommonConfig commonConfig) {
+    public NatClient natClient(ClientConfig clientConfig, CommonConfig commonConfig,
+                               ObjectProvider<MeterRegistry> meterRegistry) {
         if (commonConfig.getMode() == CommonConfig.RunMode.SERVER) {
             log.info("Skipping client initialization as running in SERVER mode");
             return null;
@@ -29,7 +37,20 @@ public class ClientConfiguration {
 
         log.info("Initializing NAT client in {} mode", commonConfig.getMode());
         validateClientConfig(clientConfig);
-        return new NatClient(clientConfig);
+        return new NatClient(clientConfig,
+                new RelayMetrics(meterRegistry.getIfAvailable(CompositeMeterRegistry::new), "client"));
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "nat.client", name = "enabled", havingValue = "true")
+    public LocalConnectionEndpoint localConnectionEndpoint(ObjectProvider<NatClient> natClient) {
+        return new LocalConnectionEndpoint(natClient);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "nat.client", name = "enabled", havingValue = "true")
+    public PortMappingEndpoint portMappingEndpoint(ObjectProvider<NatClient> natClient) {
+        return new PortMappingEndpoint(natClient);
     }
 
     private void validateClientConfig(ClientConfig config) {
@@ -41,6 +62,11 @@ public class ClientConfiguration {
         if (config.getPortMappings() == null || config.getPortMappings().isEmpty()) {
             log.warn("No port mappings configured for client");
         }
+
+        if (config.getMaxFramePayload() <= 0
+                || config.getMaxFramePayload() + ProtocolConstants.minLength > ProtocolConstants.MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("Invalid max frame payload: " + config.getMaxFramePayload());
+        }
     }
 
     private String generateDefaultClientId() {
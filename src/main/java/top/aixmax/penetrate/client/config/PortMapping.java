@@ -2,6 +2,10 @@ package top.aixmax.penetrate.client.config;
 
 import lombok.Data;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * @author wangxu
  * @version 1.0 2024/11/16 18:13
@@ -19,6 +23,11 @@ public class PortMapping {
      */
     private Integer remotePort;
 
+    /**
+     * 端口数量，大于1时为端口段：远程端口 remotePort ~ remotePort + portCount - 1 依次映射到从 localPort 起的本地端口
+     */
+    private Integer portCount = 1;
+
     /**
      * 协议类型：tcp/udp
      */
@@ -48,4 +57,47 @@ public class PortMapping {
      * 空闲超时时间（秒）
      */
     private Integer idleTimeout = 600;
+
+    /**
+     * DATA负载压缩：none/snappy/zlib，仅tcp映射，注册时与服务端协商，服务端不支持时不压缩
+     */
+    private String compression = "none";
+
+    /**
+     * 展开为单端口映射，注册和查找都按单个端口进行，单端口映射返回只含自身的列表
+     *
+     * @return 按远程端口升序的单端口映射
+     */
+    public List<PortMapping> expand() {
+        int count = portCount == null ? 1 : portCount;
+        if (count <= 1) {
+            return Collections.singletonList(this);
+        }
+        List<PortMapping> ports = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            PortMapping port = new PortMapping();
+            port.setLocalPort(localPort + i);
+            port.setRemotePort(remotePort + i);
+            port.setProtocol(protocol);
+            port.setEnabled(enabled);
+            port.setLocalHost(localHost);
+            port.setMaxConnections(maxConnections);
+            port.setConnectionTimeout(connectionTimeout);
+            port.setIdleTimeout(idleTimeout);
+            port.setCompression(compression);
+            ports.add(port);
+        }
+        return ports;
+    }
+
+    /**
+     * 展开映射列表
+     */
+    public static List<PortMapping> expand(List<PortMapping> mappings) {
+        List<PortMapping> ports = new ArrayList<>(mappings.size());
+        for (PortMapping mapping : mappings) {
+            ports.addAll(mapping.expand());
+        }
+        return ports;
+    }
 }
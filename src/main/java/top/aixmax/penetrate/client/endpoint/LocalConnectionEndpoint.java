@@ -0,0 +1,46 @@
+package top.aixmax.penetrate.client.endpoint;
+
+import io.netty.channel.Channel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import top.aixmax.penetrate.client.NatClient;
+import top.aixmax.penetrate.common.utils.CursorPage;
+import top.aixmax.penetrate.common.utils.SnapshotPager;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 21:10
+ * @description 客户端本地连接端点：/actuator/localconnections?cursor=&amp;limit=&amp;localPort=，
+ * 按流ID升序分页，数据来自 PortMappingManager 连接表的弱一致遍历
+ */
+@Endpoint(id = "localconnections")
+public class LocalConnectionEndpoint {
+
+    private final ObjectProvider<NatClient> natClient;
+
+    public LocalConnectionEndpoint(ObjectProvider<NatClient> natClient) {
+        this.natClient = natClient;
+    }
+
+    @ReadOperation
+    public CursorPage<LocalConnectionSnapshot> list(@Nullable Integer cursor, @Nullable Integer limit,
+                                                    @Nullable Integer localPort) {
+        NatClient client = natClient.getIfAvailable();
+        if (client == null) {
+            return new CursorPage<>(Collections.emptyList(), null, 0);
+        }
+        return SnapshotPager.page(client.getPortMappingManager().getLocalConnections(), cursor, limit,
+                (streamId, channel) -> localPort == null || localPort(channel) == localPort,
+                LocalConnectionSnapshot::new);
+    }
+
+    private static int localPort(Channel channel) {
+        return channel.remoteAddress() instanceof InetSocketAddress
+                ? ((InetSocketAddress) channel.remoteAddress()).getPort() : -1;
+    }
+}
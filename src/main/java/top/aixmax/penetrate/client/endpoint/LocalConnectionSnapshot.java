@@ -0,0 +1,42 @@
+package top.aixmax.penetrate.client.endpoint;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import lombok.Getter;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 21:10
+ * @description 客户端本地连接的即时快照
+ */
+@Getter
+public class LocalConnectionSnapshot {
+
+    private final int streamId;
+
+    /**
+     * 本地服务地址
+     */
+    private final String localAddress;
+
+    private final boolean active;
+
+    /**
+     * 本地连接是否可写，不可写表示本地服务读取慢于外部写入
+     */
+    private final boolean writable;
+
+    /**
+     * 等待写入本地服务的字节数
+     */
+    private final long pendingOutbound;
+
+    public LocalConnectionSnapshot(int streamId, Channel channel) {
+        this.streamId = streamId;
+        this.localAddress = String.valueOf(channel.remoteAddress());
+        this.active = channel.isActive();
+        this.writable = channel.isWritable();
+        ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+        this.pendingOutbound = buffer == null ? 0 : buffer.totalPendingWriteBytes();
+    }
+}
@@ -0,0 +1,85 @@
+package top.aixmax.penetrate.client.endpoint;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import top.aixmax.penetrate.client.NatClient;
+import top.aixmax.penetrate.client.config.PortMapping;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/19 16:40
+ * @description 客户端映射管理端点，变更不断开隧道，服务端协商版本低于v3时在下次注册时生效
+ * <ul>
+ *     <li>/actuator/portmappings：当前配置的映射</li>
+ *     <li>POST /actuator/portmappings {"remotePort": 8080, "localPort": 80, "protocol": "tcp"}：新增或修改</li>
+ *     <li>DELETE /actuator/portmappings?remotePort=8080&amp;protocol=tcp：删除</li>
+ * </ul>
+ * 变更操作没有鉴权，默认配置不暴露该端点，开启时应将管理端口绑定到本机或内网
+ */
+@Endpoint(id = "portmappings")
+public class PortMappingEndpoint {
+
+    private final ObjectProvider<NatClient> natClient;
+
+    public PortMappingEndpoint(ObjectProvider<NatClient> natClient) {
+        this.natClient = natClient;
+    }
+
+    @ReadOperation
+    public List<PortMapping> list() {
+        NatClient client = natClient.getIfAvailable();
+        if (client == null || client.getConfig().getPortMappings() == null) {
+            return Collections.emptyList();
+        }
+        return client.getConfig().getPortMappings();
+    }
+
+    /**
+     * 新增或修改映射，未指定的字段取默认值
+     */
+    @WriteOperation
+    public List<PortMapping> put(int remotePort, int localPort, @Nullable Integer portCount, @Nullable String protocol,
+                                 @Nullable String localHost, @Nullable String compression) {
+        PortMapping mapping = new PortMapping();
+        mapping.setRemotePort(remotePort);
+        mapping.setLocalPort(localPort);
+        if (portCount != null) {
+            mapping.setPortCount(portCount);
+        }
+        if (protocol != null) {
+            mapping.setProtocol(protocol);
+        }
+        if (localHost != null) {
+            mapping.setLocalHost(localHost);
+        }
+        if (compression != null) {
+            mapping.setCompression(compression);
+        }
+        NatClient client = natClient.getIfAvailable();
+        if (client != null) {
+            try {
+                client.putMapping(mapping);
+            } catch (IllegalArgumentException e) {
+                throw new InvalidEndpointRequestException(e.getMessage(), "Invalid port mapping");
+            }
+        }
+        return list();
+    }
+
+    @DeleteOperation
+    public List<PortMapping> remove(int remotePort, @Nullable String protocol) {
+        NatClient client = natClient.getIfAvailable();
+        if (client != null) {
+            client.removeMapping(remotePort, protocol == null ? "tcp" : protocol);
+        }
+        return list();
+    }
+}
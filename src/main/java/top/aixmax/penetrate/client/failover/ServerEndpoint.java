@@ -0,0 +1,82 @@
+package top.aixmax.penetrate.client.failover;
+
+import lombok.Getter;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/19 04:40
+ * @description 一个服务端地址及其探测状态，往返时间取连接建立耗时的指数平滑值
+ */
+@Getter
+public class ServerEndpoint {
+
+    /**
+     * 新样本的权重
+     */
+    private static final double SMOOTHING = 0.25;
+
+    private final String host;
+
+    private final int port;
+
+    /**
+     * 平滑后的往返时间（毫秒），尚未探测成功时为-1
+     */
+    private volatile double rttMillis = -1;
+
+    /**
+     * 未探测前视为可用
+     */
+    private volatile boolean healthy = true;
+
+    private int failures;
+
+    public ServerEndpoint(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * @param address host:port
+     * @throws IllegalArgumentException 格式错误
+     */
+    public static ServerEndpoint parse(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Invalid server address: " + address);
+        }
+        return new ServerEndpoint(address.substring(0, colon).trim(),
+                Integer.parseInt(address.substring(colon + 1).trim()));
+    }
+
+    synchronized void probeSucceeded(long nanos) {
+        double millis = nanos / 1e6;
+        rttMillis = rttMillis < 0 ? millis : rttMillis + SMOOTHING * (millis - rttMillis);
+        failures = 0;
+        healthy = true;
+    }
+
+    /**
+     * @return 是否因本次失败变为不可用
+     */
+    synchronized boolean probeFailed(int threshold) {
+        failures++;
+        if (healthy && failures >= threshold) {
+            healthy = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 隧道连接失败或断开，直到下次探测成功前不再优先选择
+     */
+    synchronized void markFailed() {
+        healthy = false;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
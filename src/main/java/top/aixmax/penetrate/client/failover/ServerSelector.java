@@ -0,0 +1,145 @@
+package top.aixmax.penetrate.client.failover;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.slf4j.Slf4j;
+import top.aixmax.penetrate.config.ClientConfig;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/19 04:45
+ * @description 服务端选择。配置了多个服务端时定期建立TCP连接探测各服务端，选择可用且往返时间最短的一个；
+ * 隧道连接失败或断开的服务端在下次探测成功前排在可用服务端之后。
+ * <p>
+ * 探测只建立连接随即关闭，不发送任何消息，服务端按一次普通的接入计入准入速率
+ */
+@Slf4j
+public class ServerSelector {
+
+    /**
+     * 可用的优先，其次按往返时间，未测出的排在已测出的之后，最后按配置顺序
+     */
+    private static final Comparator<ServerEndpoint> PREFERENCE = Comparator
+            .comparing((ServerEndpoint e) -> !e.isHealthy())
+            .thenComparingDouble(e -> e.getRttMillis() < 0 ? Double.MAX_VALUE : e.getRttMillis());
+
+    private final List<ServerEndpoint> endpoints;
+
+    private final ClientConfig config;
+
+    private final EventLoopGroup group;
+
+    /**
+     * 服务端因探测失败变为不可用时通知，用于切换该服务端上的隧道
+     */
+    private final Consumer<ServerEndpoint> unhealthyListener;
+
+    private ScheduledFuture<?> probes;
+
+    public ServerSelector(ClientConfig config, EventLoopGroup group, RelayMetrics metrics,
+                          Consumer<ServerEndpoint> unhealthyListener) {
+        this.config = config;
+        this.group = group;
+        this.unhealthyListener = unhealthyListener;
+        this.endpoints = Collections.unmodifiableList(endpoints(config));
+        for (ServerEndpoint endpoint : endpoints) {
+            metrics.gaugeServerRtt(endpoint.toString(), endpoint, e -> e.isHealthy() ? e.getRttMillis() : -1);
+        }
+    }
+
+    private static List<ServerEndpoint> endpoints(ClientConfig config) {
+        List<ServerEndpoint> endpoints = new ArrayList<>();
+        if (config.getServers() == null || config.getServers().isEmpty()) {
+            endpoints.add(new ServerEndpoint(config.getServerHost(), config.getServerPort()));
+        } else {
+            for (String server : config.getServers()) {
+                endpoints.add(ServerEndpoint.parse(server));
+            }
+        }
+        return endpoints;
+    }
+
+    public List<ServerEndpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * 只有一个服务端时无从切换，不探测
+     */
+    public void start() {
+        if (endpoints.size() > 1 && config.getServerProbeInterval() > 0) {
+            probes = group.scheduleAtFixedRate(this::probeAll, 0, config.getServerProbeInterval(),
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void stop() {
+        if (probes != null) {
+            probes.cancel(false);
+        }
+    }
+
+    /**
+     * 选择最优的服务端
+     *
+     * @param exclude 其他隧道正在使用的服务端
+     * @return 服务端，全部被排除时返回null
+     */
+    public ServerEndpoint select(Collection<ServerEndpoint> exclude) {
+        ServerEndpoint best = null;
+        for (ServerEndpoint endpoint : endpoints) {
+            if (!exclude.contains(endpoint) && (best == null || PREFERENCE.compare(endpoint, best) < 0)) {
+                best = endpoint;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 隧道在该服务端上连接失败或断开
+     */
+    public void markFailed(ServerEndpoint endpoint) {
+        if (endpoints.size() > 1) {
+            endpoint.markFailed();
+        }
+    }
+
+    private void probeAll() {
+        for (ServerEndpoint endpoint : endpoints) {
+            probe(endpoint);
+        }
+    }
+
+    private void probe(ServerEndpoint endpoint) {
+        long start = System.nanoTime();
+        new Bootstrap().group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, config.getServerProbeTimeout())
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInboundHandlerAdapter())
+                .connect(endpoint.getHost(), endpoint.getPort())
+                .addListener((ChannelFutureListener) f -> {
+                    if (f.isSuccess()) {
+                        endpoint.probeSucceeded(System.nanoTime() - start);
+                        f.channel().close();
+                    } else if (endpoint.probeFailed(config.getServerProbeFailures())) {
+                        log.warn("Server {} is unreachable: {}", endpoint, f.cause().getMessage());
+                        unhealthyListener.accept(endpoint);
+                    }
+                });
+    }
+}
@@ -1,20 +1,31 @@
 package top.aixmax.penetrate.client.handler;
 
 import com.alibaba.fastjson.JSON;
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.util.CollectionUtils;
+import top.aixmax.penetrate.client.config.PortMapping;
 import top.aixmax.penetrate.client.manager.PortMappingManager;
 import top.aixmax.penetrate.common.constants.ProtocolConstants;
+import top.aixmax.penetrate.common.utils.ReconnectBackoff;
 import top.aixmax.penetrate.config.ClientConfig;
+import top.aixmax.penetrate.core.compress.PayloadCodec;
 import top.aixmax.penetrate.core.handler.AbstractMessageHandler;
+import top.aixmax.penetrate.core.log.RateLimitedLog;
+import top.aixmax.penetrate.core.protocol.FrameCodec;
 import top.aixmax.penetrate.core.protocol.Message;
 import top.aixmax.penetrate.core.protocol.MessageFactory;
+import top.aixmax.penetrate.core.protocol.RegisterCodec;
+import top.aixmax.penetrate.core.resume.SessionResume;
 import top.aixmax.penetrate.server.model.ClientInfo;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Predicate;
+
 
 /**
  * @author wangxu
@@ -25,53 +36,136 @@ import top.aixmax.penetrate.server.model.ClientInfo;
 @ChannelHandler.Sharable
 public class ClientHandler extends AbstractMessageHandler {
 
+    private static final RateLimitedLog UNAUTHENTICATED_DATA = RateLimitedLog.of(log, "client.unauthenticated-data");
+
     private final PortMappingManager portMappingManager;
 
     private final ClientConfig config;
 
+    private final ReconnectBackoff backoff;
+
+    /**
+     * 服务端排空时调用，返回true表示已转往其他服务端，本隧道只为现有的流保留，关闭后释放端口映射管理器
+     */
+    private final Predicate<Channel> goAwayListener;
+
     private boolean authenticated = false;
 
-    public ClientHandler(PortMappingManager portMappingManager, ClientConfig config) {
+    /**
+     * 已转往其他服务端
+     */
+    private volatile boolean retired;
+
+    public ClientHandler(PortMappingManager portMappingManager, ClientConfig config, ReconnectBackoff backoff) {
+        this(portMappingManager, config, backoff, channel -> false);
+    }
+
+    public ClientHandler(PortMappingManager portMappingManager, ClientConfig config, ReconnectBackoff backoff,
+                         Predicate<Channel> goAwayListener) {
+        super(ProtocolConstants.MAX_FRAME_LENGTH, portMappingManager.getMetrics());
         this.portMappingManager = portMappingManager;
         this.config = config;
+        this.backoff = backoff;
+        this.goAwayListener = goAwayListener;
     }
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         super.channelActive(ctx);
         // 发送注册消息
-        ClientInfo ci = new ClientInfo(config.getClientId(), null);
-        ci.setSort(config.getSort());
         if (CollectionUtils.isEmpty(portMappingManager.getMappings())) {
             throw new RuntimeException("Client No Mapping!");
         }
 
-        ci.setPortMappings(portMappingManager.getMappings());
+        byte[] register;
+        if (config.isLegacyRegister()) {
+            ClientInfo ci = new ClientInfo(config.getClientId(), null);
+            ci.setSort(config.getSort());
+            ci.setVersion(String.valueOf(ProtocolConstants.VERSION));
+            ci.setPortMappings(PortMapping.expand(portMappingManager.getMappings()));
+            register = JSON.toJSONString(ci).getBytes(StandardCharsets.UTF_8);
+        } else {
+            // 端口段按单个端口注册，旧版本服务端同样可以识别
+            register = RegisterCodec.encode(config.getClientId(), ProtocolConstants.VERSION, config.getSort(),
+                    PortMapping.expand(portMappingManager.getMappings()), portMappingManager.resumeRequest());
+        }
 
-        ByteBuf byteBuf = Unpooled.wrappedBuffer(
-                MessageFactory.createRegisterMessage(JSON.toJSONString(ci)));
-        ctx.writeAndFlush(byteBuf);
+        // 注册消息固定使用v1编码，由服务端在确认消息中返回协商后的版本
+        FrameCodec.send(ctx.channel(), MessageFactory.createRegisterMessage(register));
         log.info("Sending register message with clientId: {}", config.getClientId());
     }
 
     @Override
     protected void handleRegisterAck(ChannelHandlerContext ctx, Message msg) {
         authenticated = true;
+        backoff.reset();
+        // 旧版本服务端的确认消息不携带版本，继续使用v1
+        byte version = msg.getData().length > 0 ? msg.getData()[0] : ProtocolConstants.VERSION_1;
+        ctx.channel().attr(FrameCodec.CODEC).set(FrameCodec.forVersion(version));
+        Map<Integer, PayloadCodec> compression;
+        try {
+            compression = RegisterCodec.decodeAckCompression(msg.getData());
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid compression in register ack, not compressing: {}", e.getMessage());
+            compression = Collections.emptyMap();
+        }
+        SessionResume resume;
+        try {
+            resume = RegisterCodec.decodeAckResume(msg.getData());
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid session resume in register ack: {}", e.getMessage());
+            resume = null;
+        }
+        portMappingManager.setCompression(compression);
+        portMappingManager.setProtocolVersion(version);
         portMappingManager.setServerChannel(ctx.channel());
+        portMappingManager.resumeSession(resume);
 
         // 开启心跳线程
         new Thread(() -> {
             try {
                 while (ctx.channel().isActive()) {
-                    ByteBuf heartByte = Unpooled.wrappedBuffer(MessageFactory.createHeartbeatMessage());
-                    ctx.channel().writeAndFlush(heartByte);
+                    FrameCodec.send(ctx.channel(), MessageFactory.createHeartbeatMessage());
+                    portMappingManager.flushAcks();
                     Thread.sleep(ProtocolConstants.waitTime);
                 }
             } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
         }).start();
-        log.info("Client registered successfully");
+        log.info("Client registered successfully, protocol version {}, compression {}, {}", version, compression,
+                resume);
+    }
+
+    @Override
+    protected void handleError(ChannelHandlerContext ctx, Message msg) {
+        String error = new String(msg.getData(), StandardCharsets.UTF_8);
+        if (error.startsWith(ProtocolConstants.RETRY_AFTER_PREFIX)) {
+            try {
+                long millis = Long.parseLong(error.substring(ProtocolConstants.RETRY_AFTER_PREFIX.length()));
+                backoff.retryAfter(millis);
+                log.warn("Server is limiting connections, retry after {}ms", millis);
+                return;
+            } catch (NumberFormatException e) {
+                log.warn("Invalid retry-after from server: {}", error);
+            }
+        }
+        log.error("Error from server: {}", error);
+    }
+
+    @Override
+    protected void handleGoAway(ChannelHandlerContext ctx, Message msg) {
+        log.info("Server is draining, tunnel will be closed within {}ms", MessageFactory.decodeGoAway(msg.getData()));
+        if (!retired && goAwayListener.test(ctx.channel())) {
+            retired = true;
+        }
+    }
+
+    @Override
+    protected void handlePortMappingAck(ChannelHandlerContext ctx, Message msg) {
+        if (authenticated) {
+            portMappingManager.handlePortMappingAck(msg);
+        }
     }
 
     @Override
@@ -82,7 +176,7 @@ public class ClientHandler extends AbstractMessageHandler {
     @Override
     protected void handleData(ChannelHandlerContext ctx, Message msg) {
         if (!authenticated) {
-            log.warn("Received data before authentication");
+            UNAUTHENTICATED_DATA.warn("Received data before authentication");
             return;
         }
 
@@ -94,12 +188,22 @@ public class ClientHandler extends AbstractMessageHandler {
         }
     }
 
+    @Override
+    protected void handleDataAck(ChannelHandlerContext ctx, Message msg) {
+        if (authenticated) {
+            portMappingManager.handleDataAck(msg);
+        }
+    }
+
     @Override
     public void channelInactive(ChannelHandlerContext ctx) {
         log.info("Connection to server lost");
         authenticated = false;
         // 通知端口映射管理器连接断开
         portMappingManager.handleDisconnect();
+        if (retired) {
+            portMappingManager.destroy();
+        }
         ctx.close();
     }
 
@@ -112,7 +216,7 @@ public class ClientHandler extends AbstractMessageHandler {
     @Override
     public void handleConnect(ChannelHandlerContext ctx, Message msg) {
         if (!authenticated) {
-            log.warn("Received data before authentication");
+            UNAUTHENTICATED_DATA.warn("Received data before authentication");
             return;
         }
 
@@ -123,4 +227,19 @@ public class ClientHandler extends AbstractMessageHandler {
             log.error("Error handling incoming data", e);
         }
     }
+
+    @Override
+    protected void handleDatagram(ChannelHandlerContext ctx, Message msg) {
+        if (!authenticated) {
+            UNAUTHENTICATED_DATA.warn("Received data before authentication");
+            return;
+        }
+        portMappingManager.handleDatagram(ctx.channel(), msg);
+    }
+
+    @Override
+    protected void handleDisconnect(ChannelHandlerContext ctx, Message msg) {
+        // 外部连接已断开，关闭对应的本地连接
+        portMappingManager.removeConnection(msg.getChannelId());
+    }
 }
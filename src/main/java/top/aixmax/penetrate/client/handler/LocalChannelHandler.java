@@ -1,20 +1,17 @@
 package top.aixmax.penetrate.client.handler;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
-import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.handler.timeout.IdleStateEvent;
 import lombok.extern.slf4j.Slf4j;
 import top.aixmax.penetrate.client.config.PortMapping;
 import top.aixmax.penetrate.client.manager.PortMappingManager;
-import top.aixmax.penetrate.common.enums.MessageType;
-import top.aixmax.penetrate.core.protocol.Message;
-import top.aixmax.penetrate.core.protocol.MessageFactory;
-
-import java.nio.ByteBuffer;
+import top.aixmax.penetrate.core.flow.PauseReason;
+import top.aixmax.penetrate.core.flow.ReadGate;
+import top.aixmax.penetrate.core.log.DataPlaneDebug;
+import top.aixmax.penetrate.core.metrics.TrafficMeter;
+import top.aixmax.penetrate.core.resume.StreamReplay;
+import top.aixmax.penetrate.core.trace.StreamTiming;
 
 /**
  * @author wangxu
@@ -26,50 +23,90 @@ public class LocalChannelHandler extends SimpleChannelInboundHandler<ByteBuf> {
 
     private final PortMapping portMapping;
 
-    private final Channel serverChannel;
-
     private final PortMappingManager portMappingManager;
 
     private final Integer serverChannelId;
 
+    /**
+     * 采样流的阶段耗时，未采样时为null
+     */
+    private final StreamTiming timing;
+
     public LocalChannelHandler(PortMapping portMapping,
-                               Channel serverChannel,
                                PortMappingManager portMappingManager,
-                               Integer serverChannelId) {
+                               Integer serverChannelId,
+                               StreamTiming timing) {
         this.portMapping = portMapping;
-        this.serverChannel = serverChannel;
         this.portMappingManager = portMappingManager;
         this.serverChannelId = serverChannelId;
+        this.timing = timing;
+    }
+
+    public PortMapping getPortMapping() {
+        return portMapping;
     }
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, ByteBuf buf) {
-        byte[] data = new byte[buf.readableBytes()];
-        buf.readBytes(data);
-
-        // 构建数据包
-        Message serverMsg = new Message();
-        serverMsg.setExternalPort(portMapping.getRemotePort());
-        serverMsg.setType(MessageType.DATA);
-        serverMsg.setChannelId(serverChannelId);
-        serverMsg.setData(data);
+        int length = buf.readableBytes();
+        if (DataPlaneDebug.isEnabled(serverChannelId)) {
+            DataPlaneDebug.LOG.debug("Push Data : {}--{}", serverChannelId, length);
+        }
+        boolean firstByte = timing != null && timing.markFirstByte();
 
-        log.debug("Push Data : {}--{}", serverChannelId, data.length);
+        // 按最大负载分片写入隧道，支持恢复的流同时保留到服务端确认
+        StreamReplay replay = ctx.channel().attr(StreamReplay.REPLAY).get();
+        int frames = replay == null ? portMappingManager.forward(serverChannelId, portMapping, buf)
+                : replay.send(buf, data -> portMappingManager.forward(serverChannelId, portMapping, data));
+        TrafficMeter meter = ctx.channel().attr(TrafficMeter.METER).get();
+        if (meter != null) {
+            meter.recordOut(length, frames);
+        }
+        if (firstByte) {
+            // 首字节之后发送，保证服务端先收到数据再收到耗时
+            portMappingManager.reportTiming(serverChannelId, timing);
+        }
+        if (replay != null) {
+            if (frames == 0) {
+                // 隧道已断开，数据留在重放缓冲区，读取已在断开时暂停
+                return;
+            }
+            if (replay.isFull()) {
+                ReadGate.of(ctx.channel(), portMappingManager.getMetrics()).pause(PauseReason.REPLAY);
+            }
+        }
+        // 隧道不可写或积压超过内存预算时暂停读取本地服务
+        portMappingManager.afterTunnelWrite(portMappingManager.getServerChannel(), ctx.channel());
+        portMappingManager.getMemory().pauseIfExhausted(ctx.channel());
+    }
 
-        serverChannel.writeAndFlush(Unpooled.wrappedBuffer(serverMsg.getBytes()));
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            portMappingManager.handleLocalWritable(portMappingManager.getServerChannel(), ctx.channel());
+        }
+        super.channelWritabilityChanged(ctx);
     }
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx) {
-        portMappingManager.removeConnection(portMapping.getLocalPort() + "+" + serverChannelId);
-        log.debug("Local connection closed for port {}", portMapping.getLocalPort());
+        if (timing != null) {
+            // 本地服务未返回数据即关闭
+            portMappingManager.reportTiming(serverChannelId, timing);
+        }
+        portMappingManager.handleLocalClosed(portMappingManager.getServerChannel(), ctx.channel());
+        portMappingManager.handleLocalDisconnect(serverChannelId);
+        if (DataPlaneDebug.isEnabled(serverChannelId)) {
+            DataPlaneDebug.LOG.debug("Local connection closed for stream {} on port {}",
+                    serverChannelId, portMapping.getLocalPort());
+        }
         ctx.close();
     }
 
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
         log.error("Error in local connection for port {}", portMapping.getLocalPort(), cause);
-        portMappingManager.removeConnection(portMapping.getLocalPort() + "+" + serverChannelId);
+        portMappingManager.handleLocalDisconnect(serverChannelId);
         ctx.close();
     }
 
@@ -0,0 +1,106 @@
+package top.aixmax.penetrate.client.handler;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramPacket;
+import lombok.extern.slf4j.Slf4j;
+import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.client.manager.PortMappingManager;
+import top.aixmax.penetrate.core.log.DataPlaneDebug;
+import top.aixmax.penetrate.core.metrics.TrafficMeter;
+import top.aixmax.penetrate.core.protocol.DataFrameWriter;
+import top.aixmax.penetrate.core.transport.DeferredFlush;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 23:40
+ * @description UDP会话的本地连接，每个会话一个已连接到本地服务的数据报通道。
+ * 本地服务的回复逐个封装为DATAGRAM帧，一批读取结束后隧道flush一次；隧道不可写时丢弃
+ */
+@Slf4j
+public class LocalDatagramHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+
+    private final PortMapping portMapping;
+
+    private final Channel serverChannel;
+
+    private final PortMappingManager portMappingManager;
+
+    private final int sessionId;
+
+    /**
+     * 最近一次收发数据报的 {@link System#nanoTime()}
+     */
+    private volatile long lastActiveNanos = System.nanoTime();
+
+    public LocalDatagramHandler(PortMapping portMapping,
+                                Channel serverChannel,
+                                PortMappingManager portMappingManager,
+                                int sessionId) {
+        this.portMapping = portMapping;
+        this.serverChannel = serverChannel;
+        this.portMappingManager = portMappingManager;
+        this.sessionId = sessionId;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
+        lastActiveNanos = System.nanoTime();
+        if (!serverChannel.isActive() || !serverChannel.isWritable()) {
+            portMappingManager.getMetrics().datagramsDropped().increment();
+            return;
+        }
+        int length = packet.content().readableBytes();
+        DataFrameWriter.writeDatagram(serverChannel, sessionId, portMapping.getRemotePort(), packet.content());
+        DeferredFlush.add(ctx.channel(), serverChannel);
+        TrafficMeter meter = ctx.channel().attr(TrafficMeter.METER).get();
+        if (meter != null) {
+            meter.recordOut(length, 1);
+        }
+        if (DataPlaneDebug.isEnabled(sessionId)) {
+            DataPlaneDebug.LOG.debug("Push Datagram : {}--{}", sessionId, length);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        DeferredFlush.flush(ctx.channel());
+        super.channelReadComplete(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        portMappingManager.handleDatagramClosed(sessionId, ctx.channel());
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        // 本地服务未监听时会收到ICMP端口不可达，关闭会话
+        log.warn("Error in datagram session {} for port {}: {}", sessionId, portMapping.getLocalPort(),
+                cause.getMessage());
+        ctx.close();
+    }
+
+    /**
+     * 记录一次发往本地服务的数据报
+     */
+    public void touch() {
+        lastActiveNanos = System.nanoTime();
+    }
+
+    /**
+     * 映射配置的空闲超时（秒）
+     */
+    public int getIdleTimeout() {
+        return portMapping.getIdleTimeout();
+    }
+
+    /**
+     * 是否空闲超过指定时长
+     */
+    public boolean isIdle(long nowNanos, long timeoutNanos) {
+        return nowNanos - lastActiveNanos > timeoutNanos;
+    }
+}
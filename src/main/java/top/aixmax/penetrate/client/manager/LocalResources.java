@@ -0,0 +1,103 @@
+package top.aixmax.penetrate.client.manager;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import top.aixmax.penetrate.config.ClientConfig;
+import top.aixmax.penetrate.core.memory.MemoryBudget;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+import top.aixmax.penetrate.core.transport.DatagramTransport;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/19 20:10
+ * @description 客户端各隧道共享的本地资源：本地连接和UDP会话的事件循环组、全局内存预算。
+ * 多活或排空切换时每条隧道各有一个 {@link PortMappingManager}（流ID由各自的服务端分配，不能共用一张表），
+ * 这些资源和指标只创建、注册一次，连接数等指标汇总全部在用的管理器
+ */
+public class LocalResources {
+
+    private final RelayMetrics metrics;
+
+    private final EventLoopGroup group;
+
+    private final MemoryBudget budget;
+
+    /**
+     * UDP会话的事件循环组，首个会话建立时创建
+     */
+    private EventLoopGroup datagramGroup;
+
+    /**
+     * 在用的管理器，隧道关闭后移除
+     */
+    private final Set<PortMappingManager> managers = ConcurrentHashMap.newKeySet();
+
+    public LocalResources(ClientConfig config, RelayMetrics metrics) {
+        this.metrics = metrics;
+        this.group = new NioEventLoopGroup(Runtime.getRuntime().availableProcessors() * 2);
+        this.budget = new MemoryBudget(config.getMemoryBudget(), metrics);
+        metrics.gaugeEventLoop("local", group);
+        metrics.gaugeMemory(budget);
+        metrics.gaugeOpenStreams(managers, LocalResources::openStreams);
+        metrics.gaugeDatagramSessions(managers, LocalResources::datagramSessions);
+    }
+
+    public RelayMetrics getMetrics() {
+        return metrics;
+    }
+
+    public EventLoopGroup getGroup() {
+        return group;
+    }
+
+    public MemoryBudget getBudget() {
+        return budget;
+    }
+
+    public synchronized EventLoopGroup datagramGroup() {
+        if (datagramGroup == null) {
+            datagramGroup = DatagramTransport.newGroup(Runtime.getRuntime().availableProcessors());
+            metrics.gaugeEventLoop("local-datagram", datagramGroup);
+        }
+        return datagramGroup;
+    }
+
+    void attach(PortMappingManager manager) {
+        managers.add(manager);
+    }
+
+    void detach(PortMappingManager manager) {
+        managers.remove(manager);
+    }
+
+    /**
+     * 关闭事件循环组，在全部管理器销毁后调用
+     */
+    public void shutdown() {
+        group.shutdownGracefully();
+        synchronized (this) {
+            if (datagramGroup != null) {
+                datagramGroup.shutdownGracefully();
+            }
+        }
+    }
+
+    private static double openStreams(Set<PortMappingManager> managers) {
+        int total = 0;
+        for (PortMappingManager manager : managers) {
+            total += manager.getLocalConnections().size();
+        }
+        return total;
+    }
+
+    private static double datagramSessions(Set<PortMappingManager> managers) {
+        int total = 0;
+        for (PortMappingManager manager : managers) {
+            total += manager.getDatagramConnections().size();
+        }
+        return total;
+    }
+}
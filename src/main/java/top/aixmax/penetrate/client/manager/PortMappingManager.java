@@ -1,22 +1,52 @@
 package top.aixmax.penetrate.client.manager;
 
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.AttributeKey;
 import lombok.extern.slf4j.Slf4j;
 import top.aixmax.penetrate.client.config.PortMapping;
 import top.aixmax.penetrate.client.handler.LocalChannelHandler;
+import top.aixmax.penetrate.client.handler.LocalDatagramHandler;
+import top.aixmax.penetrate.common.constants.ProtocolConstants;
 import top.aixmax.penetrate.config.ClientConfig;
+import top.aixmax.penetrate.core.compress.FrameCompressor;
+import top.aixmax.penetrate.core.compress.PayloadCodec;
+import top.aixmax.penetrate.core.flow.BackpressureMode;
+import top.aixmax.penetrate.core.flow.PauseReason;
+import top.aixmax.penetrate.core.flow.ReadGate;
+import top.aixmax.penetrate.core.flow.TunnelBackpressure;
+import top.aixmax.penetrate.core.jfr.RelayEvents;
+import top.aixmax.penetrate.core.log.DataPlaneDebug;
+import top.aixmax.penetrate.core.log.RateLimitedLog;
+import top.aixmax.penetrate.core.memory.MemoryAccount;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+import top.aixmax.penetrate.core.metrics.TrafficMeter;
+import top.aixmax.penetrate.core.trace.StreamTiming;
+import top.aixmax.penetrate.core.protocol.DataFrameWriter;
+import top.aixmax.penetrate.core.protocol.FrameCodec;
 import top.aixmax.penetrate.core.protocol.Message;
+import top.aixmax.penetrate.core.protocol.MessageFactory;
+import top.aixmax.penetrate.core.protocol.PortMappingCodec;
+import top.aixmax.penetrate.core.resume.SessionResume;
+import top.aixmax.penetrate.core.resume.StreamReplay;
+import top.aixmax.penetrate.core.transport.DatagramTransport;
+import top.aixmax.penetrate.core.transport.DeferredFlush;
 
 import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * @author wangxu
@@ -26,32 +56,317 @@ import java.util.concurrent.ConcurrentSkipListSet;
 @Slf4j
 public class PortMappingManager {
 
+    private static final RateLimitedLog UNKNOWN_PORT = RateLimitedLog.of(log, "client.unknown-port");
+
+    private static final RateLimitedLog NO_LOCAL_CONNECTION = RateLimitedLog.of(log, "client.no-local-connection");
+
+    /**
+     * 本地连接的连接结果，连接建立前到达的数据挂在上面按顺序写入
+     */
+    private static final AttributeKey<ChannelFuture> DIAL = AttributeKey.valueOf("penetrate.localDial");
+
     private final ClientConfig config;
 
     private final EventLoopGroup group;
 
-    private final Map<String, Channel> localConnections = new ConcurrentHashMap<>();
+    // 外部连接ID -> 本地连接
+    private final Map<Integer, Channel> localConnections = new ConcurrentHashMap<>();
+
+    /**
+     * 已占用的本地端口，只在构造和持有本对象锁时修改
+     */
+    private final BitSet localPorts = new BitSet(ProtocolConstants.PORT_LIMIT);
+
+    /**
+     * 远程端口 -> TCP映射，按端口下标直接查找，端口段展开后每个端口一项
+     */
+    private final AtomicReferenceArray<PortMapping> portMappings =
+            new AtomicReferenceArray<>(ProtocolConstants.PORT_LIMIT);
+
+    // 远程端口 -> UDP映射，与TCP映射分开，同一端口可同时映射两种协议
+    private final AtomicReferenceArray<PortMapping> datagramMappings =
+            new AtomicReferenceArray<>(ProtocolConstants.PORT_LIMIT);
+
+    private final BitSet datagramLocalPorts = new BitSet(ProtocolConstants.PORT_LIMIT);
+
+    // 会话ID -> 本地数据报通道
+    private final Map<Integer, Channel> datagramConnections = new ConcurrentHashMap<>();
+
+    /**
+     * 各隧道共享的事件循环组和内存预算
+     */
+    private final LocalResources resources;
+
+    /**
+     * 是否由本对象创建资源，单独使用时随本对象关闭
+     */
+    private final boolean ownsResources;
+
+    /**
+     * UDP会话的空闲检查，首个会话建立时启动
+     */
+    private ScheduledFuture<?> datagramExpiry;
+
+    private final RelayMetrics metrics;
+
+    /**
+     * 缓冲内存账户，各隧道的账户共用一个全局预算
+     */
+    private final MemoryAccount memory;
+
+    private volatile Channel serverChannel;
+
+    /**
+     * 服务端分配的会话令牌，0表示服务端不支持恢复或会话已失效
+     */
+    private volatile long resumeToken;
+
+    /**
+     * 服务端的宽限期（秒），隧道断开后本地连接最多保留这么久
+     */
+    private int resumeTimeout;
 
-    private final Set<Integer> localPorts = new ConcurrentSkipListSet<>();
+    /**
+     * 服务端单个流的重放缓冲上限，用于确定确认频率
+     */
+    private int peerReplayBufferSize;
 
-    private final Set<Integer> externalPorts = new ConcurrentSkipListSet<>();
+    /**
+     * 隧道断开，等待恢复
+     */
+    private boolean detached;
 
-    private final Map<Integer, PortMapping> portMappingMap = new ConcurrentHashMap<>();
+    /**
+     * 每次断开或恢复加一，宽限期到期时据此判断会话是否已恢复
+     */
+    private int resumeGeneration;
 
-    private Channel serverChannel;
+    /**
+     * 服务端接受压缩的映射，远程端口 -> 压缩器，每次注册确认后更新
+     */
+    private volatile Map<Integer, FrameCompressor> compressors = Collections.emptyMap();
+
+    /**
+     * 当前隧道协商的协议版本
+     */
+    private volatile int protocolVersion = ProtocolConstants.VERSION_1;
+
+    private final AtomicInteger mappingRequestIds = new AtomicInteger();
+
+    /**
+     * 等待确认的映射变更，请求ID -> 请求消息
+     */
+    private final Map<Integer, Message> pendingMappingUpdates = new ConcurrentHashMap<>();
 
     public PortMappingManager(ClientConfig config) {
-        int processors = Runtime.getRuntime().availableProcessors();
+        this(config, RelayMetrics.NOOP);
+    }
+
+    public PortMappingManager(ClientConfig config, RelayMetrics metrics) {
+        this(config, new LocalResources(config, metrics), true);
+    }
+
+    /**
+     * 使用共享的资源，多条隧道各一个实例，资源由调用方关闭
+     */
+    public PortMappingManager(ClientConfig config, LocalResources resources) {
+        this(config, resources, false);
+    }
+
+    private PortMappingManager(ClientConfig config, LocalResources resources, boolean ownsResources) {
         this.config = config;
-        this.group = new NioEventLoopGroup(processors * 2);
+        this.metrics = resources.getMetrics();
+        this.resources = resources;
+        this.ownsResources = ownsResources;
+        this.group = resources.getGroup();
+        this.memory = resources.getBudget().account(0);
         // 初始化端口映射
         initializePortMappings();
+        resources.attach(this);
+    }
+
+    public RelayMetrics getMetrics() {
+        return metrics;
+    }
+
+    public MemoryAccount getMemory() {
+        return memory;
     }
 
     public void setServerChannel(Channel serverChannel) {
         this.serverChannel = serverChannel;
     }
 
+    /**
+     * 当前隧道，会话恢复后为新隧道
+     */
+    public Channel getServerChannel() {
+        return serverChannel;
+    }
+
+    /**
+     * 注册消息中上报的会话恢复请求，未启用恢复时返回null
+     */
+    public SessionResume resumeRequest() {
+        if (!config.isSessionResume()) {
+            return null;
+        }
+        Map<Integer, Long> offsets = new HashMap<>();
+        synchronized (this) {
+            if (!detached) {
+                // 没有等待恢复的会话，令牌为0请求新会话
+                return SessionResume.request(0, config.getReplayBufferSize(), offsets);
+            }
+        }
+        localConnections.forEach((streamId, channel) -> {
+            StreamReplay replay = channel.attr(StreamReplay.REPLAY).get();
+            if (replay != null) {
+                offsets.put(streamId, replay.getReceivedOffset());
+            }
+        });
+        return SessionResume.request(resumeToken, config.getReplayBufferSize(), offsets);
+    }
+
+    /**
+     * 处理注册确认中的会话恢复信息，在切换到新隧道后调用。
+     * 恢复成功时按服务端的偏移重放各流未确认的数据，服务端已不存在的流关闭；未恢复时关闭断开前保留的连接
+     *
+     * @param resume 确认中的恢复信息，服务端不支持时为null
+     */
+    public void resumeSession(SessionResume resume) {
+        boolean held;
+        synchronized (this) {
+            held = detached;
+            detached = false;
+            resumeGeneration++;
+            resumeToken = resume == null ? 0 : resume.getToken();
+            resumeTimeout = resume == null ? 0 : resume.getTimeoutSeconds();
+            peerReplayBufferSize = resume == null ? 0 : resume.getReplayBufferSize();
+        }
+        if (!held) {
+            return;
+        }
+        if (resume == null || !resume.isResumed()) {
+            log.info("Session not resumed, closing {} held connections", localConnections.size());
+            closeLocalConnections();
+            return;
+        }
+        int resumed = 0;
+        long bytes = 0;
+        for (Map.Entry<Integer, Channel> entry : localConnections.entrySet()) {
+            int streamId = entry.getKey();
+            Channel channel = entry.getValue();
+            StreamReplay replay = channel.attr(StreamReplay.REPLAY).get();
+            Long offset = resume.getOffsets().get(streamId);
+            LocalChannelHandler handler = channel.pipeline().get(LocalChannelHandler.class);
+            PortMapping mapping = handler == null ? null : handler.getPortMapping();
+            long replayed = offset == null || replay == null || mapping == null ? -1
+                    : replay.resume(offset, data -> forward(streamId, mapping, data));
+            if (replayed < 0) {
+                removeConnection(streamId);
+                continue;
+            }
+            resumed++;
+            bytes += replayed;
+            ReadGate gate = ReadGate.of(channel, metrics);
+            gate.resume(PauseReason.RESUME);
+            if (replay.acknowledge(offset)) {
+                gate.resume(PauseReason.REPLAY);
+            }
+        }
+        metrics.replayed().increment(bytes);
+        metrics.sessionResume("resumed").increment();
+        log.info("Session resumed, {} streams, replayed {} bytes", resumed, bytes);
+    }
+
+    /**
+     * 将本地连接的数据按最大负载分片写入当前隧道
+     *
+     * @return 写出的帧数
+     */
+    public int forward(int serverChannelId, PortMapping mapping, ByteBuf data) {
+        return DataFrameWriter.writeData(serverChannel, serverChannelId, mapping.getRemotePort(), data,
+                config.getMaxFramePayload(), memory, getCompressor(mapping.getRemotePort()));
+    }
+
+    /**
+     * 服务端确认收到的偏移，释放重放缓冲，回落到上限一半以下时恢复读取本地连接
+     */
+    public void handleDataAck(Message msg) {
+        Map<Integer, Long> offsets;
+        try {
+            offsets = SessionResume.decodeOffsets(msg.getData());
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid data ack from server: {}", e.getMessage());
+            return;
+        }
+        offsets.forEach((streamId, offset) -> {
+            Channel channel = localConnections.get(streamId);
+            StreamReplay replay = channel == null ? null : channel.attr(StreamReplay.REPLAY).get();
+            if (replay != null && replay.acknowledge(offset)) {
+                ReadGate.of(channel, metrics).resume(PauseReason.REPLAY);
+            }
+        });
+    }
+
+    /**
+     * 确认所有流尚未确认的数据，随心跳发送
+     */
+    public void flushAcks() {
+        Channel tunnel = serverChannel;
+        if (resumeToken == 0 || tunnel == null || !tunnel.isActive()) {
+            return;
+        }
+        Map<Integer, Long> offsets = new HashMap<>();
+        localConnections.forEach((streamId, channel) -> {
+            StreamReplay replay = channel.attr(StreamReplay.REPLAY).get();
+            long offset = replay == null ? -1 : replay.takeAck();
+            if (offset >= 0) {
+                offsets.put(streamId, offset);
+            }
+        });
+        if (!offsets.isEmpty()) {
+            FrameCodec.send(tunnel, MessageFactory.createDataAckMessage(offsets));
+        }
+    }
+
+    /**
+     * 应用注册确认中协商的压缩，算法未变的映射沿用原压缩器及其统计
+     *
+     * @param accepted 远程端口 -> 算法
+     */
+    public void setCompression(Map<Integer, PayloadCodec> accepted) {
+        Map<Integer, FrameCompressor> previous = compressors;
+        Map<Integer, FrameCompressor> updated = new HashMap<>();
+        for (Map.Entry<Integer, PayloadCodec> entry : accepted.entrySet()) {
+            FrameCompressor compressor = previous.get(entry.getKey());
+            if (compressor == null || compressor.getCodec() != entry.getValue()) {
+                compressor = metrics.compressor(entry.getValue(), entry.getKey(), config.getClientId());
+            }
+            updated.put(entry.getKey(), compressor);
+        }
+        compressors = updated;
+        previous.forEach((port, compressor) -> {
+            if (updated.get(port) != compressor) {
+                compressor.remove(metrics.getRegistry());
+            }
+        });
+    }
+
+    /**
+     * 映射的压缩器，未协商压缩时返回null
+     */
+    public FrameCompressor getCompressor(int remotePort) {
+        return compressors.get(remotePort);
+    }
+
+    /**
+     * 单帧最大负载
+     */
+    public int getMaxFramePayload() {
+        return config.getMaxFramePayload();
+    }
+
     /**
      * 获取所有端口映射
      */
@@ -59,69 +374,163 @@ public class PortMappingManager {
         return config.getPortMappings();
     }
 
+    /**
+     * 本地连接表的只读视图，键为流ID
+     */
+    public Map<Integer, Channel> getLocalConnections() {
+        return Collections.unmodifiableMap(localConnections);
+    }
+
     /**
      * 检查是否可以接受新的连接
      */
-    public boolean canAcceptNewConnection(String localKey) {
-        Channel connections = localConnections.get(localKey);
+    public boolean canAcceptNewConnection(int serverChannelId) {
+        Channel connections = localConnections.get(serverChannelId);
         return connections == null;
     }
 
     /**
      * 添加新的连接
      */
-    public void addConnection(String localKey, Channel channel) {
-        if (!canAcceptNewConnection(localKey)) {
+    public void addConnection(int serverChannelId, Channel channel) {
+        if (!canAcceptNewConnection(serverChannelId)) {
             return;
         }
-        localConnections.put(localKey, channel);
+        localConnections.put(serverChannelId, channel);
 
-        log.debug("Added new connection for port {}", localKey);
+        if (DataPlaneDebug.isEnabled(serverChannelId)) {
+            DataPlaneDebug.LOG.debug("Added new connection for stream {}", serverChannelId);
+        }
     }
 
     /**
      * 移除连接
      */
-    public void removeConnection(String localKey) {
-        Channel channel = localConnections.remove(localKey);
+    public void removeConnection(int serverChannelId) {
+        Channel datagram = datagramConnections.remove(serverChannelId);
+        if (datagram != null) {
+            // 服务端会话已超时或关闭
+            datagram.close();
+            return;
+        }
+        Channel channel = localConnections.remove(serverChannelId);
         if (channel != null) {
             channel.close();
-            log.debug("Removed connection for port {}", localKey);
+            if (DataPlaneDebug.isEnabled(serverChannelId)) {
+                DataPlaneDebug.LOG.debug("Removed connection for stream {}", serverChannelId);
+            }
         }
     }
 
     /**
-     * 启动单个端口映射
+     * 本地连接断开，通知服务端关闭外部连接
      */
-    private Channel startMapping(PortMapping mapping,int serverChannelId) {
-        try {
-            Bootstrap bootstrap = new Bootstrap();
-            bootstrap.group(group)
-                    .channel(NioSocketChannel.class)
-                    .option(ChannelOption.TCP_NODELAY, true)
-                    .option(ChannelOption.SO_KEEPALIVE, true)
-                    .option(ChannelOption.SO_REUSEADDR, true)
-                    .option(ChannelOption.SO_RCVBUF, 1048576) // 1M
-                    .option(ChannelOption.SO_SNDBUF, 1048576)
-                    .handler(new LocalChannelHandler(mapping, serverChannel, this, serverChannelId));
-
-            ChannelFuture future = bootstrap.connect(mapping.getLocalHost(), mapping.getLocalPort()).sync();
-            Channel channel = future.channel();
-
-            log.info("Started port mapping: {} -> {}",
-                    mapping.getLocalPort(), mapping.getRemotePort());
-            return channel;
-        } catch (Exception e) {
-            log.error("Failed to start port mapping: {} -> {}",
-                    mapping.getLocalPort(), mapping.getRemotePort(), e);
-            throw new RuntimeException("Failed to start port mapping " +
-                    mapping.getLocalPort() + " ->" + mapping.getRemotePort());
+    public void handleLocalDisconnect(int serverChannelId) {
+        Channel channel = localConnections.remove(serverChannelId);
+        if (channel == null) {
+            // 已由服务端断开消息移除
+            return;
+        }
+        notifyDisconnect(serverChannelId);
+    }
+
+    /**
+     * 指定的本地连接断开，只在仍是该流的连接时移除并通知服务端
+     */
+    private void handleLocalDisconnect(int serverChannelId, Channel channel) {
+        if (localConnections.remove(serverChannelId, channel)) {
+            notifyDisconnect(serverChannelId);
+        }
+    }
+
+    private void notifyDisconnect(int serverChannelId) {
+        Channel tunnel = serverChannel;
+        if (tunnel != null && tunnel.isActive()) {
+            FrameCodec.send(tunnel, MessageFactory.createDisconnectMessage(serverChannelId));
         }
     }
 
+    /**
+     * 启动单个端口映射，异步连接本地服务，不阻塞隧道线程。连接登记到 localConnections，
+     * 连接失败时移除并通知服务端关闭外部连接
+     *
+     * @return 本地连接，可能仍在连接中，写入前用 {@link #writeWhenConnected} 等待
+     */
+    private Channel startMapping(PortMapping mapping, int serverChannelId, StreamTiming timing) {
+        long start = System.nanoTime();
+        if (timing != null) {
+            timing.markDialStart();
+        }
+        Object dialEvent = RelayEvents.localDialBegin();
+        Bootstrap bootstrap = new Bootstrap();
+        bootstrap.group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.SO_REUSEADDR, true)
+                .option(ChannelOption.SO_RCVBUF, 1048576) // 1M
+                .option(ChannelOption.SO_SNDBUF, 1048576)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                        config.getStreamHighWaterMark() / 2, config.getStreamHighWaterMark()))
+                .attr(StreamReplay.REPLAY, resumeToken == 0 ? null
+                        : StreamReplay.create(config.getReplayBufferSize(), peerReplayBufferSize))
+                .attr(TrafficMeter.METER, metrics.portMeter(mapping.getRemotePort()))
+                .handler(new LocalChannelHandler(mapping, this, serverChannelId, timing));
+
+        ChannelFuture future = bootstrap.connect(mapping.getLocalHost(), mapping.getLocalPort());
+        Channel channel = future.channel();
+        channel.attr(DIAL).set(future);
+        localConnections.put(serverChannelId, channel);
+        future.addListener((ChannelFutureListener) f -> {
+            if (timing != null) {
+                timing.markDialDone();
+            }
+            boolean success = f.isSuccess();
+            RelayEvents.localDialEnd(dialEvent, mapping.getLocalHost(), mapping.getLocalPort(), serverChannelId,
+                    success);
+            if (success) {
+                metrics.connectLatency().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                log.info("Started port mapping: {} -> {}", mapping.getLocalPort(), mapping.getRemotePort());
+                return;
+            }
+            log.error("Failed to start port mapping: {} -> {}",
+                    mapping.getLocalPort(), mapping.getRemotePort(), f.cause());
+            // 未建立的连接不会触发 channelInactive，在这里释放并通知服务端
+            handleLocalClosed(serverChannel, channel);
+            handleLocalDisconnect(serverChannelId, channel);
+        });
+        return channel;
+    }
 
     /**
-     * 初始化本地端口
+     * 写入本地连接，连接中时等连接建立后按到达顺序写入，连接失败或已关闭时丢弃数据。
+     * 等待连接的数据计入内存账户直到连接结束，本地服务迟迟不接受连接时由内存预算暂停读取隧道
+     */
+    private void writeWhenConnected(int serverChannelId, Channel localChannel, byte[] data) {
+        ChannelFuture dial = localChannel.attr(DIAL).get();
+        if (dial != null && !dial.isDone()) {
+            dial.addListener(f -> {
+                if (f.isSuccess()) {
+                    writeLocal(serverChannelId, localChannel, data);
+                }
+            });
+            memory.track(dial, data.length);
+            Channel tunnel = serverChannel;
+            if (tunnel != null) {
+                memory.pauseIfExhausted(tunnel);
+            }
+            return;
+        }
+        if (localChannel.isActive()) {
+            writeLocal(serverChannelId, localChannel, data);
+        } else {
+            // 连接失败或已关闭，可能先于连接的关闭回调到达，由这里通知服务端
+            handleLocalDisconnect(serverChannelId, localChannel);
+        }
+    }
+
+    /**
+     * 初始化本地端口，端口段展开后逐个登记
      */
     private void initializePortMappings() {
         if (config.getPortMappings() == null) {
@@ -131,13 +540,183 @@ public class PortMappingManager {
             if (!mapping.getEnabled()) {
                 continue;
             }
-            validatePortMapping(mapping);
-            portMappingMap.put(mapping.getRemotePort(), mapping);
+            validateRange(mapping);
+            for (PortMapping port : mapping.expand()) {
+                addLocalMapping(port);
+            }
         }
     }
 
+    private void addLocalMapping(PortMapping mapping) {
+        validatePortMapping(mapping);
+        mappings(mapping.getProtocol()).set(mapping.getRemotePort(), mapping);
+    }
+
+    /**
+     * @return 移除的映射，不存在时返回null
+     */
+    private PortMapping removeLocalMapping(int remotePort, String protocol) {
+        PortMapping previous = mappings(protocol).getAndSet(remotePort, null);
+        if (previous != null) {
+            ("udp".equalsIgnoreCase(protocol) ? datagramLocalPorts : localPorts).clear(previous.getLocalPort());
+        }
+        return previous;
+    }
+
+    private AtomicReferenceArray<PortMapping> mappings(String protocol) {
+        return "udp".equalsIgnoreCase(protocol) ? datagramMappings : portMappings;
+    }
+
     /**
-     * 检查端口映射
+     * 运行时新增或修改映射，按远程端口和协议逐个端口覆盖，已建立的本地连接沿用原映射直到关闭。
+     * 协商版本不低于v3时立即通知服务端，否则在下次注册时生效；停用的映射按删除处理
+     *
+     * @param mapping 映射或端口段
+     * @throws IllegalArgumentException 映射非法或端口冲突，原映射保持不变
+     */
+    public synchronized void putMapping(PortMapping mapping) {
+        if (Boolean.FALSE.equals(mapping.getEnabled())) {
+            removeMapping(mapping);
+            return;
+        }
+        validateRange(mapping);
+        List<PortMapping> ports = mapping.expand();
+        List<PortMapping> previous = new ArrayList<>();
+        for (PortMapping port : ports) {
+            PortMapping replaced = removeLocalMapping(port.getRemotePort(), port.getProtocol());
+            if (replaced != null) {
+                previous.add(replaced);
+            }
+        }
+        int added = 0;
+        try {
+            for (PortMapping port : ports) {
+                addLocalMapping(port);
+                added++;
+            }
+        } catch (IllegalArgumentException e) {
+            for (PortMapping port : ports.subList(0, added)) {
+                removeLocalMapping(port.getRemotePort(), port.getProtocol());
+            }
+            previous.forEach(this::addLocalMapping);
+            throw e;
+        }
+        sendMappingUpdates(PortMappingCodec.OP_PUT, ports);
+    }
+
+    /**
+     * 运行时删除映射，服务端不再分派这些端口的新连接，已建立的连接继续到结束。
+     * 服务端确认前仍可能分派新连接，本地映射在确认后移除
+     *
+     * @param mapping 映射或端口段，只使用远程端口、端口数量和协议
+     */
+    public synchronized void removeMapping(PortMapping mapping) {
+        List<PortMapping> ports = new ArrayList<>();
+        AtomicReferenceArray<PortMapping> table = mappings(mapping.getProtocol());
+        for (PortMapping port : mapping.expand()) {
+            PortMapping current = table.get(port.getRemotePort());
+            if (current != null) {
+                ports.add(current);
+            }
+        }
+        if (!ports.isEmpty() && !sendMappingUpdates(PortMappingCodec.OP_REMOVE, ports)) {
+            for (PortMapping port : ports) {
+                removeLocalMapping(port.getRemotePort(), port.getProtocol());
+            }
+        }
+    }
+
+    /**
+     * 每个端口一条变更消息
+     *
+     * @return 是否已发给服务端
+     */
+    private boolean sendMappingUpdates(byte op, List<PortMapping> ports) {
+        Channel tunnel = serverChannel;
+        if (tunnel == null || !tunnel.isActive() || protocolVersion < ProtocolConstants.VERSION_3) {
+            log.info("Port mapping {}/{} ({} ports) changed, takes effect on the next registration",
+                    ports.get(0).getRemotePort(), ports.get(0).getProtocol(), ports.size());
+            return false;
+        }
+        for (PortMapping port : ports) {
+            Message request = MessageFactory.createPortMappingMessage(mappingRequestIds.incrementAndGet(), op, port);
+            pendingMappingUpdates.put(request.getChannelId(), request);
+            tunnel.write(FrameCodec.of(tunnel).encode(tunnel.alloc(), request));
+        }
+        tunnel.flush();
+        return true;
+    }
+
+    /**
+     * 删除确认前映射可能已被再次修改，只移除本地端口未变的映射
+     */
+    private synchronized void removeLocalMapping(PortMapping removed) {
+        PortMapping current = mappings(removed.getProtocol()).get(removed.getRemotePort());
+        if (current != null && current.getLocalPort().equals(removed.getLocalPort())) {
+            removeLocalMapping(removed.getRemotePort(), removed.getProtocol());
+        }
+    }
+
+    /**
+     * 服务端确认映射变更，删除的映射此时从本地移除，应用服务端接受的压缩
+     */
+    public void handlePortMappingAck(Message msg) {
+        Message request = pendingMappingUpdates.remove(msg.getChannelId());
+        if (request == null) {
+            return;
+        }
+        PortMapping mapping = PortMappingCodec.decodeMapping(request.getData());
+        if (!PortMappingCodec.isAccepted(msg.getData())) {
+            log.warn("Server rejected port mapping update {}/{}: {}", mapping.getRemotePort(), mapping.getProtocol(),
+                    PortMappingCodec.decodeAckReason(msg.getData()));
+            return;
+        }
+        boolean removed = PortMappingCodec.decodeOp(request.getData()) == PortMappingCodec.OP_REMOVE;
+        if (removed) {
+            removeLocalMapping(mapping);
+        }
+        if (!"udp".equalsIgnoreCase(mapping.getProtocol())) {
+            // 删除的映射不再压缩，对端按帧标志解压，进行中的流不受影响
+            PayloadCodec codec = removed ? PayloadCodec.NONE : PortMappingCodec.decodeAckCompression(msg.getData());
+            Map<Integer, PayloadCodec> accepted = new HashMap<>();
+            compressors.forEach((port, compressor) -> accepted.put(port, compressor.getCodec()));
+            if (codec == PayloadCodec.NONE) {
+                accepted.remove(mapping.getRemotePort());
+            } else {
+                accepted.put(mapping.getRemotePort(), codec);
+            }
+            setCompression(accepted);
+        }
+        log.debug("Port mapping {}/{} updated on server", mapping.getRemotePort(), mapping.getProtocol());
+    }
+
+    /**
+     * 注册确认中协商的协议版本，隧道断开后恢复为v1
+     */
+    public void setProtocolVersion(int protocolVersion) {
+        this.protocolVersion = protocolVersion;
+    }
+
+    /**
+     * 检查端口段的数量和首尾端口，段内各端口在登记时逐个检查
+     *
+     * @param mapping 端口映射配置
+     */
+    private static void validateRange(PortMapping mapping) {
+        int count = mapping.getPortCount() == null ? 1 : mapping.getPortCount();
+        if (count < 1) {
+            throw new IllegalArgumentException("Invalid port count: " + count);
+        }
+        if (mapping.getLocalPort() + count > ProtocolConstants.PORT_LIMIT) {
+            throw new IllegalArgumentException("Local port range exceeds 65535: " + mapping.getLocalPort());
+        }
+        if (mapping.getRemotePort() + count > ProtocolConstants.PORT_LIMIT) {
+            throw new IllegalArgumentException("Remote port range exceeds 65535: " + mapping.getRemotePort());
+        }
+    }
+
+    /**
+     * 检查单个端口的映射并占用本地端口
      *
      * @param mapping 端口映射配置
      */
@@ -151,20 +730,38 @@ public class PortMappingManager {
         if (!"tcp".equalsIgnoreCase(mapping.getProtocol()) && !"udp".equalsIgnoreCase(mapping.getProtocol())) {
             throw new IllegalArgumentException("Invalid protocol: " + mapping.getProtocol());
         }
-        if (localPorts.contains(mapping.getLocalPort()) || externalPorts.contains(mapping.getRemotePort())) {
+        PayloadCodec.parse(mapping.getCompression());
+        BitSet used = "udp".equalsIgnoreCase(mapping.getProtocol()) ? datagramLocalPorts : localPorts;
+        if (used.get(mapping.getLocalPort()) || mappings(mapping.getProtocol()).get(mapping.getRemotePort()) != null) {
             throw new IllegalArgumentException("Port repeat :" + mapping.getLocalPort());
         }
-        localPorts.add(mapping.getLocalPort());
-        externalPorts.add(mapping.getRemotePort());
+        used.set(mapping.getLocalPort());
     }
 
-    public int mappingPort(int externalPort) {
-        PortMapping mapping = portMappingMap.get(externalPort);
-        if (mapping == null) {
-            log.warn("None Register External Port {}", externalPort);
-            throw new RuntimeException("None Register External Port " + externalPort);
+    /**
+     * 按远程端口查找TCP映射，直接按下标读取
+     *
+     * @param externalPort 远程端口
+     * @return 映射，未映射时返回null
+     */
+    public PortMapping getMapping(int externalPort) {
+        return externalPort > 0 && externalPort < ProtocolConstants.PORT_LIMIT ? portMappings.get(externalPort) : null;
+    }
+
+    private PortMapping getDatagramMapping(int externalPort) {
+        return externalPort > 0 && externalPort < ProtocolConstants.PORT_LIMIT
+                ? datagramMappings.get(externalPort) : null;
+    }
+
+    /**
+     * 外部端口未映射，通知服务端关闭该外部连接
+     */
+    private void rejectUnknownPort(int serverChannelId, int externalPort) {
+        UNKNOWN_PORT.warn("None Register External Port {}", externalPort);
+        Channel tunnel = serverChannel;
+        if (tunnel != null && tunnel.isActive()) {
+            FrameCodec.send(tunnel, MessageFactory.createDisconnectMessage(serverChannelId));
         }
-        return mapping.getLocalPort();
     }
 
 
@@ -172,53 +769,313 @@ public class PortMappingManager {
      * 处理来自服务器的数据
      */
     public void handleIncomingData(Message msg) {
-        // 解析数据包头部，获取目标端口和数据
         try {
-            // 解析端口和数据
-            int localPort = mappingPort(msg.getExternalPort());
             int serverChannelId = msg.getChannelId();
 
-            log.debug("Write Data : {}--{}", serverChannelId, msg.getData().length);
+            if (DataPlaneDebug.isEnabled(serverChannelId)) {
+                DataPlaneDebug.LOG.debug("Write Data : {}--{}", serverChannelId, msg.getData().length);
+            }
 
             // 获取对应的本地连接并转发数据
-            Channel localChannel = localConnections.get(localPort + "+" + serverChannelId);
+            Channel localChannel = localConnections.get(serverChannelId);
             if (localChannel != null) {
-                if (localChannel.isActive()) {
-                    localChannel.writeAndFlush(Unpooled.wrappedBuffer(msg.getData()));
-                    return;
-                } else {
-                    localChannel.close();
-                }
+                writeWhenConnected(serverChannelId, localChannel, msg.getData());
+                return;
             }
 
-            localChannel = startMapping(portMappingMap.get(msg.getExternalPort()), serverChannelId);
-            localChannel.writeAndFlush(Unpooled.wrappedBuffer(msg.getData()));
+            // v2数据帧不携带外部端口，连接必须先由CONNECT建立
+            if (msg.getExternalPort() == 0) {
+                NO_LOCAL_CONNECTION.warn("No local connection for stream {}", serverChannelId);
+                return;
+            }
 
-            localConnections.put(localPort + "+" + serverChannelId, localChannel);
+            // 兼容未发送CONNECT的旧版本服务端
+            PortMapping mapping = getMapping(msg.getExternalPort());
+            if (mapping == null) {
+                rejectUnknownPort(serverChannelId, msg.getExternalPort());
+                return;
+            }
+            localChannel = startMapping(mapping, serverChannelId, null);
+            writeWhenConnected(serverChannelId, localChannel, msg.getData());
         } catch (Exception e) {
             log.error("Error handling incoming data", e);
         }
     }
 
+    /**
+     * 写入本地连接，本地连接不可写或本地服务积压超过内存预算时暂停读取隧道
+     */
+    private void writeLocal(int serverChannelId, Channel localChannel, byte[] data) {
+        StreamReplay replay = localChannel.attr(StreamReplay.REPLAY).get();
+        if (replay == null) {
+            write(localChannel, data);
+        } else if (replay.deliver(data.length, () -> write(localChannel, data))) {
+            long offset = replay.takeAckIfDue();
+            if (offset >= 0) {
+                FrameCodec.send(serverChannel, MessageFactory.createDataAckMessage(
+                        Collections.singletonMap(serverChannelId, offset)));
+            }
+        } else {
+            // 隧道断开期间不交付，恢复后由服务端重放
+            return;
+        }
+        Channel tunnel = serverChannel;
+        if (tunnel != null) {
+            TunnelBackpressure backpressure = backpressure(tunnel);
+            if (backpressure != null) {
+                backpressure.afterDestinationWrite(localChannel);
+            }
+            memory.pauseIfExhausted(tunnel);
+        }
+    }
+
+    private boolean write(Channel localChannel, byte[] data) {
+        localChannel.attr(TrafficMeter.METER).get().recordIn(data.length);
+        memory.track(localChannel.writeAndFlush(Unpooled.wrappedBuffer(data)), data.length);
+        return true;
+    }
+
+    /**
+     * 本地数据写入隧道后调用，隧道不可写时暂停读取本地连接
+     */
+    public void afterTunnelWrite(Channel tunnel, Channel localChannel) {
+        TunnelBackpressure backpressure = backpressure(tunnel);
+        if (backpressure != null) {
+            backpressure.afterTunnelWrite(localChannel);
+        }
+    }
+
+    /**
+     * 本地连接恢复可写或关闭
+     */
+    public void handleLocalWritable(Channel tunnel, Channel localChannel) {
+        TunnelBackpressure backpressure = TunnelBackpressure.get(tunnel);
+        if (backpressure != null) {
+            backpressure.destinationWritable(localChannel);
+        }
+    }
+
+    /**
+     * 本地连接关闭
+     */
+    public void handleLocalClosed(Channel tunnel, Channel localChannel) {
+        memory.remove(localChannel);
+        StreamReplay replay = localChannel.attr(StreamReplay.REPLAY).get();
+        if (replay != null) {
+            replay.release();
+        }
+        TunnelBackpressure backpressure = TunnelBackpressure.get(tunnel);
+        if (backpressure != null) {
+            backpressure.destinationWritable(localChannel);
+            backpressure.sourceClosed(localChannel);
+        }
+    }
+
+    /**
+     * 本地背压模式下隧道的背压状态，其他模式返回null
+     */
+    private TunnelBackpressure backpressure(Channel tunnel) {
+        if (config.getBackpressureMode() != BackpressureMode.LOCAL) {
+            return null;
+        }
+        return TunnelBackpressure.of(tunnel, metrics);
+    }
+
     public void handleConnect(Message msg) {
-        // 解析端口和数据
-        int localPort = mappingPort(msg.getExternalPort());
+        StreamTiming timing = MessageFactory.isTraceRequested(msg) ? new StreamTiming(System.nanoTime()) : null;
+        // 解析端口
         int serverChannelId = msg.getChannelId();
+        PortMapping mapping = getMapping(msg.getExternalPort());
+        if (mapping == null) {
+            rejectUnknownPort(serverChannelId, msg.getExternalPort());
+            return;
+        }
+
+        if (DataPlaneDebug.isEnabled(serverChannelId)) {
+            DataPlaneDebug.LOG.debug("Connect : {}--{}", serverChannelId, msg.getExternalPort());
+        }
+
+        // 建立本地连接
+        startMapping(mapping, serverChannelId, timing);
+    }
+
+    /**
+     * 将服务端转发的数据报发往本地服务，会话的首个数据报到达时建立本地数据报通道。
+     * 在隧道线程调用，读取结束后统一flush
+     *
+     * @param tunnel 隧道
+     * @param msg    DATAGRAM消息
+     */
+    public void handleDatagram(Channel tunnel, Message msg) {
+        int sessionId = msg.getChannelId();
+        int length = msg.getData().length;
+        Channel channel = datagramConnections.get(sessionId);
+        if (channel != null) {
+            LocalDatagramHandler handler = channel.pipeline().get(LocalDatagramHandler.class);
+            if (handler != null) {
+                handler.touch();
+            }
+            channel.attr(TrafficMeter.METER).get().recordIn(length);
+            channel.write(Unpooled.wrappedBuffer(msg.getData()));
+            DeferredFlush.add(tunnel, channel);
+            return;
+        }
+
+        PortMapping mapping = getDatagramMapping(msg.getExternalPort());
+        if (mapping == null) {
+            UNKNOWN_PORT.warn("None Register External Port {}", msg.getExternalPort());
+            metrics.datagramsDropped().increment();
+            return;
+        }
+        ChannelFuture future = DatagramTransport.configure(new Bootstrap(), config.getMaxDatagramSize())
+                .group(datagramGroup())
+                .option(ChannelOption.SO_RCVBUF, 1048576)
+                .option(ChannelOption.SO_SNDBUF, 1048576)
+                .handler(new LocalDatagramHandler(mapping, tunnel, this, sessionId))
+                .connect(mapping.getLocalHost(), mapping.getLocalPort());
+        channel = future.channel();
+        TrafficMeter meter = metrics.portMeter(mapping.getRemotePort());
+        channel.attr(TrafficMeter.METER).set(meter);
+        datagramConnections.put(sessionId, channel);
+        meter.recordIn(length);
+        ByteBuf first = Unpooled.wrappedBuffer(msg.getData());
+        future.addListener((ChannelFutureListener) f -> {
+            if (f.isSuccess()) {
+                f.channel().writeAndFlush(first);
+            } else {
+                log.warn("Failed to open datagram session {} to {}:{}", sessionId,
+                        mapping.getLocalHost(), mapping.getLocalPort(), f.cause());
+                f.channel().close();
+            }
+        });
+        if (DataPlaneDebug.isEnabled(sessionId)) {
+            DataPlaneDebug.LOG.debug("Datagram session {} opened to {}:{}", sessionId,
+                    mapping.getLocalHost(), mapping.getLocalPort());
+        }
+    }
+
+    /**
+     * 本地数据报通道关闭，由本地关闭时通知服务端移除会话
+     */
+    public void handleDatagramClosed(int sessionId, Channel channel) {
+        if (datagramConnections.remove(sessionId, channel)) {
+            Channel tunnel = serverChannel;
+            if (tunnel != null && tunnel.isActive()) {
+                FrameCodec.send(tunnel, MessageFactory.createDisconnectMessage(sessionId));
+            }
+        }
+    }
 
-        log.debug("Write Data : {}--{}", serverChannelId, msg.getData().length);
+    /**
+     * UDP会话表的只读视图，键为会话ID
+     */
+    public Map<Integer, Channel> getDatagramConnections() {
+        return Collections.unmodifiableMap(datagramConnections);
+    }
+
+    private synchronized EventLoopGroup datagramGroup() {
+        EventLoopGroup datagramGroup = resources.datagramGroup();
+        if (datagramExpiry == null) {
+            long period = ProtocolConstants.waitTime;
+            datagramExpiry = datagramGroup.scheduleAtFixedRate(this::expireDatagrams, period, period,
+                    TimeUnit.MILLISECONDS);
+        }
+        return datagramGroup;
+    }
+
+    /**
+     * 关闭空闲超过映射 idleTimeout 的会话，服务端通常更早超时并通知关闭
+     */
+    private void expireDatagrams() {
+        long now = System.nanoTime();
+        for (Channel channel : datagramConnections.values()) {
+            LocalDatagramHandler handler = channel.pipeline().get(LocalDatagramHandler.class);
+            if (handler != null && handler.isIdle(now, TimeUnit.SECONDS.toNanos(handler.getIdleTimeout()))) {
+                channel.close();
+            }
+        }
+    }
 
-        // 获取对应的本地连接并转发数据
-        Channel localChannel = startMapping(portMappingMap.get(msg.getExternalPort()), serverChannelId);
-        localConnections.put(localPort + "+" + serverChannelId, localChannel);
+    /**
+     * 回传采样流的阶段耗时，每个流只发送一次
+     */
+    public void reportTiming(int serverChannelId, StreamTiming timing) {
+        if (timing.markReported() && serverChannel != null && serverChannel.isActive()) {
+            FrameCodec.send(serverChannel, MessageFactory.createStreamTraceMessage(serverChannelId, timing.encode()));
+        }
     }
 
     /**
      * 处理连接断开事件
      */
     public void handleDisconnect() {
-        // 清理所有本地连接
-        localConnections.values().forEach(Channel::close);
-        localConnections.clear();
+        protocolVersion = ProtocolConstants.VERSION_1;
+        pendingMappingUpdates.clear();
+        Channel tunnel = serverChannel;
+        if (tunnel != null) {
+            memory.remove(tunnel);
+            // 恢复因隧道不可写暂停的本地连接，保留的连接仍因等待恢复而暂停
+            TunnelBackpressure backpressure = TunnelBackpressure.get(tunnel);
+            if (backpressure != null) {
+                backpressure.tunnelWritable();
+            }
+        }
+        closeDatagrams();
+        if (resumeToken == 0 || resumeTimeout <= 0) {
+            // 清理所有本地连接
+            closeLocalConnections();
+            return;
+        }
+        int generation;
+        synchronized (this) {
+            detached = true;
+            generation = ++resumeGeneration;
+        }
+        for (Channel channel : localConnections.values()) {
+            StreamReplay replay = channel.attr(StreamReplay.REPLAY).get();
+            if (replay == null) {
+                channel.close();
+                continue;
+            }
+            replay.hold();
+            ReadGate.of(channel, metrics).pause(PauseReason.RESUME);
+        }
+        group.schedule(() -> expire(generation), resumeTimeout, TimeUnit.SECONDS);
+        log.info("Holding {} local connections for {}s while reconnecting", localConnections.size(), resumeTimeout);
+    }
+
+    /**
+     * 宽限期到期仍未恢复，关闭保留的本地连接，重连后以新会话注册
+     */
+    private void expire(int generation) {
+        synchronized (this) {
+            if (!detached || resumeGeneration != generation) {
+                return;
+            }
+            detached = false;
+            resumeToken = 0;
+        }
+        metrics.sessionResume("expired").increment();
+        log.info("Session expired, closing {} held connections", localConnections.size());
+        closeLocalConnections();
+    }
+
+    private void closeLocalConnections() {
+        for (Integer streamId : localConnections.keySet()) {
+            Channel channel = localConnections.remove(streamId);
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    private void closeDatagrams() {
+        for (Integer sessionId : datagramConnections.keySet()) {
+            Channel channel = datagramConnections.remove(sessionId);
+            if (channel != null) {
+                channel.close();
+            }
+        }
     }
 
     @PreDestroy
@@ -227,8 +1084,18 @@ public class PortMappingManager {
         localConnections.values().forEach(Channel::close);
         localConnections.clear();
 
-        // 关闭线程组
-        group.shutdownGracefully();
+        closeDatagrams();
+
+        synchronized (this) {
+            if (datagramExpiry != null) {
+                datagramExpiry.cancel(false);
+            }
+        }
+        resources.detach(this);
+        if (ownsResources) {
+            // 关闭线程组
+            resources.shutdown();
+        }
     }
 
 }
\ No newline at end of file
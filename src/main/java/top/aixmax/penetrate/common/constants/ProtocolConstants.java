@@ -8,9 +8,29 @@ package top.aixmax.penetrate.common.constants;
 
 public final class ProtocolConstants {
     /**
-     * 协议版本
+     * v1协议：定长15字节帧头，每帧携带外部端口
      */
-    public static final byte VERSION = 1;
+    public static final byte VERSION_1 = 1;
+
+    /**
+     * v2协议：变长帧头，数据帧不携带外部端口
+     */
+    public static final byte VERSION_2 = 2;
+
+    /**
+     * v3协议：帧格式同v2，注册后可通过PORT_MAPPING增删映射
+     */
+    public static final byte VERSION_3 = 3;
+
+    /**
+     * 协议版本，本端支持的最高版本，在注册时与对端协商
+     */
+    public static final byte VERSION = VERSION_3;
+
+    /**
+     * 端口号数量，按端口下标直接查找的映射表大小
+     */
+    public static final int PORT_LIMIT = 65536;
 
     /**
      * 魔数
@@ -22,6 +42,11 @@ public final class ProtocolConstants {
      */
     public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
 
+    /**
+     * 默认单帧最大负载 (32KB)，超过则由发送方分片
+     */
+    public static final int DEFAULT_MAX_FRAME_PAYLOAD = 32 * 1024;
+
     /**
      * 长度字段长度
      */
@@ -65,6 +90,11 @@ public final class ProtocolConstants {
 
     public static final int waitTime = 5000;
 
+    /**
+     * 错误消息前缀：服务端限流，客户端需在指定毫秒数后重试
+     */
+    public static final String RETRY_AFTER_PREFIX = "retry-after=";
+
     private ProtocolConstants() {
         // 防止实例化
     }
@@ -19,7 +19,10 @@ public enum MessageType {
     DISCONNECT((byte) 10),
     DISCONNECT_ACK((byte) 11),
     CONNECT((byte) 12),
-    CONNECT_ACK((byte) 13);
+    CONNECT_ACK((byte) 13),
+    STREAM_TRACE((byte) 14),
+    DATAGRAM((byte) 15),
+    GOAWAY((byte) 16);
 
     private final byte value;
 
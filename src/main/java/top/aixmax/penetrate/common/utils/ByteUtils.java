@@ -1,5 +1,7 @@
 package top.aixmax.penetrate.common.utils;
 
+import io.netty.buffer.ByteBuf;
+
 /**
  * @author wangxu
  * @version 1.0 2024/11/26 12:08
@@ -54,4 +56,64 @@ public class ByteUtils {
         bytes[3] = (byte) value;          // 取最低位
         return bytes;
     }
+
+    /**
+     * 写入无符号变长整型（每字节7位，最高位表示后续还有字节）
+     *
+     * @param buf   缓冲区
+     * @param value 整型，按无符号处理
+     */
+    public static void writeVarInt(ByteBuf buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte(value);
+    }
+
+    /**
+     * 变长整型编码后的字节数
+     *
+     * @param value 整型
+     * @return 字节数 1~5
+     */
+    public static int varIntSize(int value) {
+        if ((value & (~0 << 7)) == 0) {
+            return 1;
+        }
+        if ((value & (~0 << 14)) == 0) {
+            return 2;
+        }
+        if ((value & (~0 << 21)) == 0) {
+            return 3;
+        }
+        if ((value & (~0 << 28)) == 0) {
+            return 4;
+        }
+        return 5;
+    }
+
+    /**
+     * 在指定位置读取变长整型，不移动读指针
+     *
+     * @param buf   缓冲区
+     * @param index 起始位置
+     * @return 高32位为占用字节数，低32位为数值；数据不足时返回-1
+     * @throws IllegalArgumentException 超过5字节
+     */
+    public static long getVarInt(ByteBuf buf, int index) {
+        int limit = buf.writerIndex();
+        int result = 0;
+        for (int i = 0; i < 5; i++) {
+            if (index + i >= limit) {
+                return -1;
+            }
+            byte b = buf.getByte(index + i);
+            result |= (b & 0x7F) << (7 * i);
+            if (b >= 0) {
+                return ((long) (i + 1) << 32) | (result & 0xFFFFFFFFL);
+            }
+        }
+        throw new IllegalArgumentException("VarInt too long");
+    }
 }
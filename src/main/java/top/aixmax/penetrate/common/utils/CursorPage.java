@@ -0,0 +1,28 @@
+package top.aixmax.penetrate.common.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 21:10
+ * @description 游标分页结果，nextCursor 为本页最后一条的键，没有更多数据时为null
+ */
+@Getter
+@AllArgsConstructor
+public class CursorPage<T> {
+
+    private final List<T> items;
+
+    /**
+     * 下一页游标，作为下次请求的 cursor 参数
+     */
+    private final Object nextCursor;
+
+    /**
+     * 表中当前的记录总数（未过滤）
+     */
+    private final int total;
+}
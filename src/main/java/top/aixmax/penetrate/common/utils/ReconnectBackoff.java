@@ -0,0 +1,102 @@
+package top.aixmax.penetrate.common.utils;
+
+import java.util.Random;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 14:10
+ * @description 重连退避，指数退避叠加去相关抖动（decorrelated jitter），避免客户端同步重连
+ * <p>
+ * delay = min(cap, random(base, previous * 3))，服务端要求的 retry-after 作为下限
+ */
+public class ReconnectBackoff {
+
+    private final long baseMillis;
+
+    private final long capMillis;
+
+    private final int maxAttempts;
+
+    private final Random random;
+
+    private long previousMillis;
+
+    private long retryAfterMillis;
+
+    private int attempts;
+
+    /**
+     * 本轮失败中是否已跳过一次退避
+     */
+    private boolean immediateRetryUsed;
+
+    /**
+     * @param baseMillis  初始间隔
+     * @param capMillis   最大间隔
+     * @param maxAttempts 连续失败的最大重试次数，小于等于0表示不限制
+     */
+    public ReconnectBackoff(long baseMillis, long capMillis, int maxAttempts) {
+        this(baseMillis, capMillis, maxAttempts, new Random());
+    }
+
+    public ReconnectBackoff(long baseMillis, long capMillis, int maxAttempts, Random random) {
+        this.baseMillis = Math.max(1, baseMillis);
+        this.capMillis = Math.max(this.baseMillis, capMillis);
+        this.maxAttempts = maxAttempts;
+        this.random = random;
+        this.previousMillis = this.baseMillis;
+    }
+
+    /**
+     * 计算下一次重连前的等待时间，并记录一次失败
+     *
+     * @return 等待毫秒数
+     */
+    public synchronized long nextDelayMillis() {
+        attempts++;
+        long upper = Math.min(capMillis, previousMillis * 3);
+        long delay = baseMillis + (long) (random.nextDouble() * (upper - baseMillis));
+        previousMillis = Math.max(baseMillis, delay);
+        long result = Math.max(delay, retryAfterMillis);
+        retryAfterMillis = 0;
+        return result;
+    }
+
+    /**
+     * 服务端要求的最小重试间隔，仅对下一次重连生效
+     */
+    public synchronized void retryAfter(long millis) {
+        retryAfterMillis = Math.max(retryAfterMillis, millis);
+    }
+
+    /**
+     * 切换到其他服务端时申请跳过退避立即重连。每轮失败（到下次注册成功为止）只允许一次，
+     * 服务端要求了 retry-after 时不允许，避免在多个服务端之间来回切换形成重连风暴
+     *
+     * @return 是否可以立即重连
+     */
+    public synchronized boolean takeImmediateRetry() {
+        if (immediateRetryUsed || retryAfterMillis > 0) {
+            return false;
+        }
+        immediateRetryUsed = true;
+        return true;
+    }
+
+    /**
+     * 注册成功后重置
+     */
+    public synchronized void reset() {
+        attempts = 0;
+        previousMillis = baseMillis;
+        retryAfterMillis = 0;
+        immediateRetryUsed = false;
+    }
+
+    /**
+     * 是否已超过最大重试次数
+     */
+    public synchronized boolean exhausted() {
+        return maxAttempts > 0 && attempts >= maxAttempts;
+    }
+}
@@ -0,0 +1,72 @@
+package top.aixmax.penetrate.common.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 21:10
+ * @description 并发表的游标分页。对 ConcurrentHashMap 做一次弱一致遍历，不加锁也不复制整表，
+ * 只用大小为 limit+1 的堆保留游标之后最小的若干个键，10万条记录时每页也只需一次线性扫描
+ */
+public final class SnapshotPager {
+
+    public static final int DEFAULT_LIMIT = 100;
+
+    public static final int MAX_LIMIT = 1000;
+
+    private SnapshotPager() {
+    }
+
+    /**
+     * 按键升序取游标之后的一页
+     *
+     * @param table  数据表
+     * @param after  游标，返回键大于该值的记录，为null时从头开始
+     * @param limit  每页数量，超出范围时取默认值或上限
+     * @param filter 过滤条件，参数为键和值
+     * @param view   转换为输出对象，只对本页记录调用
+     */
+    public static <K extends Comparable<? super K>, V, R> CursorPage<R> page(
+            Map<K, V> table, K after, Integer limit,
+            BiPredicate<? super K, ? super V> filter, BiFunction<? super K, ? super V, ? extends R> view) {
+        int size = limit == null || limit <= 0 ? DEFAULT_LIMIT : Math.min(limit, MAX_LIMIT);
+        // 大顶堆，多保留一条用于判断是否还有下一页
+        PriorityQueue<Map.Entry<K, V>> heap = new PriorityQueue<>(size + 2,
+                (a, b) -> b.getKey().compareTo(a.getKey()));
+        for (Map.Entry<K, V> entry : table.entrySet()) {
+            K key = entry.getKey();
+            if (after != null && key.compareTo(after) <= 0) {
+                continue;
+            }
+            if (heap.size() > size && key.compareTo(heap.peek().getKey()) >= 0) {
+                continue;
+            }
+            if (!filter.test(key, entry.getValue())) {
+                continue;
+            }
+            heap.add(entry);
+            if (heap.size() > size + 1) {
+                heap.poll();
+            }
+        }
+
+        List<Map.Entry<K, V>> entries = new ArrayList<>(heap);
+        entries.sort(Map.Entry.comparingByKey());
+        K next = null;
+        if (entries.size() > size) {
+            entries.remove(entries.size() - 1);
+            next = entries.get(entries.size() - 1).getKey();
+        }
+        List<R> items = new ArrayList<>(entries.size());
+        for (Map.Entry<K, V> entry : entries) {
+            items.add(view.apply(entry.getKey(), entry.getValue()));
+        }
+        return new CursorPage<>(Collections.unmodifiableList(items), next, table.size());
+    }
+}
@@ -0,0 +1,75 @@
+package top.aixmax.penetrate.common.utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 14:05
+ * @description 令牌桶限流，用于新连接与注册的准入控制
+ */
+public class TokenBucket {
+
+    /**
+     * 每纳秒补充的令牌数
+     */
+    private final double tokensPerNano;
+
+    /**
+     * 桶容量（允许的突发数量）
+     */
+    private final double capacity;
+
+    /**
+     * 单调时钟（纳秒）
+     */
+    private final LongSupplier nanoClock;
+
+    private double tokens;
+
+    private long lastRefill;
+
+    public TokenBucket(double ratePerSecond, int burst) {
+        this(ratePerSecond, burst, System::nanoTime);
+    }
+
+    public TokenBucket(double ratePerSecond, int burst, LongSupplier nanoClock) {
+        if (ratePerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = burst;
+        this.nanoClock = nanoClock;
+        this.tokens = burst;
+        this.lastRefill = nanoClock.getAsLong();
+    }
+
+    /**
+     * 尝试获取一个令牌
+     *
+     * @return 0表示获取成功，否则为下一个令牌可用前需要等待的纳秒数
+     */
+    public synchronized long tryAcquire() {
+        long now = nanoClock.getAsLong();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerNano));
+    }
+
+    /**
+     * 计算返回给被拒绝方的重试时间：在一个补满周期内随机分散，避免被拒绝的客户端再次同时到达
+     *
+     * @param waitNanos tryAcquire 返回的等待时间
+     * @return 重试等待毫秒数，至少1毫秒
+     */
+    public long retryAfterMillis(long waitNanos) {
+        long refillNanos = (long) (capacity / tokensPerNano);
+        long spread = ThreadLocalRandom.current().nextLong(refillNanos + 1);
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos + spread));
+    }
+}
@@ -3,7 +3,11 @@ package top.aixmax.penetrate.config;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.common.constants.ProtocolConstants;
+import top.aixmax.penetrate.core.flow.BackpressureMode;
+import top.aixmax.penetrate.core.tls.TlsProvider;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -21,16 +25,111 @@ public class ClientConfig {
 
     private String serverHost = "localhost";
     private int serverPort = 7000;
+    /**
+     * 服务端列表（host:port），按探测的往返时间选择最近的可用服务端，为空时只使用 serverHost/serverPort
+     */
+    private List<String> servers = new ArrayList<>();
+    /**
+     * 同时保持隧道的服务端数量，大于1时为多活，每个服务端各有一条隧道和独立的会话
+     */
+    private int activeServers = 1;
+    /**
+     * 服务端探测间隔（毫秒），配置了多个服务端时定期建立TCP连接测量往返时间，0为不探测
+     */
+    private int serverProbeInterval = 5000;
+    /**
+     * 探测连接超时（毫秒）
+     */
+    private int serverProbeTimeout = 1000;
+    /**
+     * 连续探测失败次数达到该值时视为不可用，隧道所在的服务端不可用时切换到其他服务端
+     */
+    private int serverProbeFailures = 2;
     private int heartbeatInterval = 30;
+    /**
+     * 重连初始间隔（秒），之后按抖动指数退避
+     */
     private int retryInterval = 5;
-    private int maxRetryTimes = 3;
+    /**
+     * 重连最大间隔（秒）
+     */
+    private int maxRetryInterval = 60;
+    /**
+     * 连续重连失败的最大次数，小于等于0表示一直重连
+     */
+    private int maxRetryTimes = 0;
     private int connectTimeout = 5000;
     private int workerThreads = 4;
     private boolean enableSsl = false;
+    /**
+     * 信任的服务端证书（PEM），留空时使用系统默认信任库
+     */
+    private String trustCertPath;
+    /**
+     * 是否校验服务端证书与 serverHost 匹配
+     */
+    private boolean verifyHostname = true;
+    /**
+     * SSL实现，AUTO 时 netty-tcnative 可用则使用OpenSSL
+     */
+    private TlsProvider sslProvider = TlsProvider.AUTO;
+    /**
+     * SSL会话缓存数量，重连时按服务端地址复用会话
+     */
+    private long sslSessionCacheSize = 64;
+    /**
+     * SSL会话超时（秒）
+     */
+    private long sslSessionTimeout = 3600;
     private int sort = 100;
     private String clientId;
     private String secretKey;
 
+    /**
+     * 单帧最大负载（字节），本地数据超过该值时拆分为多帧发送
+     */
+    private int maxFramePayload = ProtocolConstants.DEFAULT_MAX_FRAME_PAYLOAD;
+
+    /**
+     * 缓冲内存预算（字节），写出但本地服务或隧道未取走的数据超过该值时暂停读取，0表示不限制
+     */
+    private long memoryBudget = 64L * 1024 * 1024;
+
+    /**
+     * 背压模式，LOCAL 时隧道与外部/本地连接互相按可写状态暂停读取
+     */
+    private BackpressureMode backpressureMode = BackpressureMode.LOCAL;
+
+    /**
+     * 隧道写缓冲高水位（字节），超过时隧道不可写，回落到一半时恢复
+     */
+    private int tunnelHighWaterMark = 1024 * 1024;
+
+    /**
+     * 本地连接写缓冲高水位（字节），超过时连接不可写，回落到一半时恢复
+     */
+    private int streamHighWaterMark = 128 * 1024;
+
+    /**
+     * 单个数据报最大长度（字节），超过的会被截断，需不大于单帧最大负载
+     */
+    private int maxDatagramSize = 2048;
+
+    /**
+     * 是否请求会话恢复，隧道断开后在服务端返回的宽限期内保留本地连接，重连后继续原有的流
+     */
+    private boolean sessionResume = true;
+
+    /**
+     * 单个流发往服务端且未确认的数据上限（字节），用于会话恢复时重发，超过时暂停读取本地连接
+     */
+    private int replayBufferSize = 256 * 1024;
+
+    /**
+     * 使用JSON格式注册，仅用于连接尚未升级的旧版本服务端
+     */
+    private boolean legacyRegister = false;
+
     // 端口映射配置
     private List<PortMapping> portMappings;
 }
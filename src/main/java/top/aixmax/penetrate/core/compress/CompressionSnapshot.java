@@ -0,0 +1,48 @@
+package top.aixmax.penetrate.core.compress;
+
+import lombok.Getter;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/19 01:10
+ * @description 映射压缩的即时快照，只统计不小于 {@value FrameCompressor#MIN_LENGTH} 字节的帧
+ */
+@Getter
+public class CompressionSnapshot {
+
+    private final String codec;
+
+    /**
+     * 压缩前字节数
+     */
+    private final long bytesIn;
+
+    /**
+     * 写入隧道的字节数，不可压缩或跳过的帧按原始长度计
+     */
+    private final long bytesOut;
+
+    /**
+     * bytesOut / bytesIn
+     */
+    private final double ratio;
+
+    /**
+     * 平均每KB的压缩耗时（纳秒）
+     */
+    private final double nanosPerKb;
+
+    /**
+     * 因采样判定不可压缩而跳过的帧数
+     */
+    private final long skippedFrames;
+
+    public CompressionSnapshot(FrameCompressor compressor) {
+        this.codec = compressor.getCodec().tag();
+        this.bytesIn = compressor.getBytesIn();
+        this.bytesOut = compressor.getBytesOut();
+        this.ratio = compressor.getRatio();
+        this.nanosPerKb = compressor.getNanosPerKb();
+        this.skippedFrames = compressor.getSkippedFrames();
+    }
+}
@@ -0,0 +1,233 @@
+package top.aixmax.penetrate.core.compress;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.compression.DecompressionException;
+import top.aixmax.penetrate.common.utils.ByteUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/19 01:10
+ * @description 单个端口映射的DATA负载压缩，注册时协商算法，两个方向使用同一算法。
+ * <p>
+ * 压缩负载格式：算法编号(1) + 原始长度(varint) + 压缩数据，帧头以标志位区分是否压缩。
+ * 每帧先尝试压缩，压缩后超过原始长度 {@value #MAX_RATIO} 倍的视为已压缩数据，原样发送并跳过之后若干帧，
+ * 连续不可压缩时跳过的帧数翻倍（最多 {@value #MAX_SKIP} 帧），再次采样可压缩时恢复逐帧压缩。
+ * 同一映射的多个流共享采样状态，并发更新只影响采样时机
+ */
+public class FrameCompressor {
+
+    /**
+     * 小于该长度的负载不压缩
+     */
+    public static final int MIN_LENGTH = 256;
+
+    /**
+     * 压缩结果与原始长度之比的上限
+     */
+    static final double MAX_RATIO = 0.9;
+
+    /**
+     * 连续不可压缩时最多跳过的帧数
+     */
+    static final int MAX_SKIP = 64;
+
+    private final PayloadCodec codec;
+
+    private final LongAdder bytesIn = new LongAdder();
+
+    private final LongAdder bytesOut = new LongAdder();
+
+    private final LongAdder compressed = new LongAdder();
+
+    private final LongAdder incompressible = new LongAdder();
+
+    private final LongAdder skipped = new LongAdder();
+
+    private final LongAdder attempts = new LongAdder();
+
+    private final LongAdder attemptedBytes = new LongAdder();
+
+    private final LongAdder nanos = new LongAdder();
+
+    private final List<Meter> meters = new ArrayList<>(8);
+
+    /**
+     * 剩余跳过的帧数
+     */
+    private volatile int skipRemaining;
+
+    /**
+     * 下次不可压缩时跳过的帧数
+     */
+    private volatile int backoff = 1;
+
+    public FrameCompressor(PayloadCodec codec, MeterRegistry registry, Tags tags) {
+        this.codec = codec;
+        Tags codecTags = tags.and("codec", codec.tag());
+        meters.add(counter(registry, "penetrate.compression.bytes", codecTags.and("stage", "input"), bytesIn));
+        meters.add(counter(registry, "penetrate.compression.bytes", codecTags.and("stage", "output"), bytesOut));
+        meters.add(counter(registry, "penetrate.compression.frames", codecTags.and("result", "compressed"),
+                compressed));
+        meters.add(counter(registry, "penetrate.compression.frames", codecTags.and("result", "incompressible"),
+                incompressible));
+        meters.add(counter(registry, "penetrate.compression.frames", codecTags.and("result", "skipped"),
+                skipped));
+        meters.add(FunctionTimer.builder("penetrate.compression.time", this,
+                        c -> c.attempts.sum(), c -> c.nanos.sum(), TimeUnit.NANOSECONDS)
+                .description("CPU time spent compressing DATA payloads, including incompressible attempts")
+                .tags(codecTags)
+                .register(registry));
+        meters.add(Gauge.builder("penetrate.compression.ratio", this, FrameCompressor::getRatio)
+                .description("Bytes written to the tunnel per payload byte, for frames of at least 256 bytes")
+                .tags(codecTags)
+                .register(registry));
+    }
+
+    private static Meter counter(MeterRegistry registry, String name, Tags tags, LongAdder adder) {
+        return FunctionCounter.builder(name, adder, LongAdder::sum)
+                .tags(tags)
+                .register(registry);
+    }
+
+    public PayloadCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * 压缩一帧负载，不移动 payload 的读指针
+     *
+     * @param alloc   分配器
+     * @param payload 数据
+     * @param length  本帧长度，从读指针开始
+     * @return 压缩负载，不压缩时返回null
+     */
+    public ByteBuf compress(ByteBufAllocator alloc, ByteBuf payload, int length) {
+        if (length < MIN_LENGTH) {
+            return null;
+        }
+        bytesIn.add(length);
+        if (skipRemaining > 0) {
+            skipRemaining--;
+            skipped.increment();
+            bytesOut.add(length);
+            return null;
+        }
+        int header = 1 + ByteUtils.varIntSize(length);
+        int limit = header + (int) (length * MAX_RATIO);
+        ByteBuf out = alloc.heapBuffer(limit, limit);
+        long start = System.nanoTime();
+        out.writeByte(codec.id());
+        ByteUtils.writeVarInt(out, length);
+        boolean success = codec.compress(payload, payload.readerIndex(), length, out);
+        nanos.add(System.nanoTime() - start);
+        attempts.increment();
+        attemptedBytes.add(length);
+        if (!success) {
+            out.release();
+            incompressible.increment();
+            bytesOut.add(length);
+            skipRemaining = backoff;
+            backoff = Math.min(backoff * 2, MAX_SKIP);
+            return null;
+        }
+        compressed.increment();
+        bytesOut.add(out.readableBytes());
+        backoff = 1;
+        return out;
+    }
+
+    /**
+     * 解压一帧负载
+     *
+     * @param data      压缩负载
+     * @param maxLength 原始长度上限
+     * @return 原始数据
+     * @throws DecompressionException 数据非法或超过上限
+     */
+    public static byte[] decompress(byte[] data, int maxLength) {
+        if (data.length < 2) {
+            throw new DecompressionException("Truncated compressed payload");
+        }
+        PayloadCodec codec = PayloadCodec.of(data[0]);
+        if (codec == null || codec == PayloadCodec.NONE) {
+            throw new DecompressionException("Unknown compression: " + data[0]);
+        }
+        ByteBuf in = Unpooled.wrappedBuffer(data);
+        in.skipBytes(1);
+        long length;
+        try {
+            length = ByteUtils.getVarInt(in, in.readerIndex());
+        } catch (IllegalArgumentException e) {
+            throw new DecompressionException(e.getMessage());
+        }
+        int originalLength = (int) length;
+        if (length < 0 || originalLength < 0 || originalLength > maxLength) {
+            throw new DecompressionException("Invalid original length: " + originalLength);
+        }
+        in.skipBytes((int) (length >>> 32));
+        byte[] result = new byte[originalLength];
+        ByteBuf out = Unpooled.wrappedBuffer(result);
+        out.writerIndex(0);
+        try {
+            codec.decompress(in, out);
+        } catch (IndexOutOfBoundsException e) {
+            throw new DecompressionException("Decompressed payload exceeds declared length");
+        }
+        if (out.writerIndex() != originalLength) {
+            throw new DecompressionException("Decompressed " + out.writerIndex() + " bytes, expected "
+                    + originalLength);
+        }
+        return result;
+    }
+
+    /**
+     * 压缩后与压缩前的字节数之比，没有数据时为1
+     */
+    public double getRatio() {
+        long in = bytesIn.sum();
+        return in == 0 ? 1 : (double) bytesOut.sum() / in;
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    /**
+     * 平均每KB负载的压缩耗时（纳秒），包括不可压缩的尝试
+     */
+    public double getNanosPerKb() {
+        long in = attemptedBytes.sum();
+        return in == 0 ? 0 : nanos.sum() * 1024.0 / in;
+    }
+
+    public long getSkippedFrames() {
+        return skipped.sum();
+    }
+
+    /**
+     * 从注册表中移除
+     */
+    public void remove(MeterRegistry registry) {
+        for (Meter meter : meters) {
+            registry.remove(meter);
+        }
+        meters.clear();
+    }
+}
@@ -0,0 +1,194 @@
+package top.aixmax.penetrate.core.compress;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.handler.codec.compression.Snappy;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/19 01:10
+ * @description 数据帧负载压缩算法。每帧独立压缩，不跨帧保留字典，跳过压缩或丢帧不影响后续帧解压；
+ * 压缩器实例按线程缓存，每次使用前重置
+ */
+public enum PayloadCodec {
+
+    NONE((byte) 0, "none") {
+        @Override
+        boolean compress(ByteBuf in, int index, int length, ByteBuf out) {
+            return false;
+        }
+
+        @Override
+        void decompress(ByteBuf in, ByteBuf out) {
+            throw new DecompressionException("Payload is not compressed");
+        }
+    },
+
+    /**
+     * Netty自带的Snappy块格式，速度优先
+     */
+    SNAPPY((byte) 1, "snappy") {
+        @Override
+        boolean compress(ByteBuf in, int index, int length, ByteBuf out) {
+            Snappy snappy = SNAPPY_CODEC.get();
+            snappy.reset();
+            // Snappy逐字节随机读取，直接缓冲区和组合缓冲区上代价很高，先复制成数组
+            ByteBuf source = in.hasArray() ? in.slice(index, length)
+                    : Unpooled.wrappedBuffer(ByteBufUtil.getBytes(in, index, length, false));
+            try {
+                snappy.encode(source, out, length);
+                return true;
+            } catch (IndexOutOfBoundsException e) {
+                // 超过输出上限，压缩收益不足
+                return false;
+            }
+        }
+
+        @Override
+        void decompress(ByteBuf in, ByteBuf out) {
+            Snappy snappy = SNAPPY_CODEC.get();
+            snappy.reset();
+            snappy.decode(in.hasArray() ? in : Unpooled.wrappedBuffer(ByteBufUtil.getBytes(in)), out);
+        }
+    },
+
+    /**
+     * 无头部的deflate，最快压缩级别，压缩率优先
+     */
+    ZLIB((byte) 2, "zlib") {
+        @Override
+        boolean compress(ByteBuf in, int index, int length, ByteBuf out) {
+            Deflater deflater = DEFLATER.get();
+            deflater.reset();
+            deflater.setInput(ByteBufUtil.getBytes(in, index, length, false), 0, length);
+            deflater.finish();
+            int start = out.writerIndex();
+            int written = deflater.deflate(out.array(), out.arrayOffset() + start, out.maxCapacity() - start);
+            if (!deflater.finished()) {
+                return false;
+            }
+            out.writerIndex(start + written);
+            return true;
+        }
+
+        @Override
+        void decompress(ByteBuf in, ByteBuf out) {
+            Inflater inflater = INFLATER.get();
+            inflater.reset();
+            inflater.setInput(ByteBufUtil.getBytes(in), 0, in.readableBytes());
+            try {
+                int start = out.writerIndex();
+                int written = inflater.inflate(out.array(), out.arrayOffset() + start, out.maxCapacity() - start);
+                if (!inflater.finished()) {
+                    throw new DecompressionException("Decompressed payload exceeds declared length");
+                }
+                out.writerIndex(start + written);
+            } catch (DataFormatException e) {
+                throw new DecompressionException(e);
+            }
+        }
+    };
+
+    private static final FastThreadLocal<Snappy> SNAPPY_CODEC = new FastThreadLocal<Snappy>() {
+        @Override
+        protected Snappy initialValue() {
+            return new Snappy();
+        }
+    };
+
+    private static final FastThreadLocal<Deflater> DEFLATER = new FastThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED, true);
+        }
+
+        @Override
+        protected void onRemoval(Deflater deflater) {
+            deflater.end();
+        }
+    };
+
+    private static final FastThreadLocal<Inflater> INFLATER = new FastThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+
+        @Override
+        protected void onRemoval(Inflater inflater) {
+            inflater.end();
+        }
+    };
+
+    private final byte id;
+
+    private final String tag;
+
+    PayloadCodec(byte id, String tag) {
+        this.id = id;
+        this.tag = tag;
+    }
+
+    public byte id() {
+        return id;
+    }
+
+    /**
+     * 指标标签和配置中使用的名称
+     */
+    public String tag() {
+        return tag;
+    }
+
+    /**
+     * 压缩 in 中 [index, index+length) 的数据，追加到堆缓冲区 out，不移动 in 的读指针
+     *
+     * @param out 堆缓冲区，最大容量即压缩结果的上限
+     * @return 是否在上限内完成压缩，失败时 out 的内容无效
+     */
+    abstract boolean compress(ByteBuf in, int index, int length, ByteBuf out);
+
+    /**
+     * 解压全部可读数据，追加到堆缓冲区 out
+     *
+     * @param out 堆缓冲区，最大容量为声明的原始长度
+     * @throws DecompressionException 数据非法或超过声明长度
+     */
+    abstract void decompress(ByteBuf in, ByteBuf out);
+
+    /**
+     * 根据编号查找，未知编号返回null
+     */
+    public static PayloadCodec of(int id) {
+        for (PayloadCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 解析配置中的名称，为空时不压缩
+     *
+     * @throws IllegalArgumentException 不支持的算法
+     */
+    public static PayloadCodec parse(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return NONE;
+        }
+        for (PayloadCodec codec : values()) {
+            if (codec.tag.equalsIgnoreCase(name.trim())) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported compression: " + name);
+    }
+}
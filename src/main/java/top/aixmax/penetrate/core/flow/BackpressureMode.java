@@ -0,0 +1,20 @@
+package top.aixmax.penetrate.core.flow;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 22:30
+ * @description 背压模式
+ */
+public enum BackpressureMode {
+
+    /**
+     * 不做背压，写入目标的积压只受内存预算限制
+     */
+    NONE,
+
+    /**
+     * 本地背压：隧道不可写时暂停读取外部/本地连接；外部/本地连接不可写时暂停读取隧道，
+     * 此时同一隧道上的其他流也会被暂停
+     */
+    LOCAL
+}
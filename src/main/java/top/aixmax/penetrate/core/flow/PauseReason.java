@@ -0,0 +1,47 @@
+package top.aixmax.penetrate.core.flow;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 22:30
+ * @description 暂停读取的原因，同一连接可能同时因多个原因暂停，全部解除后才恢复读取
+ */
+public enum PauseReason {
+
+    /**
+     * 写入目标不可写
+     */
+    BACKPRESSURE,
+
+    /**
+     * 缓冲内存超过额度
+     */
+    MEMORY,
+
+    /**
+     * 客户端带宽超过限制
+     */
+    THROTTLE,
+
+    /**
+     * 隧道断开，等待客户端恢复会话
+     */
+    RESUME,
+
+    /**
+     * 重放缓冲区中未确认的数据超过上限
+     */
+    REPLAY,
+
+    /**
+     * 没有可用的客户端，外部连接排队等待
+     */
+    PENDING;
+
+    final int bit() {
+        return 1 << ordinal();
+    }
+
+    public String tag() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,119 @@
+package top.aixmax.penetrate.core.flow;
+
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 22:30
+ * @description 连接的读取开关。背压、内存额度、限速各自按原因暂停和恢复，任一原因存在时关闭自动读取；
+ * autoRead 总是在连接的事件循环中按最新状态设置，不同线程交替暂停和恢复时不会留下错误的状态
+ */
+public final class ReadGate {
+
+    private static final AttributeKey<ReadGate> GATE = AttributeKey.valueOf("penetrate.readGate");
+
+    private final Channel channel;
+
+    private final RelayMetrics metrics;
+
+    private final AtomicInteger reasons = new AtomicInteger();
+
+    private final AtomicLongArray pausedAt = new AtomicLongArray(PauseReason.values().length);
+
+    private final Runnable apply = this::apply;
+
+    private ReadGate(Channel channel, RelayMetrics metrics) {
+        this.channel = channel;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 获取连接的读取开关，首次获取时创建
+     */
+    public static ReadGate of(Channel channel, RelayMetrics metrics) {
+        Attribute<ReadGate> attr = channel.attr(GATE);
+        ReadGate gate = attr.get();
+        if (gate == null) {
+            gate = new ReadGate(channel, metrics);
+            ReadGate old = attr.setIfAbsent(gate);
+            if (old != null) {
+                gate = old;
+            }
+        }
+        return gate;
+    }
+
+    /**
+     * 按原因暂停读取
+     *
+     * @return 该原因此前未暂停
+     */
+    public boolean pause(PauseReason reason) {
+        int bit = reason.bit();
+        int old;
+        do {
+            old = reasons.get();
+            if ((old & bit) != 0) {
+                return false;
+            }
+        } while (!reasons.compareAndSet(old, old | bit));
+        pausedAt.set(reason.ordinal(), System.nanoTime());
+        if (old == 0) {
+            schedule();
+        }
+        return true;
+    }
+
+    /**
+     * 解除该原因的暂停，所有原因都解除后恢复读取
+     *
+     * @return 该原因此前处于暂停
+     */
+    public boolean resume(PauseReason reason) {
+        int bit = reason.bit();
+        int old;
+        do {
+            old = reasons.get();
+            if ((old & bit) == 0) {
+                return false;
+            }
+        } while (!reasons.compareAndSet(old, old & ~bit));
+        metrics.readPause(reason).record(System.nanoTime() - pausedAt.get(reason.ordinal()), TimeUnit.NANOSECONDS);
+        if (old == bit) {
+            schedule();
+        }
+        return true;
+    }
+
+    public boolean isPaused(PauseReason reason) {
+        return (reasons.get() & reason.bit()) != 0;
+    }
+
+    public boolean isPaused() {
+        return reasons.get() != 0;
+    }
+
+    private void schedule() {
+        if (channel.eventLoop().inEventLoop()) {
+            apply();
+        } else {
+            try {
+                channel.eventLoop().execute(apply);
+            } catch (RejectedExecutionException e) {
+                // 事件循环已关闭，连接也随之关闭
+            }
+        }
+    }
+
+    private void apply() {
+        channel.config().setAutoRead(reasons.get() == 0);
+    }
+}
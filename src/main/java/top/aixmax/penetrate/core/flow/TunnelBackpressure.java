@@ -0,0 +1,136 @@
+package top.aixmax.penetrate.core.flow;
+
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 22:30
+ * @description 隧道两个方向的本地背压，绑定在隧道连接上。
+ * <ul>
+ *     <li>外部/本地连接的数据写入隧道后隧道不可写：暂停该来源，隧道恢复可写时全部恢复</li>
+ *     <li>隧道数据写入外部/本地连接后目标不可写：暂停读取隧道，所有阻塞的目标恢复可写或关闭后恢复</li>
+ * </ul>
+ * 只在不可写时才进入同步和集合操作，可写时的热路径只有一次 isWritable 判断
+ */
+public final class TunnelBackpressure {
+
+    private static final AttributeKey<TunnelBackpressure> BACKPRESSURE = AttributeKey.valueOf("penetrate.backpressure");
+
+    private final Channel tunnel;
+
+    private final RelayMetrics metrics;
+
+    /**
+     * 因隧道不可写暂停的来源
+     */
+    private final Set<Channel> pausedSources = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 不可写而暂停了隧道的目标
+     */
+    private final Set<Channel> blockedDestinations = new HashSet<>();
+
+    private TunnelBackpressure(Channel tunnel, RelayMetrics metrics) {
+        this.tunnel = tunnel;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 获取隧道的背压状态，首次获取时创建
+     */
+    public static TunnelBackpressure of(Channel tunnel, RelayMetrics metrics) {
+        Attribute<TunnelBackpressure> attr = tunnel.attr(BACKPRESSURE);
+        TunnelBackpressure backpressure = attr.get();
+        if (backpressure == null) {
+            backpressure = new TunnelBackpressure(tunnel, metrics);
+            TunnelBackpressure old = attr.setIfAbsent(backpressure);
+            if (old != null) {
+                backpressure = old;
+            }
+        }
+        return backpressure;
+    }
+
+    /**
+     * 获取已创建的背压状态，不存在时返回null
+     */
+    public static TunnelBackpressure get(Channel tunnel) {
+        return tunnel.attr(BACKPRESSURE).get();
+    }
+
+    /**
+     * 来源数据写入隧道后调用
+     */
+    public void afterTunnelWrite(Channel source) {
+        if (tunnel.isWritable() || !pausedSources.add(source)) {
+            return;
+        }
+        ReadGate.of(source, metrics).pause(PauseReason.BACKPRESSURE);
+        // 暂停期间隧道可能已经排空
+        if (tunnel.isWritable()) {
+            tunnelWritable();
+        }
+    }
+
+    /**
+     * 隧道恢复可写，恢复所有来源
+     */
+    public void tunnelWritable() {
+        for (Channel source : pausedSources) {
+            if (pausedSources.remove(source)) {
+                ReadGate.of(source, metrics).resume(PauseReason.BACKPRESSURE);
+            }
+        }
+    }
+
+    /**
+     * 来源关闭
+     */
+    public void sourceClosed(Channel source) {
+        pausedSources.remove(source);
+    }
+
+    /**
+     * 隧道数据写入目标后调用
+     */
+    public void afterDestinationWrite(Channel destination) {
+        if (destination.isWritable()) {
+            return;
+        }
+        synchronized (this) {
+            if (!blockedDestinations.add(destination)) {
+                return;
+            }
+            ReadGate.of(tunnel, metrics).pause(PauseReason.BACKPRESSURE);
+        }
+        if (destination.isWritable()) {
+            destinationWritable(destination);
+        }
+    }
+
+    /**
+     * 目标恢复可写或关闭
+     */
+    public void destinationWritable(Channel destination) {
+        synchronized (this) {
+            if (blockedDestinations.remove(destination) && blockedDestinations.isEmpty()) {
+                ReadGate.of(tunnel, metrics).resume(PauseReason.BACKPRESSURE);
+            }
+        }
+    }
+
+    public int getPausedSources() {
+        return pausedSources.size();
+    }
+
+    public synchronized int getBlockedDestinations() {
+        return blockedDestinations.size();
+    }
+}
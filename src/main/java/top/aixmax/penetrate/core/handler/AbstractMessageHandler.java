@@ -1,17 +1,25 @@
 package top.aixmax.penetrate.core.handler;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
 import lombok.extern.slf4j.Slf4j;
 import top.aixmax.penetrate.common.constants.ProtocolConstants;
 import top.aixmax.penetrate.common.enums.MessageType;
-import top.aixmax.penetrate.common.utils.ByteUtils;
+import top.aixmax.penetrate.core.compress.FrameCompressor;
+import top.aixmax.penetrate.core.flow.TunnelBackpressure;
+import top.aixmax.penetrate.core.jfr.RelayEvents;
+import top.aixmax.penetrate.core.log.RateLimitedLog;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+import top.aixmax.penetrate.core.protocol.FrameCodec;
 import top.aixmax.penetrate.core.protocol.Message;
+import top.aixmax.penetrate.core.transport.DeferredFlush;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author wangxu
@@ -21,70 +29,113 @@ import java.util.concurrent.ConcurrentHashMap;
 @Slf4j
 public abstract class AbstractMessageHandler extends SimpleChannelInboundHandler<ByteBuf> {
 
-    private final Map<ChannelHandlerContext, byte[]> tempMapBytes = new ConcurrentHashMap<>();
+    private static final RateLimitedLog UNKNOWN_TYPE = RateLimitedLog.of(log, "frame.unknown-type");
+
+    /**
+     * 每个连接未解析完成的字节，最多缓存一帧
+     */
+    private static final AttributeKey<ByteBuf> CUMULATION = AttributeKey.valueOf("penetrate.cumulation");
+
+    /**
+     * 单帧最大长度，超过则认为数据非法并断开连接
+     */
+    private final int maxFrameLength;
+
+    protected final RelayMetrics metrics;
+
+    protected AbstractMessageHandler() {
+        this(ProtocolConstants.MAX_FRAME_LENGTH);
+    }
+
+    protected AbstractMessageHandler(int maxFrameLength) {
+        this(maxFrameLength, RelayMetrics.NOOP);
+    }
+
+    protected AbstractMessageHandler(int maxFrameLength, RelayMetrics metrics) {
+        this.maxFrameLength = maxFrameLength;
+        this.metrics = metrics;
+    }
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, ByteBuf byteBuf) {
-        byte[] bytes = new byte[byteBuf.readableBytes()];
-        byteBuf.readBytes(bytes);
-        byte[] tempBytes = tempMapBytes.get(ctx);
-
-        if (tempBytes != null) {
-            byte[] temp = new byte[tempBytes.length + bytes.length];
-            System.arraycopy(tempBytes, 0, temp, 0, tempBytes.length);
-            System.arraycopy(bytes, 0, temp, tempBytes.length, bytes.length);
-            bytes = temp;
+        Attribute<ByteBuf> attr = ctx.channel().attr(CUMULATION);
+        ByteBuf cumulation = attr.get();
+        ByteBuf in;
+        if (cumulation == null) {
+            // 无残留数据时直接在读缓冲区上解析，避免拷贝
+            in = byteBuf;
+        } else {
+            cumulation.writeBytes(byteBuf);
+            in = cumulation;
         }
 
-        if (bytes.length < ProtocolConstants.minLength) {
-            tempMapBytes.put(ctx, bytes);
-            return;
-        }
-        int startIndex = 0;
-        while (bytes[startIndex] != ProtocolConstants.start) {
-            startIndex++;
-            if (startIndex == bytes.length) {
-                tempMapBytes.remove(ctx);
-                return;
+        try {
+            decodeFrames(ctx, in);
+        } finally {
+            // 本次读取中转发的数据报统一flush
+            DeferredFlush.flush(ctx.channel());
+            if (!ctx.channel().isActive() || !in.isReadable()) {
+                if (cumulation != null) {
+                    cumulation.release();
+                    attr.set(null);
+                }
+            } else if (cumulation == null) {
+                // 仅保留不完整的帧，大小受 maxFrameLength 限制
+                ByteBuf remain = ctx.alloc().buffer(Math.max(in.readableBytes(), ProtocolConstants.minLength));
+                remain.writeBytes(in);
+                attr.set(remain);
+            } else {
+                cumulation.discardSomeReadBytes();
             }
         }
+    }
 
-        if (bytes.length - startIndex < ProtocolConstants.minLength) {
-            tempBytes = new byte[bytes.length - startIndex];
-            tempMapBytes.put(ctx, tempBytes);
-            System.arraycopy(bytes, startIndex, tempBytes, 0, bytes.length - startIndex);
-            return;
-        } else if (startIndex != 0) {
-            byte[] temp = new byte[bytes.length + startIndex];
-            System.arraycopy(bytes, startIndex, temp, 0, bytes.length - startIndex);
-            bytes = temp;
-        }
-
-        int dateLength = ByteUtils.bytesToInt(bytes, 10);
-        do {
-            if (dateLength + ProtocolConstants.minLength == bytes.length) {
-                tempMapBytes.remove(ctx);
-                pushBytes(bytes, ctx);
+    /**
+     * 从缓冲区中逐帧解析并立即分发，大数据被拆分为多帧后可边收边转发。
+     * 每帧按连接当前协商的版本解析，注册确认后即可切换到新版本
+     *
+     * @param ctx 管道
+     * @param in  缓冲区
+     */
+    private void decodeFrames(ChannelHandlerContext ctx, ByteBuf in) {
+        while (in.isReadable() && ctx.channel().isActive()) {
+            Message message;
+            try {
+                message = FrameCodec.of(ctx.channel()).decode(in, maxFrameLength);
+            } catch (DecoderException e) {
+                log.warn("Invalid frame from {}: {}", ctx.channel().remoteAddress(), e.getMessage());
+                in.skipBytes(in.readableBytes());
+                ctx.close();
                 return;
-            } else if (dateLength + ProtocolConstants.minLength > bytes.length) {
-                tempMapBytes.put(ctx, bytes);
+            }
+            if (message == null) {
                 return;
             }
-
-            byte[] temp = new byte[dateLength + ProtocolConstants.minLength];
-            tempBytes = new byte[bytes.length - dateLength - ProtocolConstants.minLength];
-
-            System.arraycopy(bytes, 0, temp, 0, dateLength + ProtocolConstants.minLength);
-            System.arraycopy(bytes, dateLength + ProtocolConstants.minLength,
-                    tempBytes, 0, tempBytes.length);
-
-            pushBytes(temp, ctx);
-
-            if (tempBytes.length >= ProtocolConstants.minLength) {
-                dateLength = ByteUtils.bytesToInt(tempBytes, 10);
+            metrics.recordFrame(message.getData().length);
+            RelayEvents.frame(true, message.getType(), message.getData().length, message.getChannelId());
+            if (message.isCompressed() && !decompress(ctx, message)) {
+                in.skipBytes(in.readableBytes());
+                ctx.close();
+                return;
             }
-            bytes = tempBytes;
-        } while (true);
+            dispatch(ctx, message);
+        }
+    }
+
+    /**
+     * 解压负载，压缩数据非法时返回false
+     */
+    private boolean decompress(ChannelHandlerContext ctx, Message message) {
+        long start = System.nanoTime();
+        try {
+            message.setData(FrameCompressor.decompress(message.getData(), maxFrameLength));
+            message.setCompressed(false);
+        } catch (DecompressionException e) {
+            log.warn("Invalid compressed frame from {}: {}", ctx.channel().remoteAddress(), e.getMessage());
+            return false;
+        }
+        metrics.decompression().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return true;
     }
 
     protected void handleRegister(ChannelHandlerContext ctx, Message msg) {
@@ -112,6 +163,48 @@ public abstract class AbstractMessageHandler extends SimpleChannelInboundHandler
 
     }
 
+    protected void handleDisconnect(ChannelHandlerContext ctx, Message msg) {
+    }
+
+    protected void handleStreamTrace(ChannelHandlerContext ctx, Message msg) {
+    }
+
+    protected void handleDatagram(ChannelHandlerContext ctx, Message msg) {
+    }
+
+    protected void handleGoAway(ChannelHandlerContext ctx, Message msg) {
+    }
+
+    protected void handlePortMapping(ChannelHandlerContext ctx, Message msg) {
+    }
+
+    protected void handlePortMappingAck(ChannelHandlerContext ctx, Message msg) {
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        metrics.writabilityChanged(ctx.channel().isWritable());
+        RelayEvents.writabilityChanged(ctx.channel());
+        if (ctx.channel().isWritable()) {
+            // 恢复因隧道不可写暂停的外部/本地连接
+            TunnelBackpressure backpressure = TunnelBackpressure.get(ctx.channel());
+            if (backpressure != null) {
+                backpressure.tunnelWritable();
+            }
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        // 连接关闭时释放残留数据
+        ByteBuf cumulation = ctx.channel().attr(CUMULATION).getAndSet(null);
+        if (cumulation != null) {
+            cumulation.release();
+        }
+        super.handlerRemoved(ctx);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
         log.error("Channel exception caught", cause);
@@ -119,30 +212,13 @@ public abstract class AbstractMessageHandler extends SimpleChannelInboundHandler
     }
 
     /**
-     * 发送数据
+     * 分发消息
      *
-     * @param bytes 数据包
-     * @param ctx   管道
+     * @param ctx     管道
+     * @param message 消息
      */
-    private void pushBytes(byte[] bytes, ChannelHandlerContext ctx) {
-        if (bytes[bytes.length - 1] != ProtocolConstants.end) {
-            log.warn("Package is not complete! {}", bytes);
-            return;
-        }
-
-        MessageType type = MessageType.valueOf(bytes[1]);
-
-        byte[] data = new byte[bytes.length - ProtocolConstants.minLength];
-        if (data.length != 0) {
-            System.arraycopy(bytes, 14, data, 0, bytes.length - ProtocolConstants.minLength);
-        }
-
-
-        Message message = new Message();
-        message.setType(type);
-        message.setChannelId(ByteUtils.bytesToInt(bytes, 2));
-        message.setExternalPort(ByteUtils.bytesToInt(bytes, 6));
-        message.setData(data);
+    private void dispatch(ChannelHandlerContext ctx, Message message) {
+        MessageType type = message.getType();
         try {
             switch (type) {
                 case REGISTER: {
@@ -178,7 +254,31 @@ public abstract class AbstractMessageHandler extends SimpleChannelInboundHandler
                     handleConnect(ctx, message);
                     break;
                 }
-                default: log.warn("Unknown message type: {}", type);
+                case DISCONNECT: {
+                    handleDisconnect(ctx, message);
+                    break;
+                }
+                case STREAM_TRACE: {
+                    handleStreamTrace(ctx, message);
+                    break;
+                }
+                case DATAGRAM: {
+                    handleDatagram(ctx, message);
+                    break;
+                }
+                case GOAWAY: {
+                    handleGoAway(ctx, message);
+                    break;
+                }
+                case PORT_MAPPING: {
+                    handlePortMapping(ctx, message);
+                    break;
+                }
+                case PORT_MAPPING_ACK: {
+                    handlePortMappingAck(ctx, message);
+                    break;
+                }
+                default: UNKNOWN_TYPE.warn("Unknown message type: {}", type);
             }
         } catch (Exception e) {
             log.error("Error handling message: {}", type, e);
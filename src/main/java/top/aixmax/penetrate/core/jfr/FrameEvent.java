@@ -0,0 +1,34 @@
+package top.aixmax.penetrate.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 20:10
+ * @description 帧编解码事件，按 {@link RelayEvents#FRAME_SAMPLING} 抽样
+ */
+@Name("penetrate.Frame")
+@Label("Tunnel Frame")
+@Description("Sampled frame decoded from or encoded to a tunnel")
+@Category({"Penetrate", "Protocol"})
+@StackTrace(false)
+class FrameEvent extends jdk.jfr.Event {
+
+    @Label("Direction")
+    String direction;
+
+    @Label("Type")
+    String type;
+
+    @Label("Size")
+    @DataAmount
+    int size;
+
+    @Label("Stream Id")
+    int streamId;
+}
@@ -0,0 +1,32 @@
+package top.aixmax.penetrate.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 20:10
+ * @description 客户端建立本地连接，持续时间即建连耗时
+ */
+@Name("penetrate.LocalDial")
+@Label("Local Dial")
+@Description("Client connecting to the local service for a stream")
+@Category({"Penetrate", "Stream"})
+@StackTrace(false)
+class LocalDialEvent extends jdk.jfr.Event {
+
+    @Label("Host")
+    String host;
+
+    @Label("Port")
+    int port;
+
+    @Label("Stream Id")
+    int streamId;
+
+    @Label("Success")
+    boolean success;
+}
@@ -0,0 +1,35 @@
+package top.aixmax.penetrate.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 20:10
+ * @description 客户端注册与注销
+ */
+@Name("penetrate.ClientRegistration")
+@Label("Client Registration")
+@Description("Client registered or unregistered on the server")
+@Category({"Penetrate", "Tunnel"})
+@StackTrace(false)
+class RegistrationEvent extends jdk.jfr.Event {
+
+    @Label("Action")
+    String action;
+
+    @Label("Client Id")
+    String clientId;
+
+    @Label("Remote Address")
+    String remoteAddress;
+
+    @Label("Port Mappings")
+    int mappings;
+
+    @Label("Success")
+    boolean success;
+}
@@ -0,0 +1,161 @@
+package top.aixmax.penetrate.core.jfr;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import top.aixmax.penetrate.common.enums.MessageType;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 20:10
+ * @description JFR事件入口。运行时不支持JFR时所有方法为空操作；未开启录制时只有一次 isEnabled 判断。
+ * 帧事件按比例抽样，其余事件频率与连接数同级，可常开
+ */
+public final class RelayEvents {
+
+    /**
+     * 帧事件抽样间隔，可通过 -Dpenetrate.jfr.frameSampling 调整，1为全部记录
+     */
+    public static final int FRAME_SAMPLING = Math.max(1, Integer.getInteger("penetrate.jfr.frameSampling", 1024));
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private RelayEvents() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * 帧编解码
+     *
+     * @param decoded 是否为解码
+     */
+    public static void frame(boolean decoded, MessageType type, int size, int streamId) {
+        if (!AVAILABLE || (FRAME_SAMPLING > 1 && ThreadLocalRandom.current().nextInt(FRAME_SAMPLING) != 0)) {
+            return;
+        }
+        FrameEvent event = new FrameEvent();
+        if (event.isEnabled()) {
+            event.direction = decoded ? "decoded" : "encoded";
+            event.type = type.name();
+            event.size = size;
+            event.streamId = streamId;
+            event.commit();
+        }
+    }
+
+    /**
+     * 流打开
+     */
+    public static void streamOpened(int streamId, int remotePort, String clientId) {
+        if (!AVAILABLE) {
+            return;
+        }
+        StreamEvent event = new StreamEvent();
+        if (event.isEnabled()) {
+            event.action = "opened";
+            event.streamId = streamId;
+            event.remotePort = remotePort;
+            event.clientId = clientId;
+            event.commit();
+        }
+    }
+
+    /**
+     * 流关闭
+     *
+     * @param lifetime 存活时长（毫秒）
+     */
+    public static void streamClosed(int streamId, int remotePort, String clientId, long lifetime,
+                                    long bytesIn, long bytesOut) {
+        if (!AVAILABLE) {
+            return;
+        }
+        StreamEvent event = new StreamEvent();
+        if (event.isEnabled()) {
+            event.action = "closed";
+            event.streamId = streamId;
+            event.remotePort = remotePort;
+            event.clientId = clientId;
+            event.lifetime = lifetime;
+            event.bytesIn = bytesIn;
+            event.bytesOut = bytesOut;
+            event.commit();
+        }
+    }
+
+    /**
+     * 隧道可写状态变化
+     */
+    public static void writabilityChanged(Channel channel) {
+        if (!AVAILABLE) {
+            return;
+        }
+        WritabilityEvent event = new WritabilityEvent();
+        if (event.isEnabled()) {
+            ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+            event.remoteAddress = String.valueOf(channel.remoteAddress());
+            event.writable = channel.isWritable();
+            event.pendingBytes = buffer == null ? 0 : buffer.totalPendingWriteBytes();
+            event.commit();
+        }
+    }
+
+    /**
+     * 开始建立本地连接，返回的句柄需传给 {@link #localDialEnd}
+     */
+    public static Object localDialBegin() {
+        if (!AVAILABLE) {
+            return null;
+        }
+        LocalDialEvent event = new LocalDialEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    public static void localDialEnd(Object handle, String host, int port, int streamId, boolean success) {
+        if (handle == null) {
+            return;
+        }
+        LocalDialEvent event = (LocalDialEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            event.host = host;
+            event.port = port;
+            event.streamId = streamId;
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    /**
+     * 客户端注册与注销
+     *
+     * @param action register/unregister
+     */
+    public static void registration(String action, String clientId, Channel channel, int mappings, boolean success) {
+        if (!AVAILABLE) {
+            return;
+        }
+        RegistrationEvent event = new RegistrationEvent();
+        if (event.isEnabled()) {
+            event.action = action;
+            event.clientId = clientId;
+            event.remoteAddress = channel == null ? null : String.valueOf(channel.remoteAddress());
+            event.mappings = mappings;
+            event.success = success;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package top.aixmax.penetrate.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 20:10
+ * @description 外部连接（流）打开与关闭
+ */
+@Name("penetrate.Stream")
+@Label("Stream Lifecycle")
+@Description("External stream opened or closed on the server")
+@Category({"Penetrate", "Stream"})
+@StackTrace(false)
+class StreamEvent extends jdk.jfr.Event {
+
+    @Label("Action")
+    String action;
+
+    @Label("Stream Id")
+    int streamId;
+
+    @Label("Remote Port")
+    int remotePort;
+
+    @Label("Client Id")
+    String clientId;
+
+    @Label("Lifetime")
+    @Timespan(Timespan.MILLISECONDS)
+    long lifetime;
+
+    @Label("Bytes In")
+    @DataAmount
+    long bytesIn;
+
+    @Label("Bytes Out")
+    @DataAmount
+    long bytesOut;
+}
@@ -0,0 +1,31 @@
+package top.aixmax.penetrate.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 20:10
+ * @description 隧道可写状态变化，用于定位背压
+ */
+@Name("penetrate.TunnelWritability")
+@Label("Tunnel Writability")
+@Description("Tunnel channel crossed its write buffer water mark")
+@Category({"Penetrate", "Tunnel"})
+@StackTrace(false)
+class WritabilityEvent extends jdk.jfr.Event {
+
+    @Label("Remote Address")
+    String remoteAddress;
+
+    @Label("Writable")
+    boolean writable;
+
+    @Label("Pending Bytes")
+    @DataAmount
+    long pendingBytes;
+}
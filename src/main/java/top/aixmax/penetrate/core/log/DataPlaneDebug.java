@@ -0,0 +1,79 @@
+package top.aixmax.penetrate.core.log;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 20:10
+ * @description 数据面调试日志。按帧/按数据块的日志统一写到 top.aixmax.penetrate.dataplane，默认级别INFO不输出；
+ * 该日志开启DEBUG后，如指定了客户端或流，只输出这些客户端和流的日志。调用方需先判断 {@link #isEnabled}，
+ * 关闭时热路径上不产生装箱和参数数组
+ */
+public final class DataPlaneDebug {
+
+    public static final Logger LOG = LoggerFactory.getLogger("top.aixmax.penetrate.dataplane");
+
+    private static final Set<String> CLIENTS = ConcurrentHashMap.newKeySet();
+
+    private static final Set<Integer> STREAMS = ConcurrentHashMap.newKeySet();
+
+    private DataPlaneDebug() {
+    }
+
+    /**
+     * 是否输出指定客户端或流的数据面日志
+     *
+     * @param clientId 客户端ID，未知时为null
+     * @param streamId 流ID
+     */
+    public static boolean isEnabled(String clientId, int streamId) {
+        if (!LOG.isDebugEnabled()) {
+            return false;
+        }
+        if (CLIENTS.isEmpty() && STREAMS.isEmpty()) {
+            return true;
+        }
+        return (clientId != null && CLIENTS.contains(clientId)) || STREAMS.contains(streamId);
+    }
+
+    public static boolean isEnabled(int streamId) {
+        return isEnabled(null, streamId);
+    }
+
+    public static void setClients(Collection<String> clientIds) {
+        CLIENTS.clear();
+        if (clientIds != null) {
+            CLIENTS.addAll(clientIds);
+        }
+    }
+
+    public static void enableClient(String clientId, boolean enabled) {
+        if (enabled) {
+            CLIENTS.add(clientId);
+        } else {
+            CLIENTS.remove(clientId);
+        }
+    }
+
+    public static void enableStream(int streamId, boolean enabled) {
+        if (enabled) {
+            STREAMS.add(streamId);
+        } else {
+            STREAMS.remove(streamId);
+        }
+    }
+
+    public static Set<String> getClients() {
+        return Collections.unmodifiableSet(CLIENTS);
+    }
+
+    public static Set<Integer> getStreams() {
+        return Collections.unmodifiableSet(STREAMS);
+    }
+}
@@ -0,0 +1,160 @@
+package top.aixmax.penetrate.core.log;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 20:10
+ * @description 限频告警：同一告警在一个间隔内最多输出一次，其余只计数，下次输出时附带被抑制的次数。
+ * 用于会被外部流量放大的数据面告警，出现次数通过 penetrate.log.warnings 指标暴露
+ */
+public final class RateLimitedLog {
+
+    /**
+     * 默认输出间隔
+     */
+    public static final long DEFAULT_INTERVAL_MILLIS = 10_000;
+
+    private static final Map<String, RateLimitedLog> LOGS = new ConcurrentHashMap<>();
+
+    private static final List<MeterRegistry> REGISTRIES = new CopyOnWriteArrayList<>();
+
+    private final Logger logger;
+
+    private final String key;
+
+    private final long intervalNanos;
+
+    private final LongAdder occurrences = new LongAdder();
+
+    private final LongAdder suppressedTotal = new LongAdder();
+
+    /**
+     * 上次输出之后被抑制的次数
+     */
+    private final AtomicLong suppressed = new AtomicLong();
+
+    private final AtomicLong nextLogNanos;
+
+    private RateLimitedLog(Logger logger, String key, long intervalMillis) {
+        this.logger = logger;
+        this.key = key;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.nextLogNanos = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * 获取限频告警，同一key共享计数
+     *
+     * @param logger 输出的日志
+     * @param key    告警标识，作为指标标签
+     */
+    public static RateLimitedLog of(Logger logger, String key) {
+        return of(logger, key, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    public static synchronized RateLimitedLog of(Logger logger, String key, long intervalMillis) {
+        RateLimitedLog log = LOGS.get(key);
+        if (log == null) {
+            log = new RateLimitedLog(logger, key, intervalMillis);
+            LOGS.put(key, log);
+            for (MeterRegistry registry : REGISTRIES) {
+                log.register(registry);
+            }
+        }
+        return log;
+    }
+
+    /**
+     * 将所有限频告警的计数注册到指标，之后创建的告警也会注册
+     */
+    public static synchronized void bindTo(MeterRegistry registry) {
+        if (REGISTRIES.contains(registry)) {
+            return;
+        }
+        REGISTRIES.add(registry);
+        for (RateLimitedLog log : LOGS.values()) {
+            log.register(registry);
+        }
+    }
+
+    private void register(MeterRegistry registry) {
+        FunctionCounter.builder("penetrate.log.warnings", occurrences, LongAdder::sum)
+                .description("Occurrences of rate limited warnings, including suppressed ones")
+                .tag("key", key)
+                .register(registry);
+        FunctionCounter.builder("penetrate.log.warnings.suppressed", suppressedTotal, LongAdder::sum)
+                .description("Rate limited warnings that were counted but not written to the log")
+                .tag("key", key)
+                .register(registry);
+    }
+
+    public void warn(String format) {
+        if (acquire()) {
+            long dropped = suppressed.getAndSet(0);
+            if (dropped == 0) {
+                logger.warn(format);
+            } else {
+                logger.warn(format + " ({} similar suppressed)", dropped);
+            }
+        }
+    }
+
+    /**
+     * 数值参数的重载，被抑制时不装箱
+     */
+    public void warn(String format, long arg) {
+        if (acquire()) {
+            long dropped = suppressed.getAndSet(0);
+            if (dropped == 0) {
+                logger.warn(format, arg);
+            } else {
+                logger.warn(format + " ({} similar suppressed)", arg, dropped);
+            }
+        }
+    }
+
+    public void warn(String format, Object arg) {
+        if (acquire()) {
+            long dropped = suppressed.getAndSet(0);
+            if (dropped == 0) {
+                logger.warn(format, arg);
+            } else {
+                logger.warn(format + " ({} similar suppressed)", arg, dropped);
+            }
+        }
+    }
+
+    public long getOccurrences() {
+        return occurrences.sum();
+    }
+
+    public long getSuppressed() {
+        return suppressedTotal.sum();
+    }
+
+    /**
+     * 计数并判断本次是否输出
+     */
+    private boolean acquire() {
+        occurrences.increment();
+        long now = System.nanoTime();
+        long next = nextLogNanos.get();
+        if (now - next >= 0 && nextLogNanos.compareAndSet(next, now + intervalNanos)) {
+            return logger.isWarnEnabled();
+        }
+        suppressed.incrementAndGet();
+        suppressedTotal.increment();
+        return false;
+    }
+}
@@ -0,0 +1,134 @@
+package top.aixmax.penetrate.core.memory;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import top.aixmax.penetrate.core.flow.PauseReason;
+import top.aixmax.penetrate.core.flow.ReadGate;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 21:50
+ * @description 单个客户端的缓冲内存账户。写出时记入，写出完成或失败时释放；
+ * 超过额度或全局预算时通过 {@link ReadGate} 暂停数据来源的读取，用量回落到额度一半以下且全局压力解除时恢复
+ */
+public class MemoryAccount {
+
+    private final MemoryBudget budget;
+
+    private final long quota;
+
+    private final long resumeThreshold;
+
+    private final AtomicLong used = new AtomicLong();
+
+    /**
+     * 因内存压力关闭了自动读取的来源
+     */
+    private final Set<Channel> pausedSources = ConcurrentHashMap.newKeySet();
+
+    MemoryAccount(MemoryBudget budget, long quota) {
+        this.budget = budget;
+        this.quota = quota > 0 ? quota : Long.MAX_VALUE;
+        this.resumeThreshold = this.quota / 2;
+    }
+
+    /**
+     * 记录一次写出，写出完成时释放
+     *
+     * @param future 写出结果
+     * @param bytes  字节数
+     */
+    public void track(ChannelFuture future, long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        used.addAndGet(bytes);
+        budget.add(bytes);
+        future.addListener(new Release(bytes));
+    }
+
+    /**
+     * 超过额度时暂停来源读取，应在来源的数据写出后调用
+     *
+     * @param source 数据来源
+     * @return 是否暂停
+     */
+    public boolean pauseIfExhausted(Channel source) {
+        if (used.get() <= quota && !budget.isUnderPressure()) {
+            return false;
+        }
+        boolean added;
+        // 加入集合与暂停读取在同一把锁内完成，恢复线程不会先于暂停执行恢复
+        synchronized (this) {
+            added = pausedSources.add(source);
+            if (added) {
+                ReadGate.of(source, budget.getMetrics()).pause(PauseReason.MEMORY);
+                budget.paused(this);
+            }
+        }
+        if (added) {
+            // 与释放线程竞争：判断超额后数据可能已释放而释放线程看到的集合为空，加入后再检查一次
+            resumeIfBelow();
+        }
+        return true;
+    }
+
+    /**
+     * 来源关闭时移除
+     */
+    public void remove(Channel source) {
+        pausedSources.remove(source);
+    }
+
+    public long getUsed() {
+        return used.get();
+    }
+
+    public long getQuota() {
+        return quota == Long.MAX_VALUE ? 0 : quota;
+    }
+
+    public int getPausedSources() {
+        return pausedSources.size();
+    }
+
+    private void release(long bytes) {
+        long now = used.addAndGet(-bytes);
+        budget.release(bytes);
+        if (now < resumeThreshold && !pausedSources.isEmpty()) {
+            resumeIfBelow();
+        }
+    }
+
+    void resumeIfBelow() {
+        if (used.get() >= resumeThreshold || budget.isUnderPressure()) {
+            return;
+        }
+        synchronized (this) {
+            for (Channel source : pausedSources) {
+                ReadGate.of(source, budget.getMetrics()).resume(PauseReason.MEMORY);
+            }
+            pausedSources.clear();
+            budget.resumed(this);
+        }
+    }
+
+    private final class Release implements ChannelFutureListener {
+
+        private final long bytes;
+
+        private Release(long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void operationComplete(ChannelFuture future) {
+            release(bytes);
+        }
+    }
+}
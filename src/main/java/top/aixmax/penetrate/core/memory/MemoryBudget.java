@@ -0,0 +1,128 @@
+package top.aixmax.penetrate.core.memory;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetric;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 21:50
+ * @description 全局缓冲内存预算。中继写出但对端尚未取走的数据都计入预算，超过预算时各账户暂停数据来源的读取，
+ * 回落到一半以下时恢复。每个客户端一个 {@link MemoryAccount}，账户额度和全局预算任一超出都会暂停
+ */
+public class MemoryBudget {
+
+    /**
+     * 不限制时使用的预算
+     */
+    public static final MemoryBudget UNLIMITED = new MemoryBudget(0, RelayMetrics.NOOP);
+
+    private final long limit;
+
+    private final RelayMetrics metrics;
+
+    private final long resumeThreshold;
+
+    private final AtomicLong used = new AtomicLong();
+
+    /**
+     * 超过预算后置位，回落到一半以下时清除
+     */
+    private volatile boolean pressure;
+
+    /**
+     * 存在暂停来源的账户
+     */
+    private final Set<MemoryAccount> pausedAccounts = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param limit   预算（字节），小于等于0表示不限制
+     * @param metrics 记录暂停时长的指标
+     */
+    public MemoryBudget(long limit, RelayMetrics metrics) {
+        this.limit = limit > 0 ? limit : Long.MAX_VALUE;
+        this.metrics = metrics;
+        this.resumeThreshold = this.limit / 2;
+    }
+
+    /**
+     * 创建客户端账户
+     *
+     * @param quota 账户额度（字节），小于等于0表示只受全局预算限制
+     */
+    public MemoryAccount account(long quota) {
+        return new MemoryAccount(this, quota);
+    }
+
+    public long getLimit() {
+        return limit == Long.MAX_VALUE ? 0 : limit;
+    }
+
+    public long getUsed() {
+        return used.get();
+    }
+
+    /**
+     * 是否处于内存压力下，超过预算后直到回落到一半以下都算压力
+     */
+    public boolean isUnderPressure() {
+        if (!pressure && used.get() > limit) {
+            pressure = true;
+        }
+        return pressure;
+    }
+
+    /**
+     * 当前暂停中的来源数量
+     */
+    public int getPausedSources() {
+        int total = 0;
+        for (MemoryAccount account : pausedAccounts) {
+            total += account.getPausedSources();
+        }
+        return total;
+    }
+
+    /**
+     * 池化分配器已使用的直接内存，只用于观测
+     */
+    public static long allocatorUsedDirectMemory() {
+        ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+        if (allocator instanceof ByteBufAllocatorMetricProvider) {
+            ByteBufAllocatorMetric metric = ((ByteBufAllocatorMetricProvider) allocator).metric();
+            return metric.usedDirectMemory();
+        }
+        return -1;
+    }
+
+    RelayMetrics getMetrics() {
+        return metrics;
+    }
+
+    void add(long bytes) {
+        used.addAndGet(bytes);
+    }
+
+    void release(long bytes) {
+        long now = used.addAndGet(-bytes);
+        if (pressure && now < resumeThreshold) {
+            pressure = false;
+            for (MemoryAccount account : pausedAccounts) {
+                account.resumeIfBelow();
+            }
+        }
+    }
+
+    void paused(MemoryAccount account) {
+        pausedAccounts.add(account);
+    }
+
+    void resumed(MemoryAccount account) {
+        pausedAccounts.remove(account);
+    }
+}
@@ -0,0 +1,121 @@
+package top.aixmax.penetrate.core.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 20:40
+ * @description 滑动窗口速率，按秒分桶，每个桶是一个分段计数器。
+ * 写入只做一次桶定位和 LongAdder 累加，跨秒时重置旧桶；读取时对窗口内的整秒桶求和，
+ * 窗口最早的一秒按当前秒已过的比例折算，因此速率随时间平滑变化而不是每秒跳变
+ */
+public class RateMeter {
+
+    /**
+     * 支持的最大窗口（秒）
+     */
+    public static final int MAX_WINDOW_SECONDS = 60;
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * 桶数量，大于最大窗口+1且为2的幂
+     */
+    private static final int BUCKETS = 64;
+
+    private static final int MASK = BUCKETS - 1;
+
+    private final long originNanos;
+
+    private final Bucket[] buckets = new Bucket[BUCKETS];
+
+    public RateMeter() {
+        this(System.nanoTime());
+    }
+
+    /**
+     * @param originNanos 第0秒桶的起点，按 {@link System#nanoTime()} 计
+     */
+    RateMeter(long originNanos) {
+        this.originNanos = originNanos;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    public void record(long value) {
+        record(value, System.nanoTime());
+    }
+
+    /**
+     * 累加到当前秒的桶
+     *
+     * @param value     数值
+     * @param nowNanos  当前 {@link System#nanoTime()}，同一次记录的多个速率可共用
+     */
+    public void record(long value, long nowNanos) {
+        long second = (nowNanos - originNanos) / NANOS_PER_SECOND;
+        Bucket bucket = buckets[(int) (second & MASK)];
+        if (bucket.second < second) {
+            bucket.roll(second);
+        }
+        bucket.sum.add(value);
+    }
+
+    /**
+     * 最近一段时间内的每秒速率
+     *
+     * @param windowSeconds 窗口（秒），1~{@value #MAX_WINDOW_SECONDS}
+     */
+    public double rate(int windowSeconds) {
+        return rate(windowSeconds, System.nanoTime());
+    }
+
+    /**
+     * 截至指定时刻的每秒速率
+     *
+     * @param windowSeconds 窗口（秒），1~{@value #MAX_WINDOW_SECONDS}
+     * @param nowNanos      当前 {@link System#nanoTime()}
+     */
+    public double rate(int windowSeconds, long nowNanos) {
+        if (windowSeconds < 1 || windowSeconds > MAX_WINDOW_SECONDS) {
+            throw new IllegalArgumentException("Invalid rate window: " + windowSeconds);
+        }
+        long elapsed = nowNanos - originNanos;
+        long second = elapsed / NANOS_PER_SECOND;
+        double fraction = (double) (elapsed % NANOS_PER_SECOND) / NANOS_PER_SECOND;
+        double total = 0;
+        for (int i = 0; i < windowSeconds; i++) {
+            total += value(second - i);
+        }
+        // 窗口起点落在更早一秒内，按未过去的比例计入
+        total += value(second - windowSeconds) * (1 - fraction);
+        return total / windowSeconds;
+    }
+
+    private long value(long second) {
+        if (second < 0) {
+            return 0;
+        }
+        Bucket bucket = buckets[(int) (second & MASK)];
+        return bucket.second == second ? bucket.sum.sum() : 0;
+    }
+
+    private static final class Bucket {
+
+        private final LongAdder sum = new LongAdder();
+
+        private volatile long second = -1;
+
+        /**
+         * 切换到新的一秒，先清零再发布秒数，读取方看到新秒数时不会读到旧值
+         */
+        private synchronized void roll(long newSecond) {
+            if (second < newSecond) {
+                sum.reset();
+                second = newSecond;
+            }
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package top.aixmax.penetrate.core.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import top.aixmax.penetrate.core.compress.FrameCompressor;
+import top.aixmax.penetrate.core.compress.PayloadCodec;
+import top.aixmax.penetrate.core.flow.PauseReason;
+import top.aixmax.penetrate.core.log.RateLimitedLog;
+import top.aixmax.penetrate.core.memory.MemoryAccount;
+import top.aixmax.penetrate.core.memory.MemoryBudget;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 15:10
+ * @description 中继指标，按角色（server/client）区分。计数器在客户端注册或端口启用时创建一次，
+ * 热路径持有引用直接累加，不做按帧的标签查找
+ */
+public class RelayMetrics {
+
+    /**
+     * 未接入 Spring 时使用的空指标
+     */
+    public static final RelayMetrics NOOP = new RelayMetrics(new CompositeMeterRegistry(), "none");
+
+    private final MeterRegistry registry;
+
+    private final String role;
+
+    private final DistributionSummary frameSize;
+
+    private final Counter writable;
+
+    private final Counter unwritable;
+
+    private final Timer connectLatency;
+
+    private final Counter datagramsDropped;
+
+    private final Map<PauseReason, Timer> readPauses = new EnumMap<>(PauseReason.class);
+
+    private final Timer tlsFull;
+
+    private final Timer tlsResumed;
+
+    private final Timer tlsFailed;
+
+    private final Timer decompression;
+
+    private final Counter replayed;
+
+    // 远程端口 -> 流量计数
+    private final Map<Integer, TrafficMeter> portMeters = new ConcurrentHashMap<>();
+
+    public RelayMetrics(MeterRegistry registry, String role) {
+        this.registry = registry;
+        this.role = role;
+        this.frameSize = DistributionSummary.builder("penetrate.frame.size")
+                .description("Payload size of frames received over the tunnel")
+                .baseUnit("bytes")
+                .tag("role", role)
+                .serviceLevelObjectives(64, 512, 4096, 16384, 32768, 65536, 1048576)
+                .register(registry);
+        this.writable = Counter.builder("penetrate.tunnel.writability.changes")
+                .tags("role", role, "writable", "true")
+                .register(registry);
+        this.unwritable = Counter.builder("penetrate.tunnel.writability.changes")
+                .tags("role", role, "writable", "false")
+                .register(registry);
+        this.connectLatency = Timer.builder("penetrate.stream.connect")
+                .description("Time to dial the local service for a new stream")
+                .tag("role", role)
+                .serviceLevelObjectives(Duration.ofMillis(1), Duration.ofMillis(10), Duration.ofMillis(100),
+                        Duration.ofSeconds(1), Duration.ofSeconds(5))
+                .register(registry);
+        this.datagramsDropped = Counter.builder("penetrate.datagrams.dropped")
+                .description("Datagrams dropped instead of being relayed")
+                .tag("role", role)
+                .register(registry);
+        for (PauseReason reason : PauseReason.values()) {
+            readPauses.put(reason, Timer.builder("penetrate.read.pause")
+                    .description("Time a channel had reads paused, by reason")
+                    .tags("role", role, "reason", reason.tag())
+                    .serviceLevelObjectives(Duration.ofMillis(1), Duration.ofMillis(10), Duration.ofMillis(100),
+                            Duration.ofSeconds(1), Duration.ofSeconds(10))
+                    .register(registry));
+        }
+        this.tlsFull = tlsTimer(registry, role, "full");
+        this.tlsResumed = tlsTimer(registry, role, "resumed");
+        this.tlsFailed = tlsTimer(registry, role, "failed");
+        this.decompression = Timer.builder("penetrate.decompression.time")
+                .description("CPU time spent decompressing DATA payloads received over the tunnel")
+                .tag("role", role)
+                .register(registry);
+        this.replayed = Counter.builder("penetrate.replay.bytes")
+                .description("Bytes retransmitted from replay buffers after a tunnel session resumed")
+                .tag("role", role)
+                .baseUnit("bytes")
+                .register(registry);
+        RateLimitedLog.bindTo(registry);
+    }
+
+    private static Timer tlsTimer(MeterRegistry registry, String role, String result) {
+        return Timer.builder("penetrate.tls.handshake")
+                .description("TLS handshake latency on the tunnel, by full, resumed or failed handshake")
+                .tags("role", role, "result", result)
+                .serviceLevelObjectives(Duration.ofMillis(1), Duration.ofMillis(10), Duration.ofMillis(100),
+                        Duration.ofSeconds(1))
+                .register(registry);
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    /**
+     * 创建客户端流量计数，客户端注销时需调用 {@link #remove(TrafficMeter)}
+     */
+    public TrafficMeter clientMeter(String clientId) {
+        return new TrafficMeter(registry, "penetrate.client", Tags.of("role", role, "client", clientId));
+    }
+
+    /**
+     * 获取远程端口流量计数，同一端口只注册一次
+     */
+    public TrafficMeter portMeter(int remotePort) {
+        return portMeters.computeIfAbsent(remotePort, p ->
+                new TrafficMeter(registry, "penetrate.port", Tags.of("role", role, "port", String.valueOf(p))));
+    }
+
+    /**
+     * 获取已创建的远程端口流量计数，不存在时返回null
+     */
+    public TrafficMeter findPortMeter(int remotePort) {
+        return portMeters.get(remotePort);
+    }
+
+    public void remove(TrafficMeter meter) {
+        if (meter != null) {
+            meter.remove(registry);
+        }
+    }
+
+    /**
+     * 创建端口映射的负载压缩器，不再使用时需调用 {@link FrameCompressor#remove(MeterRegistry)}
+     */
+    public FrameCompressor compressor(PayloadCodec codec, int remotePort, String clientId) {
+        return new FrameCompressor(codec, registry,
+                Tags.of("role", role, "client", clientId, "port", String.valueOf(remotePort)));
+    }
+
+    /**
+     * 负载解压耗时
+     */
+    public Timer decompression() {
+        return decompression;
+    }
+
+    /**
+     * 会话恢复后重发的字节数
+     */
+    public Counter replayed() {
+        return replayed;
+    }
+
+    /**
+     * 会话恢复结果
+     *
+     * @param result resumed 恢复成功，expired 宽限期内未恢复，rejected 令牌不匹配
+     */
+    public Counter sessionResume(String result) {
+        return Counter.builder("penetrate.session.resume")
+                .description("Tunnel session resume attempts, by result")
+                .tags("role", role, "result", result)
+                .register(registry);
+    }
+
+    /**
+     * 外部连接在等待队列中的时长
+     *
+     * @param result dispatched 已分派给客户端，timeout 等待超时，closed 等待期间断开，drained 服务端排空时关闭
+     */
+    public Timer pendingWait(String result) {
+        return Timer.builder("penetrate.pending.wait")
+                .description("Time external connections waited for a client, by outcome")
+                .tags("role", role, "result", result)
+                .serviceLevelObjectives(Duration.ofMillis(100), Duration.ofSeconds(1), Duration.ofSeconds(5),
+                        Duration.ofSeconds(30))
+                .register(registry);
+    }
+
+    /**
+     * 队列已满而直接关闭的外部连接
+     */
+    public Counter pendingRejected(int remotePort) {
+        return Counter.builder("penetrate.pending.rejected")
+                .description("External connections closed because the waiting queue was full")
+                .tags("role", role, "port", String.valueOf(remotePort))
+                .register(registry);
+    }
+
+    /**
+     * 远程端口上等待客户端的外部连接数
+     */
+    public <T> void gaugePendingConnections(int remotePort, T obj, ToDoubleFunction<T> size) {
+        Gauge.builder("penetrate.pending.connections", obj, size)
+                .description("External connections waiting for a client to become available")
+                .tags("role", role, "port", String.valueOf(remotePort))
+                .register(registry);
+    }
+
+    /**
+     * 到服务端的探测往返时间（平滑值，毫秒），不可达时为-1
+     */
+    public <T> void gaugeServerRtt(String server, T obj, ToDoubleFunction<T> rttMillis) {
+        Gauge.builder("penetrate.server.rtt", obj, rttMillis)
+                .description("Smoothed connect round trip time to each configured server, -1 when unreachable")
+                .baseUnit("milliseconds")
+                .tags("role", role, "server", server)
+                .register(registry);
+    }
+
+    /**
+     * 隧道切换到的服务端
+     *
+     * @param reason closed 隧道断开，unhealthy 当前服务端探测失败
+     */
+    public Counter serverFailover(String server, String reason) {
+        return Counter.builder("penetrate.server.failover")
+                .description("Tunnels re-established on another server, by target and reason")
+                .tags("role", role, "server", server, "reason", reason)
+                .register(registry);
+    }
+
+    /**
+     * 记录收到的帧负载大小
+     */
+    public void recordFrame(int length) {
+        frameSize.record(length);
+    }
+
+    /**
+     * 记录隧道可写状态变化
+     */
+    public void writabilityChanged(boolean isWritable) {
+        (isWritable ? writable : unwritable).increment();
+    }
+
+    /**
+     * 读取暂停次数和时长，在恢复时记录
+     */
+    public Timer readPause(PauseReason reason) {
+        return readPauses.get(reason);
+    }
+
+    /**
+     * 隧道TLS握手耗时
+     *
+     * @param success 是否成功
+     * @param resumed 是否复用了之前的会话
+     */
+    public Timer tlsHandshake(boolean success, boolean resumed) {
+        if (!success) {
+            return tlsFailed;
+        }
+        return resumed ? tlsResumed : tlsFull;
+    }
+
+    /**
+     * 丢弃的数据报
+     */
+    public Counter datagramsDropped() {
+        return datagramsDropped;
+    }
+
+    /**
+     * 数据报会话数量
+     */
+    public <T> void gaugeDatagramSessions(T obj, ToDoubleFunction<T> size) {
+        Gauge.builder("penetrate.datagram.sessions", obj, size)
+                .tag("role", role)
+                .register(registry);
+    }
+
+    public Timer connectLatency() {
+        return connectLatency;
+    }
+
+    /**
+     * 流建立各阶段耗时
+     */
+    public Timer streamStage(String stage) {
+        return Timer.builder("penetrate.stream.stage")
+                .description("Per-stage latency of sampled streams from external accept to first response byte")
+                .tags("role", role, "stage", stage)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * 客户端缓冲字节数，随客户端流量计数一起移除
+     */
+    public void gaugeBuffered(TrafficMeter clientMeter, String clientId, MemoryAccount account) {
+        clientMeter.bind(Gauge.builder("penetrate.client.buffered", account, MemoryAccount::getUsed)
+                .description("Bytes written on behalf of the client and not yet flushed to the peer")
+                .tags("role", role, "client", clientId)
+                .baseUnit("bytes")
+                .register(registry));
+    }
+
+    /**
+     * 全局缓冲预算
+     */
+    public void gaugeMemory(MemoryBudget budget) {
+        Gauge.builder("penetrate.memory.buffered", budget, MemoryBudget::getUsed)
+                .description("Bytes written by the relay and not yet flushed to the peer")
+                .tag("role", role)
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("penetrate.memory.budget", budget, MemoryBudget::getLimit)
+                .tag("role", role)
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("penetrate.memory.paused.sources", budget, MemoryBudget::getPausedSources)
+                .description("Channels with reads paused because of memory pressure")
+                .tag("role", role)
+                .register(registry);
+        Gauge.builder("penetrate.memory.allocator.direct", budget, b -> MemoryBudget.allocatorUsedDirectMemory())
+                .description("Direct memory used by the pooled allocator")
+                .tag("role", role)
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * 打开的流数量
+     */
+    public <T> void gaugeOpenStreams(T obj, ToDoubleFunction<T> size) {
+        Gauge.builder("penetrate.streams.open", obj, size)
+                .tag("role", role)
+                .register(registry);
+    }
+
+    /**
+     * 隧道上等待写出的字节数
+     */
+    public void gaugePendingOutbound(Supplier<? extends Iterable<Channel>> tunnels) {
+        Gauge.builder("penetrate.tunnel.pending.outbound", tunnels, RelayMetrics::pendingBytes)
+                .tag("role", role)
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * 事件循环任务队列深度
+     */
+    public void gaugeEventLoop(String name, EventExecutorGroup group) {
+        Gauge.builder("penetrate.eventloop.pending.tasks", group, RelayMetrics::pendingTasks)
+                .tags("role", role, "group", name)
+                .register(registry);
+    }
+
+    private static double pendingBytes(Supplier<? extends Iterable<Channel>> tunnels) {
+        long total = 0;
+        for (Channel channel : tunnels.get()) {
+            ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+            if (buffer != null) {
+                total += buffer.totalPendingWriteBytes();
+            }
+        }
+        return total;
+    }
+
+    private static double pendingTasks(EventExecutorGroup group) {
+        long total = 0;
+        for (EventExecutor executor : group) {
+            if (executor instanceof SingleThreadEventExecutor) {
+                total += ((SingleThreadEventExecutor) executor).pendingTasks();
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,149 @@
+package top.aixmax.penetrate.core.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.netty.util.AttributeKey;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 15:02
+ * @description 流量计数，热路径只累加分段计数器，导出时由 FunctionCounter 读取。
+ * 同时记录1s/10s/60s滑动窗口速率，in为从隧道收到的数据，out为写入隧道的数据；
+ * 指标只导出10秒窗口的速率，其他窗口通过 {@link #getBytesInRate(int)} 等方法读取
+ */
+public class TrafficMeter {
+
+    /**
+     * 本地连接上绑定的计数器
+     */
+    public static final AttributeKey<TrafficMeter> METER = AttributeKey.valueOf("penetrate.meter");
+
+    /**
+     * 导出指标和负载均衡使用的速率窗口（秒）
+     */
+    public static final int DEFAULT_WINDOW_SECONDS = 10;
+
+    private final LongAdder bytesIn = new LongAdder();
+
+    private final LongAdder bytesOut = new LongAdder();
+
+    private final LongAdder framesIn = new LongAdder();
+
+    private final LongAdder framesOut = new LongAdder();
+
+    private final RateMeter bytesInRate = new RateMeter();
+
+    private final RateMeter bytesOutRate = new RateMeter();
+
+    private final RateMeter framesInRate = new RateMeter();
+
+    private final RateMeter framesOutRate = new RateMeter();
+
+    private final List<Meter> meters = new ArrayList<>(8);
+
+    TrafficMeter(MeterRegistry registry, String name, Tags tags) {
+        meters.add(counter(registry, name + ".bytes", tags.and("direction", "in"), bytesIn, "bytes"));
+        meters.add(counter(registry, name + ".bytes", tags.and("direction", "out"), bytesOut, "bytes"));
+        meters.add(counter(registry, name + ".frames", tags.and("direction", "in"), framesIn, null));
+        meters.add(counter(registry, name + ".frames", tags.and("direction", "out"), framesOut, null));
+        meters.add(rate(registry, name + ".bytes.rate", tags.and("direction", "in"), bytesInRate, "bytes"));
+        meters.add(rate(registry, name + ".bytes.rate", tags.and("direction", "out"), bytesOutRate, "bytes"));
+        meters.add(rate(registry, name + ".frames.rate", tags.and("direction", "in"), framesInRate, null));
+        meters.add(rate(registry, name + ".frames.rate", tags.and("direction", "out"), framesOutRate, null));
+    }
+
+    private static Meter counter(MeterRegistry registry, String name, Tags tags, LongAdder adder, String unit) {
+        return FunctionCounter.builder(name, adder, LongAdder::sum)
+                .tags(tags)
+                .baseUnit(unit)
+                .register(registry);
+    }
+
+    private static Meter rate(MeterRegistry registry, String name, Tags tags, RateMeter rate, String unit) {
+        return Gauge.builder(name, rate, r -> r.rate(DEFAULT_WINDOW_SECONDS))
+                .description("Per-second rate over the last 10 seconds")
+                .tags(tags)
+                .baseUnit(unit)
+                .register(registry);
+    }
+
+    /**
+     * 记录收到的一帧
+     */
+    public void recordIn(long bytes) {
+        bytesIn.add(bytes);
+        framesIn.increment();
+        long now = System.nanoTime();
+        bytesInRate.record(bytes, now);
+        framesInRate.record(1, now);
+    }
+
+    /**
+     * 记录发出的数据
+     *
+     * @param bytes  字节数
+     * @param frames 帧数
+     */
+    public void recordOut(long bytes, int frames) {
+        bytesOut.add(bytes);
+        framesOut.add(frames);
+        long now = System.nanoTime();
+        bytesOutRate.record(bytes, now);
+        framesOutRate.record(frames, now);
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long getFramesIn() {
+        return framesIn.sum();
+    }
+
+    public long getFramesOut() {
+        return framesOut.sum();
+    }
+
+    /**
+     * 收到字节的每秒速率
+     *
+     * @param windowSeconds 窗口（秒），1~60
+     */
+    public double getBytesInRate(int windowSeconds) {
+        return bytesInRate.rate(windowSeconds);
+    }
+
+    public double getBytesOutRate(int windowSeconds) {
+        return bytesOutRate.rate(windowSeconds);
+    }
+
+    public double getFramesInRate(int windowSeconds) {
+        return framesInRate.rate(windowSeconds);
+    }
+
+    public double getFramesOutRate(int windowSeconds) {
+        return framesOutRate.rate(windowSeconds);
+    }
+
+    /**
+     * 绑定同一对象的其他指标，随流量计数一起移除
+     */
+    void bind(Meter meter) {
+        meters.add(meter);
+    }
+
+    void remove(MeterRegistry registry) {
+        meters.forEach(registry::remove);
+    }
+}
@@ -0,0 +1,98 @@
+package top.aixmax.penetrate.core.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import top.aixmax.penetrate.common.constants.ProtocolConstants;
+import top.aixmax.penetrate.common.enums.MessageType;
+import top.aixmax.penetrate.core.compress.FrameCompressor;
+import top.aixmax.penetrate.core.jfr.RelayEvents;
+import top.aixmax.penetrate.core.memory.MemoryAccount;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 10:12
+ * @description 数据帧分片写入，单帧负载不超过配置的最大值
+ */
+public final class DataFrameWriter {
+
+    private DataFrameWriter() {
+    }
+
+    /**
+     * 将数据按最大负载拆分为多个DATA帧写入隧道，最后统一flush
+     *
+     * @param tunnel       隧道管道
+     * @param channelId    外部连接ID
+     * @param externalPort 外部端口
+     * @param payload      数据，读取后不负责释放
+     * @param maxPayload   单帧最大负载
+     * @return 写入的帧数
+     */
+    public static int writeData(Channel tunnel, int channelId, int externalPort,
+                                ByteBuf payload, int maxPayload) {
+        return writeData(tunnel, channelId, externalPort, payload, maxPayload, null);
+    }
+
+    /**
+     * 同上，写出的字节在写出完成前计入内存账户
+     *
+     * @param account 内存账户，为null时不计入
+     */
+    public static int writeData(Channel tunnel, int channelId, int externalPort,
+                                ByteBuf payload, int maxPayload, MemoryAccount account) {
+        return writeData(tunnel, channelId, externalPort, payload, maxPayload, account, null);
+    }
+
+    /**
+     * 同上，按映射协商的算法逐帧压缩，压缩收益不足的帧原样发送
+     *
+     * @param compressor 映射的压缩器，为null时不压缩
+     */
+    public static int writeData(Channel tunnel, int channelId, int externalPort, ByteBuf payload,
+                                int maxPayload, MemoryAccount account, FrameCompressor compressor) {
+        FrameCodec codec = FrameCodec.of(tunnel);
+        if (codec.version() < ProtocolConstants.VERSION_2) {
+            // 注册确认发出前仍是v1帧，不带压缩标志
+            compressor = null;
+        }
+        int bytes = payload.readableBytes();
+        int frames = 0;
+        ChannelFuture last;
+        do {
+            int length = Math.min(payload.readableBytes(), maxPayload);
+            ByteBuf compressed = compressor == null ? null : compressor.compress(tunnel.alloc(), payload, length);
+            if (compressed != null) {
+                payload.skipBytes(length);
+                last = tunnel.write(codec.encodeCompressed(tunnel.alloc(), MessageType.DATA, channelId, compressed));
+            } else {
+                last = tunnel.write(codec.encode(tunnel.alloc(), MessageType.DATA, channelId, externalPort,
+                        payload, length));
+            }
+            frames++;
+            RelayEvents.frame(false, MessageType.DATA, length, channelId);
+        } while (payload.isReadable());
+        if (account != null) {
+            // 同一通道的写出按顺序完成，最后一帧完成时整块数据都已写出
+            account.track(last, bytes);
+        }
+        tunnel.flush();
+        return frames;
+    }
+
+    /**
+     * 将一个数据报作为一个DATAGRAM帧写入隧道，保留消息边界；只写不flush，由调用方在读取结束时统一flush
+     *
+     * @param tunnel       隧道管道
+     * @param sessionId    会话ID
+     * @param externalPort 外部端口，客户端据此在首个数据报到达时建立会话
+     * @param payload      数据报内容，读取后不负责释放
+     */
+    public static ChannelFuture writeDatagram(Channel tunnel, int sessionId, int externalPort, ByteBuf payload) {
+        int length = payload.readableBytes();
+        ChannelFuture future = tunnel.write(FrameCodec.of(tunnel).encode(tunnel.alloc(), MessageType.DATAGRAM,
+                sessionId, externalPort, payload, length));
+        RelayEvents.frame(false, MessageType.DATAGRAM, length, sessionId);
+        return future;
+    }
+}
@@ -0,0 +1,131 @@
+package top.aixmax.penetrate.core.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.util.AttributeKey;
+import top.aixmax.penetrate.common.constants.ProtocolConstants;
+import top.aixmax.penetrate.common.enums.MessageType;
+import top.aixmax.penetrate.core.jfr.RelayEvents;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 11:02
+ * @description 帧编解码，按连接协商的协议版本选择实现
+ */
+public abstract class FrameCodec {
+
+    /**
+     * 连接上协商后的编解码，未设置时使用v1
+     */
+    public static final AttributeKey<FrameCodec> CODEC = AttributeKey.valueOf("penetrate.codec");
+
+    public static final FrameCodec V1 = new V1FrameCodec();
+
+    public static final FrameCodec V2 = new V2FrameCodec();
+
+    /**
+     * 获取连接当前使用的编解码
+     *
+     * @param channel 管道
+     * @return 编解码
+     */
+    public static FrameCodec of(Channel channel) {
+        FrameCodec codec = channel.attr(CODEC).get();
+        return codec == null ? V1 : codec;
+    }
+
+    /**
+     * 根据版本号获取编解码，不支持的高版本降级为本端最高版本
+     *
+     * @param version 协议版本
+     * @return 编解码
+     */
+    public static FrameCodec forVersion(int version) {
+        return version >= ProtocolConstants.VERSION_2 ? V2 : V1;
+    }
+
+    /**
+     * 按连接协商的版本编码并发送消息
+     *
+     * @param channel 管道
+     * @param message 消息
+     * @return 写入结果
+     */
+    public static ChannelFuture send(Channel channel, Message message) {
+        return send(channel, message, of(channel));
+    }
+
+    /**
+     * 按指定的编解码编码并发送消息，用于连接已切换版本后仍须以旧版本发出的注册确认
+     *
+     * @param channel 管道
+     * @param message 消息
+     * @param codec   编解码
+     * @return 写入结果
+     */
+    public static ChannelFuture send(Channel channel, Message message, FrameCodec codec) {
+        RelayEvents.frame(false, message.getType(), message.getData() == null ? 0 : message.getData().length,
+                message.getChannelId());
+        return channel.writeAndFlush(codec.encode(channel.alloc(), message));
+    }
+
+    /**
+     * 协议版本
+     */
+    public abstract int version();
+
+    /**
+     * 编码消息
+     *
+     * @param alloc   分配器
+     * @param message 消息
+     * @return 帧
+     */
+    public ByteBuf encode(ByteBufAllocator alloc, Message message) {
+        byte[] data = message.getData() == null ? new byte[0] : message.getData();
+        return encode(alloc, message.getType(), message.getChannelId(), message.getExternalPort(),
+                Unpooled.wrappedBuffer(data), data.length);
+    }
+
+    /**
+     * 编码消息，从payload中读取length个字节作为负载
+     *
+     * @param alloc        分配器
+     * @param type         消息类型
+     * @param channelId    外部连接ID
+     * @param externalPort 外部端口
+     * @param payload      负载
+     * @param length       负载长度
+     * @return 帧
+     */
+    public abstract ByteBuf encode(ByteBufAllocator alloc, MessageType type, int channelId, int externalPort,
+                                   ByteBuf payload, int length);
+
+    /**
+     * 编码负载已压缩的帧
+     *
+     * @param alloc      分配器
+     * @param type       消息类型
+     * @param channelId  外部连接ID
+     * @param compressed 压缩负载，由帧接管释放
+     * @return 帧
+     * @throws UnsupportedOperationException 当前版本不支持压缩
+     */
+    public ByteBuf encodeCompressed(ByteBufAllocator alloc, MessageType type, int channelId, ByteBuf compressed) {
+        compressed.release();
+        throw new UnsupportedOperationException("Compressed frames require protocol version 2");
+    }
+
+    /**
+     * 解析一帧，成功时移动读指针
+     *
+     * @param in             缓冲区
+     * @param maxFrameLength 最大帧长度
+     * @return 消息，数据不足一帧时返回null
+     * @throws io.netty.handler.codec.DecoderException 数据非法
+     */
+    public abstract Message decode(ByteBuf in, int maxFrameLength);
+}
@@ -19,6 +19,7 @@ public class Message {
     private int channelId = 0;  // 外部连接的管道ID
     private int externalPort = 0; // 外部连接端口号，传递给客户端用于映射
     private byte[] data = new byte[0];
+    private boolean compressed = false; // 负载为压缩数据，仅v2帧
     private byte end = ProtocolConstants.end;
 
     public static Message create() {
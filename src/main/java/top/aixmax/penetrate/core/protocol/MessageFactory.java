@@ -1,9 +1,14 @@
 package top.aixmax.penetrate.core.protocol;
 
+import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.common.constants.ProtocolConstants;
 import top.aixmax.penetrate.common.enums.MessageType;
+import top.aixmax.penetrate.core.compress.PayloadCodec;
+import top.aixmax.penetrate.core.resume.SessionResume;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Map;
 
 /**
  * @author wangxu
@@ -12,78 +17,199 @@ import java.nio.charset.StandardCharsets;
  */
 public class MessageFactory {
 
-    public static byte[] createRegisterMessage(String data) {
+    /**
+     * CONNECT负载标志位：要求回传阶段耗时
+     */
+    private static final byte CONNECT_FLAG_TRACE = 0x01;
+
+    public static Message createRegisterMessage(String data) {
+        return createRegisterMessage(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Message createRegisterMessage(byte[] data) {
         return Message.create()
                 .setType(MessageType.REGISTER)
-                .setData(data.getBytes(StandardCharsets.UTF_8))
-                .getBytes();
+                .setData(data);
+    }
+
+    /**
+     * 创建注册确认消息
+     *
+     * @param version 协商后的协议版本
+     */
+    public static Message createRegisterAckMessage(byte version) {
+        return Message.create()
+                .setType(MessageType.REGISTER_ACK)
+                .setData(new byte[]{version});
+    }
+
+    /**
+     * 创建注册确认消息，附带接受压缩的映射
+     *
+     * @param version     协商后的协议版本
+     * @param compression 接受压缩的映射，远程端口 -> 算法
+     */
+    public static Message createRegisterAckMessage(byte version, Map<Integer, PayloadCodec> compression) {
+        return createRegisterAckMessage(version, compression, null);
     }
 
-    public static byte[] createRegisterAckMessage() {
+    /**
+     * 创建注册确认消息，附带会话恢复信息
+     *
+     * @param resume 会话恢复信息，客户端不支持恢复时为null
+     */
+    public static Message createRegisterAckMessage(byte version, Map<Integer, PayloadCodec> compression,
+                                                   SessionResume resume) {
         return Message.create()
                 .setType(MessageType.REGISTER_ACK)
-                .setData(new byte[0])
-                .getBytes();
+                .setData(RegisterCodec.encodeAck(version, compression, resume));
     }
 
-    public static byte[] createHeartbeatMessage() {
+    public static Message createHeartbeatMessage() {
         return Message.create()
                 .setType(MessageType.HEARTBEAT)
-                .setData(new byte[0])
-                .getBytes();
+                .setData(new byte[0]);
     }
 
-    public static byte[] createHeartbeatAckMessage() {
+    public static Message createHeartbeatAckMessage() {
         return Message.create()
                 .setType(MessageType.HEARTBEAT_ACK)
-                .setData(new byte[0])
-                .getBytes();
+                .setData(new byte[0]);
     }
 
-    public static byte[] createDataMessage(byte[] data) {
+    public static Message createDataMessage(byte[] data) {
         return Message.create()
                 .setType(MessageType.DATA)
-                .setData(data)
-                .getBytes();
+                .setData(data);
     }
 
-    public static byte[] createDataAckMessage(int sequence) {
+    public static Message createDataAckMessage(int sequence) {
         return Message.create()
                 .setType(MessageType.DATA_ACK)
                 .setData(new byte[]{(byte) (sequence >>> 24),
                         (byte) (sequence >>> 16),
                         (byte) (sequence >>> 8),
-                        (byte) sequence})
-                .getBytes();
+                        (byte) sequence});
+    }
+
+    /**
+     * 创建数据确认消息
+     *
+     * @param offsets 流ID -> 已交付偏移
+     */
+    public static Message createDataAckMessage(Map<Integer, Long> offsets) {
+        return Message.create()
+                .setType(MessageType.DATA_ACK)
+                .setData(SessionResume.encodeOffsets(offsets));
     }
 
-    public static byte[] createErrorMessage(String errorMessage) {
+    public static Message createErrorMessage(String errorMessage) {
         return Message.create()
                 .setType(MessageType.ERROR)
-                .setData(errorMessage.getBytes(StandardCharsets.UTF_8))
-                .getBytes();
+                .setData(errorMessage.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 创建限流错误消息，要求客户端在指定时间后重连
+     *
+     * @param millis 重试等待毫秒数
+     */
+    public static Message createRetryAfterMessage(long millis) {
+        return createErrorMessage(ProtocolConstants.RETRY_AFTER_PREFIX + millis);
+    }
+
+    /**
+     * 创建排空通知，服务端不再接受新的连接，客户端应连接其他服务端，现有的流在期限内继续
+     *
+     * @param remainingMillis 距服务端强制关闭隧道的毫秒数
+     */
+    public static Message createGoAwayMessage(long remainingMillis) {
+        return Message.create()
+                .setType(MessageType.GOAWAY)
+                .setData(ByteBuffer.allocate(8).putLong(remainingMillis).array());
+    }
+
+    /**
+     * 解析排空通知中的剩余时间，负载缺失时返回0
+     */
+    public static long decodeGoAway(byte[] data) {
+        return data == null || data.length < 8 ? 0 : ByteBuffer.wrap(data).getLong();
+    }
+
+    /**
+     * 创建外部连接建立消息，携带外部端口供客户端映射
+     */
+    public static Message createConnectMessage(int channelId, int externalPort) {
+        return Message.create()
+                .setType(MessageType.CONNECT)
+                .setChannelId(channelId)
+                .setExternalPort(externalPort);
+    }
+
+    /**
+     * 创建外部连接建立消息
+     *
+     * @param trace 是否要求客户端回传该流的阶段耗时
+     */
+    public static Message createConnectMessage(int channelId, int externalPort, boolean trace) {
+        Message message = createConnectMessage(channelId, externalPort);
+        return trace ? message.setData(new byte[]{CONNECT_FLAG_TRACE}) : message;
+    }
+
+    /**
+     * CONNECT消息是否要求回传阶段耗时
+     */
+    public static boolean isTraceRequested(Message connect) {
+        byte[] data = connect.getData();
+        return data != null && data.length > 0 && (data[0] & CONNECT_FLAG_TRACE) != 0;
+    }
+
+    /**
+     * 创建流阶段耗时回传消息
+     */
+    public static Message createStreamTraceMessage(int channelId, byte[] timing) {
+        return Message.create()
+                .setType(MessageType.STREAM_TRACE)
+                .setChannelId(channelId)
+                .setData(timing);
+    }
+
+    /**
+     * 创建连接断开消息
+     */
+    public static Message createDisconnectMessage(int channelId) {
+        return Message.create()
+                .setType(MessageType.DISCONNECT)
+                .setChannelId(channelId);
     }
 
     /**
-     * 创建端口映射确认消息
+     * 创建映射变更确认消息
+     *
+     * @param requestId   请求ID
+     * @param status      {@link PortMappingCodec#STATUS_OK} 或 {@link PortMappingCodec#STATUS_REJECTED}
+     * @param compression 接受的压缩算法
+     * @param reason      拒绝原因，接受时为null
      */
-    public static byte[] createPortMappingAckMessage() {
+    public static Message createPortMappingAckMessage(int requestId, byte status, PayloadCodec compression,
+                                                      String reason) {
         return Message.create()
                 .setType(MessageType.PORT_MAPPING_ACK)
-                .setData(new byte[0])
-                .getBytes();
+                .setChannelId(requestId)
+                .setData(PortMappingCodec.encodeAck(status, compression, reason));
     }
 
     /**
-     * 创建端口映射消息
+     * 创建映射变更消息，仅在协商版本不低于v3时发送
+     *
+     * @param requestId 请求ID，确认中原样带回
+     * @param op        {@link PortMappingCodec#OP_PUT} 或 {@link PortMappingCodec#OP_REMOVE}
+     * @param mapping   映射
      */
-    public static byte[] createPortMappingMessage(int localPort, int remotePort) {
-        ByteBuffer buffer = ByteBuffer.allocate(8);
-        buffer.putInt(localPort);
-        buffer.putInt(remotePort);
+    public static Message createPortMappingMessage(int requestId, byte op, PortMapping mapping) {
         return Message.create()
                 .setType(MessageType.PORT_MAPPING)
-                .setData(buffer.array())
-                .getBytes();
+                .setChannelId(requestId)
+                .setData(PortMappingCodec.encode(op, mapping));
     }
 }
@@ -0,0 +1,109 @@
+package top.aixmax.penetrate.core.protocol;
+
+import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.core.compress.PayloadCodec;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/19 16:10
+ * @description 运行时映射变更的编解码，v3协议起注册后可用，消息的流ID字段为请求ID，确认原样带回。
+ * <p>
+ * 请求格式：操作(1) + 映射[远程端口(2) + 本地端口(2) + 协议(1) + 标志(1)]，映射格式同 {@link RegisterCodec}，
+ * 新增与修改都是按远程端口和协议覆盖
+ * <p>
+ * 确认格式：状态(1) + 压缩算法(1) + [拒绝原因(UTF-8)]，压缩算法为服务端接受的算法，不压缩时为none
+ */
+public final class PortMappingCodec {
+
+    /**
+     * 新增或覆盖映射
+     */
+    public static final byte OP_PUT = 1;
+
+    /**
+     * 删除映射
+     */
+    public static final byte OP_REMOVE = 2;
+
+    public static final byte STATUS_OK = 0;
+
+    public static final byte STATUS_REJECTED = 1;
+
+    private PortMappingCodec() {
+    }
+
+    /**
+     * 编码变更请求
+     *
+     * @param op      操作
+     * @param mapping 映射，删除时只使用远程端口和协议
+     */
+    public static byte[] encode(byte op, PortMapping mapping) {
+        byte[] res = new byte[1 + RegisterCodec.MAPPING_LENGTH];
+        res[0] = op;
+        RegisterCodec.writeMapping(res, 1, mapping);
+        return res;
+    }
+
+    /**
+     * 解码请求的操作
+     *
+     * @throws IllegalArgumentException 数据非法或操作未知
+     */
+    public static byte decodeOp(byte[] data) {
+        if (data == null || data.length < 1 + RegisterCodec.MAPPING_LENGTH) {
+            throw new IllegalArgumentException("Truncated port mapping message");
+        }
+        if (data[0] != OP_PUT && data[0] != OP_REMOVE) {
+            throw new IllegalArgumentException("Unknown port mapping operation: " + data[0]);
+        }
+        return data[0];
+    }
+
+    /**
+     * 解码请求的映射，调用方先以 {@link #decodeOp(byte[])} 校验
+     */
+    public static PortMapping decodeMapping(byte[] data) {
+        return RegisterCodec.readMapping(data, 1);
+    }
+
+    /**
+     * 编码确认
+     *
+     * @param status      状态
+     * @param compression 接受的压缩算法
+     * @param reason      拒绝原因，接受时为null
+     */
+    public static byte[] encodeAck(byte status, PayloadCodec compression, String reason) {
+        byte[] text = reason == null ? new byte[0] : reason.getBytes(StandardCharsets.UTF_8);
+        byte[] res = new byte[2 + text.length];
+        res[0] = status;
+        res[1] = compression.id();
+        System.arraycopy(text, 0, res, 2, text.length);
+        return res;
+    }
+
+    /**
+     * 确认是否为接受，数据缺失视为拒绝
+     */
+    public static boolean isAccepted(byte[] data) {
+        return data != null && data.length >= 2 && data[0] == STATUS_OK;
+    }
+
+    /**
+     * 确认中接受的压缩算法，未知算法视为不压缩
+     */
+    public static PayloadCodec decodeAckCompression(byte[] data) {
+        PayloadCodec codec = data == null || data.length < 2 ? null : PayloadCodec.of(data[1]);
+        return codec == null ? PayloadCodec.NONE : codec;
+    }
+
+    /**
+     * 确认中的拒绝原因
+     */
+    public static String decodeAckReason(byte[] data) {
+        return data == null || data.length <= 2 ? "" : new String(data, 2, data.length - 2, StandardCharsets.UTF_8);
+    }
+}
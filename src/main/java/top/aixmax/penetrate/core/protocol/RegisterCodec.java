@@ -0,0 +1,291 @@
+package top.aixmax.penetrate.core.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.common.constants.ProtocolConstants;
+import top.aixmax.penetrate.common.utils.ByteUtils;
+import top.aixmax.penetrate.core.compress.PayloadCodec;
+import top.aixmax.penetrate.core.resume.SessionResume;
+import top.aixmax.penetrate.server.model.ClientInfo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 13:20
+ * @description 二进制注册消息编解码，替代JSON序列化整个ClientInfo
+ * <p>
+ * 格式：魔数(2) + 协议版本(1) + 排序(4) + 客户端ID长度(varint) + 客户端ID(UTF-8)
+ * + 映射数量(varint) + 每个映射[远程端口(2) + 本地端口(2) + 协议(1) + 标志(1)]
+ * <p>
+ * + [会话恢复请求]
+ * <p>
+ * 标志低4位为开关位，高4位为请求的压缩算法编号，旧版本服务端忽略高位即不压缩。
+ * 确认消息格式：协商版本(1) + [映射数量(varint) + 每个映射[远程端口(2) + 压缩算法(1)] + [会话恢复信息]]，
+ * 只列出接受压缩的映射。会话恢复见 {@link SessionResume}，附加在末尾，旧版本的对端不读取
+ */
+public final class RegisterCodec {
+
+    private static final byte PROTOCOL_TCP = 0;
+
+    private static final byte PROTOCOL_UDP = 1;
+
+    private static final byte FLAG_ENABLED = 0x01;
+
+    private static final int COMPRESSION_SHIFT = 4;
+
+    static final int MAPPING_LENGTH = 6;
+
+    private static final int ACK_MAPPING_LENGTH = 3;
+
+    private RegisterCodec() {
+    }
+
+    /**
+     * 判断注册数据是否为二进制格式，JSON以'{'开头，不会与魔数冲突
+     *
+     * @param data 注册数据
+     * @return 是否二进制
+     */
+    public static boolean isBinary(byte[] data) {
+        return data.length >= 2
+                && (short) (((data[0] & 0xFF) << 8) | (data[1] & 0xFF)) == ProtocolConstants.MAGIC;
+    }
+
+    /**
+     * 编码注册信息
+     *
+     * @param clientId 客户端ID
+     * @param version  协议版本
+     * @param sort     排序
+     * @param mappings 端口映射
+     * @return 注册数据
+     */
+    public static byte[] encode(String clientId, byte version, int sort, List<PortMapping> mappings) {
+        return encode(clientId, version, sort, mappings, null);
+    }
+
+    /**
+     * 编码注册信息，附带会话恢复请求
+     *
+     * @param resume 会话恢复请求，为null时不支持恢复
+     */
+    public static byte[] encode(String clientId, byte version, int sort, List<PortMapping> mappings,
+                                SessionResume resume) {
+        byte[] id = clientId.getBytes(StandardCharsets.UTF_8);
+        int length = 2 + 1 + 4 + ByteUtils.varIntSize(id.length) + id.length
+                + ByteUtils.varIntSize(mappings.size()) + mappings.size() * MAPPING_LENGTH;
+        byte[] res = new byte[length];
+        int index = 0;
+        res[index++] = (byte) (ProtocolConstants.MAGIC >> 8);
+        res[index++] = (byte) ProtocolConstants.MAGIC;
+        res[index++] = version;
+        res[index++] = (byte) (sort >> 24);
+        res[index++] = (byte) (sort >> 16);
+        res[index++] = (byte) (sort >> 8);
+        res[index++] = (byte) sort;
+        index = writeVarInt(res, index, id.length);
+        System.arraycopy(id, 0, res, index, id.length);
+        index += id.length;
+        index = writeVarInt(res, index, mappings.size());
+        for (PortMapping mapping : mappings) {
+            index = writeMapping(res, index, mapping);
+        }
+        return resume == null ? res : append(res, resume);
+    }
+
+    /**
+     * 写入一个映射
+     *
+     * @return 写入后的下标
+     */
+    static int writeMapping(byte[] res, int index, PortMapping mapping) {
+        res[index++] = (byte) (mapping.getRemotePort() >> 8);
+        res[index++] = (byte) (int) mapping.getRemotePort();
+        res[index++] = (byte) (mapping.getLocalPort() >> 8);
+        res[index++] = (byte) (int) mapping.getLocalPort();
+        res[index++] = "udp".equalsIgnoreCase(mapping.getProtocol()) ? PROTOCOL_UDP : PROTOCOL_TCP;
+        int flags = Boolean.FALSE.equals(mapping.getEnabled()) ? 0 : FLAG_ENABLED;
+        res[index++] = (byte) (flags | PayloadCodec.parse(mapping.getCompression()).id() << COMPRESSION_SHIFT);
+        return index;
+    }
+
+    /**
+     * 读取一个映射，调用方保证剩余长度足够
+     */
+    static PortMapping readMapping(byte[] data, int index) {
+        PortMapping mapping = new PortMapping();
+        mapping.setRemotePort(((data[index] & 0xFF) << 8) | (data[index + 1] & 0xFF));
+        mapping.setLocalPort(((data[index + 2] & 0xFF) << 8) | (data[index + 3] & 0xFF));
+        mapping.setProtocol(data[index + 4] == PROTOCOL_UDP ? "udp" : "tcp");
+        mapping.setEnabled((data[index + 5] & FLAG_ENABLED) != 0);
+        PayloadCodec codec = PayloadCodec.of((data[index + 5] & 0xFF) >>> COMPRESSION_SHIFT);
+        mapping.setCompression(codec == null ? PayloadCodec.NONE.tag() : codec.tag());
+        return mapping;
+    }
+
+    private static byte[] append(byte[] data, SessionResume resume) {
+        ByteBuf out = Unpooled.buffer(data.length + 32);
+        out.writeBytes(data);
+        resume.write(out);
+        return ByteBufUtil.getBytes(out, out.readerIndex(), out.readableBytes(), false);
+    }
+
+    /**
+     * 解码注册信息，只读取服务端需要的字段
+     *
+     * @param data 注册数据
+     * @return 客户端信息，管道由调用方设置
+     * @throws IllegalArgumentException 数据非法
+     */
+    public static ClientInfo decode(byte[] data) {
+        if (!isBinary(data) || data.length < 8) {
+            throw new IllegalArgumentException("Invalid register message");
+        }
+        int index = 2;
+        byte version = data[index++];
+        int sort = ((data[index] & 0xFF) << 24) | ((data[index + 1] & 0xFF) << 16)
+                | ((data[index + 2] & 0xFF) << 8) | (data[index + 3] & 0xFF);
+        index += 4;
+
+        long idLength = readVarInt(data, index);
+        index += (int) (idLength >>> 32);
+        int idLen = (int) idLength;
+        checkRemaining(data, index, idLen);
+        String clientId = new String(data, index, idLen, StandardCharsets.UTF_8);
+        index += idLen;
+
+        long count = readVarInt(data, index);
+        index += (int) (count >>> 32);
+        int mappingCount = (int) count;
+        checkRemaining(data, index, mappingCount * MAPPING_LENGTH);
+
+        List<PortMapping> mappings = new ArrayList<>(mappingCount);
+        for (int i = 0; i < mappingCount; i++) {
+            mappings.add(readMapping(data, index));
+            index += MAPPING_LENGTH;
+        }
+
+        ClientInfo info = new ClientInfo(clientId, null);
+        info.setVersion(String.valueOf(version));
+        info.setSort(sort);
+        info.getPortMappings().addAll(mappings);
+        if (index < data.length) {
+            info.setResume(SessionResume.read(Unpooled.wrappedBuffer(data, index, data.length - index)));
+        }
+        return info;
+    }
+
+    /**
+     * 编码注册确认
+     *
+     * @param version     协商后的协议版本
+     * @param compression 接受压缩的映射，远程端口 -> 算法
+     */
+    public static byte[] encodeAck(byte version, Map<Integer, PayloadCodec> compression) {
+        return encodeAck(version, compression, null);
+    }
+
+    /**
+     * 编码注册确认，附带会话恢复信息
+     *
+     * @param resume 会话恢复信息，客户端不支持恢复时为null
+     */
+    public static byte[] encodeAck(byte version, Map<Integer, PayloadCodec> compression, SessionResume resume) {
+        if (compression.isEmpty() && resume == null) {
+            return new byte[]{version};
+        }
+        byte[] res = new byte[1 + ByteUtils.varIntSize(compression.size()) + compression.size() * ACK_MAPPING_LENGTH];
+        res[0] = version;
+        int index = writeVarInt(res, 1, compression.size());
+        for (Map.Entry<Integer, PayloadCodec> entry : compression.entrySet()) {
+            res[index++] = (byte) (entry.getKey() >> 8);
+            res[index++] = (byte) (int) entry.getKey();
+            res[index++] = entry.getValue().id();
+        }
+        return resume == null ? res : append(res, resume);
+    }
+
+    /**
+     * 解码注册确认中接受压缩的映射，旧版本服务端只返回版本号
+     *
+     * @return 远程端口 -> 算法，忽略未知算法
+     * @throws IllegalArgumentException 数据非法
+     */
+    public static Map<Integer, PayloadCodec> decodeAckCompression(byte[] data) {
+        if (data.length <= 1) {
+            return Collections.emptyMap();
+        }
+        long count = readVarInt(data, 1);
+        int index = 1 + (int) (count >>> 32);
+        int mappingCount = (int) count;
+        checkRemaining(data, index, mappingCount * ACK_MAPPING_LENGTH);
+        Map<Integer, PayloadCodec> compression = new HashMap<>(mappingCount * 2);
+        for (int i = 0; i < mappingCount; i++) {
+            PayloadCodec codec = PayloadCodec.of(data[index + 2]);
+            if (codec != null && codec != PayloadCodec.NONE) {
+                compression.put(((data[index] & 0xFF) << 8) | (data[index + 1] & 0xFF), codec);
+            }
+            index += ACK_MAPPING_LENGTH;
+        }
+        return compression;
+    }
+
+    /**
+     * 解码注册确认中的会话恢复信息
+     *
+     * @return 会话恢复信息，服务端未返回时为null
+     * @throws IllegalArgumentException 数据非法
+     */
+    public static SessionResume decodeAckResume(byte[] data) {
+        if (data.length <= 1) {
+            return null;
+        }
+        long count = readVarInt(data, 1);
+        int index = 1 + (int) (count >>> 32);
+        checkRemaining(data, index, (int) count * ACK_MAPPING_LENGTH);
+        index += (int) count * ACK_MAPPING_LENGTH;
+        if (index == data.length) {
+            return null;
+        }
+        return SessionResume.read(Unpooled.wrappedBuffer(data, index, data.length - index));
+    }
+
+    private static void checkRemaining(byte[] data, int index, int length) {
+        if (length < 0 || index + length > data.length) {
+            throw new IllegalArgumentException("Truncated register message");
+        }
+    }
+
+    private static int writeVarInt(byte[] res, int index, int value) {
+        while ((value & ~0x7F) != 0) {
+            res[index++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        res[index++] = (byte) value;
+        return index;
+    }
+
+    /**
+     * @return 高32位为占用字节数，低32位为数值
+     */
+    private static long readVarInt(byte[] data, int index) {
+        int result = 0;
+        for (int i = 0; i < 5; i++) {
+            checkRemaining(data, index + i, 1);
+            byte b = data[index + i];
+            result |= (b & 0x7F) << (7 * i);
+            if (b >= 0) {
+                return ((long) (i + 1) << 32) | (result & 0xFFFFFFFFL);
+            }
+        }
+        throw new IllegalArgumentException("VarInt too long");
+    }
+}
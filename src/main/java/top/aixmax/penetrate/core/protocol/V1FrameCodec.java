@@ -0,0 +1,85 @@
+package top.aixmax.penetrate.core.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.TooLongFrameException;
+import lombok.extern.slf4j.Slf4j;
+import top.aixmax.penetrate.common.constants.ProtocolConstants;
+import top.aixmax.penetrate.common.enums.MessageType;
+import top.aixmax.penetrate.core.log.RateLimitedLog;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 11:05
+ * @description v1帧：起始符(1) + 类型(1) + 外部连接ID(4) + 外部端口(4) + 长度(4) + 数据 + 结束符(1)
+ */
+@Slf4j
+public final class V1FrameCodec extends FrameCodec {
+
+    private static final RateLimitedLog INCOMPLETE_FRAME = RateLimitedLog.of(log, "frame.incomplete");
+
+    V1FrameCodec() {
+    }
+
+    @Override
+    public int version() {
+        return ProtocolConstants.VERSION_1;
+    }
+
+    @Override
+    public ByteBuf encode(ByteBufAllocator alloc, MessageType type, int channelId, int externalPort,
+                          ByteBuf payload, int length) {
+        ByteBuf frame = alloc.buffer(length + ProtocolConstants.minLength);
+        frame.writeByte(ProtocolConstants.start);
+        frame.writeByte(type.getValue());
+        frame.writeInt(channelId);
+        frame.writeInt(externalPort);
+        frame.writeInt(length);
+        frame.writeBytes(payload, length);
+        frame.writeByte(ProtocolConstants.end);
+        return frame;
+    }
+
+    @Override
+    public Message decode(ByteBuf in, int maxFrameLength) {
+        while (in.isReadable()) {
+            int startIndex = in.indexOf(in.readerIndex(), in.writerIndex(), ProtocolConstants.start);
+            if (startIndex < 0) {
+                in.skipBytes(in.readableBytes());
+                return null;
+            }
+            in.readerIndex(startIndex);
+            if (in.readableBytes() < ProtocolConstants.minLength) {
+                return null;
+            }
+
+            int dataLength = in.getInt(startIndex + 10);
+            if (dataLength < 0 || dataLength > maxFrameLength - ProtocolConstants.minLength) {
+                throw new TooLongFrameException("Frame length " + dataLength + " exceeds limit " + maxFrameLength);
+            }
+
+            int frameLength = dataLength + ProtocolConstants.minLength;
+            if (in.readableBytes() < frameLength) {
+                return null;
+            }
+
+            if (in.getByte(startIndex + frameLength - 1) != ProtocolConstants.end) {
+                INCOMPLETE_FRAME.warn("Package is not complete! length: {}", frameLength);
+                // 跳过当前起始字节，重新寻找帧头
+                in.skipBytes(1);
+                continue;
+            }
+
+            Message message = new Message();
+            message.setType(MessageType.valueOf(in.getByte(startIndex + 1)));
+            message.setChannelId(in.getInt(startIndex + 2));
+            message.setExternalPort(in.getInt(startIndex + 6));
+            byte[] data = new byte[dataLength];
+            in.getBytes(startIndex + 14, data);
+            message.setData(data);
+            in.skipBytes(frameLength);
+            return message;
+        }
+        return null;
+    }
+}
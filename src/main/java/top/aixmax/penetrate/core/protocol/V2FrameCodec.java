@@ -0,0 +1,127 @@
+package top.aixmax.penetrate.core.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+import top.aixmax.penetrate.common.constants.ProtocolConstants;
+import top.aixmax.penetrate.common.enums.MessageType;
+import top.aixmax.penetrate.common.utils.ByteUtils;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 11:08
+ * @description v2帧：类型/标志(1) + 外部连接ID(varint) + [外部端口(varint)] + 长度(varint) + 数据
+ * <p>
+ * 类型占低5位，高3位为标志。外部端口只在控制消息上携带，数据帧依赖已建立的连接ID；
+ * 压缩标志表示负载为 {@link top.aixmax.penetrate.core.compress.FrameCompressor} 格式的压缩数据
+ */
+public final class V2FrameCodec extends FrameCodec {
+
+    /**
+     * 类型掩码
+     */
+    static final int TYPE_MASK = 0x1F;
+
+    /**
+     * 携带外部端口
+     */
+    static final int FLAG_PORT = 0x80;
+
+    /**
+     * 负载已压缩
+     */
+    static final int FLAG_COMPRESSED = 0x40;
+
+    V2FrameCodec() {
+    }
+
+    @Override
+    public int version() {
+        return ProtocolConstants.VERSION_2;
+    }
+
+    @Override
+    public ByteBuf encode(ByteBufAllocator alloc, MessageType type, int channelId, int externalPort,
+                          ByteBuf payload, int length) {
+        boolean withPort = externalPort != 0 && type != MessageType.DATA;
+        int headerLength = 1 + ByteUtils.varIntSize(channelId)
+                + (withPort ? ByteUtils.varIntSize(externalPort) : 0)
+                + ByteUtils.varIntSize(length);
+        ByteBuf frame = alloc.buffer(headerLength + length);
+        frame.writeByte(type.getValue() | (withPort ? FLAG_PORT : 0));
+        ByteUtils.writeVarInt(frame, channelId);
+        if (withPort) {
+            ByteUtils.writeVarInt(frame, externalPort);
+        }
+        ByteUtils.writeVarInt(frame, length);
+        frame.writeBytes(payload, length);
+        return frame;
+    }
+
+    @Override
+    public ByteBuf encodeCompressed(ByteBufAllocator alloc, MessageType type, int channelId, ByteBuf compressed) {
+        int length = compressed.readableBytes();
+        ByteBuf header = alloc.buffer(1 + ByteUtils.varIntSize(channelId) + ByteUtils.varIntSize(length));
+        header.writeByte(type.getValue() | FLAG_COMPRESSED);
+        ByteUtils.writeVarInt(header, channelId);
+        ByteUtils.writeVarInt(header, length);
+        // 压缩结果不再拷贝，与帧头组合写出
+        return alloc.compositeBuffer(2).addComponents(true, header, compressed);
+    }
+
+    @Override
+    public Message decode(ByteBuf in, int maxFrameLength) {
+        int index = in.readerIndex();
+        if (!in.isReadable()) {
+            return null;
+        }
+        int head = in.getByte(index++) & 0xFF;
+
+        long channelId;
+        long externalPort = 0;
+        long dataLength;
+        try {
+            channelId = ByteUtils.getVarInt(in, index);
+            if (channelId < 0) {
+                return null;
+            }
+            index += (int) (channelId >>> 32);
+
+            if ((head & FLAG_PORT) != 0) {
+                externalPort = ByteUtils.getVarInt(in, index);
+                if (externalPort < 0) {
+                    return null;
+                }
+                index += (int) (externalPort >>> 32);
+            }
+
+            dataLength = ByteUtils.getVarInt(in, index);
+            if (dataLength < 0) {
+                return null;
+            }
+            index += (int) (dataLength >>> 32);
+        } catch (IllegalArgumentException e) {
+            throw new CorruptedFrameException(e.getMessage());
+        }
+
+        int length = (int) dataLength;
+        if (length < 0 || length > maxFrameLength) {
+            throw new TooLongFrameException("Frame length " + length + " exceeds limit " + maxFrameLength);
+        }
+        if (in.writerIndex() - index < length) {
+            return null;
+        }
+
+        Message message = new Message();
+        message.setType(MessageType.valueOf((byte) (head & TYPE_MASK)));
+        message.setChannelId((int) channelId);
+        message.setExternalPort((int) externalPort);
+        message.setCompressed((head & FLAG_COMPRESSED) != 0);
+        byte[] data = new byte[length];
+        in.getBytes(index, data);
+        message.setData(data);
+        in.readerIndex(index + length);
+        return message;
+    }
+}
@@ -0,0 +1,152 @@
+package top.aixmax.penetrate.core.resume;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import lombok.Getter;
+import top.aixmax.penetrate.common.utils.ByteUtils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/19 02:30
+ * @description 会话恢复信息，客户端在注册消息中上报，服务端在注册确认中返回。
+ * <p>
+ * 格式：令牌(8) + 标志(1) + 宽限期秒数(varint) + 重放缓冲上限(varint) + 流数量(varint)
+ * + 每个流[流ID(varint) + 已交付偏移(8)]
+ * <p>
+ * 客户端首次注册时令牌为0，表示支持恢复；服务端返回新令牌，重连时令牌匹配且在宽限期内则恢复原有的流。
+ * 偏移列表为本端仍保留的流及其已交付的字节数，对端从该偏移重发，列表中没有的流由对端关闭
+ */
+@Getter
+public class SessionResume {
+
+    /**
+     * 确认标志：已恢复原会话
+     */
+    private static final int FLAG_RESUMED = 0x01;
+
+    /**
+     * 每个流编码后最多13字节：流ID(varint) + 偏移(8)
+     */
+    private static final int OFFSET_LENGTH = 13;
+
+    private final long token;
+
+    private final boolean resumed;
+
+    /**
+     * 宽限期（秒），只在确认中有效
+     */
+    private final int timeoutSeconds;
+
+    /**
+     * 本端单个流的重放缓冲上限（字节），对端据此确定确认频率
+     */
+    private final int replayBufferSize;
+
+    /**
+     * 流ID -> 已交付偏移
+     */
+    private final Map<Integer, Long> offsets;
+
+    public SessionResume(long token, boolean resumed, int timeoutSeconds, int replayBufferSize,
+                         Map<Integer, Long> offsets) {
+        this.token = token;
+        this.resumed = resumed;
+        this.timeoutSeconds = timeoutSeconds;
+        this.replayBufferSize = replayBufferSize;
+        this.offsets = offsets;
+    }
+
+    /**
+     * 客户端注册时上报的恢复请求
+     */
+    public static SessionResume request(long token, int replayBufferSize, Map<Integer, Long> offsets) {
+        return new SessionResume(token, false, 0, replayBufferSize, offsets);
+    }
+
+    public void write(ByteBuf out) {
+        out.writeLong(token);
+        out.writeByte(resumed ? FLAG_RESUMED : 0);
+        ByteUtils.writeVarInt(out, timeoutSeconds);
+        ByteUtils.writeVarInt(out, replayBufferSize);
+        writeOffsets(out, offsets);
+    }
+
+    /**
+     * @throws IllegalArgumentException 数据非法
+     */
+    public static SessionResume read(ByteBuf in) {
+        if (in.readableBytes() < 9) {
+            throw new IllegalArgumentException("Truncated session resume");
+        }
+        long token = in.readLong();
+        boolean resumed = (in.readByte() & FLAG_RESUMED) != 0;
+        int timeout = readVarInt(in);
+        int bufferSize = readVarInt(in);
+        return new SessionResume(token, resumed, timeout, bufferSize, readOffsets(in));
+    }
+
+    /**
+     * 编码确认的偏移，作为 DATA_ACK 的负载
+     */
+    public static byte[] encodeOffsets(Map<Integer, Long> offsets) {
+        ByteBuf out = Unpooled.buffer(5 + offsets.size() * OFFSET_LENGTH);
+        writeOffsets(out, offsets);
+        return ByteBufUtil.getBytes(out, out.readerIndex(), out.readableBytes(), false);
+    }
+
+    /**
+     * @throws IllegalArgumentException 数据非法
+     */
+    public static Map<Integer, Long> decodeOffsets(byte[] data) {
+        return readOffsets(Unpooled.wrappedBuffer(data));
+    }
+
+    private static void writeOffsets(ByteBuf out, Map<Integer, Long> offsets) {
+        ByteUtils.writeVarInt(out, offsets.size());
+        for (Map.Entry<Integer, Long> entry : offsets.entrySet()) {
+            ByteUtils.writeVarInt(out, entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    private static Map<Integer, Long> readOffsets(ByteBuf in) {
+        int count = readVarInt(in);
+        if (count == 0) {
+            return Collections.emptyMap();
+        }
+        // 每个流至少9字节
+        if (count < 0 || count > in.readableBytes() / 9) {
+            throw new IllegalArgumentException("Invalid stream count: " + count);
+        }
+        Map<Integer, Long> offsets = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            int streamId = readVarInt(in);
+            if (in.readableBytes() < 8) {
+                throw new IllegalArgumentException("Truncated stream offsets");
+            }
+            offsets.put(streamId, in.readLong());
+        }
+        return offsets;
+    }
+
+    private static int readVarInt(ByteBuf in) {
+        long value = ByteUtils.getVarInt(in, in.readerIndex());
+        if (value < 0) {
+            throw new IllegalArgumentException("Truncated session resume");
+        }
+        in.skipBytes((int) (value >>> 32));
+        return (int) value;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SessionResume{resumed=%s, timeout=%ds, replayBuffer=%d, streams=%d}",
+                resumed, timeoutSeconds, replayBufferSize, offsets.size());
+    }
+}
@@ -0,0 +1,207 @@
+package top.aixmax.penetrate.core.resume;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.AttributeKey;
+
+import java.util.ArrayDeque;
+import java.util.function.BooleanSupplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/19 02:10
+ * @description 流的重放状态，序号为流内的字节偏移，双方各自记录本端发出和交付的偏移，帧上不额外携带序号。
+ * <p>
+ * 发送：写入隧道的数据保留在缓冲区，直到对端用 DATA_ACK 确认；隧道断开后挂起，只缓冲不写出，
+ * 恢复时从对端上报的偏移开始重发，再解除挂起。写出和挂起状态在同一把锁内判断，重发的数据总是先于新数据写出。
+ * <p>
+ * 接收：交付到目标连接后累加偏移，未确认的字节达到阈值时回复确认；挂起期间或来自旧隧道的帧不交付，由对端重发
+ */
+public class StreamReplay {
+
+    /**
+     * 客户端本地连接上绑定的重放状态
+     */
+    public static final AttributeKey<StreamReplay> REPLAY = AttributeKey.valueOf("penetrate.replay");
+
+    private final int limit;
+
+    private final int ackThreshold;
+
+    /**
+     * 已发出未确认的数据，队首对应 {@link #ackedOffset}
+     */
+    private final ArrayDeque<ByteBuf> buffer = new ArrayDeque<>();
+
+    private long ackedOffset;
+
+    private long sentOffset;
+
+    private long receivedOffset;
+
+    private long reportedOffset;
+
+    private boolean held;
+
+    private boolean closed;
+
+    /**
+     * @param limit        未确认数据的上限（字节），超过时发送方应暂停读取来源
+     * @param ackThreshold 接收方累计多少字节后回复确认
+     */
+    public StreamReplay(int limit, int ackThreshold) {
+        this.limit = limit;
+        this.ackThreshold = Math.max(1, ackThreshold);
+    }
+
+    /**
+     * 按双方的缓冲上限计算确认阈值，取较小者的四分之一，发送方缓冲写满之前一定会收到确认
+     *
+     * @param localLimit 本端上限
+     * @param peerLimit  对端上限，未知时为0
+     */
+    public static StreamReplay create(int localLimit, int peerLimit) {
+        int smaller = peerLimit > 0 ? Math.min(localLimit, peerLimit) : localLimit;
+        return new StreamReplay(localLimit, smaller / 4);
+    }
+
+    /**
+     * 记录一段发出的数据，未挂起时写入隧道
+     *
+     * @param data   数据，从读指针开始全部发出；缓冲区保留其切片，调用方照常释放
+     * @param writer 写入隧道，返回写出的帧数，挂起时不调用
+     * @return 写出的帧数，挂起时为0
+     */
+    public synchronized int send(ByteBuf data, ToIntFunction<ByteBuf> writer) {
+        int length = data.readableBytes();
+        if (length == 0) {
+            return 0;
+        }
+        if (!closed) {
+            buffer.addLast(data.retainedSlice());
+            sentOffset += length;
+        }
+        return held ? 0 : writer.applyAsInt(data);
+    }
+
+    /**
+     * 未确认的数据是否超过上限
+     */
+    public synchronized boolean isFull() {
+        return sentOffset - ackedOffset > limit;
+    }
+
+    /**
+     * 对端确认收到的偏移，释放之前的数据
+     *
+     * @return 未确认的数据是否已回落到上限一半以下，可恢复读取来源
+     */
+    public synchronized boolean acknowledge(long offset) {
+        if (offset > ackedOffset && offset <= sentOffset) {
+            trim(offset);
+        }
+        return sentOffset - ackedOffset <= limit / 2;
+    }
+
+    private void trim(long offset) {
+        long drop = offset - ackedOffset;
+        while (drop > 0) {
+            ByteBuf head = buffer.peekFirst();
+            int readable = head.readableBytes();
+            if (readable <= drop) {
+                buffer.pollFirst().release();
+                drop -= readable;
+            } else {
+                head.skipBytes((int) drop);
+                drop = 0;
+            }
+        }
+        ackedOffset = offset;
+    }
+
+    /**
+     * 交付一帧数据到目标连接
+     *
+     * @param bytes 数据长度
+     * @param write 写入目标，返回false表示不交付（如帧来自已被替换的旧隧道）
+     * @return 是否交付并计入偏移；挂起期间不交付，由对端恢复时重发
+     */
+    public synchronized boolean deliver(int bytes, BooleanSupplier write) {
+        if (held || !write.getAsBoolean()) {
+            return false;
+        }
+        receivedOffset += bytes;
+        return true;
+    }
+
+    /**
+     * 未确认的接收字节达到阈值时返回需确认的偏移，并视为已确认
+     *
+     * @return 偏移，未达到阈值时返回-1
+     */
+    public synchronized long takeAckIfDue() {
+        return receivedOffset - reportedOffset >= ackThreshold ? takeAck() : -1;
+    }
+
+    /**
+     * 有未确认的接收字节时返回需确认的偏移，并视为已确认
+     *
+     * @return 偏移，没有新数据时返回-1
+     */
+    public synchronized long takeAck() {
+        if (receivedOffset == reportedOffset) {
+            return -1;
+        }
+        reportedOffset = receivedOffset;
+        return receivedOffset;
+    }
+
+    /**
+     * 已交付到目标连接的偏移，恢复时上报给对端
+     */
+    public synchronized long getReceivedOffset() {
+        return receivedOffset;
+    }
+
+    /**
+     * 隧道断开，之后只缓冲不写出，也不再交付
+     */
+    public synchronized void hold() {
+        held = true;
+    }
+
+    /**
+     * 从对端已收到的偏移开始重发，然后解除挂起
+     *
+     * @param peerReceived 对端已交付的偏移
+     * @param writer       写入新隧道，返回写出的帧数
+     * @return 重发的字节数；偏移不在缓冲范围内时返回-1，流无法恢复
+     */
+    public synchronized long resume(long peerReceived, ToIntFunction<ByteBuf> writer) {
+        if (peerReceived < ackedOffset || peerReceived > sentOffset) {
+            return -1;
+        }
+        trim(peerReceived);
+        for (ByteBuf data : buffer) {
+            writer.applyAsInt(data.duplicate());
+        }
+        held = false;
+        return sentOffset - peerReceived;
+    }
+
+    /**
+     * 流关闭，释放缓冲的数据
+     */
+    public synchronized void release() {
+        closed = true;
+        ByteBuf data;
+        while ((data = buffer.pollFirst()) != null) {
+            data.release();
+        }
+        ackedOffset = sentOffset;
+    }
+
+    public synchronized long getUnacknowledged() {
+        return sentOffset - ackedOffset;
+    }
+}
@@ -0,0 +1,24 @@
+package top.aixmax.penetrate.core.tls;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/19 00:20
+ * @description TLS实现
+ */
+public enum TlsProvider {
+
+    /**
+     * classpath中有 netty-tcnative 且本机可加载时使用OpenSSL，否则使用JDK
+     */
+    AUTO,
+
+    /**
+     * JDK自带的 SSLEngine
+     */
+    JDK,
+
+    /**
+     * netty-tcnative（BoringSSL/OpenSSL），不可用时启动失败
+     */
+    OPENSSL
+}
@@ -0,0 +1,154 @@
+package top.aixmax.penetrate.core.tls;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.ReferenceCountedOpenSslEngine;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.util.concurrent.Future;
+import io.netty.internal.tcnative.SSL;
+import io.netty.util.concurrent.GenericFutureListener;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/19 00:20
+ * @description 隧道TLS。每个进程的服务端、客户端各构建一个 {@link SslContext}，所有隧道连接共享，
+ * 会话缓存和会话票据都保存在上下文中：客户端断线重连时按服务端地址复用会话，只做简化握手
+ */
+public final class TunnelSsl {
+
+    /**
+     * Netty 4.1 的OpenSSL客户端默认不缓存会话，需在首次创建OpenSSL上下文之前打开；显式配置了该属性时以配置为准
+     */
+    private static final String OPENSSL_CLIENT_SESSION_CACHE = "io.netty.handler.ssl.openssl.sessionCacheClient";
+
+    static {
+        if (System.getProperty(OPENSSL_CLIENT_SESSION_CACHE) == null) {
+            System.setProperty(OPENSSL_CLIENT_SESSION_CACHE, "true");
+        }
+    }
+
+    private TunnelSsl() {
+    }
+
+    /**
+     * 解析实际使用的实现
+     *
+     * @throws IllegalStateException 指定了OpenSSL但不可用
+     */
+    public static SslProvider resolve(TlsProvider provider) {
+        switch (provider == null ? TlsProvider.AUTO : provider) {
+            case JDK:
+                return SslProvider.JDK;
+            case OPENSSL:
+                if (!OpenSsl.isAvailable()) {
+                    throw new IllegalStateException("OpenSSL is not available", OpenSsl.unavailabilityCause());
+                }
+                return SslProvider.OPENSSL;
+            default:
+                return OpenSsl.isAvailable() ? SslProvider.OPENSSL : SslProvider.JDK;
+        }
+    }
+
+    /**
+     * 构建服务端上下文
+     *
+     * @param certPath         证书链（PEM）
+     * @param keyPath          私钥（PKCS#8 PEM）
+     * @param keyPassword      私钥密码，未加密时为null
+     * @param provider         实现
+     * @param sessionCacheSize 会话缓存数量，0为实现默认值
+     * @param sessionTimeout   会话超时（秒），0为实现默认值
+     */
+    public static SslContext forServer(String certPath, String keyPath, String keyPassword, TlsProvider provider,
+                                       long sessionCacheSize, long sessionTimeout) throws SSLException {
+        return SslContextBuilder.forServer(new File(certPath), new File(keyPath), keyPassword)
+                .sslProvider(resolve(provider))
+                .sessionCacheSize(sessionCacheSize)
+                .sessionTimeout(sessionTimeout)
+                .build();
+    }
+
+    /**
+     * 构建客户端上下文
+     *
+     * @param trustCertPath    信任的证书（PEM），为null时使用系统默认信任库
+     * @param provider         实现
+     * @param sessionCacheSize 会话缓存数量，0为实现默认值
+     * @param sessionTimeout   会话超时（秒），0为实现默认值
+     */
+    public static SslContext forClient(String trustCertPath, TlsProvider provider,
+                                       long sessionCacheSize, long sessionTimeout) throws SSLException {
+        SslContextBuilder builder = SslContextBuilder.forClient()
+                .sslProvider(resolve(provider))
+                .sessionCacheSize(sessionCacheSize)
+                .sessionTimeout(sessionTimeout);
+        if (trustCertPath != null && !trustCertPath.isEmpty()) {
+            builder.trustManager(new File(trustCertPath));
+        }
+        return builder.build();
+    }
+
+    /**
+     * 创建服务端处理器
+     */
+    public static SslHandler newServerHandler(SslContext context, ByteBufAllocator alloc, RelayMetrics metrics) {
+        SslHandler handler = context.newHandler(alloc);
+        recordHandshake(handler, metrics);
+        return handler;
+    }
+
+    /**
+     * 创建客户端处理器，传入服务端地址以便按地址复用会话
+     *
+     * @param verifyHostname 是否校验证书与服务端主机名匹配
+     */
+    public static SslHandler newClientHandler(SslContext context, ByteBufAllocator alloc, String host, int port,
+                                              boolean verifyHostname, RelayMetrics metrics) {
+        SslHandler handler = context.newHandler(alloc, host, port);
+        if (verifyHostname) {
+            SSLEngine engine = handler.engine();
+            SSLParameters parameters = engine.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            engine.setSSLParameters(parameters);
+        }
+        recordHandshake(handler, metrics);
+        return handler;
+    }
+
+    /**
+     * 记录握手耗时
+     */
+    private static void recordHandshake(SslHandler handler, RelayMetrics metrics) {
+        long start = System.nanoTime();
+        long startMillis = System.currentTimeMillis();
+        handler.handshakeFuture().addListener(future -> {
+            boolean success = future.isSuccess();
+            boolean resumed = success && isResumed(handler.engine(), startMillis);
+            metrics.tlsHandshake(success, resumed).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        });
+    }
+
+    /**
+     * 是否复用了之前的会话。OpenSSL直接询问引擎（其会话创建时间只精确到秒）；
+     * JDK没有对应接口，会话创建时间早于握手开始的即为复用，TLS 1.3 的票据复用同样保留原会话的创建时间
+     */
+    private static boolean isResumed(SSLEngine engine, long startMillis) {
+        if (engine instanceof ReferenceCountedOpenSslEngine) {
+            long ssl = ((ReferenceCountedOpenSslEngine) engine).sslPointer();
+            return ssl != 0 && SSL.isSessionReused(ssl);
+        }
+        SSLSession session = engine.getSession();
+        return session != null && session.getCreationTime() < startMillis;
+    }
+}
@@ -0,0 +1,95 @@
+package top.aixmax.penetrate.core.trace;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 19:05
+ * @description 客户端单个流的阶段耗时，仅对服务端在CONNECT中要求采样的流记录。
+ * 两端时钟不可比，只以耗时（微秒）回传给服务端：排队、本地建连、本地首字节
+ */
+public class StreamTiming {
+
+    /**
+     * 阶段未发生
+     */
+    public static final int NONE = -1;
+
+    private static final int LENGTH = 12;
+
+    private final long connectReceived;
+
+    private volatile long dialStart;
+
+    private volatile long dialDone;
+
+    private volatile long firstByte;
+
+    private final AtomicBoolean reported = new AtomicBoolean();
+
+    public StreamTiming(long connectReceived) {
+        this.connectReceived = connectReceived;
+    }
+
+    public void markDialStart() {
+        dialStart = System.nanoTime();
+    }
+
+    public void markDialDone() {
+        dialDone = System.nanoTime();
+    }
+
+    /**
+     * 记录本地服务的首字节
+     *
+     * @return 是否为首次记录
+     */
+    public boolean markFirstByte() {
+        if (firstByte != 0) {
+            return false;
+        }
+        firstByte = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * 标记已回传，保证只发送一次
+     */
+    public boolean markReported() {
+        return reported.compareAndSet(false, true);
+    }
+
+    /**
+     * 编码为回传给服务端的负载
+     */
+    public byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTH);
+        buffer.putInt(micros(connectReceived, dialStart));
+        buffer.putInt(micros(dialStart, dialDone));
+        buffer.putInt(micros(dialDone, firstByte));
+        return buffer.array();
+    }
+
+    /**
+     * 解码客户端回传的耗时
+     *
+     * @return [排队, 本地建连, 本地首字节]，单位微秒，未发生为 {@link #NONE}
+     */
+    public static int[] decode(byte[] data) {
+        if (data == null || data.length < LENGTH) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        return new int[]{buffer.getInt(), buffer.getInt(), buffer.getInt()};
+    }
+
+    private static int micros(long from, long to) {
+        if (from == 0 || to == 0) {
+            return NONE;
+        }
+        // 首字节可能早于建连回调被记录
+        return (int) Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMicros(Math.max(0, to - from)));
+    }
+}
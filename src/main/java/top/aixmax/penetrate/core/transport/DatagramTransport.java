@@ -0,0 +1,59 @@
+package top.aixmax.penetrate.core.transport;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 23:40
+ * @description UDP传输选择。Linux上可用epoll时使用 {@link EpollDatagramChannel}：
+ * 设置单个数据报的最大长度后一次 recvmmsg 读取多个数据报，一次flush的多个数据报通过 sendmmsg 发出；
+ * 其他平台使用NIO，每次系统调用收发一个数据报
+ */
+public final class DatagramTransport {
+
+    /**
+     * epoll下一次 recvmmsg 最多读取的数据报数量
+     */
+    private static final int RECV_BATCH = 16;
+
+    private static final boolean EPOLL = Epoll.isAvailable();
+
+    private DatagramTransport() {
+    }
+
+    public static boolean isEpoll() {
+        return EPOLL;
+    }
+
+    /**
+     * 创建与传输匹配的事件循环组
+     */
+    public static EventLoopGroup newGroup(int threads) {
+        return EPOLL ? new EpollEventLoopGroup(threads) : new NioEventLoopGroup(threads);
+    }
+
+    /**
+     * 配置数据报通道，超过最大长度的数据报会被截断
+     *
+     * @param bootstrap       启动器，事件循环组需由 {@link #newGroup(int)} 创建
+     * @param maxDatagramSize 单个数据报最大长度
+     */
+    public static Bootstrap configure(Bootstrap bootstrap, int maxDatagramSize) {
+        if (EPOLL) {
+            return bootstrap.channel(EpollDatagramChannel.class)
+                    .option(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE, maxDatagramSize)
+                    .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(maxDatagramSize * RECV_BATCH));
+        }
+        return bootstrap.channel(NioDatagramChannel.class)
+                .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(maxDatagramSize));
+    }
+}
@@ -0,0 +1,55 @@
+package top.aixmax.penetrate.core.transport;
+
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 23:40
+ * @description 延迟flush：读取一批数据时只 write 到目标通道，读取结束后每个目标flush一次，
+ * 多个数据报或帧合并为一次系统调用。只能在读取方通道的事件循环中使用
+ */
+public final class DeferredFlush {
+
+    private static final AttributeKey<List<Channel>> PENDING = AttributeKey.valueOf("penetrate.deferredFlush");
+
+    private DeferredFlush() {
+    }
+
+    /**
+     * 记录本次读取中写入过的目标
+     *
+     * @param reader 读取方通道
+     * @param target 写入的目标通道
+     */
+    public static void add(Channel reader, Channel target) {
+        Attribute<List<Channel>> attr = reader.attr(PENDING);
+        List<Channel> pending = attr.get();
+        if (pending == null) {
+            pending = new ArrayList<>(4);
+            attr.set(pending);
+        }
+        // 目标通常只有一两个，线性查找比哈希更快
+        if (!pending.contains(target)) {
+            pending.add(target);
+        }
+    }
+
+    /**
+     * 读取结束时flush所有目标
+     */
+    public static void flush(Channel reader) {
+        List<Channel> pending = reader.attr(PENDING).get();
+        if (pending == null || pending.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < pending.size(); i++) {
+            pending.get(i).flush();
+        }
+        pending.clear();
+    }
+}
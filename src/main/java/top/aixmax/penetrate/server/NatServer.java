@@ -5,15 +5,26 @@ import io.netty.channel.*;
 import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
 import lombok.extern.slf4j.Slf4j;
 import top.aixmax.penetrate.common.constants.ProtocolConstants;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+import top.aixmax.penetrate.core.tls.TunnelSsl;
+import top.aixmax.penetrate.server.cluster.ClusterNode;
 import top.aixmax.penetrate.server.config.ServerConfig;
 import top.aixmax.penetrate.server.handler.ServerChannelHandler;
 import top.aixmax.penetrate.server.manager.ClientManager;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import javax.net.ssl.SSLException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 
 /**
@@ -23,20 +34,56 @@ import javax.annotation.PreDestroy;
  */
 @Slf4j
 public class NatServer {
+    /**
+     * 排空期间隔多久检查一次剩余的流
+     */
+    private static final long DRAIN_CHECK_MILLIS = 200;
     private final ServerConfig config;
     private final ClientManager clientManager;
     private final EventLoopGroup bossGroup;
     private final EventLoopGroup workerGroup;
-    private Channel clientServerChannel;
+    private final RelayMetrics metrics;
+    /**
+     * 隧道TLS上下文，所有连接共享同一个会话缓存，未启用SSL时为null
+     */
+    private final SslContext sslContext;
+    /**
+     * 集群节点，未配置节点ID时为null
+     */
+    private final ClusterNode clusterNode;
+    private final ServerChannelHandler channelHandler;
+    private volatile Channel clientServerChannel;
+
+    /**
+     * 排空结果，开始排空后不为null，true表示全部流在期限内结束
+     */
+    private volatile Promise<Boolean> drained;
+
+    /**
+     * 隧道管道定制，在消息处理器之前执行，用于测试时插入网络损伤等处理器
+     */
+    private Consumer<ChannelPipeline> pipelineCustomizer = pipeline -> {
+    };
 
     public NatServer(ServerConfig config) {
+        this(config, RelayMetrics.NOOP);
+    }
+
+    public NatServer(ServerConfig config, RelayMetrics metrics) {
         int processors = Runtime.getRuntime().availableProcessors();
         this.config = config;
-        this.clientManager = new ClientManager(config);
+        this.clientManager = new ClientManager(config, metrics);
+        this.metrics = metrics;
+        this.sslContext = config.isEnableSsl() ? buildSslContext(config) : null;
+        String nodeId = config.getClusterNodeId();
+        this.clusterNode = nodeId == null || nodeId.isEmpty() ? null : new ClusterNode(config, clientManager);
+        this.channelHandler = new ServerChannelHandler(clientManager);
 //        this.bossGroup = new EpollEventLoopGroup(1);
 //        this.workerGroup = new EpollEventLoopGroup(processors);
         this.bossGroup = new NioEventLoopGroup(1);
         this.workerGroup = new NioEventLoopGroup(processors);
+        metrics.gaugeEventLoop("tunnel-boss", bossGroup);
+        metrics.gaugeEventLoop("tunnel-worker", workerGroup);
     }
 
     @PostConstruct
@@ -45,6 +92,10 @@ public class NatServer {
             log.info("NAT server is disabled");
             return;
         }
+        if (clusterNode != null) {
+            // 到其他节点的链路自行重连，不依赖本节点监听是否就绪
+            clusterNode.start();
+        }
 
         // 新建独立的监听线程，监听线程自我恢复
         new Thread(() -> {
@@ -74,9 +125,20 @@ public class NatServer {
                 .childOption(ChannelOption.TCP_NODELAY, true)
                 .childOption(ChannelOption.SO_KEEPALIVE, true)
                 .childOption(ChannelOption.SO_SNDBUF, 1048576)
-                .childHandler(new ServerChannelHandler(clientManager));
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                        config.getTunnelHighWaterMark() / 2, config.getTunnelHighWaterMark()))
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        pipelineCustomizer.accept(ch.pipeline());
+                        if (sslContext != null) {
+                            ch.pipeline().addLast(TunnelSsl.newServerHandler(sslContext, ch.alloc(), metrics));
+                        }
+                        ch.pipeline().addLast(channelHandler);
+                    }
+                });
 
-        while (true) {
+        while (drained == null) {
             try {
                 if (clientServerChannel == null) {
                     clientServerChannel = bootstrap.bind(config.getClientPort()).sync().channel();
@@ -94,9 +156,75 @@ public class NatServer {
         }
     }
 
+    private static SslContext buildSslContext(ServerConfig config) {
+        try {
+            SslContext context = TunnelSsl.forServer(config.getCertPath(), config.getKeyPath(),
+                    config.getKeyPassword(), config.getSslProvider(),
+                    config.getSslSessionCacheSize(), config.getSslSessionTimeout());
+            log.info("Tunnel TLS enabled, provider: {}", TunnelSsl.resolve(config.getSslProvider()));
+            return context;
+        } catch (SSLException e) {
+            throw new IllegalStateException("Failed to build tunnel TLS context", e);
+        }
+    }
+
+    /**
+     * 开始排空：停止接受新的隧道、注册和外部连接，通知客户端连接其他服务端，现有的流继续到结束或期限到达。
+     * 没有流的客户端隧道随即关闭，期限到达时关闭剩余的全部连接。重复调用返回同一个结果
+     *
+     * @param timeoutMillis 期限
+     * @return 排空结束时完成，true表示全部流在期限内结束
+     */
+    public synchronized Future<Boolean> drain(long timeoutMillis) {
+        if (drained != null) {
+            return drained;
+        }
+        EventExecutor executor = workerGroup.next();
+        Promise<Boolean> promise = executor.newPromise();
+        drained = promise;
+        log.info("Draining NAT server, {} streams remaining, deadline {}ms", clientManager.remainingStreams(),
+                timeoutMillis);
+        Channel listener = clientServerChannel;
+        if (listener != null) {
+            // 释放客户端端口，同机启动的新进程可以立即绑定
+            listener.close();
+        }
+        channelHandler.getServerManager().closeListeners();
+        clientManager.startDraining(timeoutMillis);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        executor.execute(() -> checkDrained(executor, promise, deadline));
+        return promise;
+    }
+
+    private void checkDrained(EventExecutor executor, Promise<Boolean> promise, long deadline) {
+        clientManager.closeIdleTunnels();
+        int remaining = clientManager.remainingStreams();
+        if (remaining == 0) {
+            log.info("NAT server drained");
+            promise.trySuccess(true);
+        } else if (System.nanoTime() - deadline >= 0) {
+            log.warn("Drain deadline reached, closing {} remaining streams", remaining);
+            clientManager.closeAll();
+            promise.trySuccess(false);
+        } else {
+            executor.schedule(() -> checkDrained(executor, promise, deadline), DRAIN_CHECK_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public boolean isDraining() {
+        return drained != null;
+    }
+
     @PreDestroy
     public void stop() {
         log.info("Stopping NAT server...");
+        if (config.isEnabled() && config.getDrainTimeout() > 0) {
+            drain(TimeUnit.SECONDS.toMillis(config.getDrainTimeout())).awaitUninterruptibly();
+        }
+        if (clusterNode != null) {
+            clusterNode.stop();
+        }
         try {
             if (clientServerChannel != null) {
                 clientServerChannel.close().sync();
@@ -105,12 +233,25 @@ public class NatServer {
             log.warn("Interrupted while closing server channels", e);
             Thread.currentThread().interrupt();
         } finally {
+            channelHandler.getServerManager().stop();
             bossGroup.shutdownGracefully();
             workerGroup.shutdownGracefully();
             log.info("NAT server stopped");
         }
     }
 
+    public void setPipelineCustomizer(Consumer<ChannelPipeline> pipelineCustomizer) {
+        this.pipelineCustomizer = pipelineCustomizer;
+    }
+
+    public ClientManager getClientManager() {
+        return clientManager;
+    }
+
+    public ClusterNode getClusterNode() {
+        return clusterNode;
+    }
+
     public boolean isRunning() {
         return (clientServerChannel != null && clientServerChannel.isActive());
     }
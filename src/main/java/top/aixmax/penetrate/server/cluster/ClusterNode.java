@@ -0,0 +1,201 @@
+package top.aixmax.penetrate.server.cluster;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import lombok.extern.slf4j.Slf4j;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+import top.aixmax.penetrate.core.tls.TunnelSsl;
+import top.aixmax.penetrate.server.config.ServerConfig;
+import top.aixmax.penetrate.server.handler.ExternalHandler;
+import top.aixmax.penetrate.server.manager.ClientManager;
+
+import javax.net.ssl.SSLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/19 03:50
+ * @description 集群节点。节点之间不共享状态，每个节点以虚拟客户端身份（{@link #PEER_PREFIX} + 节点ID）
+ * 注册到其他节点，映射为本地客户端持有的端口，注册信息即集群的客户端分布。
+ * <p>
+ * 其他节点收到外部连接而没有可用的本地客户端时，经这条链路发来 CONNECT，本节点在进程内打开一条
+ * 入口连接交给本地客户端，与真实的外部连接走相同的路径。链路复用隧道的注册、帧编码、心跳和背压，只转发TCP流。
+ * <p>
+ * 本地客户端变化时重新注册以更新端口，该链路上正在转发的流随之断开
+ */
+@Slf4j
+public class ClusterNode {
+
+    /**
+     * 节点以虚拟客户端注册时的客户端ID前缀
+     */
+    public static final String PEER_PREFIX = "cluster-node:";
+
+    /**
+     * 标记其他节点转发来的入口连接，只交给本地客户端
+     */
+    public static final AttributeKey<Boolean> RELAYED = AttributeKey.valueOf("penetrate.cluster.relayed");
+
+    /**
+     * 客户端变化后延迟更新上报的端口，合并短时间内的多次变化
+     */
+    private static final long ADVERTISE_DELAY_MILLIS = 500;
+
+    private final ServerConfig config;
+
+    private final ClientManager clientManager;
+
+    private final EventLoopGroup group = new NioEventLoopGroup(1);
+
+    /**
+     * 连接其他节点的TLS上下文，未启用SSL时为null
+     */
+    private final SslContext sslContext;
+
+    private final List<PeerLink> links = new ArrayList<>();
+
+    // 远程端口 -> 进程内入口的监听
+    private final Map<Integer, ChannelFuture> entries = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean advertiseScheduled = new AtomicBoolean();
+
+    private volatile boolean running;
+
+    public ClusterNode(ServerConfig config, ClientManager clientManager) {
+        this.config = config;
+        this.clientManager = clientManager;
+        this.sslContext = config.isEnableSsl() ? buildSslContext(config) : null;
+        clientManager.getMetrics().gaugeEventLoop("cluster", group);
+    }
+
+    private static SslContext buildSslContext(ServerConfig config) {
+        try {
+            // 各节点使用同一份证书，以它作为信任的证书
+            return TunnelSsl.forClient(config.getCertPath(), config.getSslProvider(),
+                    config.getSslSessionCacheSize(), config.getSslSessionTimeout());
+        } catch (SSLException e) {
+            throw new IllegalStateException("Failed to build cluster TLS context", e);
+        }
+    }
+
+    public void start() {
+        running = true;
+        for (String peer : config.getClusterPeers()) {
+            int colon = peer.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Invalid cluster peer: " + peer);
+            }
+            links.add(new PeerLink(this, peer.substring(0, colon).trim(),
+                    Integer.parseInt(peer.substring(colon + 1).trim())));
+        }
+        clientManager.addMembershipListener(this::scheduleAdvertise);
+        advertise();
+        log.info("Cluster node {} started with peers {}", config.getClusterNodeId(), config.getClusterPeers());
+    }
+
+    public void stop() {
+        running = false;
+        links.forEach(PeerLink::close);
+        group.shutdownGracefully();
+    }
+
+    private void scheduleAdvertise() {
+        if (running && advertiseScheduled.compareAndSet(false, true)) {
+            group.schedule(() -> {
+                advertiseScheduled.set(false);
+                advertise();
+            }, ADVERTISE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void advertise() {
+        Set<Integer> ports = clientManager.localPorts();
+        for (PeerLink link : links) {
+            link.advertise(ports);
+        }
+    }
+
+    /**
+     * 为其他节点转发来的流打开进程内的入口连接，端口的入口在首次使用时创建
+     *
+     * @param loop    入口连接的事件循环，与链路相同，保证写入和连接完成的顺序
+     * @param port    远程端口
+     * @param handler 入口连接的处理器，把本地客户端返回的数据写回链路
+     * @return 连接完成的入口连接，在 loop 中通知
+     */
+    Future<Channel> openStream(EventLoop loop, int port, ChannelHandler handler) {
+        Promise<Channel> promise = loop.newPromise();
+        ChannelFuture bound = entries.computeIfAbsent(port, this::bindEntry);
+        bound.addListener(b -> {
+            if (!b.isSuccess()) {
+                entries.remove(port, bound);
+                promise.tryFailure(b.cause());
+                return;
+            }
+            new Bootstrap().group(loop)
+                    .channel(LocalChannel.class)
+                    .handler(handler)
+                    .connect(bound.channel().localAddress())
+                    .addListener((ChannelFutureListener) f -> {
+                        if (f.isSuccess()) {
+                            promise.trySuccess(f.channel());
+                        } else {
+                            promise.tryFailure(f.cause());
+                        }
+                    });
+        });
+        return promise;
+    }
+
+    private ChannelFuture bindEntry(int port) {
+        return new ServerBootstrap().group(group)
+                .channel(LocalServerChannel.class)
+                .childAttr(RELAYED, Boolean.TRUE)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                        config.getStreamHighWaterMark() / 2, config.getStreamHighWaterMark()))
+                .childHandler(new ExternalHandler(clientManager, port))
+                .bind(new LocalAddress("penetrate-cluster-" + config.getClusterNodeId() + "-" + port));
+    }
+
+    EventLoopGroup group() {
+        return group;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    ServerConfig config() {
+        return config;
+    }
+
+    SslContext sslContext() {
+        return sslContext;
+    }
+
+    RelayMetrics metrics() {
+        return clientManager.getMetrics();
+    }
+}
@@ -0,0 +1,353 @@
+package top.aixmax.penetrate.server.cluster;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.slf4j.Slf4j;
+import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.common.constants.ProtocolConstants;
+import top.aixmax.penetrate.common.utils.ReconnectBackoff;
+import top.aixmax.penetrate.core.flow.BackpressureMode;
+import top.aixmax.penetrate.core.flow.TunnelBackpressure;
+import top.aixmax.penetrate.core.handler.AbstractMessageHandler;
+import top.aixmax.penetrate.core.log.RateLimitedLog;
+import top.aixmax.penetrate.core.protocol.DataFrameWriter;
+import top.aixmax.penetrate.core.protocol.FrameCodec;
+import top.aixmax.penetrate.core.protocol.Message;
+import top.aixmax.penetrate.core.protocol.MessageFactory;
+import top.aixmax.penetrate.core.protocol.RegisterCodec;
+import top.aixmax.penetrate.core.tls.TunnelSsl;
+import top.aixmax.penetrate.server.config.ServerConfig;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/19 04:10
+ * @description 到另一个节点的链路，以虚拟客户端身份注册本节点持有的端口，断开后退避重连。
+ * 收到的 CONNECT/DATA/DISCONNECT 与客户端处理方式相同，只是目标换成进程内的入口连接
+ */
+@Slf4j
+@ChannelHandler.Sharable
+class PeerLink extends AbstractMessageHandler {
+
+    private static final RateLimitedLog UNKNOWN_STREAM = RateLimitedLog.of(log, "cluster.unknown-stream");
+
+    private final ClusterNode node;
+
+    private final String host;
+
+    private final int port;
+
+    private final ReconnectBackoff backoff = new ReconnectBackoff(1000, 30000, 0);
+
+    // 流ID -> 本节点的入口连接
+    private final Map<Integer, Future<Channel>> streams = new ConcurrentHashMap<>();
+
+    /**
+     * 需要上报的端口，与已注册的不同时重新注册
+     */
+    private volatile Set<Integer> ports = Collections.emptySet();
+
+    private Set<Integer> registered = Collections.emptySet();
+
+    private Channel channel;
+
+    private boolean connecting;
+
+    private ScheduledFuture<?> heartbeat;
+
+    PeerLink(ClusterNode node, String host, int port) {
+        super(node.config().getMaxFrameLength(), node.metrics());
+        this.node = node;
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * 更新上报的端口，链路已注册时断开重新注册
+     */
+    void advertise(Set<Integer> advertised) {
+        Channel current;
+        synchronized (this) {
+            if (advertised.equals(ports)) {
+                return;
+            }
+            ports = advertised;
+            current = channel;
+        }
+        if (current == null) {
+            connect();
+        } else {
+            log.info("Re-registering on peer {}:{} with ports {}", host, port, advertised);
+            current.close();
+        }
+    }
+
+    void close() {
+        Channel current;
+        synchronized (this) {
+            current = channel;
+        }
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * 没有本地客户端时不注册，对方也无从转发
+     */
+    private void connect() {
+        synchronized (this) {
+            if (connecting || channel != null || ports.isEmpty() || !node.isRunning()) {
+                return;
+            }
+            connecting = true;
+        }
+        ServerConfig config = node.config();
+        new Bootstrap().group(node.group())
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                        config.getTunnelHighWaterMark() / 2, config.getTunnelHighWaterMark()))
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        if (node.sslContext() != null) {
+                            ch.pipeline().addLast(TunnelSsl.newClientHandler(node.sslContext(), ch.alloc(),
+                                    host, port, false, metrics));
+                        }
+                        ch.pipeline().addLast(PeerLink.this);
+                    }
+                })
+                .connect(host, port)
+                .addListener((ChannelFutureListener) this::connected);
+    }
+
+    private void connected(ChannelFuture future) {
+        synchronized (this) {
+            connecting = false;
+            if (future.isSuccess()) {
+                channel = future.channel();
+            }
+        }
+        if (!future.isSuccess()) {
+            log.debug("Failed to connect to peer {}:{}: {}", host, port, future.cause().getMessage());
+            reconnect(backoff.nextDelayMillis());
+            return;
+        }
+        future.channel().closeFuture().addListener(f -> {
+            boolean changed;
+            synchronized (this) {
+                channel = null;
+                changed = !registered.equals(ports);
+            }
+            // 因端口变化断开的立即重新注册
+            reconnect(changed ? 0 : backoff.nextDelayMillis());
+        });
+    }
+
+    private void reconnect(long delayMillis) {
+        if (node.isRunning()) {
+            node.group().schedule(this::connect, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        super.channelActive(ctx);
+        Set<Integer> advertised = ports;
+        List<PortMapping> mappings = new ArrayList<>(advertised.size());
+        for (Integer remotePort : advertised) {
+            PortMapping mapping = new PortMapping();
+            mapping.setLocalPort(remotePort);
+            mapping.setRemotePort(remotePort);
+            mappings.add(mapping);
+        }
+        synchronized (this) {
+            registered = advertised;
+        }
+        // 排序值最大，对方节点总是优先选择它的本地客户端
+        byte[] register = RegisterCodec.encode(ClusterNode.PEER_PREFIX + node.config().getClusterNodeId(),
+                ProtocolConstants.VERSION, Integer.MAX_VALUE, mappings);
+        FrameCodec.send(ctx.channel(), MessageFactory.createRegisterMessage(register));
+    }
+
+    @Override
+    protected void handleRegisterAck(ChannelHandlerContext ctx, Message msg) {
+        byte version = msg.getData().length > 0 ? msg.getData()[0] : ProtocolConstants.VERSION_1;
+        ctx.channel().attr(FrameCodec.CODEC).set(FrameCodec.forVersion(version));
+        backoff.reset();
+        heartbeat = ctx.executor().scheduleAtFixedRate(
+                () -> FrameCodec.send(ctx.channel(), MessageFactory.createHeartbeatMessage()),
+                ProtocolConstants.waitTime, ProtocolConstants.waitTime, TimeUnit.MILLISECONDS);
+        log.info("Registered on peer {}:{} with ports {}", host, port, registered);
+        if (!registered.equals(ports)) {
+            // 注册期间端口已变化
+            ctx.close();
+        }
+    }
+
+    @Override
+    protected void handleError(ChannelHandlerContext ctx, Message msg) {
+        log.warn("Error from peer {}:{}: {}", host, port, new String(msg.getData(), StandardCharsets.UTF_8));
+    }
+
+    @Override
+    protected void handleConnect(ChannelHandlerContext ctx, Message msg) {
+        int streamId = msg.getChannelId();
+        Future<Channel> stream = node.openStream(ctx.channel().eventLoop(), msg.getExternalPort(),
+                new PeerStream(ctx.channel(), streamId, msg.getExternalPort()));
+        streams.put(streamId, stream);
+        stream.addListener(f -> {
+            if (!f.isSuccess() && streams.remove(streamId, stream)) {
+                log.warn("Failed to open relayed stream {} on port {}", streamId, msg.getExternalPort(), f.cause());
+                FrameCodec.send(ctx.channel(), MessageFactory.createDisconnectMessage(streamId));
+            }
+        });
+    }
+
+    @Override
+    protected void handleData(ChannelHandlerContext ctx, Message msg) {
+        Future<Channel> stream = streams.get(msg.getChannelId());
+        if (stream == null) {
+            UNKNOWN_STREAM.warn("No relayed stream for id {}", msg.getChannelId());
+            return;
+        }
+        byte[] data = msg.getData();
+        // 入口连接与链路在同一事件循环，连接完成前的数据按到达顺序在完成时写入
+        if (stream.isDone()) {
+            write(ctx.channel(), stream, data);
+        } else {
+            stream.addListener(f -> write(ctx.channel(), stream, data));
+        }
+    }
+
+    private void write(Channel link, Future<Channel> stream, byte[] data) {
+        Channel entry = stream.getNow();
+        if (entry == null || !entry.isActive()) {
+            return;
+        }
+        entry.writeAndFlush(Unpooled.wrappedBuffer(data));
+        TunnelBackpressure backpressure = backpressure(link);
+        if (backpressure != null) {
+            backpressure.afterDestinationWrite(entry);
+        }
+    }
+
+    @Override
+    protected void handleDisconnect(ChannelHandlerContext ctx, Message msg) {
+        Future<Channel> stream = streams.remove(msg.getChannelId());
+        if (stream != null) {
+            stream.addListener(f -> {
+                if (f.isSuccess()) {
+                    stream.getNow().close();
+                }
+            });
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (heartbeat != null) {
+            heartbeat.cancel(false);
+            heartbeat = null;
+        }
+        for (Integer streamId : streams.keySet()) {
+            Future<Channel> stream = streams.remove(streamId);
+            if (stream != null && stream.isSuccess()) {
+                stream.getNow().close();
+            }
+        }
+        log.info("Link to peer {}:{} closed", host, port);
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        log.warn("Link to peer {}:{} failed: {}", host, port, cause.getMessage());
+        ctx.close();
+    }
+
+    private TunnelBackpressure backpressure(Channel link) {
+        if (node.config().getBackpressureMode() != BackpressureMode.LOCAL) {
+            return null;
+        }
+        return TunnelBackpressure.of(link, metrics);
+    }
+
+    /**
+     * 入口连接的处理器：本地客户端返回的数据经链路发回对方节点，入口关闭时通知对方
+     */
+    private final class PeerStream extends ChannelInboundHandlerAdapter {
+
+        private final Channel link;
+
+        private final int streamId;
+
+        private final int remotePort;
+
+        PeerStream(Channel link, int streamId, int remotePort) {
+            this.link = link;
+            this.streamId = streamId;
+            this.remotePort = remotePort;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ByteBuf buf = (ByteBuf) msg;
+            try {
+                DataFrameWriter.writeData(link, streamId, remotePort, buf, node.config().getMaxFramePayload());
+            } finally {
+                buf.release();
+            }
+            TunnelBackpressure backpressure = backpressure(link);
+            if (backpressure != null) {
+                backpressure.afterTunnelWrite(ctx.channel());
+            }
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            TunnelBackpressure backpressure = TunnelBackpressure.get(link);
+            if (backpressure != null && ctx.channel().isWritable()) {
+                backpressure.destinationWritable(ctx.channel());
+            }
+            super.channelWritabilityChanged(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            TunnelBackpressure backpressure = TunnelBackpressure.get(link);
+            if (backpressure != null) {
+                backpressure.destinationWritable(ctx.channel());
+                backpressure.sourceClosed(ctx.channel());
+            }
+            if (streams.remove(streamId) != null && link.isActive()) {
+                FrameCodec.send(link, MessageFactory.createDisconnectMessage(streamId));
+            }
+            super.channelInactive(ctx);
+        }
+    }
+}
@@ -2,6 +2,12 @@ package top.aixmax.penetrate.server.config;
 
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import top.aixmax.penetrate.common.constants.ProtocolConstants;
+import top.aixmax.penetrate.core.flow.BackpressureMode;
+import top.aixmax.penetrate.core.tls.TlsProvider;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author wangxu
@@ -57,15 +63,75 @@ public class ServerConfig {
     private String certPath;
 
     /**
-     * SSL私钥路径
+     * SSL私钥路径（PKCS#8 PEM）
      */
     private String keyPath;
 
+    /**
+     * SSL私钥密码，私钥未加密时留空
+     */
+    private String keyPassword;
+
+    /**
+     * SSL实现，AUTO 时 netty-tcnative 可用则使用OpenSSL
+     */
+    private TlsProvider sslProvider = TlsProvider.AUTO;
+
+    /**
+     * SSL会话缓存数量，客户端重连时凭会话ID或票据做简化握手
+     */
+    private long sslSessionCacheSize = 20480;
+
+    /**
+     * SSL会话超时（秒）
+     */
+    private long sslSessionTimeout = 3600;
+
     /**
      * 最大帧长度
      */
     private int maxFrameLength = 16777216; // 16MB
 
+    /**
+     * 单帧最大负载（字节），外部数据超过该值时拆分为多帧发送
+     */
+    private int maxFramePayload = ProtocolConstants.DEFAULT_MAX_FRAME_PAYLOAD;
+
+    /**
+     * 是否接受客户端请求的映射负载压缩，仅v2协议的客户端生效
+     */
+    private boolean enableCompression = true;
+
+    /**
+     * 会话恢复宽限期（秒），隧道断开后保留客户端的外部连接，期间凭令牌重连可继续原有的流，0表示不保留
+     */
+    private int sessionResumeTimeout = 60;
+
+    /**
+     * 单个流发往客户端且未确认的数据上限（字节），用于会话恢复时重发，超过时暂停读取外部连接
+     */
+    private int replayBufferSize = 256 * 1024;
+
+    /**
+     * 没有可用客户端时外部连接的最长等待时间（毫秒），期间客户端注册或恢复则继续转发，0表示直接关闭
+     */
+    private long pendingConnectionTimeout = 5000;
+
+    /**
+     * 每个远程端口最多等待的外部连接数，超过时直接关闭
+     */
+    private int maxPendingConnections = 256;
+
+    /**
+     * 停止时的排空期限（秒）：先通知客户端连接其他服务端并停止接受新连接，现有的流最多再保持这么久，0表示直接关闭
+     */
+    private long drainTimeout = 30;
+
+    /**
+     * 流延迟追踪的采样比例（0~1），0表示关闭
+     */
+    private double streamTraceSampleRate = 0;
+
     /**
      * 连接认证超时时间(秒)
      */
@@ -87,7 +153,88 @@ public class ServerConfig {
     private boolean enableTrafficControl = false;
 
     /**
-     * 每个客户端的最大带宽（字节/秒）
+     * 每个客户端的最大下行带宽（字节/秒），按1秒滑动窗口判断，超过时暂停读取外部连接
      */
     private long maxBytesPerSecond = 1024 * 1024; // 1MB/s
+
+    /**
+     * 每秒允许接入的新隧道连接数，0表示不限制
+     */
+    private int acceptRate = 200;
+
+    /**
+     * 新隧道连接允许的突发数量
+     */
+    private int acceptBurst = 400;
+
+    /**
+     * 每秒允许的注册数，0表示不限制
+     */
+    private int registerRate = 200;
+
+    /**
+     * 注册允许的突发数量
+     */
+    private int registerBurst = 400;
+
+    /**
+     * 全局缓冲内存预算（字节），写出但对端未取走的数据超过该值时暂停读取，0表示不限制
+     */
+    private long memoryBudget = 256L * 1024 * 1024;
+
+    /**
+     * 单个客户端的缓冲内存额度（字节），0表示只受全局预算限制
+     */
+    private long clientMemoryQuota = 32L * 1024 * 1024;
+
+    /**
+     * 背压模式，LOCAL 时隧道与外部/本地连接互相按可写状态暂停读取
+     */
+    private BackpressureMode backpressureMode = BackpressureMode.LOCAL;
+
+    /**
+     * 隧道写缓冲高水位（字节），超过时隧道不可写，回落到一半时恢复
+     */
+    private int tunnelHighWaterMark = 1024 * 1024;
+
+    /**
+     * 外部连接写缓冲高水位（字节），超过时连接不可写，回落到一半时恢复
+     */
+    private int streamHighWaterMark = 128 * 1024;
+
+    /**
+     * UDP会话空闲超时（秒），超时后移除会话并通知客户端
+     */
+    private int datagramSessionTimeout = 60;
+
+    /**
+     * 单个UDP远程端口的最大会话数，超过后新来源的数据报被丢弃
+     */
+    private int maxDatagramSessions = 10000;
+
+    /**
+     * 单个数据报最大长度（字节），超过的会被截断，需不大于单帧最大负载
+     */
+    private int maxDatagramSize = 2048;
+
+    /**
+     * 开启数据面DEBUG日志的客户端ID，为空时不按客户端过滤，日志级别由 top.aixmax.penetrate.dataplane 控制
+     */
+    private String[] debugClients = new String[0];
+
+    /**
+     * 集群节点ID，为空时不启用集群。各节点ID需唯一
+     */
+    private String clusterNodeId;
+
+    /**
+     * 集群其他节点的客户端连接地址（host:port）。本节点以虚拟客户端身份注册到这些节点，
+     * 上报本地客户端持有的端口，对方节点没有本地客户端时经此转发
+     */
+    private List<String> clusterPeers = new ArrayList<>();
+
+    /**
+     * 外部端口的监听偏移，实际监听 远程端口 + 偏移，用于同一台机器上运行多个节点测试
+     */
+    private int externalPortOffset = 0;
 }
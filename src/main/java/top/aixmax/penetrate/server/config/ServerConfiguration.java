@@ -1,12 +1,23 @@
 package top.aixmax.penetrate.server.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import top.aixmax.penetrate.common.constants.ProtocolConstants;
 import top.aixmax.penetrate.config.CommonConfig;
+import top.aixmax.penetrate.core.log.DataPlaneDebug;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
 import top.aixmax.penetrate.server.NatServer;
+import top.aixmax.penetrate.server.endpoint.DataPlaneDebugEndpoint;
+import top.aixmax.penetrate.server.endpoint.RelayEndpoint;
+import top.aixmax.penetrate.server.endpoint.StreamTraceEndpoint;
+
+import java.util.Arrays;
 
 /**
  * @author wangxu
@@ -20,7 +31,8 @@ public class ServerConfiguration {
 
     @Bean
     @ConditionalOnProperty(prefix = "nat.server", name = "enabled", havingValue = "true")
-    public NatServer natServer(ServerConfig serverConfig, CommonConfig commonConfig) {
+    public NatServer natServer(ServerConfig serverConfig, CommonConfig commonConfig,
+                               ObjectProvider<MeterRegistry> meterRegistry) {
         if (commonConfig.getMode() == CommonConfig.RunMode.CLIENT) {
             log.info("Skipping server initialization as running in CLIENT mode");
             return null;
@@ -28,7 +40,27 @@ public class ServerConfiguration {
 
         log.info("Initializing NAT server in {} mode", commonConfig.getMode());
         validateServerConfig(serverConfig);
-        return new NatServer(serverConfig);
+        DataPlaneDebug.setClients(Arrays.asList(serverConfig.getDebugClients()));
+        return new NatServer(serverConfig,
+                new RelayMetrics(meterRegistry.getIfAvailable(CompositeMeterRegistry::new), "server"));
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "nat.server", name = "enabled", havingValue = "true")
+    public StreamTraceEndpoint streamTraceEndpoint(ObjectProvider<NatServer> natServer) {
+        return new StreamTraceEndpoint(natServer);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "nat.server", name = "enabled", havingValue = "true")
+    public RelayEndpoint relayEndpoint(ObjectProvider<NatServer> natServer) {
+        return new RelayEndpoint(natServer);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "nat.server", name = "enabled", havingValue = "true")
+    public DataPlaneDebugEndpoint dataPlaneDebugEndpoint() {
+        return new DataPlaneDebugEndpoint();
     }
 
     private void validateServerConfig(ServerConfig config) {
@@ -45,5 +77,14 @@ public class ServerConfiguration {
         if (config.getMaxConnections() <= 0) {
             throw new IllegalArgumentException("Invalid max connections: " + config.getMaxConnections());
         }
+
+        if (config.getStreamTraceSampleRate() < 0 || config.getStreamTraceSampleRate() > 1) {
+            throw new IllegalArgumentException("Invalid stream trace sample rate: " + config.getStreamTraceSampleRate());
+        }
+
+        if (config.getMaxFramePayload() <= 0
+                || config.getMaxFramePayload() + ProtocolConstants.minLength > config.getMaxFrameLength()) {
+            throw new IllegalArgumentException("Invalid max frame payload: " + config.getMaxFramePayload());
+        }
     }
 }
@@ -0,0 +1,47 @@
+package top.aixmax.penetrate.server.endpoint;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import top.aixmax.penetrate.core.log.DataPlaneDebug;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 20:10
+ * @description 数据面调试端点：/actuator/dataplane，按客户端或流开关数据面DEBUG日志。
+ * 日志级别仍由 /actuator/loggers 控制 top.aixmax.penetrate.dataplane
+ */
+@Endpoint(id = "dataplane")
+public class DataPlaneDebugEndpoint {
+
+    @ReadOperation
+    public Map<String, Object> filters() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("debugEnabled", DataPlaneDebug.LOG.isDebugEnabled());
+        result.put("clients", DataPlaneDebug.getClients());
+        result.put("streams", DataPlaneDebug.getStreams());
+        return result;
+    }
+
+    /**
+     * 开关客户端或流的数据面日志
+     *
+     * @param clientId 客户端ID
+     * @param streamId 流ID
+     * @param enabled  是否开启
+     */
+    @WriteOperation
+    public Map<String, Object> update(@Nullable String clientId, @Nullable Integer streamId, boolean enabled) {
+        if (clientId != null) {
+            DataPlaneDebug.enableClient(clientId, enabled);
+        }
+        if (streamId != null) {
+            DataPlaneDebug.enableStream(streamId, enabled);
+        }
+        return filters();
+    }
+}
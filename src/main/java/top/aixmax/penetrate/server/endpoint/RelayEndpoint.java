@@ -0,0 +1,169 @@
+package top.aixmax.penetrate.server.endpoint;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.common.utils.CursorPage;
+import top.aixmax.penetrate.common.utils.SnapshotPager;
+import top.aixmax.penetrate.server.NatServer;
+import top.aixmax.penetrate.server.manager.ClientManager;
+import top.aixmax.penetrate.server.model.ClientInfo;
+import top.aixmax.penetrate.server.model.ClientSnapshot;
+import top.aixmax.penetrate.server.model.PortSnapshot;
+import top.aixmax.penetrate.server.model.StreamInfo;
+import top.aixmax.penetrate.server.model.StreamSnapshot;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 21:10
+ * @description 中继状态端点，数据来自 {@link ClientManager} 各表的弱一致遍历，运行在管理线程上，不占用事件循环。
+ * <ul>
+ *     <li>/actuator/relay：各表数量、是否排空中以及剩余的流</li>
+ *     <li>POST /actuator/relay {"drainSeconds": 60}：开始排空，滚动重启时轮询 remainingStreams 到0后停止进程</li>
+ *     <li>/actuator/relay/clients?cursor=&amp;limit=&amp;active=&amp;port=</li>
+ *     <li>/actuator/relay/ports?cursor=&amp;limit=&amp;clientId=</li>
+ *     <li>/actuator/relay/streams?cursor=&amp;limit=&amp;clientId=&amp;port=&amp;minAgeSeconds=</li>
+ * </ul>
+ * 结果按键升序，翻页时把上一页的 nextCursor 作为 cursor 传入。
+ * 排空操作没有鉴权，默认配置不暴露该端点，开启时应将管理端口绑定到本机或内网
+ */
+@Endpoint(id = "relay")
+public class RelayEndpoint {
+
+    private final ObjectProvider<NatServer> natServer;
+
+    public RelayEndpoint(ObjectProvider<NatServer> natServer) {
+        this.natServer = natServer;
+    }
+
+    @ReadOperation
+    public Map<String, Object> summary() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        ClientManager manager = clientManager();
+        result.put("clients", manager == null ? 0 : manager.getClients().size());
+        result.put("ports", manager == null ? 0 : manager.getPortClients().size());
+        result.put("streams", manager == null ? 0 : manager.getStreams().size());
+        result.put("datagramSessions", manager == null ? 0 : manager.getDatagramSessions().size());
+        NatServer server = natServer.getIfAvailable();
+        result.put("draining", server != null && server.isDraining());
+        result.put("remainingStreams", manager == null ? 0 : manager.remainingStreams());
+        return result;
+    }
+
+    /**
+     * 开始排空，重复调用不会重置期限
+     *
+     * @param drainSeconds 期限，默认为配置的 drain-timeout
+     */
+    @WriteOperation
+    public Map<String, Object> drain(@Nullable Long drainSeconds) {
+        NatServer server = natServer.getIfAvailable();
+        if (server != null) {
+            long seconds = drainSeconds != null ? drainSeconds
+                    : server.getClientManager().getConfig().getDrainTimeout();
+            server.drain(TimeUnit.SECONDS.toMillis(seconds));
+        }
+        return summary();
+    }
+
+    /**
+     * 分页查询
+     *
+     * @param table         clients、ports 或 streams
+     * @param cursor        上一页返回的 nextCursor
+     * @param limit         每页数量，默认100，最大1000
+     * @param clientId      按客户端过滤（ports、streams）
+     * @param port          按远程端口过滤（clients、streams）
+     * @param active        按客户端是否在线过滤（clients）
+     * @param minAgeSeconds 只返回建立超过该时长的流（streams）
+     */
+    @ReadOperation
+    public CursorPage<?> list(@Selector String table, @Nullable String cursor, @Nullable Integer limit,
+                              @Nullable String clientId, @Nullable Integer port, @Nullable Boolean active,
+                              @Nullable Long minAgeSeconds) {
+        ClientManager manager = clientManager();
+        if (manager == null) {
+            return new CursorPage<>(Collections.emptyList(), null, 0);
+        }
+        switch (table) {
+            case "clients":
+                return clients(manager, cursor, limit, port, active);
+            case "ports":
+                return ports(manager, intCursor(cursor), limit, clientId);
+            case "streams":
+                return streams(manager, intCursor(cursor), limit, clientId, port, minAgeSeconds);
+            default:
+                throw new InvalidEndpointRequestException("Unknown table: " + table, "Unknown table");
+        }
+    }
+
+    private CursorPage<ClientSnapshot> clients(ClientManager manager, String cursor, Integer limit,
+                                               Integer port, Boolean active) {
+        Map<String, Integer> streamCounts = new HashMap<>();
+        for (StreamInfo stream : manager.getStreams().values()) {
+            streamCounts.merge(stream.getClient().getClientId(), 1, Integer::sum);
+        }
+        return SnapshotPager.page(manager.getClients(), cursor, limit,
+                (id, info) -> (active == null || info.isActive() == active) && (port == null || serves(info, port)),
+                (id, info) -> new ClientSnapshot(info, streamCounts.getOrDefault(id, 0)));
+    }
+
+    private CursorPage<PortSnapshot> ports(ClientManager manager, Integer cursor, Integer limit, String clientId) {
+        Map<Integer, Integer> streamCounts = new HashMap<>();
+        for (StreamInfo stream : manager.getStreams().values()) {
+            streamCounts.merge(stream.getRemotePort(), 1, Integer::sum);
+        }
+        return SnapshotPager.page(manager.getPortClients(), cursor, limit,
+                (remotePort, infos) -> clientId == null
+                        || infos.stream().anyMatch(info -> clientId.equals(info.getClientId())),
+                (remotePort, infos) -> new PortSnapshot(remotePort, infos,
+                        streamCounts.getOrDefault(remotePort, 0), manager.getMetrics().findPortMeter(remotePort)));
+    }
+
+    private CursorPage<StreamSnapshot> streams(ClientManager manager, Integer cursor, Integer limit,
+                                               String clientId, Integer port, Long minAgeSeconds) {
+        long now = System.currentTimeMillis();
+        long minCreateTime = minAgeSeconds == null ? Long.MAX_VALUE : now - minAgeSeconds * 1000;
+        return SnapshotPager.page(manager.getStreams(), cursor, limit,
+                (id, stream) -> (clientId == null || clientId.equals(stream.getClient().getClientId()))
+                        && (port == null || stream.getRemotePort() == port)
+                        && stream.getCreateTime() <= minCreateTime,
+                (id, stream) -> new StreamSnapshot(stream, now));
+    }
+
+    private static boolean serves(ClientInfo info, int port) {
+        for (PortMapping mapping : info.getPortMappings()) {
+            if (mapping.getRemotePort() == port) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Integer intCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(cursor);
+        } catch (NumberFormatException e) {
+            throw new InvalidEndpointRequestException("Invalid cursor: " + cursor, "Invalid cursor");
+        }
+    }
+
+    private ClientManager clientManager() {
+        NatServer server = natServer.getIfAvailable();
+        return server == null ? null : server.getClientManager();
+    }
+}
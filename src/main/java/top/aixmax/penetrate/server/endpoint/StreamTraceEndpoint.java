@@ -0,0 +1,41 @@
+package top.aixmax.penetrate.server.endpoint;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import top.aixmax.penetrate.server.NatServer;
+import top.aixmax.penetrate.server.manager.StreamTracer;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 19:05
+ * @description 流延迟追踪端点：/actuator/streamtrace，返回采样比例和最近采样流的阶段耗时
+ */
+@Endpoint(id = "streamtrace")
+public class StreamTraceEndpoint {
+
+    private final ObjectProvider<NatServer> natServer;
+
+    public StreamTraceEndpoint(ObjectProvider<NatServer> natServer) {
+        this.natServer = natServer;
+    }
+
+    @ReadOperation
+    public Map<String, Object> traces() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        NatServer server = natServer.getIfAvailable();
+        if (server == null) {
+            result.put("sampleRate", 0);
+            result.put("streams", Collections.emptyList());
+            return result;
+        }
+        StreamTracer tracer = server.getClientManager().getStreamTracer();
+        result.put("sampleRate", tracer.getSampleRate());
+        result.put("streams", tracer.getRecent());
+        return result;
+    }
+}
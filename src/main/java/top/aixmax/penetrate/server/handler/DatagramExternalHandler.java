@@ -0,0 +1,107 @@
+package top.aixmax.penetrate.server.handler;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.slf4j.Slf4j;
+import top.aixmax.penetrate.core.transport.DeferredFlush;
+import top.aixmax.penetrate.server.manager.ClientManager;
+import top.aixmax.penetrate.server.model.DatagramSession;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 23:40
+ * @description UDP远程端口监听，每个端口一个实例。按来源地址维护会话表，
+ * 一批数据报读取结束后各隧道统一flush；会话空闲超时由监听线程定期清理
+ */
+@Slf4j
+public class DatagramExternalHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+
+    private final ClientManager clientManager;
+
+    private final int port;
+
+    /**
+     * 来源地址 -> 会话
+     */
+    private final Map<InetSocketAddress, DatagramSession> sessions = new ConcurrentHashMap<>();
+
+    private ScheduledFuture<?> expiry;
+
+    public DatagramExternalHandler(ClientManager clientManager, int port) {
+        this.clientManager = clientManager;
+        this.port = port;
+    }
+
+    public Map<InetSocketAddress, DatagramSession> getSessions() {
+        return sessions;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        long timeoutSeconds = Math.max(1, clientManager.getConfig().getDatagramSessionTimeout());
+        long period = Math.max(1, timeoutSeconds / 4);
+        expiry = ctx.channel().eventLoop().scheduleAtFixedRate(() -> expire(timeoutSeconds),
+                period, period, TimeUnit.SECONDS);
+        super.channelActive(ctx);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
+        DatagramSession session = sessions.get(packet.sender());
+        if (session == null || !session.getClient().isActive()) {
+            if (session != null) {
+                // 原客户端已离线，重新选择客户端
+                clientManager.closeDatagramSession(session, false);
+            }
+            session = clientManager.openDatagramSession(ctx.channel(), packet.sender(), port, sessions);
+            if (session == null) {
+                return;
+            }
+        }
+        Channel tunnel = clientManager.handleExternalDatagram(session, packet.content());
+        if (tunnel != null) {
+            DeferredFlush.add(ctx.channel(), tunnel);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        DeferredFlush.flush(ctx.channel());
+        super.channelReadComplete(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (expiry != null) {
+            expiry.cancel(false);
+        }
+        for (DatagramSession session : sessions.values()) {
+            clientManager.closeDatagramSession(session, true);
+        }
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        // 数据报通道上的异常（如ICMP不可达）不影响其他会话，不关闭监听
+        log.warn("Error on datagram port {}: {}", port, cause.getMessage());
+    }
+
+    private void expire(long timeoutSeconds) {
+        long now = System.nanoTime();
+        long timeoutNanos = TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        for (DatagramSession session : sessions.values()) {
+            if (session.isIdle(now, timeoutNanos)) {
+                clientManager.closeDatagramSession(session, true);
+            }
+        }
+    }
+}
@@ -28,6 +28,7 @@ public class ExternalHandler extends SimpleChannelInboundHandler<ByteBuf> {
     public void channelActive(ChannelHandlerContext ctx) {
         // 处理新的外部连接
         log.debug("New external connection from: {}", ctx.channel().remoteAddress());
+        clientManager.handleExternalConnect(ctx.channel(), port);
     }
 
     @Override
@@ -37,6 +38,14 @@ public class ExternalHandler extends SimpleChannelInboundHandler<ByteBuf> {
         clientManager.handleExternalData(ctx.channel(), msg, port);
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            clientManager.handleExternalWritable(ctx.channel());
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     public void channelInactive(ChannelHandlerContext ctx) {
         // 处理连接断开
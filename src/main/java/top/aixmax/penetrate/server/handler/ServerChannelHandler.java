@@ -1,33 +1,38 @@
 package top.aixmax.penetrate.server.handler;
 
 import com.alibaba.fastjson.JSON;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.timeout.IdleState;
-import io.netty.handler.timeout.IdleStateEvent;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.tomcat.util.json.JSONParser;
-import org.springframework.boot.configurationprocessor.json.JSONObject;
 import org.springframework.util.CollectionUtils;
 import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.common.constants.ProtocolConstants;
+import top.aixmax.penetrate.common.utils.TokenBucket;
+import top.aixmax.penetrate.core.compress.PayloadCodec;
 import top.aixmax.penetrate.core.handler.AbstractMessageHandler;
+import top.aixmax.penetrate.core.jfr.RelayEvents;
+import top.aixmax.penetrate.core.log.DataPlaneDebug;
+import top.aixmax.penetrate.core.log.RateLimitedLog;
+import top.aixmax.penetrate.core.protocol.FrameCodec;
 import top.aixmax.penetrate.core.protocol.Message;
 import top.aixmax.penetrate.core.protocol.MessageFactory;
+import top.aixmax.penetrate.core.protocol.PortMappingCodec;
+import top.aixmax.penetrate.core.protocol.RegisterCodec;
+import top.aixmax.penetrate.core.resume.SessionResume;
+import top.aixmax.penetrate.server.config.ServerConfig;
 import top.aixmax.penetrate.server.manager.ClientManager;
 import top.aixmax.penetrate.server.manager.ServerManager;
 import top.aixmax.penetrate.server.model.ClientInfo;
+import top.aixmax.penetrate.server.model.StreamInfo;
 
-import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
  * @author wangxu
@@ -38,17 +43,81 @@ import java.util.concurrent.ConcurrentSkipListSet;
 @ChannelHandler.Sharable
 public class ServerChannelHandler extends AbstractMessageHandler {
 
+    private static final RateLimitedLog NO_ACTIVE_CHANNEL = RateLimitedLog.of(log, "server.no-active-channel");
+
+    private static final RateLimitedLog UNAUTHENTICATED_DATA = RateLimitedLog.of(log, "server.unauthenticated-data");
+
     private final ClientManager clientManager;
 
     private final ServerManager serverManager;
 
-    private static final Set<Integer> livePort = new ConcurrentSkipListSet<>();
-
     private final Map<ChannelHandlerContext, Boolean> authenticatedMap = new ConcurrentHashMap<>();
 
+    /**
+     * 新隧道连接准入限流，为空表示不限制
+     */
+    private final TokenBucket acceptLimiter;
+
+    /**
+     * 注册准入限流，为空表示不限制
+     */
+    private final TokenBucket registerLimiter;
+
     public ServerChannelHandler(ClientManager clientManager) {
+        super(clientManager.getConfig().getMaxFrameLength(), clientManager.getMetrics());
         this.clientManager = clientManager;
         this.serverManager = new ServerManager(clientManager);
+        ServerConfig config = clientManager.getConfig();
+        this.acceptLimiter = config.getAcceptRate() > 0
+                ? new TokenBucket(config.getAcceptRate(), Math.max(1, config.getAcceptBurst())) : null;
+        this.registerLimiter = config.getRegisterRate() > 0
+                ? new TokenBucket(config.getRegisterRate(), Math.max(1, config.getRegisterBurst())) : null;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        if (rejectIfDraining(ctx) || rejectIfLimited(ctx, acceptLimiter)) {
+            return;
+        }
+        super.channelActive(ctx);
+    }
+
+    /**
+     * 排空中不接受新的隧道和注册，通知客户端连接其他服务端并关闭连接
+     *
+     * @param ctx 管道
+     * @return 是否被拒绝
+     */
+    private boolean rejectIfDraining(ChannelHandlerContext ctx) {
+        if (!clientManager.isDraining()) {
+            return false;
+        }
+        log.debug("Draining, rejecting {}", ctx.channel().remoteAddress());
+        FrameCodec.send(ctx.channel(), MessageFactory.createGoAwayMessage(0))
+                .addListener(ChannelFutureListener.CLOSE);
+        return true;
+    }
+
+    /**
+     * 超过准入速率时返回 retry-after 并关闭连接
+     *
+     * @param ctx     管道
+     * @param limiter 限流器
+     * @return 是否被拒绝
+     */
+    private boolean rejectIfLimited(ChannelHandlerContext ctx, TokenBucket limiter) {
+        if (limiter == null) {
+            return false;
+        }
+        long waitNanos = limiter.tryAcquire();
+        if (waitNanos == 0) {
+            return false;
+        }
+        long retryAfter = limiter.retryAfterMillis(waitNanos);
+        log.debug("Admission limited for {}, retry after {}ms", ctx.channel().remoteAddress(), retryAfter);
+        FrameCodec.send(ctx.channel(), MessageFactory.createRetryAfterMessage(retryAfter))
+                .addListener(ChannelFutureListener.CLOSE);
+        return true;
     }
 
     @Override
@@ -59,33 +128,153 @@ public class ServerChannelHandler extends AbstractMessageHandler {
             return;
         }
 
-        String json = new String(msg.getData(), StandardCharsets.UTF_8);
-        ClientInfo info = JSON.parseObject(json, ClientInfo.class);
+        if (rejectIfDraining(ctx) || rejectIfLimited(ctx, registerLimiter)) {
+            return;
+        }
+
+        ClientInfo info;
+        if (RegisterCodec.isBinary(msg.getData())) {
+            info = RegisterCodec.decode(msg.getData());
+        } else {
+            // 兼容JSON注册的旧版本客户端
+            String json = new String(msg.getData(), StandardCharsets.UTF_8);
+            info = JSON.parseObject(json, ClientInfo.class);
+        }
         info.setChannel(ctx.channel());
         if (CollectionUtils.isEmpty(info.getPortMappings())) {
             log.warn("Client {} no port mapping", info.getClientId());
             return;
         }
 
+        // 注册或恢复后其他线程即可向隧道发帧，先切换到协商版本；
+        // 确认消息仍以v1编码，在隧道的事件循环内直接写出，排在其他线程提交的写入之前
+        int version = negotiateVersion(info.getVersion());
+        ctx.channel().attr(FrameCodec.CODEC).set(FrameCodec.forVersion(version));
+        ClientInfo resumed = clientManager.resumeClient(info, ctx.channel());
+        if (resumed != null) {
+            authenticatedMap.put(ctx, true);
+            resumeSession(ctx, info, resumed, version);
+            return;
+        }
+
         // 注册客户端
-        if (clientManager.registerClient(info, ctx.channel())) {
+        SessionResume resume = clientManager.issueResumeToken(info);
+        boolean registered = clientManager.registerClient(info, ctx.channel());
+        RelayEvents.registration("register", info.getClientId(), ctx.channel(), info.getPortMappings().size(),
+                registered);
+        if (registered) {
             authenticatedMap.put(ctx, true);
 
-            info.getPortMappings().forEach((portInfo) -> {
-                if (!livePort.contains(portInfo.getRemotePort())) {
-                    livePort.add(portInfo.getRemotePort());
-                    new Thread(() -> serverManager.startExternalServer(portInfo.getRemotePort())).start();
-                }
-            });
-            ctx.channel().writeAndFlush(Unpooled.wrappedBuffer(MessageFactory.createRegisterAckMessage()));
-            log.info("Client registered: {}", info.getClientId());
+            info.getPortMappings().forEach(this::listen);
+            Map<Integer, PayloadCodec> compression = clientManager.negotiateCompression(info, version);
+            FrameCodec.send(ctx.channel(),
+                    MessageFactory.createRegisterAckMessage((byte) version, compression, resume), FrameCodec.V1);
+            log.info("Client registered: {}, protocol version {}, compression {}, session resume {}",
+                    info.getClientId(), version, compression, resume != null);
+            clientManager.dispatchPending(info);
         } else {
             log.error("Failed to register client: {}", info.getClientId());
-            ctx.channel().writeAndFlush(Unpooled.wrappedBuffer(MessageFactory.createErrorMessage("Registration failed")));
+            FrameCodec.send(ctx.channel(), MessageFactory.createErrorMessage("Registration failed"), FrameCodec.V1);
+            ctx.close();
+        }
+    }
+
+    /**
+     * 恢复会话：沿用原有映射和压缩，确认中带上本端各流已交付的偏移，发出后按客户端的偏移重放
+     *
+     * @param ctx     新隧道
+     * @param request 注册消息解码的客户端信息
+     * @param info    恢复的客户端
+     * @param version 协商的协议版本，隧道已切换到该版本
+     */
+    private void resumeSession(ChannelHandlerContext ctx, ClientInfo request, ClientInfo info, int version) {
+        Map<Integer, PayloadCodec> compression = new HashMap<>();
+        info.getCompressors().forEach((port, compressor) -> compression.put(port, compressor.getCodec()));
+        ServerConfig config = clientManager.getConfig();
+        SessionResume resume = new SessionResume(info.getResumeToken(), true, config.getSessionResumeTimeout(),
+                config.getReplayBufferSize(), clientManager.receivedOffsets(info));
+        FrameCodec.send(ctx.channel(), MessageFactory.createRegisterAckMessage((byte) version, compression, resume),
+                FrameCodec.V1);
+        clientManager.replayStreams(info, request.getResume().getOffsets());
+        clientManager.dispatchPending(info);
+    }
+
+    /**
+     * 映射的端口尚未监听时启动监听
+     */
+    private synchronized void listen(PortMapping mapping) {
+        if ("udp".equalsIgnoreCase(mapping.getProtocol())) {
+            serverManager.listenDatagram(mapping.getRemotePort());
+        } else {
+            serverManager.listen(mapping.getRemotePort());
+        }
+    }
+
+    /**
+     * 已没有客户端映射该端口时解绑监听，与 {@link #listen(PortMapping)} 互斥，避免解绑刚被其他客户端映射的端口
+     */
+    private synchronized void unlisten(int port, String protocol) {
+        if (clientManager.isMapped(port, protocol)) {
+            return;
+        }
+        if ("udp".equalsIgnoreCase(protocol)) {
+            serverManager.unbindDatagram(port);
+        } else {
+            serverManager.unbind(port);
+        }
+    }
+
+    /**
+     * 运行时映射变更：新增时按需启动监听，删除时没有其他客户端映射该端口则解绑，隧道及其他流不受影响
+     */
+    @Override
+    protected void handlePortMapping(ChannelHandlerContext ctx, Message msg) {
+        ClientInfo info = Boolean.TRUE.equals(authenticatedMap.get(ctx))
+                ? clientManager.getClientByChannel(ctx.channel()) : null;
+        if (info == null) {
+            UNAUTHENTICATED_DATA.warn("Received port mapping from unauthenticated client {}",
+                    ctx.channel().remoteAddress());
             ctx.close();
+            return;
+        }
+        byte op;
+        PortMapping mapping;
+        try {
+            op = PortMappingCodec.decodeOp(msg.getData());
+            mapping = PortMappingCodec.decodeMapping(msg.getData());
+        } catch (IllegalArgumentException e) {
+            rejectPortMapping(ctx, msg, info, e.getMessage());
+            return;
+        }
+        if (negotiateVersion(info.getVersion()) < ProtocolConstants.VERSION_3) {
+            rejectPortMapping(ctx, msg, info, "Protocol version does not support port mapping updates");
+        } else if (clientManager.isDraining()) {
+            rejectPortMapping(ctx, msg, info, "Server is draining");
+        } else if (mapping.getRemotePort() == 0) {
+            rejectPortMapping(ctx, msg, info, "Invalid remote port: 0");
+        } else if (op == PortMappingCodec.OP_REMOVE) {
+            clientManager.removeMapping(info, mapping.getRemotePort(), mapping.getProtocol());
+            unlisten(mapping.getRemotePort(), mapping.getProtocol());
+            FrameCodec.send(ctx.channel(), MessageFactory.createPortMappingAckMessage(msg.getChannelId(),
+                    PortMappingCodec.STATUS_OK, PayloadCodec.NONE, null));
+        } else {
+            PayloadCodec codec = clientManager.putMapping(info, mapping);
+            listen(mapping);
+            FrameCodec.send(ctx.channel(), MessageFactory.createPortMappingAckMessage(msg.getChannelId(),
+                    PortMappingCodec.STATUS_OK, codec, null));
         }
     }
 
+    private static void rejectPortMapping(ChannelHandlerContext ctx, Message msg, ClientInfo info, String reason) {
+        log.warn("Rejected port mapping update from client {}: {}", info.getClientId(), reason);
+        FrameCodec.send(ctx.channel(), MessageFactory.createPortMappingAckMessage(msg.getChannelId(),
+                PortMappingCodec.STATUS_REJECTED, PayloadCodec.NONE, reason));
+    }
+
+    public ServerManager getServerManager() {
+        return serverManager;
+    }
+
     @Override
     protected void handleHeartbeat(ChannelHandlerContext ctx) {
         boolean authenticated = authenticatedMap.computeIfAbsent(ctx, p -> false);
@@ -98,7 +287,8 @@ public class ServerChannelHandler extends AbstractMessageHandler {
         ClientInfo clientInfo = clientManager.getClientByChannel(ctx.channel());
         if (clientInfo != null) {
             clientInfo.updateHeartbeat();
-            ctx.writeAndFlush(Unpooled.wrappedBuffer(MessageFactory.createHeartbeatAckMessage()));
+            FrameCodec.send(ctx.channel(), MessageFactory.createHeartbeatAckMessage());
+            clientManager.acknowledgeAll(clientInfo);
             log.debug("Heartbeat received from client: {}", clientInfo.getClientId());
         }
     }
@@ -107,7 +297,7 @@ public class ServerChannelHandler extends AbstractMessageHandler {
     protected void handleData(ChannelHandlerContext ctx, Message msg) {
         boolean authenticated = authenticatedMap.computeIfAbsent(ctx, p -> false);
         if (!authenticated) {
-            log.warn("Received data from unauthenticated client");
+            UNAUTHENTICATED_DATA.warn("Received data from unauthenticated client {}", ctx.channel().remoteAddress());
             ctx.close();
             return;
         }
@@ -123,7 +313,7 @@ public class ServerChannelHandler extends AbstractMessageHandler {
             handleDataForward(ctx, msg, clientInfo);
         } catch (Exception e) {
             log.error("Error handling data forward for client: {}", clientInfo.getClientId(), e);
-            ctx.writeAndFlush(Unpooled.wrappedBuffer(MessageFactory.createErrorMessage("Data forward failed")));
+            FrameCodec.send(ctx.channel(), MessageFactory.createErrorMessage("Data forward failed"));
         }
     }
 
@@ -135,27 +325,122 @@ public class ServerChannelHandler extends AbstractMessageHandler {
      * @param clientInfo 客户端信息
      */
     private void handleDataForward(ChannelHandlerContext ctx, Message msg, ClientInfo clientInfo) {
-        // 更新统计信息
-        clientInfo.incrementRequests();
         if (msg.getData() != null) {
-            clientInfo.addBytes(msg.getData().length);
+            // 更新统计信息
+            clientInfo.getTraffic().recordIn(msg.getData().length);
             // 获取目标通道
-            Channel targetChannel = clientManager.getServerChannel(msg.getChannelId());
+            StreamInfo stream = clientManager.getStream(ctx.channel(), msg.getChannelId());
+            Channel targetChannel = stream == null ? null : stream.getExternalChannel();
             if (targetChannel != null && targetChannel.isActive()) {
-                targetChannel.writeAndFlush(Unpooled.wrappedBuffer(msg.getData()));
-                log.debug("Data forwarded to Server channel Id {}, length: {}", msg.getChannelId(), msg.getData().length);
+                stream.getPortMeter().recordIn(msg.getData().length);
+                stream.addBytesIn(msg.getData().length);
+                if (stream.getTrace() != null) {
+                    stream.getTrace().markFirstResponse();
+                }
+                if (stream.getReplay() != null) {
+                    // 只交付当前隧道上的帧，恢复前旧隧道残留的帧由客户端重放
+                    boolean delivered = stream.getReplay().deliver(msg.getData().length,
+                            () -> clientInfo.getChannel() == ctx.channel() && write(clientInfo, targetChannel, msg));
+                    if (!delivered) {
+                        return;
+                    }
+                    clientManager.acknowledgeIfDue(ctx.channel(), stream);
+                } else {
+                    write(clientInfo, targetChannel, msg);
+                }
+                // 外部连接不可写或积压超过客户端额度时暂停读取隧道
+                clientManager.afterExternalWrite(ctx.channel(), targetChannel);
+                clientInfo.getMemory().pauseIfExhausted(ctx.channel());
+                if (DataPlaneDebug.isEnabled(clientInfo.getClientId(), msg.getChannelId())) {
+                    DataPlaneDebug.LOG.debug("Data forwarded to external stream {}, length: {}",
+                            msg.getChannelId(), msg.getData().length);
+                }
             } else {
-                log.warn("No active channel found for id: {}", msg.getChannelId());
-                ctx.writeAndFlush(Unpooled.wrappedBuffer(
-                        MessageFactory.createErrorMessage("No active channel for id: " + msg.getChannelId())));
+                NO_ACTIVE_CHANNEL.warn("No active channel found for id: {}", msg.getChannelId());
+                FrameCodec.send(ctx.channel(),
+                        MessageFactory.createErrorMessage("No active channel for id: " + msg.getChannelId()));
             }
         }
     }
 
+    private static boolean write(ClientInfo clientInfo, Channel targetChannel, Message msg) {
+        ChannelFuture future = targetChannel.writeAndFlush(Unpooled.wrappedBuffer(msg.getData()));
+        clientInfo.getMemory().track(future, msg.getData().length);
+        return true;
+    }
+
+    @Override
+    protected void handleDataAck(ChannelHandlerContext ctx, Message msg) {
+        if (!Boolean.TRUE.equals(authenticatedMap.get(ctx))) {
+            UNAUTHENTICATED_DATA.warn("Received data from unauthenticated client {}", ctx.channel().remoteAddress());
+            ctx.close();
+            return;
+        }
+        clientManager.handleDataAck(ctx.channel(), msg);
+    }
+
+    @Override
+    protected void handleStreamTrace(ChannelHandlerContext ctx, Message msg) {
+        if (!Boolean.TRUE.equals(authenticatedMap.get(ctx))) {
+            UNAUTHENTICATED_DATA.warn("Received stream trace from unauthenticated client {}",
+                    ctx.channel().remoteAddress());
+            ctx.close();
+            return;
+        }
+        StreamInfo stream = clientManager.getStream(ctx.channel(), msg.getChannelId());
+        if (stream != null) {
+            clientManager.getStreamTracer().complete(stream, msg.getData());
+        }
+    }
+
+    @Override
+    protected void handleDatagram(ChannelHandlerContext ctx, Message msg) {
+        if (!Boolean.TRUE.equals(authenticatedMap.get(ctx))) {
+            UNAUTHENTICATED_DATA.warn("Received data from unauthenticated client {}", ctx.channel().remoteAddress());
+            ctx.close();
+            return;
+        }
+        clientManager.handleClientDatagram(ctx.channel(), msg);
+    }
+
+    @Override
+    protected void handleDisconnect(ChannelHandlerContext ctx, Message msg) {
+        if (!Boolean.TRUE.equals(authenticatedMap.get(ctx))) {
+            UNAUTHENTICATED_DATA.warn("Received disconnect from unauthenticated client {}",
+                    ctx.channel().remoteAddress());
+            ctx.close();
+            return;
+        }
+        // 客户端本地连接已断开，关闭该隧道上的外部连接
+        clientManager.handleClientDisconnect(ctx.channel(), msg.getChannelId());
+    }
+
+    /**
+     * 协商协议版本，取双方支持的最高版本中较小者
+     *
+     * @param clientVersion 客户端上报的版本，旧版本客户端为空
+     * @return 协商后的版本
+     */
+    private int negotiateVersion(String clientVersion) {
+        if (clientVersion == null) {
+            return ProtocolConstants.VERSION_1;
+        }
+        try {
+            return Math.max(ProtocolConstants.VERSION_1,
+                    Math.min(Integer.parseInt(clientVersion.trim()), ProtocolConstants.VERSION));
+        } catch (NumberFormatException e) {
+            return ProtocolConstants.VERSION_1;
+        }
+    }
+
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
-        boolean authenticated = authenticatedMap.computeIfAbsent(ctx, p -> false);
-        if (authenticated) {
+        Boolean authenticated = authenticatedMap.remove(ctx);
+        if (Boolean.TRUE.equals(authenticated)) {
+            if (clientManager.detachClient(ctx.channel())) {
+                // 会话保留到宽限期结束，等待客户端恢复
+                return;
+            }
             ClientInfo info = clientManager.unregisterClient(ctx.channel());
             if (info != null && !CollectionUtils.isEmpty(info.getPortMappings())) {
                 info.getPortMappings().forEach(portMapping -> {
@@ -3,26 +3,56 @@ package top.aixmax.penetrate.server.manager;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.socket.DatagramPacket;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.util.CollectionUtils;
 import top.aixmax.penetrate.client.config.PortMapping;
 import top.aixmax.penetrate.common.constants.ProtocolConstants;
-import top.aixmax.penetrate.common.enums.MessageType;
+import top.aixmax.penetrate.core.compress.FrameCompressor;
+import top.aixmax.penetrate.core.compress.PayloadCodec;
+import top.aixmax.penetrate.core.flow.BackpressureMode;
+import top.aixmax.penetrate.core.flow.PauseReason;
+import top.aixmax.penetrate.core.flow.ReadGate;
+import top.aixmax.penetrate.core.flow.TunnelBackpressure;
+import top.aixmax.penetrate.core.jfr.RelayEvents;
+import top.aixmax.penetrate.core.log.DataPlaneDebug;
+import top.aixmax.penetrate.core.log.RateLimitedLog;
+import top.aixmax.penetrate.core.memory.MemoryBudget;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+import top.aixmax.penetrate.core.metrics.TrafficMeter;
+import top.aixmax.penetrate.core.protocol.DataFrameWriter;
+import top.aixmax.penetrate.core.protocol.FrameCodec;
 import top.aixmax.penetrate.core.protocol.Message;
+import top.aixmax.penetrate.core.protocol.MessageFactory;
+import top.aixmax.penetrate.core.resume.SessionResume;
+import top.aixmax.penetrate.core.resume.StreamReplay;
+import top.aixmax.penetrate.core.transport.DeferredFlush;
+import top.aixmax.penetrate.server.cluster.ClusterNode;
 import top.aixmax.penetrate.server.config.ServerConfig;
 import top.aixmax.penetrate.server.model.ClientInfo;
+import top.aixmax.penetrate.server.model.DatagramSession;
+import top.aixmax.penetrate.server.model.StreamInfo;
+import top.aixmax.penetrate.server.model.StreamTrace;
 
-import java.nio.ByteBuffer;
+import java.net.InetSocketAddress;
+import java.security.SecureRandom;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.stream.Collectors;
 
 /**
@@ -33,6 +63,17 @@ import java.util.stream.Collectors;
 @Slf4j
 public class ClientManager {
 
+    private static final RateLimitedLog NO_ACTIVE_CLIENT = RateLimitedLog.of(log, "server.no-active-client");
+
+    private static final SecureRandom RESUME_TOKENS = new SecureRandom();
+
+    private static final RateLimitedLog DATAGRAM_SESSIONS_FULL = RateLimitedLog.of(log, "server.datagram-sessions-full");
+
+    /**
+     * 超过客户端带宽限制时外部连接暂停读取的时长
+     */
+    private static final long THROTTLE_PAUSE_MILLIS = 50;
+
     private final ServerConfig config;
 
     // 客户端ID与客户端映射
@@ -40,134 +81,491 @@ public class ClientManager {
 
     // 远程端口 -> 客户端信息
     private final Map<Integer, List<ClientInfo>> portClientMappings = new ConcurrentHashMap<>();
-    // 外部Channel ID -> 端口映射信息
-    private final Map<String, PortMappingInfo> externalChannels = new ConcurrentHashMap<>();
 
+    /**
+     * 远程端口 -> 客户端列表，与 portClientMappings 共用同一个列表，新连接按端口下标直接查找
+     */
+    private final AtomicReferenceArray<List<ClientInfo>> portClientTable =
+            new AtomicReferenceArray<>(ProtocolConstants.PORT_LIMIT);
     private final Map<Channel, ClientInfo> channelMap = new ConcurrentHashMap<>();
 
-    // 服务端外网管道映射
-    private final Map<String, Channel> serverChannelMap = new ConcurrentHashMap<>();
+    // 流ID -> 外部连接
+    private final Map<Integer, StreamInfo> streams = new ConcurrentHashMap<>();
+
+    // 会话ID -> UDP会话，与流共用ID编号
+    private final Map<Integer, DatagramSession> datagramSessions = new ConcurrentHashMap<>();
+
+    private final AtomicInteger channelIntId = new AtomicInteger(1000);
+
+    private final RelayMetrics metrics;
+
+    private final StreamTracer streamTracer;
+
+    private final MemoryBudget memoryBudget;
+
+    private final PendingConnections pendingConnections;
+
+    /**
+     * 本地客户端注册、注销时通知，集群节点据此更新上报给其他节点的端口
+     */
+    private final List<Runnable> membershipListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 排空中，不再接受新的外部连接和UDP会话
+     */
+    private volatile boolean draining;
 
     public ClientManager(ServerConfig config) {
+        this(config, RelayMetrics.NOOP);
+    }
+
+    public ClientManager(ServerConfig config, RelayMetrics metrics) {
         this.config = config;
+        this.metrics = metrics;
+        this.streamTracer = new StreamTracer(config.getStreamTraceSampleRate(), metrics);
+        this.memoryBudget = new MemoryBudget(config.getMemoryBudget(), metrics);
+        this.pendingConnections = new PendingConnections(config.getPendingConnectionTimeout(),
+                config.getMaxPendingConnections(), metrics);
+        metrics.gaugeMemory(memoryBudget);
+        metrics.gaugeOpenStreams(streams, Map::size);
+        metrics.gaugeDatagramSessions(datagramSessions, Map::size);
+        metrics.gaugePendingOutbound(channelMap::keySet);
     }
 
-    private final Map<Integer, String> idMap = new ConcurrentHashMap<>();
+    public ServerConfig getConfig() {
+        return config;
+    }
 
-    private final AtomicInteger channelIntId = new AtomicInteger(1000);
+    public RelayMetrics getMetrics() {
+        return metrics;
+    }
+
+    public StreamTracer getStreamTracer() {
+        return streamTracer;
+    }
 
     /**
-     * 处理外部请求数据
+     * 处理新的外部连接，选择客户端并通知其建立本地连接
      */
-    public void handleExternalData(Channel externalChannel, ByteBuf data, int port) {
-        String channelId = externalChannel.id().asLongText();
-        int tempId = -1;
-        if (!idMap.containsValue(channelId)) {
-            tempId = this.channelIntId.addAndGet(1);
-            idMap.put(tempId, channelId);
-            serverChannelMap.put(channelId, externalChannel);
-        } else {
-            for (Map.Entry<Integer, String> entry : idMap.entrySet()) {
-                if (channelId.equals(entry.getValue())) {
-                    tempId = entry.getKey();
-                }
-            }
+    public void handleExternalConnect(Channel externalChannel, int port) {
+        if (draining) {
+            externalChannel.close();
+            return;
         }
-        if (tempId == -1) {
+        StreamTrace trace = streamTracer.sample();
+        // 其他节点转发来的连接只交给本地客户端，避免在节点间循环
+        ClientInfo clientInfo = selectClient(port, !externalChannel.hasAttr(ClusterNode.RELAYED));
+        if (clientInfo == null) {
+            // 客户端重连期间暂存，注册或恢复后继续
+            if (!pendingConnections.offer(externalChannel, port)) {
+                NO_ACTIVE_CLIENT.warn("No Client is active for port {}", port);
+                externalChannel.close();
+            }
             return;
         }
-        List<ClientInfo> clientInfos = portClientMappings.get(port);
 
+        int streamId = channelIntId.incrementAndGet();
+        StreamReplay replay = clientInfo.getResumeToken() == 0 ? null
+                : StreamReplay.create(config.getReplayBufferSize(), clientInfo.getResume().getReplayBufferSize());
+        StreamInfo stream = new StreamInfo(streamId, port, externalChannel, clientInfo, metrics.portMeter(port),
+                trace, replay);
+        externalChannel.attr(StreamInfo.STREAM).set(stream);
+        streams.put(streamId, stream);
+        clientInfo.getStreams().put(streamId, stream);
+
+        ChannelFuture future = FrameCodec.send(clientInfo.getChannel(),
+                MessageFactory.createConnectMessage(streamId, port, trace != null));
+        if (trace != null) {
+            future.addListener(f -> trace.markConnectWritten());
+        }
+        RelayEvents.streamOpened(streamId, port, clientInfo.getClientId());
+        if (DataPlaneDebug.isEnabled(clientInfo.getClientId(), streamId)) {
+            DataPlaneDebug.LOG.debug("Stream {} on port {} bound to client {}", streamId, port, clientInfo.getClientId());
+        }
+    }
+
+    /**
+     * 客户端注册或恢复会话后，将其映射端口上等待的外部连接分派给它（或同端口的其他可用客户端）。
+     * 在注册确认发出后调用，分派在各外部连接的事件循环中执行，建立流之后才恢复读取
+     *
+     * @param info 注册或恢复的客户端
+     */
+    public void dispatchPending(ClientInfo info) {
+        for (PortMapping mapping : info.getPortMappings()) {
+            if ("udp".equalsIgnoreCase(mapping.getProtocol())) {
+                continue;
+            }
+            int port = mapping.getRemotePort();
+            List<Channel> pending = pendingConnections.drain(port);
+            for (Channel channel : pending) {
+                channel.eventLoop().execute(() -> {
+                    if (!channel.isActive()) {
+                        return;
+                    }
+                    handleExternalConnect(channel, port);
+                    // 客户端又已断开时重新入队，保持暂停
+                    if (channel.attr(StreamInfo.STREAM).get() != null) {
+                        ReadGate.of(channel, metrics).resume(PauseReason.PENDING);
+                    }
+                });
+            }
+            if (!pending.isEmpty()) {
+                log.info("Dispatched {} waiting connections on port {} to client {}", pending.size(), port,
+                        info.getClientId());
+            }
+        }
+    }
+
+    /**
+     * 选择端口对应的活跃客户端：优先本地客户端，没有时才选择集群中的其他节点；
+     * 优先排序值最小的客户端，排序相同时选择最近10秒流量最低的
+     *
+     * @param allowPeers 是否可以选择其他节点
+     */
+    private ClientInfo selectClient(int port, boolean allowPeers) {
+        List<ClientInfo> clientInfos = clientsOf(port);
         if (CollectionUtils.isEmpty(clientInfos)) {
-            log.warn("No Client is active");
-            externalChannel.close();
-            return;
+            return null;
         }
+        ClientInfo selected = selectClient(clientInfos, false);
+        return selected == null && allowPeers ? selectClient(clientInfos, true) : selected;
+    }
 
-        ClientInfo clientInfo = null;
+    private static ClientInfo selectClient(List<ClientInfo> clientInfos, boolean peer) {
+        ClientInfo selected = null;
+        double selectedRate = 0;
         for (ClientInfo info : clientInfos) {
-            if (info.isActive()) {
-                clientInfo = info;
+            if (info.isPeer() != peer || !info.isActive()) {
+                continue;
+            }
+            // 列表按排序值有序，只在同一优先级内均衡
+            if (selected != null && info.getSort() != selected.getSort()) {
                 break;
             }
+            double rate = info.getTransferRate(TrafficMeter.DEFAULT_WINDOW_SECONDS);
+            if (selected == null || rate < selectedRate) {
+                selected = info;
+                selectedRate = rate;
+            }
         }
+        return selected;
+    }
 
-        if (clientInfo == null) {
-            log.warn("Non Client Active");
+    /**
+     * 处理外部请求数据
+     */
+    public void handleExternalData(Channel externalChannel, ByteBuf data, int port) {
+        StreamInfo stream = externalChannel.attr(StreamInfo.STREAM).get();
+        if (stream == null || (!stream.getClient().isActive() && !stream.getClient().isDetached())) {
+            NO_ACTIVE_CLIENT.warn("No Client is active for port {}", port);
+            externalChannel.close();
+            return;
+        }
+
+        ClientInfo clientInfo = stream.getClient();
+        int length = data.readableBytes();
+        if (DataPlaneDebug.isEnabled(clientInfo.getClientId(), stream.getStreamId())) {
+            DataPlaneDebug.LOG.debug("Forwarded {} bytes to client {} for stream {}",
+                    length, clientInfo.getClientId(), stream.getStreamId());
+        }
+
+        // 按最大负载分片发送数据到客户端，支持恢复的流同时保留到对端确认
+        StreamReplay replay = stream.getReplay();
+        int frames = replay == null ? forward(stream, data) : replay.send(data, payload -> forward(stream, payload));
+        clientInfo.getTraffic().recordOut(length, frames);
+        stream.getPortMeter().recordOut(length, frames);
+        stream.addBytesOut(length);
+        if (replay != null) {
+            if (frames == 0) {
+                // 隧道已断开，数据留在重放缓冲区，读取已在断开时暂停
+                return;
+            }
+            if (replay.isFull()) {
+                ReadGate.of(externalChannel, metrics).pause(PauseReason.REPLAY);
+            }
+        }
+
+        // 隧道不可写时暂停读取外部连接
+        TunnelBackpressure backpressure = backpressure(clientInfo.getChannel());
+        if (backpressure != null) {
+            backpressure.afterTunnelWrite(externalChannel);
+        }
+        // 隧道积压超过客户端额度时暂停读取外部连接
+        if (clientInfo.getMemory().pauseIfExhausted(externalChannel)) {
             return;
         }
+        if (config.isEnableTrafficControl()
+                && clientInfo.getTraffic().getBytesOutRate(1) > config.getMaxBytesPerSecond()) {
+            throttle(externalChannel);
+        }
+    }
 
-        // 构建数据包
-        byte[] payload = new byte[data.readableBytes()];
-        data.readBytes(payload);
+    /**
+     * 将流的数据写入客户端当前的隧道
+     *
+     * @return 写出的帧数
+     */
+    private int forward(StreamInfo stream, ByteBuf data) {
+        ClientInfo clientInfo = stream.getClient();
+        int port = stream.getRemotePort();
+        return DataFrameWriter.writeData(clientInfo.getChannel(), stream.getStreamId(), port, data,
+                config.getMaxFramePayload(), clientInfo.getMemory(), clientInfo.getCompressors().get(port));
+    }
 
-        // 数据包格式：
-        Message msg = new Message();
-        msg.setType(MessageType.DATA);
-        msg.setExternalPort(port);
-        msg.setChannelId(tempId);
-        msg.setData(payload);
+    /**
+     * 客户端下行速率超过限制时暂停读取外部连接，稍后恢复
+     */
+    private void throttle(Channel externalChannel) {
+        ReadGate gate = ReadGate.of(externalChannel, metrics);
+        if (gate.pause(PauseReason.THROTTLE)) {
+            externalChannel.eventLoop().schedule(() -> gate.resume(PauseReason.THROTTLE),
+                    THROTTLE_PAUSE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 隧道数据写入外部连接后调用，外部连接不可写时暂停读取隧道
+     */
+    public void afterExternalWrite(Channel tunnel, Channel externalChannel) {
+        TunnelBackpressure backpressure = backpressure(tunnel);
+        if (backpressure != null) {
+            backpressure.afterDestinationWrite(externalChannel);
+        }
+    }
 
-        // 发送数据到客户端
-        clientInfo.getChannel().writeAndFlush(
-                Unpooled.wrappedBuffer(msg.getBytes())
-        );
+    /**
+     * 外部连接恢复可写
+     */
+    public void handleExternalWritable(Channel externalChannel) {
+        StreamInfo stream = externalChannel.attr(StreamInfo.STREAM).get();
+        if (stream == null) {
+            return;
+        }
+        TunnelBackpressure backpressure = TunnelBackpressure.get(stream.getClient().getChannel());
+        if (backpressure != null) {
+            backpressure.destinationWritable(externalChannel);
+        }
+    }
 
-        log.debug("Forwarded {} bytes to client {} for port {}",
-                payload.length, clientInfo.getClientId(), port);
+    /**
+     * 本地背压模式下隧道的背压状态，其他模式返回null
+     */
+    private TunnelBackpressure backpressure(Channel tunnel) {
+        if (config.getBackpressureMode() != BackpressureMode.LOCAL || tunnel == null) {
+            return null;
+        }
+        return TunnelBackpressure.of(tunnel, metrics);
     }
 
     /**
      * 处理外部连接断开
      */
     public void handleExternalDisconnect(Channel externalChannel) {
-        String channelId = externalChannel.id().asLongText();
-        PortMappingInfo mappingInfo = externalChannels.remove(channelId);
-
-        if (mappingInfo != null) {
-            List<ClientInfo> clientInfos = portClientMappings.get(mappingInfo.getRemotePort());
-            if (!CollectionUtils.isEmpty(clientInfos)) {
-                for (ClientInfo clientInfo : clientInfos) {
-                    if (clientInfo != null && clientInfo.isActive()) {
-                        // 发送连接断开通知到客户端
-                        ByteBuffer buffer = ByteBuffer.allocate(16);
-                        buffer.putInt(mappingInfo.getRemotePort());
-                        buffer.putLong(Long.parseLong(channelId));
-                        buffer.putInt(0); // 数据长度为0表示断开连接
-
-                        clientInfo.getChannel().writeAndFlush(
-                                Unpooled.wrappedBuffer(buffer.array())
-                        );
-
-                        log.debug("Notified client {} about disconnection for port {}",
-                                clientInfo.getClientId(), mappingInfo.getRemotePort());
-                    }
-                }
+        StreamInfo stream = externalChannel.attr(StreamInfo.STREAM).get();
+        if (stream == null || streams.remove(stream.getStreamId()) == null) {
+            return;
+        }
+        streamClosed(stream);
+
+        ClientInfo clientInfo = stream.getClient();
+        if (clientInfo.isActive()) {
+            // 发送连接断开通知到客户端
+            FrameCodec.send(clientInfo.getChannel(), MessageFactory.createDisconnectMessage(stream.getStreamId()));
+            if (DataPlaneDebug.isEnabled(clientInfo.getClientId(), stream.getStreamId())) {
+                DataPlaneDebug.LOG.debug("Notified client {} about disconnection of stream {}",
+                        clientInfo.getClientId(), stream.getStreamId());
             }
         }
     }
 
     /**
-     * 获取外部服务管道
+     * 客户端通知本地连接断开，关闭外部连接，只处理由该隧道承载的流和会话
      *
-     * @param channelIntId 管道ID
-     * @return 外部服务管道
+     * @param tunnel   发送通知的隧道
+     * @param streamId 流ID
      */
-    public Channel getServerChannel(Integer channelIntId) {
-        return serverChannelMap.get(idMap.get(channelIntId));
+    public void handleClientDisconnect(Channel tunnel, int streamId) {
+        StreamInfo stream = getStream(tunnel, streamId);
+        if (stream != null) {
+            if (streams.remove(streamId, stream)) {
+                streamClosed(stream);
+                stream.getExternalChannel().close();
+            }
+            return;
+        }
+        DatagramSession session = datagramSessions.get(streamId);
+        if (session != null && session.getClient().getChannel() == tunnel) {
+            closeDatagramSession(session, false);
+        }
     }
 
-    // 内部类：端口映射信息
-    @Data
-    private static class PortMappingInfo {
-        private final int remotePort;
-        private final long createTime;
+    private static void streamClosed(StreamInfo stream) {
+        stream.getClient().getStreams().remove(stream.getStreamId(), stream);
+        if (stream.getReplay() != null) {
+            stream.getReplay().release();
+        }
+        stream.getClient().getMemory().remove(stream.getExternalChannel());
+        TunnelBackpressure backpressure = TunnelBackpressure.get(stream.getClient().getChannel());
+        if (backpressure != null) {
+            backpressure.destinationWritable(stream.getExternalChannel());
+            backpressure.sourceClosed(stream.getExternalChannel());
+        }
+        RelayEvents.streamClosed(stream.getStreamId(), stream.getRemotePort(), stream.getClient().getClientId(),
+                System.currentTimeMillis() - stream.getCreateTime(), stream.getBytesIn(), stream.getBytesOut());
+    }
+
+    /**
+     * 外部来源的首个数据报到达时建立会话，超过端口会话上限或无可用客户端时丢弃
+     *
+     * @param listener 远程端口的数据报监听管道
+     * @param sender   来源地址
+     * @param port     远程端口
+     * @param table    端口的会话表
+     * @return 会话，无法建立时返回null
+     */
+    public DatagramSession openDatagramSession(Channel listener, InetSocketAddress sender, int port,
+                                               Map<InetSocketAddress, DatagramSession> table) {
+        if (draining) {
+            metrics.datagramsDropped().increment();
+            return null;
+        }
+        if (table.size() >= config.getMaxDatagramSessions()) {
+            DATAGRAM_SESSIONS_FULL.warn("Datagram sessions on port {} reached the limit", port);
+            metrics.datagramsDropped().increment();
+            return null;
+        }
+        // 集群节点之间只转发TCP流
+        ClientInfo clientInfo = selectClient(port, false);
+        if (clientInfo == null) {
+            NO_ACTIVE_CLIENT.warn("No Client is active for port {}", port);
+            metrics.datagramsDropped().increment();
+            return null;
+        }
+        int sessionId = channelIntId.incrementAndGet();
+        DatagramSession session = new DatagramSession(sessionId, port, sender, listener, clientInfo,
+                metrics.portMeter(port), table);
+        datagramSessions.put(sessionId, session);
+        table.put(sender, session);
+        RelayEvents.streamOpened(sessionId, port, clientInfo.getClientId());
+        if (DataPlaneDebug.isEnabled(clientInfo.getClientId(), sessionId)) {
+            DataPlaneDebug.LOG.debug("Datagram session {} from {} on port {} bound to client {}",
+                    sessionId, sender, port, clientInfo.getClientId());
+        }
+        return session;
+    }
+
+    /**
+     * 外部数据报写入隧道，隧道不可写时丢弃而不是缓冲
+     *
+     * @return 写入的隧道，由调用方在读取结束后flush；丢弃时返回null
+     */
+    public Channel handleExternalDatagram(DatagramSession session, ByteBuf content) {
+        ClientInfo clientInfo = session.getClient();
+        Channel tunnel = clientInfo.getChannel();
+        if (!tunnel.isWritable()) {
+            metrics.datagramsDropped().increment();
+            return null;
+        }
+        int length = content.readableBytes();
+        DataFrameWriter.writeDatagram(tunnel, session.getSessionId(), session.getRemotePort(), content);
+        clientInfo.getTraffic().recordOut(length, 1);
+        session.getPortMeter().recordOut(length, 1);
+        session.addBytesOut(length);
+        if (DataPlaneDebug.isEnabled(clientInfo.getClientId(), session.getSessionId())) {
+            DataPlaneDebug.LOG.debug("Forwarded datagram of {} bytes to client {} for session {}",
+                    length, clientInfo.getClientId(), session.getSessionId());
+        }
+        return tunnel;
+    }
+
+    /**
+     * 客户端返回的数据报发往外部来源，在隧道读取结束后统一flush
+     *
+     * @param tunnel 隧道
+     * @param msg    DATAGRAM消息
+     */
+    public void handleClientDatagram(Channel tunnel, Message msg) {
+        DatagramSession session = datagramSessions.get(msg.getChannelId());
+        // 只接受承载该会话的客户端返回的数据报
+        if (session == null || session.getClient().getChannel() != tunnel || !session.getListener().isActive()) {
+            metrics.datagramsDropped().increment();
+            return;
+        }
+        int length = msg.getData().length;
+        session.getClient().getTraffic().recordIn(length);
+        session.getPortMeter().recordIn(length);
+        session.addBytesIn(length);
+        session.getListener().write(new DatagramPacket(Unpooled.wrappedBuffer(msg.getData()), session.getSender()));
+        DeferredFlush.add(tunnel, session.getListener());
+    }
 
-        public PortMappingInfo(int remotePort) {
-            this.remotePort = remotePort;
-            this.createTime = System.currentTimeMillis();
+    /**
+     * 移除UDP会话
+     *
+     * @param session      会话
+     * @param notifyClient 是否通知客户端关闭本地会话
+     */
+    public void closeDatagramSession(DatagramSession session, boolean notifyClient) {
+        if (datagramSessions.remove(session.getSessionId()) == null) {
+            return;
         }
+        session.getTable().remove(session.getSender(), session);
+        RelayEvents.streamClosed(session.getSessionId(), session.getRemotePort(), session.getClient().getClientId(),
+                System.currentTimeMillis() - session.getCreateTime(), session.getBytesIn(), session.getBytesOut());
+        ClientInfo clientInfo = session.getClient();
+        if (notifyClient && clientInfo.isActive()) {
+            FrameCodec.send(clientInfo.getChannel(), MessageFactory.createDisconnectMessage(session.getSessionId()));
+        }
+    }
+
+    /**
+     * UDP会话表的只读视图
+     */
+    public Map<Integer, DatagramSession> getDatagramSessions() {
+        return Collections.unmodifiableMap(datagramSessions);
+    }
+
+    /**
+     * 客户端表的只读视图，遍历为弱一致，不阻塞注册和注销
+     */
+    public Map<String, ClientInfo> getClients() {
+        return Collections.unmodifiableMap(clients);
+    }
+
+    /**
+     * 远程端口表的只读视图，端口对应的客户端按排序值有序
+     */
+    public Map<Integer, List<ClientInfo>> getPortClients() {
+        return Collections.unmodifiableMap(portClientMappings);
+    }
+
+    /**
+     * 流表的只读视图
+     */
+    public Map<Integer, StreamInfo> getStreams() {
+        return Collections.unmodifiableMap(streams);
+    }
+
+    /**
+     * 获取外部连接
+     *
+     * @param channelIntId 管道ID
+     * @return 外部连接，不存在时返回null
+     */
+    public StreamInfo getStream(int channelIntId) {
+        return streams.get(channelIntId);
+    }
 
+    /**
+     * 获取由该隧道承载的外部连接，其他隧道的流视为不存在，客户端不能按猜测的流ID操作其他客户端的连接
+     *
+     * @param tunnel   隧道
+     * @param streamId 流ID
+     * @return 外部连接，不存在或不属于该隧道时返回null
+     */
+    public StreamInfo getStream(Channel tunnel, int streamId) {
+        StreamInfo stream = streams.get(streamId);
+        return stream != null && stream.getClient().getChannel() == tunnel ? stream : null;
     }
 
     /**
@@ -185,22 +583,527 @@ public class ClientManager {
                 log.warn("Client {} already registered and active", info.getClientId());
                 return false;
             }
-            // 如果已存在但不活跃，先移除旧的
-            unregisterClient(existingClient.getChannel());
+            if (discardSession(existingClient)) {
+                log.info("Client {} started a new session, closed the held streams", info.getClientId());
+            } else {
+                // 如果已存在但不活跃，先移除旧的
+                unregisterClient(existingClient.getChannel());
+            }
         }
 
+        info.setPeer(info.getClientId().startsWith(ClusterNode.PEER_PREFIX));
+        info.setTraffic(metrics.clientMeter(info.getClientId()));
+        info.setMemory(memoryBudget.account(config.getClientMemoryQuota()));
+        metrics.gaugeBuffered(info.getTraffic(), info.getClientId(), info.getMemory());
         clients.put(info.getClientId(), info);
         channelMap.put(channel, info);
         info.getPortMappings().forEach((portInfo) -> {
-            List<ClientInfo> clientInfoList = portClientMappings
-                    .computeIfAbsent(portInfo.getRemotePort(), p -> new CopyOnWriteArrayList<>());
+            List<ClientInfo> clientInfoList = portClients(portInfo.getRemotePort());
             clientInfoList.add(info);
             clientInfoList.sort(Comparator.comparingInt(ClientInfo::getSort));
         });
         log.info("Client registered: {}", info.getClientId());
+        membershipChanged(info);
         return true;
     }
 
+    /**
+     * 运行时新增或修改客户端的映射，按远程端口和协议覆盖原映射，该端口上已有的流不受影响
+     *
+     * @param info    客户端
+     * @param mapping 映射
+     * @return 接受的压缩算法，不压缩时为none
+     */
+    public PayloadCodec putMapping(ClientInfo info, PortMapping mapping) {
+        PayloadCodec codec = PayloadCodec.NONE;
+        if (config.isEnableCompression() && !"udp".equalsIgnoreCase(mapping.getProtocol())) {
+            try {
+                codec = PayloadCodec.parse(mapping.getCompression());
+            } catch (IllegalArgumentException e) {
+                log.warn("Client {} requested {} on port {}, not compressing", info.getClientId(),
+                        mapping.getCompression(), mapping.getRemotePort());
+            }
+        }
+        int port = mapping.getRemotePort();
+        info.getPortMappings().removeIf(m -> m.getRemotePort() == port
+                && m.getProtocol().equalsIgnoreCase(mapping.getProtocol()));
+        info.getPortMappings().add(mapping);
+        if (!"udp".equalsIgnoreCase(mapping.getProtocol())) {
+            updateCompressor(info, port, codec);
+        }
+        List<ClientInfo> clientInfoList = portClients(port);
+        if (!clientInfoList.contains(info)) {
+            clientInfoList.add(info);
+            clientInfoList.sort(Comparator.comparingInt(ClientInfo::getSort));
+        }
+        log.info("Client {} mapped port {}/{}, compression {}", info.getClientId(), port, mapping.getProtocol(),
+                codec);
+        membershipChanged(info);
+        dispatchPending(info);
+        return codec;
+    }
+
+    /**
+     * 运行时删除客户端的映射，该端口上已建立的流继续到结束，新的外部连接不再分给该客户端
+     *
+     * @param info     客户端
+     * @param port     远程端口
+     * @param protocol 协议
+     */
+    public void removeMapping(ClientInfo info, int port, String protocol) {
+        boolean removed = info.getPortMappings().removeIf(m -> m.getRemotePort() == port
+                && m.getProtocol().equalsIgnoreCase(protocol));
+        if (!removed) {
+            return;
+        }
+        if (!"udp".equalsIgnoreCase(protocol)) {
+            updateCompressor(info, port, PayloadCodec.NONE);
+        }
+        if (info.getPortMappings().stream().noneMatch(m -> m.getRemotePort() == port)) {
+            List<ClientInfo> clientInfoList = clientsOf(port);
+            if (clientInfoList != null) {
+                clientInfoList.remove(info);
+            }
+        }
+        log.info("Client {} unmapped port {}/{}", info.getClientId(), port, protocol);
+        membershipChanged(info);
+    }
+
+    /**
+     * 替换一个端口的压缩器，压缩器表整体替换，转发线程读到的总是完整的表
+     */
+    private void updateCompressor(ClientInfo info, int port, PayloadCodec codec) {
+        Map<Integer, FrameCompressor> compressors = new HashMap<>(info.getCompressors());
+        FrameCompressor previous = codec == PayloadCodec.NONE ? compressors.remove(port) : compressors.get(port);
+        if (codec != PayloadCodec.NONE && (previous == null || previous.getCodec() != codec)) {
+            compressors.put(port, metrics.compressor(codec, port, info.getClientId()));
+        }
+        info.setCompressors(compressors);
+        if (previous != null && compressors.get(port) != previous) {
+            previous.remove(metrics.getRegistry());
+        }
+    }
+
+    /**
+     * 是否还有客户端（包括等待恢复会话的）以该协议映射了端口，没有时可以解绑监听
+     */
+    public boolean isMapped(int port, String protocol) {
+        List<ClientInfo> clientInfoList = clientsOf(port);
+        if (clientInfoList == null) {
+            return false;
+        }
+        for (ClientInfo info : clientInfoList) {
+            for (PortMapping mapping : info.getPortMappings()) {
+                if (mapping.getRemotePort() == port && mapping.getProtocol().equalsIgnoreCase(protocol)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 端口的客户端列表，不存在时创建，列表创建后不再移除
+     */
+    private List<ClientInfo> portClients(int port) {
+        List<ClientInfo> clientInfoList = portClientMappings.computeIfAbsent(port, p -> new CopyOnWriteArrayList<>());
+        if (port > 0 && port < ProtocolConstants.PORT_LIMIT) {
+            portClientTable.set(port, clientInfoList);
+        }
+        return clientInfoList;
+    }
+
+    private List<ClientInfo> clientsOf(int port) {
+        return port > 0 && port < ProtocolConstants.PORT_LIMIT ? portClientTable.get(port)
+                : portClientMappings.get(port);
+    }
+
+    /**
+     * 注册本地客户端变化的监听
+     */
+    public void addMembershipListener(Runnable listener) {
+        membershipListeners.add(listener);
+    }
+
+    private void membershipChanged(ClientInfo info) {
+        if (!info.isPeer()) {
+            membershipListeners.forEach(Runnable::run);
+        }
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * 开始排空：拒绝新的外部连接和UDP会话，关闭等待中的外部连接，通知全部客户端连接其他服务端
+     *
+     * @param remainingMillis 距强制关闭的毫秒数，随通知发给客户端
+     */
+    public void startDraining(long remainingMillis) {
+        draining = true;
+        pendingConnections.closeAll();
+        for (ClientInfo info : clients.values()) {
+            if (info.isActive()) {
+                FrameCodec.send(info.getChannel(), MessageFactory.createGoAwayMessage(remainingMillis));
+            }
+        }
+    }
+
+    /**
+     * 排空中剩余的TCP流和UDP会话数
+     */
+    public int remainingStreams() {
+        return streams.size() + datagramSessions.size();
+    }
+
+    /**
+     * 关闭已没有流的客户端隧道，排空期间定期调用，客户端随后在其他服务端上注册
+     */
+    public void closeIdleTunnels() {
+        for (ClientInfo info : clients.values()) {
+            if (info.isActive() && info.getStreams().isEmpty()) {
+                info.getChannel().close();
+            }
+        }
+    }
+
+    /**
+     * 排空期限已到，关闭全部外部连接、UDP会话和隧道
+     */
+    public void closeAll() {
+        for (StreamInfo stream : streams.values()) {
+            stream.getExternalChannel().close();
+        }
+        for (DatagramSession session : datagramSessions.values()) {
+            closeDatagramSession(session, false);
+        }
+        for (ClientInfo info : clients.values()) {
+            if (info.isActive()) {
+                info.getChannel().close();
+            }
+        }
+    }
+
+    /**
+     * 本地客户端（不含其他节点）持有的TCP端口，包括等待恢复会话的客户端
+     */
+    public Set<Integer> localPorts() {
+        Set<Integer> ports = new TreeSet<>();
+        for (ClientInfo info : clients.values()) {
+            if (info.isPeer()) {
+                continue;
+            }
+            for (PortMapping mapping : info.getPortMappings()) {
+                if (!"udp".equalsIgnoreCase(mapping.getProtocol())) {
+                    ports.add(mapping.getRemotePort());
+                }
+            }
+        }
+        return ports;
+    }
+
+    /**
+     * 为请求会话恢复的客户端分配令牌，需在注册前调用，注册后建立的流都带重放缓冲
+     *
+     * @param info 注册消息解码的客户端信息
+     * @return 注册确认中返回的会话恢复信息，客户端不支持或服务端关闭了恢复时返回null
+     */
+    public SessionResume issueResumeToken(ClientInfo info) {
+        if (info.getResume() == null || config.getSessionResumeTimeout() <= 0) {
+            return null;
+        }
+        long token;
+        do {
+            token = RESUME_TOKENS.nextLong();
+        } while (token == 0);
+        info.setResumeToken(token);
+        return new SessionResume(token, false, config.getSessionResumeTimeout(), config.getReplayBufferSize(),
+                Collections.emptyMap());
+    }
+
+    /**
+     * 按注册消息中的令牌恢复会话：客户端换用新隧道，原有的流继续由它承载
+     *
+     * @param request 注册消息解码的客户端信息
+     * @param channel 新隧道
+     * @return 恢复的客户端，没有令牌、令牌不匹配或会话已过期时返回null
+     */
+    public ClientInfo resumeClient(ClientInfo request, Channel channel) {
+        SessionResume resume = request.getResume();
+        if (resume == null || resume.getToken() == 0) {
+            return null;
+        }
+        ClientInfo info = clients.get(request.getClientId());
+        if (info == null || info.getResumeToken() != resume.getToken()) {
+            metrics.sessionResume("rejected").increment();
+            log.info("Client {} cannot resume, session expired or unknown", request.getClientId());
+            return null;
+        }
+        Channel old;
+        synchronized (info) {
+            old = info.getChannel();
+            if (!info.isDetached()) {
+                // 客户端已重连而旧隧道尚未断开（半开连接），先挂起再替换
+                detach(info);
+            }
+            info.setDetached(false);
+            info.setResumeGeneration(info.getResumeGeneration() + 1);
+            info.setChannel(channel);
+            info.updateHeartbeat();
+            channelMap.put(channel, info);
+        }
+        if (old.isActive()) {
+            old.close();
+        }
+        // 断开前最后一批写入可能又因旧隧道不可写暂停了外部连接
+        TunnelBackpressure backpressure = TunnelBackpressure.get(old);
+        if (backpressure != null) {
+            backpressure.tunnelWritable();
+        }
+        metrics.sessionResume("resumed").increment();
+        RelayEvents.registration("resume", info.getClientId(), channel, info.getPortMappings().size(), true);
+        return info;
+    }
+
+    /**
+     * 隧道断开时保留支持恢复的会话：挂起流的重放缓冲并暂停读取外部连接，宽限期到期后关闭
+     *
+     * @param channel 断开的隧道
+     * @return 是否已保留或已被新隧道接管，返回false时由调用方注销客户端
+     */
+    public boolean detachClient(Channel channel) {
+        ClientInfo info = channelMap.get(channel);
+        // 排空时客户端已转往其他服务端，不再保留会话
+        if (info == null || info.getResumeToken() == 0 || draining) {
+            return false;
+        }
+        synchronized (info) {
+            if (info.getChannel() == channel && !info.isDetached()) {
+                detach(info);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 挂起客户端的会话，调用方持有客户端的锁
+     */
+    private void detach(ClientInfo info) {
+        Channel channel = info.getChannel();
+        channelMap.remove(channel, info);
+        info.setDetached(true);
+        int generation = info.getResumeGeneration() + 1;
+        info.setResumeGeneration(generation);
+        for (StreamInfo stream : info.getStreams().values()) {
+            if (stream.getReplay() == null) {
+                stream.getExternalChannel().close();
+                continue;
+            }
+            stream.getReplay().hold();
+            ReadGate.of(stream.getExternalChannel(), metrics).pause(PauseReason.RESUME);
+        }
+        // 恢复因旧隧道不可写暂停的外部连接，它们仍因等待恢复而暂停
+        TunnelBackpressure backpressure = TunnelBackpressure.get(channel);
+        if (backpressure != null) {
+            backpressure.tunnelWritable();
+        }
+        channel.eventLoop().schedule(() -> expire(info, generation),
+                config.getSessionResumeTimeout(), TimeUnit.SECONDS);
+        RelayEvents.registration("detach", info.getClientId(), channel, info.getPortMappings().size(), true);
+        log.info("Client {} disconnected, holding {} streams for {}s", info.getClientId(),
+                info.getStreams().size(), config.getSessionResumeTimeout());
+    }
+
+    /**
+     * 宽限期到期，会话仍未恢复时关闭
+     */
+    private void expire(ClientInfo info, int generation) {
+        synchronized (info) {
+            if (!info.isDetached() || info.getResumeGeneration() != generation) {
+                return;
+            }
+            info.setDetached(false);
+        }
+        metrics.sessionResume("expired").increment();
+        log.info("Session of client {} expired, closing {} streams", info.getClientId(), info.getStreams().size());
+        release(info);
+    }
+
+    /**
+     * 客户端以新会话注册时丢弃等待恢复的旧会话
+     *
+     * @return 旧会话是否处于等待恢复
+     */
+    private boolean discardSession(ClientInfo info) {
+        synchronized (info) {
+            if (!info.isDetached()) {
+                return false;
+            }
+            info.setDetached(false);
+            info.setResumeGeneration(info.getResumeGeneration() + 1);
+        }
+        release(info);
+        return true;
+    }
+
+    /**
+     * 移除未恢复的会话并关闭其外部连接
+     */
+    private void release(ClientInfo info) {
+        clients.remove(info.getClientId(), info);
+        portClientMappings.forEach((port, clients) -> clients.remove(info));
+        removeMeters(info);
+        for (StreamInfo stream : info.getStreams().values()) {
+            stream.getExternalChannel().close();
+        }
+        RelayEvents.registration("unregister", info.getClientId(), info.getChannel(), info.getPortMappings().size(),
+                true);
+        membershipChanged(info);
+    }
+
+    /**
+     * 本端各流已交付给外部连接的偏移，恢复时返回给客户端
+     */
+    public Map<Integer, Long> receivedOffsets(ClientInfo info) {
+        Map<Integer, Long> offsets = new HashMap<>();
+        for (StreamInfo stream : info.getStreams().values()) {
+            if (stream.getReplay() != null) {
+                offsets.put(stream.getStreamId(), stream.getReplay().getReceivedOffset());
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * 恢复后按客户端上报的偏移重发各流未送达的数据并恢复读取，客户端已不存在的流关闭外部连接。
+     * 在新隧道的事件循环中、注册确认发出后调用
+     *
+     * @param info    恢复的客户端
+     * @param offsets 客户端各流已交付的偏移
+     */
+    public void replayStreams(ClientInfo info, Map<Integer, Long> offsets) {
+        int resumed = 0;
+        int closed = 0;
+        long bytes = 0;
+        for (StreamInfo stream : info.getStreams().values()) {
+            Long offset = offsets.get(stream.getStreamId());
+            StreamReplay replay = stream.getReplay();
+            long replayed = offset == null || replay == null ? -1
+                    : replay.resume(offset, payload -> forward(stream, payload));
+            if (replayed < 0) {
+                closed++;
+                stream.getExternalChannel().close();
+                continue;
+            }
+            resumed++;
+            bytes += replayed;
+            ReadGate gate = ReadGate.of(stream.getExternalChannel(), metrics);
+            gate.resume(PauseReason.RESUME);
+            if (replay.acknowledge(offset)) {
+                gate.resume(PauseReason.REPLAY);
+            }
+        }
+        metrics.replayed().increment(bytes);
+        log.info("Client {} resumed {} streams, replayed {} bytes, closed {}", info.getClientId(), resumed, bytes,
+                closed);
+    }
+
+    /**
+     * 外部数据写入后累计的确认达到阈值时回复客户端
+     */
+    public void acknowledgeIfDue(Channel tunnel, StreamInfo stream) {
+        long offset = stream.getReplay().takeAckIfDue();
+        if (offset >= 0) {
+            FrameCodec.send(tunnel, MessageFactory.createDataAckMessage(
+                    Collections.singletonMap(stream.getStreamId(), offset)));
+        }
+    }
+
+    /**
+     * 确认客户端所有流尚未确认的数据，随心跳发送，避免少量数据长期留在对端的重放缓冲区
+     */
+    public void acknowledgeAll(ClientInfo info) {
+        Map<Integer, Long> offsets = new HashMap<>();
+        for (StreamInfo stream : info.getStreams().values()) {
+            long offset = stream.getReplay() == null ? -1 : stream.getReplay().takeAck();
+            if (offset >= 0) {
+                offsets.put(stream.getStreamId(), offset);
+            }
+        }
+        if (!offsets.isEmpty()) {
+            FrameCodec.send(info.getChannel(), MessageFactory.createDataAckMessage(offsets));
+        }
+    }
+
+    /**
+     * 客户端确认收到的偏移，释放重放缓冲，回落到上限一半以下时恢复读取外部连接
+     *
+     * @param tunnel 隧道，只接受当前隧道上的确认
+     * @param msg    DATA_ACK消息
+     */
+    public void handleDataAck(Channel tunnel, Message msg) {
+        Map<Integer, Long> offsets;
+        try {
+            offsets = SessionResume.decodeOffsets(msg.getData());
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid data ack from {}: {}", tunnel.remoteAddress(), e.getMessage());
+            return;
+        }
+        offsets.forEach((streamId, offset) -> {
+            StreamInfo stream = streams.get(streamId);
+            if (stream == null || stream.getReplay() == null || stream.getClient().getChannel() != tunnel) {
+                return;
+            }
+            if (stream.getReplay().acknowledge(offset)) {
+                ReadGate.of(stream.getExternalChannel(), metrics).resume(PauseReason.REPLAY);
+            }
+        });
+    }
+
+    /**
+     * 协商客户端请求的映射压缩，为接受的映射创建压缩器
+     *
+     * @param info    已注册的客户端
+     * @param version 协商后的协议版本，压缩标志只在v2帧上携带
+     * @return 接受压缩的映射，远程端口 -> 算法
+     */
+    public Map<Integer, PayloadCodec> negotiateCompression(ClientInfo info, int version) {
+        if (!config.isEnableCompression() || version < ProtocolConstants.VERSION_2) {
+            return Collections.emptyMap();
+        }
+        Map<Integer, PayloadCodec> accepted = new HashMap<>();
+        Map<Integer, FrameCompressor> compressors = new HashMap<>();
+        for (PortMapping mapping : info.getPortMappings()) {
+            PayloadCodec codec;
+            try {
+                codec = PayloadCodec.parse(mapping.getCompression());
+            } catch (IllegalArgumentException e) {
+                log.warn("Client {} requested {} on port {}, not compressing", info.getClientId(),
+                        mapping.getCompression(), mapping.getRemotePort());
+                continue;
+            }
+            if (codec == PayloadCodec.NONE || "udp".equalsIgnoreCase(mapping.getProtocol())) {
+                continue;
+            }
+            accepted.put(mapping.getRemotePort(), codec);
+            compressors.put(mapping.getRemotePort(),
+                    metrics.compressor(codec, mapping.getRemotePort(), info.getClientId()));
+        }
+        info.setCompressors(compressors);
+        return accepted;
+    }
+
+    /**
+     * 移除客户端的指标
+     */
+    private void removeMeters(ClientInfo info) {
+        metrics.remove(info.getTraffic());
+        for (FrameCompressor compressor : info.getCompressors().values()) {
+            compressor.remove(metrics.getRegistry());
+        }
+    }
+
     /**
      * 注销客户端
      *
@@ -211,7 +1114,15 @@ public class ClientManager {
         if (info != null) {
             clients.remove(info.getClientId());
             portClientMappings.forEach((port, clients) -> clients.remove(info));
+            removeMeters(info);
+            // 恢复因隧道不可写暂停的外部连接，之后的数据会因客户端离线而关闭连接
+            TunnelBackpressure backpressure = TunnelBackpressure.get(channel);
+            if (backpressure != null) {
+                backpressure.tunnelWritable();
+            }
+            RelayEvents.registration("unregister", info.getClientId(), channel, info.getPortMappings().size(), true);
             log.info("Client unregistered: {}", info.getClientId());
+            membershipChanged(info);
         }
         return info;
     }
@@ -236,11 +1147,16 @@ public class ClientManager {
         clients.entrySet().removeIf(entry -> {
             ClientInfo client = entry.getValue();
             Channel channel = client.getChannel();
+            if (client.isDetached()) {
+                // 等待恢复的会话由宽限期到期时清理
+                return false;
+            }
 
             // 检查通道是否活跃
             if (!channel.isActive()) {
                 log.info("Removing inactive client: {}", entry.getKey());
                 channelMap.remove(channel);
+                removeMeters(client);
                 return true;
             }
 
@@ -249,6 +1165,7 @@ public class ClientManager {
                 log.info("Removing client due to heartbeat timeout: {}", entry.getKey());
                 channel.close();
                 channelMap.remove(channel);
+                removeMeters(client);
                 return true;
             }
             return false;
@@ -272,8 +1189,8 @@ public class ClientManager {
             this.clientId = clientInfo.getClientId();
             this.connectTime = clientInfo.getConnectTime();
             this.lastHeartbeatTime = clientInfo.getLastHeartbeatTime();
-            this.totalRequests = clientInfo.getTotalRequests().get();
-            this.totalBytes = clientInfo.getTotalBytes().get();
+            this.totalRequests = clientInfo.getTotalRequests();
+            this.totalBytes = clientInfo.getTotalBytes();
             this.activePortMappings = clientInfo.getPortMappings().size();
             this.isActive = clientInfo.getChannel().isActive();
         }
@@ -0,0 +1,170 @@
+package top.aixmax.penetrate.server.manager;
+
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.slf4j.Slf4j;
+import top.aixmax.penetrate.core.flow.PauseReason;
+import top.aixmax.penetrate.core.flow.ReadGate;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/19 03:20
+ * @description 没有可用客户端时暂存的外部连接，按远程端口排队。
+ * <p>
+ * 入队的连接暂停读取，客户端注册或恢复会话后按到达顺序取出分派；等待超时或队列已满时关闭
+ */
+@Slf4j
+public class PendingConnections {
+
+    private final long timeoutMillis;
+
+    private final int maxPerPort;
+
+    private final RelayMetrics metrics;
+
+    // 远程端口 -> 等待的连接
+    private final Map<Integer, Deque<Pending>> queues = new ConcurrentHashMap<>();
+
+    public PendingConnections(long timeoutMillis, int maxPerPort, RelayMetrics metrics) {
+        this.timeoutMillis = timeoutMillis;
+        this.maxPerPort = maxPerPort;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 外部连接入队等待，入队后暂停读取
+     *
+     * @param channel 外部连接
+     * @param port    远程端口
+     * @return 是否入队，未启用或队列已满时返回false，由调用方关闭连接
+     */
+    public boolean offer(Channel channel, int port) {
+        if (timeoutMillis <= 0 || maxPerPort <= 0) {
+            return false;
+        }
+        Deque<Pending> queue = queues.computeIfAbsent(port, p -> {
+            Deque<Pending> created = new ArrayDeque<>();
+            metrics.gaugePendingConnections(p, created, Deque::size);
+            return created;
+        });
+        Pending pending = new Pending(channel, port);
+        // 先暂停再入队，入队后随时可能被分派并恢复读取
+        ReadGate.of(channel, metrics).pause(PauseReason.PENDING);
+        synchronized (queue) {
+            if (queue.size() >= maxPerPort) {
+                metrics.pendingRejected(port).increment();
+                return false;
+            }
+            queue.addLast(pending);
+        }
+        pending.timeout = channel.eventLoop().schedule(() -> expire(pending), timeoutMillis, TimeUnit.MILLISECONDS);
+        channel.closeFuture().addListener(f -> remove(pending, "closed"));
+        return true;
+    }
+
+    /**
+     * 取出端口上全部等待的连接，按到达顺序，连接仍处于暂停读取
+     *
+     * @param port 远程端口
+     * @return 等待的连接
+     */
+    public List<Channel> drain(int port) {
+        Deque<Pending> queue = queues.get(port);
+        if (queue == null) {
+            return Collections.emptyList();
+        }
+        List<Pending> drained;
+        synchronized (queue) {
+            if (queue.isEmpty()) {
+                return Collections.emptyList();
+            }
+            drained = new ArrayList<>(queue);
+            queue.clear();
+        }
+        List<Channel> channels = new ArrayList<>(drained.size());
+        for (Pending pending : drained) {
+            pending.cancelTimeout();
+            record(pending, "dispatched");
+            channels.add(pending.channel);
+        }
+        return channels;
+    }
+
+    /**
+     * 关闭全部等待的连接，服务端排空时调用
+     */
+    public void closeAll() {
+        for (Deque<Pending> queue : queues.values()) {
+            List<Pending> drained;
+            synchronized (queue) {
+                drained = new ArrayList<>(queue);
+                queue.clear();
+            }
+            for (Pending pending : drained) {
+                pending.cancelTimeout();
+                record(pending, "drained");
+                pending.channel.close();
+            }
+        }
+    }
+
+    private void expire(Pending pending) {
+        if (remove(pending, "timeout")) {
+            log.debug("No client available for port {} within {}ms, closing {}", pending.port, timeoutMillis,
+                    pending.channel.remoteAddress());
+            pending.channel.close();
+        }
+    }
+
+    private boolean remove(Pending pending, String result) {
+        Deque<Pending> queue = queues.get(pending.port);
+        synchronized (queue) {
+            if (!queue.remove(pending)) {
+                return false;
+            }
+        }
+        pending.cancelTimeout();
+        record(pending, result);
+        return true;
+    }
+
+    private void record(Pending pending, String result) {
+        metrics.pendingWait(result).record(System.nanoTime() - pending.queuedAt, TimeUnit.NANOSECONDS);
+    }
+
+    private static final class Pending {
+
+        private final Channel channel;
+
+        private final int port;
+
+        private final long queuedAt = System.nanoTime();
+
+        /**
+         * 入队后才设置，期间被取出时由到期任务发现已不在队列中
+         */
+        private volatile ScheduledFuture<?> timeout;
+
+        Pending(Channel channel, int port) {
+            this.channel = channel;
+            this.port = port;
+        }
+
+        void cancelTimeout() {
+            ScheduledFuture<?> future = timeout;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+}
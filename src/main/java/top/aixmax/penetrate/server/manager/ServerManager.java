@@ -1,53 +1,79 @@
 package top.aixmax.penetrate.server.manager;
 
+import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
 import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.ScheduledFuture;
 import lombok.extern.slf4j.Slf4j;
 import top.aixmax.penetrate.common.constants.ProtocolConstants;
+import top.aixmax.penetrate.core.transport.DatagramTransport;
+import top.aixmax.penetrate.server.handler.DatagramExternalHandler;
 import top.aixmax.penetrate.server.handler.ExternalHandler;
 
 import javax.annotation.PreDestroy;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author wangxu
  * @version 1.0 2024/11/26 10:32
- * @description
+ * @description 外部端口监听。绑定是异步的，不为每个端口占用线程，端口段展开后的上千个端口也能很快就绪；
+ * 由一个定时任务检查全部监听，关闭或绑定失败的重新绑定
  */
 @Slf4j
 public class ServerManager {
 
     private final ClientManager clientManager;
 
-    private final Map<Integer, Channel> channelMap;
+    /**
+     * 端口 -> TCP监听的绑定结果，键即需要监听的端口，解绑时移除
+     */
+    private final Map<Integer, ChannelFuture> channelMap = new ConcurrentHashMap<>();
+
+    private final Map<Integer, ChannelFuture> datagramChannelMap = new ConcurrentHashMap<>();
 
     private final EventLoopGroup bossGroup;
 
     private final EventLoopGroup workerGroup;
+
+    /**
+     * TCP监听的公共配置，每个端口复制一份并设置各自的子处理器
+     */
     private final ServerBootstrap bootstrap;
 
+    /**
+     * UDP监听的事件循环组，首个UDP端口启动时创建
+     */
+    private EventLoopGroup datagramGroup;
+
+    private Bootstrap datagramBootstrap;
+
+    private final ScheduledFuture<?> watchdog;
+
+    /**
+     * 停止接受新的外部连接，监听关闭后不再重新绑定
+     */
+    private volatile boolean closed;
+
+    /**
+     * 已停止，UDP监听不再重新绑定
+     */
+    private volatile boolean stopped;
+
     public ServerManager(ClientManager clientManager) {
         this.clientManager = clientManager;
-        this.channelMap = new ConcurrentHashMap<>();
 //        this.bossGroup = new EpollEventLoopGroup(1);
 //        this.workerGroup = new EpollEventLoopGroup(Runtime.getRuntime().availableProcessors() * 128);
         this.bossGroup = new NioEventLoopGroup(1);
         this.workerGroup = new NioEventLoopGroup(Runtime.getRuntime().availableProcessors() * 128);
-        this.bootstrap = new ServerBootstrap();
-    }
-
-    /**
-     * 启动外部端口监听
-     *
-     * @param externalPort 端口号
-     */
-    public void startExternalServer(int externalPort) {
-        bootstrap.group(bossGroup, workerGroup)
+        clientManager.getMetrics().gaugeEventLoop("external-boss", bossGroup);
+        clientManager.getMetrics().gaugeEventLoop("external-worker", workerGroup);
+        this.bootstrap = new ServerBootstrap().group(bossGroup, workerGroup)
 //                .channel(EpollServerSocketChannel.class)
                 .channel(NioServerSocketChannel.class)
                 .option(ChannelOption.SO_REUSEADDR, true)
@@ -56,42 +82,156 @@ public class ServerManager {
                 .childOption(ChannelOption.TCP_NODELAY, true)
                 .childOption(ChannelOption.SO_KEEPALIVE, true)
                 .childOption(ChannelOption.SO_SNDBUF, 1048576)
-                .childHandler(new ExternalHandler(clientManager, externalPort));
-
-        Channel sc = null;
-        while (true) {
-            try {
-                if (sc == null) {
-                    sc = bootstrap.bind(externalPort).sync().channel();
-                    log.info("External server listening on port {}", externalPort);
-                } else if (!sc.isActive()) {
-                    sc.close().sync();
-                    // 启动客户端监听服务器
-                    sc = bootstrap.bind(externalPort).sync().channel();
-                    log.info("External server re listening on port {}", externalPort);
-                }
-                channelMap.put(externalPort, sc);
-                // 每5秒循环一次，确保接收线程存活
-                Thread.sleep(ProtocolConstants.waitTime);
-            } catch (Exception ex) {
-                log.error("Failed to start NAT server", ex);
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                        clientManager.getConfig().getStreamHighWaterMark() / 2,
+                        clientManager.getConfig().getStreamHighWaterMark()));
+        // 每5秒检查一次，确保监听存活
+        this.watchdog = bossGroup.scheduleWithFixedDelay(this::rebindInactive, ProtocolConstants.waitTime,
+                ProtocolConstants.waitTime, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 启动外部端口监听，已在监听的端口忽略
+     *
+     * @param externalPort 端口号
+     */
+    public void listen(int externalPort) {
+        if (!closed) {
+            channelMap.computeIfAbsent(externalPort, this::bind);
+        }
+    }
+
+    private ChannelFuture bind(int externalPort) {
+        int bindPort = externalPort + clientManager.getConfig().getExternalPortOffset();
+        ChannelFuture future = bootstrap.clone()
+                .childHandler(new ExternalHandler(clientManager, externalPort))
+                .bind(bindPort);
+        future.addListener((ChannelFutureListener) f -> {
+            if (f.isSuccess()) {
+                log.info("External server listening on port {}", bindPort);
+            } else {
+                log.error("Failed to listen on port {}", bindPort, f.cause());
             }
+        });
+        return future;
+    }
+
+    /**
+     * 启动外部UDP端口监听，已在监听的端口忽略
+     *
+     * @param externalPort 端口号
+     */
+    public void listenDatagram(int externalPort) {
+        if (!stopped) {
+            datagramChannelMap.computeIfAbsent(externalPort, this::bindDatagram);
+        }
+    }
+
+    private ChannelFuture bindDatagram(int externalPort) {
+        int bindPort = externalPort + clientManager.getConfig().getExternalPortOffset();
+        // 重新绑定时会话表随处理器一起重建
+        ChannelFuture future = datagramBootstrap().clone()
+                .handler(new DatagramExternalHandler(clientManager, externalPort))
+                .bind(bindPort);
+        future.addListener((ChannelFutureListener) f -> {
+            if (f.isSuccess()) {
+                log.info("External datagram server listening on port {} ({})", bindPort,
+                        DatagramTransport.isEpoll() ? "epoll" : "nio");
+            } else {
+                log.error("Failed to start datagram server on port {}", bindPort, f.cause());
+            }
+        });
+        return future;
+    }
+
+    private synchronized Bootstrap datagramBootstrap() {
+        if (datagramGroup == null) {
+            datagramGroup = DatagramTransport.newGroup(Runtime.getRuntime().availableProcessors());
+            clientManager.getMetrics().gaugeEventLoop("external-datagram", datagramGroup);
+            datagramBootstrap = DatagramTransport.configure(new Bootstrap(),
+                            clientManager.getConfig().getMaxDatagramSize())
+                    .group(datagramGroup)
+                    .option(ChannelOption.SO_RCVBUF, 1048576)
+                    .option(ChannelOption.SO_SNDBUF, 1048576);
+        }
+        return datagramBootstrap;
+    }
+
+    /**
+     * 重新绑定已关闭或绑定失败的监听，绑定中的跳过
+     */
+    private void rebindInactive() {
+        if (!closed) {
+            channelMap.replaceAll((port, future) -> isInactive(future) ? bind(port) : future);
+        }
+        if (!stopped) {
+            datagramChannelMap.replaceAll((port, future) -> isInactive(future) ? bindDatagram(port) : future);
+        }
+    }
+
+    private static boolean isInactive(ChannelFuture future) {
+        if (!future.isDone()) {
+            return false;
+        }
+        if (future.isSuccess() && future.channel().isActive()) {
+            return false;
+        }
+        future.channel().close();
+        return true;
+    }
+
+    /**
+     * 关闭全部外部TCP端口的监听，已建立的外部连接不受影响。UDP监听与会话共用同一个套接字，保持到 {@link #stop()}
+     */
+    public void closeListeners() {
+        closed = true;
+        for (Integer port : channelMap.keySet()) {
+            unbind(port);
+        }
+        log.info("External listeners closed");
+    }
+
+    /**
+     * 解绑一个外部TCP端口，已建立的外部连接不受影响
+     *
+     * @param externalPort 端口号
+     */
+    public void unbind(int externalPort) {
+        ChannelFuture future = channelMap.remove(externalPort);
+        if (future != null) {
+            // 绑定未完成时关闭同样生效，绑定随之失败
+            future.channel().close();
+            log.info("External server on port {} unbound", externalPort);
+        }
+    }
+
+    /**
+     * 解绑一个外部UDP端口，该端口上的会话与套接字一起关闭
+     *
+     * @param externalPort 端口号
+     */
+    public void unbindDatagram(int externalPort) {
+        ChannelFuture future = datagramChannelMap.remove(externalPort);
+        if (future != null) {
+            future.channel().close();
+            log.info("External datagram server on port {} unbound", externalPort);
         }
     }
 
     @PreDestroy
-    public void stop(int externalPort) {
-        log.info("Stopping NAT server...");
-        Channel sc = channelMap.remove(externalPort);
-        try {
-            sc.closeFuture().sync();
-        } catch (InterruptedException e) {
-            log.warn("Interrupted while closing server channels", e);
-            Thread.currentThread().interrupt();
-        } finally {
-            bossGroup.shutdownGracefully();
-            workerGroup.shutdownGracefully();
-            log.info("NAT server stopped");
+    public void stop() {
+        stopped = true;
+        watchdog.cancel(false);
+        closeListeners();
+        for (Integer port : datagramChannelMap.keySet()) {
+            unbindDatagram(port);
+        }
+        bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully();
+        synchronized (this) {
+            if (datagramGroup != null) {
+                datagramGroup.shutdownGracefully();
+            }
         }
     }
 
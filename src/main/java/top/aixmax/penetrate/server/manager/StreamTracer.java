@@ -0,0 +1,138 @@
+package top.aixmax.penetrate.server.manager;
+
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+import top.aixmax.penetrate.core.trace.StreamTiming;
+import top.aixmax.penetrate.server.model.StreamInfo;
+import top.aixmax.penetrate.server.model.StreamTrace;
+import top.aixmax.penetrate.server.model.StreamTraceSample;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 19:05
+ * @description 流延迟追踪：按比例采样新建的流，汇总客户端回传的阶段耗时到直方图，并保留最近的采样明细。
+ * 采样比例为0时每个新流只多一次比较
+ */
+@Slf4j
+public class StreamTracer {
+
+    /**
+     * 保留的最近采样数
+     */
+    private static final int RECENT = 100;
+
+    private final double sampleRate;
+
+    private final Timer accept;
+
+    private final Timer tunnel;
+
+    private final Timer clientQueue;
+
+    private final Timer localDial;
+
+    private final Timer localFirstByte;
+
+    private final Timer total;
+
+    private final Deque<StreamTraceSample> recent = new ArrayDeque<>(RECENT);
+
+    public StreamTracer(double sampleRate, RelayMetrics metrics) {
+        this.sampleRate = sampleRate;
+        this.accept = metrics.streamStage("accept");
+        this.tunnel = metrics.streamStage("tunnel");
+        this.clientQueue = metrics.streamStage("client_queue");
+        this.localDial = metrics.streamStage("local_dial");
+        this.localFirstByte = metrics.streamStage("local_first_byte");
+        this.total = metrics.streamStage("total");
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * 新建流时决定是否采样
+     *
+     * @return 采样时返回追踪对象，否则返回null
+     */
+    public StreamTrace sample() {
+        if (sampleRate <= 0 || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return null;
+        }
+        return new StreamTrace(System.nanoTime());
+    }
+
+    /**
+     * 合并客户端回传的耗时
+     *
+     * @param stream  流
+     * @param trailer 客户端回传的负载
+     */
+    public void complete(StreamInfo stream, byte[] trailer) {
+        StreamTrace trace = stream.getTrace();
+        int[] client = StreamTiming.decode(trailer);
+        if (trace == null || client == null) {
+            log.debug("Ignoring stream trace for untraced stream {}", stream.getStreamId());
+            return;
+        }
+
+        long acceptMicros = between(trace.getAcceptNanos(), trace.getConnectWrittenNanos());
+        long totalMicros = between(trace.getAcceptNanos(), trace.getFirstResponseNanos());
+        long roundTrip = between(trace.getConnectWrittenNanos(), trace.getFirstResponseNanos());
+        long tunnelMicros = -1;
+        if (roundTrip >= 0 && client[0] >= 0 && client[1] >= 0 && client[2] >= 0) {
+            tunnelMicros = Math.max(0, roundTrip - client[0] - client[1] - client[2]);
+        }
+
+        record(accept, acceptMicros);
+        record(tunnel, tunnelMicros);
+        record(clientQueue, client[0]);
+        record(localDial, client[1]);
+        record(localFirstByte, client[2]);
+        record(total, totalMicros);
+
+        StreamTraceSample sample = new StreamTraceSample(stream.getStreamId(), stream.getRemotePort(),
+                stream.getClient().getClientId(), System.currentTimeMillis(), acceptMicros, tunnelMicros,
+                client[0], client[1], client[2], totalMicros);
+        synchronized (recent) {
+            if (recent.size() == RECENT) {
+                recent.removeFirst();
+            }
+            recent.addLast(sample);
+        }
+    }
+
+    /**
+     * 最近的采样明细，按完成时间倒序
+     */
+    public List<StreamTraceSample> getRecent() {
+        synchronized (recent) {
+            List<StreamTraceSample> samples = new ArrayList<>(recent);
+            Collections.reverse(samples);
+            return samples;
+        }
+    }
+
+    private static long between(long from, long to) {
+        if (from == 0 || to == 0) {
+            return -1;
+        }
+        return TimeUnit.NANOSECONDS.toMicros(Math.max(0, to - from));
+    }
+
+    private static void record(Timer timer, long micros) {
+        if (micros >= 0) {
+            timer.record(micros, TimeUnit.MICROSECONDS);
+        }
+    }
+}
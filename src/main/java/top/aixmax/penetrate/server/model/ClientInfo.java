@@ -1,22 +1,29 @@
 package top.aixmax.penetrate.server.model;
 
 import io.netty.channel.Channel;
-import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.core.compress.FrameCompressor;
+import top.aixmax.penetrate.core.memory.MemoryAccount;
+import top.aixmax.penetrate.core.metrics.TrafficMeter;
+import top.aixmax.penetrate.core.resume.SessionResume;
 
 import java.time.LocalDateTime;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author wangxu
  * @version 1.0 2024/11/16 21:30
- * @description
+ * @description 注册的客户端。隧道、心跳和映射在注册后仍会变化，相等性按实例判断，
+ * 同一客户端ID重新注册产生的新实例与旧实例不相等，移除旧实例时不会误删新实例
  */
-@Data
+@Getter
+@Setter
 public class ClientInfo {
     /**
      * 客户端ID
@@ -24,9 +31,9 @@ public class ClientInfo {
     private String clientId;
 
     /**
-     * 客户端通道
+     * 客户端通道，会话恢复后替换为新的隧道
      */
-    private Channel channel;
+    private volatile Channel channel;
 
     /**
      * 连接时间
@@ -39,14 +46,49 @@ public class ClientInfo {
     private LocalDateTime lastHeartbeatTime;
 
     /**
-     * 总请求数
+     * 流量指标，包含总量和滑动窗口速率，注册成功后创建，不参与序列化
      */
-    private AtomicLong totalRequests;
+    private transient TrafficMeter traffic;
 
     /**
-     * 总传输字节数
+     * 缓冲内存账户，注册成功后创建
      */
-    private AtomicLong totalBytes;
+    private transient MemoryAccount memory;
+
+    /**
+     * 接受压缩的映射，远程端口 -> 压缩器，注册时协商
+     */
+    private transient Map<Integer, FrameCompressor> compressors = Collections.emptyMap();
+
+    /**
+     * 注册消息中的会话恢复请求，旧版本客户端为null
+     */
+    private transient SessionResume resume;
+
+    /**
+     * 服务端分配的会话恢复令牌，0表示不支持恢复
+     */
+    private transient long resumeToken;
+
+    /**
+     * 集群中的其他节点，以虚拟客户端身份注册，只在没有可用的本地客户端时转发给它
+     */
+    private transient boolean peer;
+
+    /**
+     * 隧道已断开，等待客户端在宽限期内恢复
+     */
+    private transient volatile boolean detached;
+
+    /**
+     * 每次断开或恢复时递增，宽限期到期时据此判断会话是否已恢复
+     */
+    private transient int resumeGeneration;
+
+    /**
+     * 承载的流，流ID -> 流
+     */
+    private final transient Map<Integer, StreamInfo> streams = new ConcurrentHashMap<>();
 
     /**
      * 端口映射信息
@@ -78,8 +120,6 @@ public class ClientInfo {
         this.channel = channel;
         this.connectTime = LocalDateTime.now();
         this.lastHeartbeatTime = LocalDateTime.now();
-        this.totalRequests = new AtomicLong(0);
-        this.totalBytes = new AtomicLong(0);
         this.portMappings = new CopyOnWriteArrayList<>();
         this.attributes = new ConcurrentHashMap<>();
     }
@@ -91,20 +131,6 @@ public class ClientInfo {
         this.lastHeartbeatTime = LocalDateTime.now();
     }
 
-    /**
-     * 增加请求计数
-     */
-    public void incrementRequests() {
-        totalRequests.incrementAndGet();
-    }
-
-    /**
-     * 添加传输字节数
-     */
-    public void addBytes(long bytes) {
-        totalBytes.addAndGet(bytes);
-    }
-
     /**
      * 设置客户端版本
      */
@@ -178,11 +204,36 @@ public class ClientInfo {
     }
 
     /**
-     * 获取总传输速率（字节/秒）
+     * 总请求数，即收到的数据帧数
+     */
+    public long getTotalRequests() {
+        return traffic != null ? traffic.getFramesIn() : 0;
+    }
+
+    /**
+     * 从客户端收到的总字节数
+     */
+    public long getTotalBytes() {
+        return traffic != null ? traffic.getBytesIn() : 0;
+    }
+
+    /**
+     * 获取当前传输速率（字节/秒），为最近10秒上下行之和
      */
     public long getTransferRate() {
-        long duration = getConnectionDuration();
-        return duration > 0 ? totalBytes.get() / duration : 0;
+        return (long) getTransferRate(TrafficMeter.DEFAULT_WINDOW_SECONDS);
+    }
+
+    /**
+     * 获取指定窗口内的上下行速率之和（字节/秒）
+     *
+     * @param windowSeconds 窗口（秒），1~60
+     */
+    public double getTransferRate(int windowSeconds) {
+        if (traffic == null) {
+            return 0;
+        }
+        return traffic.getBytesInRate(windowSeconds) + traffic.getBytesOutRate(windowSeconds);
     }
 
     @Override
@@ -190,6 +241,6 @@ public class ClientInfo {
         return String.format("ClientInfo{clientId='%s', version='%s', connected=%s, portMappings=%d, " +
                         "requests=%d, bytes=%d}",
                 clientId, version, isActive(), portMappings.size(),
-                totalRequests.get(), totalBytes.get());
+                getTotalRequests(), getTotalBytes());
     }
 }
@@ -0,0 +1,98 @@
+package top.aixmax.penetrate.server.model;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import lombok.Getter;
+import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.core.compress.CompressionSnapshot;
+import top.aixmax.penetrate.core.metrics.TrafficMeter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 21:10
+ * @description 客户端的即时快照，流量为累计值和最近10秒速率
+ */
+@Getter
+public class ClientSnapshot {
+
+    private final String clientId;
+
+    private final String remoteAddress;
+
+    private final boolean active;
+
+    private final int sort;
+
+    private final String version;
+
+    /**
+     * 已连接时长（秒）
+     */
+    private final long connectedSeconds;
+
+    /**
+     * 距上次心跳（秒）
+     */
+    private final long lastHeartbeatSeconds;
+
+    private final List<Integer> remotePorts;
+
+    /**
+     * 当前承载的流数量
+     */
+    private final int streams;
+
+    private final long bytesIn;
+
+    private final long bytesOut;
+
+    private final double bytesInRate;
+
+    private final double bytesOutRate;
+
+    /**
+     * 隧道上等待写出的字节数
+     */
+    private final long pendingOutbound;
+
+    /**
+     * 下行压缩统计，远程端口 -> 快照，只包含协商了压缩的映射
+     */
+    private final Map<Integer, CompressionSnapshot> compression;
+
+    public ClientSnapshot(ClientInfo info, int streams) {
+        this.clientId = info.getClientId();
+        this.remoteAddress = info.getRemoteAddress();
+        this.active = info.isActive();
+        this.sort = info.getSort();
+        this.version = info.getVersion();
+        this.connectedSeconds = info.getConnectionDuration();
+        this.lastHeartbeatSeconds = info.getLastHeartbeatInterval();
+        this.remotePorts = new ArrayList<>(info.getPortMappings().size());
+        for (PortMapping mapping : info.getPortMappings()) {
+            remotePorts.add(mapping.getRemotePort());
+        }
+        this.streams = streams;
+        TrafficMeter traffic = info.getTraffic();
+        this.bytesIn = traffic == null ? 0 : traffic.getBytesIn();
+        this.bytesOut = traffic == null ? 0 : traffic.getBytesOut();
+        this.bytesInRate = traffic == null ? 0 : traffic.getBytesInRate(TrafficMeter.DEFAULT_WINDOW_SECONDS);
+        this.bytesOutRate = traffic == null ? 0 : traffic.getBytesOutRate(TrafficMeter.DEFAULT_WINDOW_SECONDS);
+        this.pendingOutbound = pendingBytes(info.getChannel());
+        this.compression = new TreeMap<>();
+        info.getCompressors().forEach((port, compressor) -> compression.put(port, new CompressionSnapshot(compressor)));
+    }
+
+    private static long pendingBytes(Channel channel) {
+        if (channel == null) {
+            return 0;
+        }
+        ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+        return buffer == null ? 0 : buffer.totalPendingWriteBytes();
+    }
+}
@@ -0,0 +1,103 @@
+package top.aixmax.penetrate.server.model;
+
+import io.netty.channel.Channel;
+import lombok.Getter;
+import top.aixmax.penetrate.core.metrics.TrafficMeter;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 23:40
+ * @description UDP会话：远程端口上同一来源地址的数据报归为一个会话，首个数据报到达时绑定客户端，
+ * 会话ID与流ID共用编号，空闲超时后移除
+ */
+@Getter
+public class DatagramSession {
+
+    /**
+     * 会话ID，即协议中的外部连接ID
+     */
+    private final int sessionId;
+
+    /**
+     * 外部端口
+     */
+    private final int remotePort;
+
+    /**
+     * 外部来源地址
+     */
+    private final InetSocketAddress sender;
+
+    /**
+     * 远程端口的数据报监听管道
+     */
+    private final Channel listener;
+
+    /**
+     * 承载该会话的客户端
+     */
+    private final ClientInfo client;
+
+    /**
+     * 外部端口流量指标
+     */
+    private final TrafficMeter portMeter;
+
+    /**
+     * 所属端口的会话表（来源地址 -> 会话），移除会话时同时移除
+     */
+    private final Map<InetSocketAddress, DatagramSession> table;
+
+    /**
+     * 创建时间
+     */
+    private final long createTime;
+
+    /**
+     * 最近一次收发数据报的 {@link System#nanoTime()}
+     */
+    private volatile long lastActiveNanos;
+
+    /**
+     * 客户端返回的字节数，只在隧道线程更新
+     */
+    private volatile long bytesIn;
+
+    /**
+     * 发往客户端的字节数，只在监听线程更新
+     */
+    private volatile long bytesOut;
+
+    public DatagramSession(int sessionId, int remotePort, InetSocketAddress sender, Channel listener,
+                           ClientInfo client, TrafficMeter portMeter, Map<InetSocketAddress, DatagramSession> table) {
+        this.sessionId = sessionId;
+        this.remotePort = remotePort;
+        this.sender = sender;
+        this.listener = listener;
+        this.client = client;
+        this.portMeter = portMeter;
+        this.table = table;
+        this.createTime = System.currentTimeMillis();
+        this.lastActiveNanos = System.nanoTime();
+    }
+
+    public void addBytesIn(int bytes) {
+        bytesIn += bytes;
+        lastActiveNanos = System.nanoTime();
+    }
+
+    public void addBytesOut(int bytes) {
+        bytesOut += bytes;
+        lastActiveNanos = System.nanoTime();
+    }
+
+    /**
+     * 是否空闲超过指定时长
+     */
+    public boolean isIdle(long nowNanos, long timeoutNanos) {
+        return nowNanos - lastActiveNanos > timeoutNanos;
+    }
+}
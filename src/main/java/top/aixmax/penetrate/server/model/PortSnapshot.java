@@ -0,0 +1,46 @@
+package top.aixmax.penetrate.server.model;
+
+import lombok.Getter;
+import top.aixmax.penetrate.core.metrics.TrafficMeter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 21:10
+ * @description 远程端口的即时快照，客户端按选择优先级排列
+ */
+@Getter
+public class PortSnapshot {
+
+    private final int remotePort;
+
+    private final List<String> clients;
+
+    /**
+     * 当前打开的流数量
+     */
+    private final int streams;
+
+    private final long bytesIn;
+
+    private final long bytesOut;
+
+    private final double bytesInRate;
+
+    private final double bytesOutRate;
+
+    public PortSnapshot(int remotePort, List<ClientInfo> clientInfos, int streams, TrafficMeter traffic) {
+        this.remotePort = remotePort;
+        this.clients = new ArrayList<>(clientInfos.size());
+        for (ClientInfo info : clientInfos) {
+            clients.add(info.getClientId());
+        }
+        this.streams = streams;
+        this.bytesIn = traffic == null ? 0 : traffic.getBytesIn();
+        this.bytesOut = traffic == null ? 0 : traffic.getBytesOut();
+        this.bytesInRate = traffic == null ? 0 : traffic.getBytesInRate(TrafficMeter.DEFAULT_WINDOW_SECONDS);
+        this.bytesOutRate = traffic == null ? 0 : traffic.getBytesOutRate(TrafficMeter.DEFAULT_WINDOW_SECONDS);
+    }
+}
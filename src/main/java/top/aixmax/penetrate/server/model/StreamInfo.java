@@ -0,0 +1,101 @@
+package top.aixmax.penetrate.server.model;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import lombok.Getter;
+import top.aixmax.penetrate.core.metrics.TrafficMeter;
+import top.aixmax.penetrate.core.resume.StreamReplay;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 11:30
+ * @description 外部连接（流）信息，建立时绑定到一个客户端
+ */
+@Getter
+public class StreamInfo {
+
+    /**
+     * 外部管道上绑定的流信息
+     */
+    public static final AttributeKey<StreamInfo> STREAM = AttributeKey.valueOf("penetrate.stream");
+
+    /**
+     * 流ID，即协议中的外部连接ID
+     */
+    private final int streamId;
+
+    /**
+     * 外部端口
+     */
+    private final int remotePort;
+
+    /**
+     * 外部管道
+     */
+    private final Channel externalChannel;
+
+    /**
+     * 承载该流的客户端
+     */
+    private final ClientInfo client;
+
+    /**
+     * 外部端口流量指标
+     */
+    private final TrafficMeter portMeter;
+
+    /**
+     * 延迟追踪，未采样时为null
+     */
+    private final StreamTrace trace;
+
+    /**
+     * 发往客户端的重放状态，客户端不支持会话恢复时为null
+     */
+    private final StreamReplay replay;
+
+    /**
+     * 创建时间
+     */
+    private final long createTime;
+
+    /**
+     * 客户端返回的字节数，只在隧道线程更新
+     */
+    private volatile long bytesIn;
+
+    /**
+     * 发往客户端的字节数，只在外部连接线程更新
+     */
+    private volatile long bytesOut;
+
+    public StreamInfo(int streamId, int remotePort, Channel externalChannel, ClientInfo client,
+                      TrafficMeter portMeter) {
+        this(streamId, remotePort, externalChannel, client, portMeter, null);
+    }
+
+    public StreamInfo(int streamId, int remotePort, Channel externalChannel, ClientInfo client,
+                      TrafficMeter portMeter, StreamTrace trace) {
+        this(streamId, remotePort, externalChannel, client, portMeter, trace, null);
+    }
+
+    public StreamInfo(int streamId, int remotePort, Channel externalChannel, ClientInfo client,
+                      TrafficMeter portMeter, StreamTrace trace, StreamReplay replay) {
+        this.streamId = streamId;
+        this.remotePort = remotePort;
+        this.externalChannel = externalChannel;
+        this.client = client;
+        this.portMeter = portMeter;
+        this.trace = trace;
+        this.replay = replay;
+        this.createTime = System.currentTimeMillis();
+    }
+
+    public void addBytesIn(int bytes) {
+        bytesIn += bytes;
+    }
+
+    public void addBytesOut(int bytes) {
+        bytesOut += bytes;
+    }
+}
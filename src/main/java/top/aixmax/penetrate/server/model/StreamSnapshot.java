@@ -0,0 +1,57 @@
+package top.aixmax.penetrate.server.model;
+
+import lombok.Getter;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 21:10
+ * @description 流的即时快照，只读取 volatile 字段，不进入事件循环
+ */
+@Getter
+public class StreamSnapshot {
+
+    private final int streamId;
+
+    private final int remotePort;
+
+    private final String clientId;
+
+    /**
+     * 外部连接地址
+     */
+    private final String remoteAddress;
+
+    /**
+     * 已建立时长（毫秒）
+     */
+    private final long ageMillis;
+
+    /**
+     * 客户端返回的字节数
+     */
+    private final long bytesIn;
+
+    /**
+     * 发往客户端的字节数
+     */
+    private final long bytesOut;
+
+    /**
+     * 外部连接是否可写，不可写表示外部读取慢于客户端返回
+     */
+    private final boolean writable;
+
+    private final boolean traced;
+
+    public StreamSnapshot(StreamInfo stream, long now) {
+        this.streamId = stream.getStreamId();
+        this.remotePort = stream.getRemotePort();
+        this.clientId = stream.getClient().getClientId();
+        this.remoteAddress = String.valueOf(stream.getExternalChannel().remoteAddress());
+        this.ageMillis = now - stream.getCreateTime();
+        this.bytesIn = stream.getBytesIn();
+        this.bytesOut = stream.getBytesOut();
+        this.writable = stream.getExternalChannel().isWritable();
+        this.traced = stream.getTrace() != null;
+    }
+}
@@ -0,0 +1,41 @@
+package top.aixmax.penetrate.server.model;
+
+import lombok.Getter;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 19:05
+ * @description 服务端单个采样流的时间点（单调时钟）
+ */
+@Getter
+public class StreamTrace {
+
+    /**
+     * 外部连接接入
+     */
+    private final long acceptNanos;
+
+    /**
+     * CONNECT 写入隧道
+     */
+    private volatile long connectWrittenNanos;
+
+    /**
+     * 收到客户端返回的首个数据帧
+     */
+    private volatile long firstResponseNanos;
+
+    public StreamTrace(long acceptNanos) {
+        this.acceptNanos = acceptNanos;
+    }
+
+    public void markConnectWritten() {
+        connectWrittenNanos = System.nanoTime();
+    }
+
+    public void markFirstResponse() {
+        if (firstResponseNanos == 0) {
+            firstResponseNanos = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package top.aixmax.penetrate.server.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * @author wangxu
+ * @version 1.0 2026/10/18 19:05
+ * @description 单个采样流的各阶段耗时（微秒），未发生或无法计算的阶段为-1
+ */
+@Getter
+@AllArgsConstructor
+public class StreamTraceSample {
+
+    private final int streamId;
+
+    private final int remotePort;
+
+    private final String clientId;
+
+    /**
+     * 完成时间
+     */
+    private final long timestamp;
+
+    /**
+     * 外部接入到 CONNECT 写入隧道
+     */
+    private final long acceptMicros;
+
+    /**
+     * 隧道往返：CONNECT 写入到收到首个返回数据，扣除客户端耗时
+     */
+    private final long tunnelMicros;
+
+    /**
+     * 客户端收到 CONNECT 到开始建立本地连接
+     */
+    private final long clientQueueMicros;
+
+    /**
+     * 客户端建立本地连接
+     */
+    private final long localDialMicros;
+
+    /**
+     * 本地连接建立到本地服务返回首字节
+     */
+    private final long localFirstByteMicros;
+
+    /**
+     * 外部接入到收到首个返回数据
+     */
+    private final long totalMicros;
+}
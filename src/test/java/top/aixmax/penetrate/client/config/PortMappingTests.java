@@ -0,0 +1,73 @@
+package top.aixmax.penetrate.client.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class PortMappingTests {
+
+	@Test
+	void singlePortExpandsToItself() {
+		PortMapping mapping = mapping(8080, 80, null);
+
+		assertSame(mapping, mapping.expand().get(0));
+		assertEquals(1, mapping.expand().size());
+		mapping.setPortCount(1);
+		assertSame(mapping, mapping.expand().get(0));
+	}
+
+	@Test
+	void rangeExpandsToConsecutivePorts() {
+		PortMapping mapping = mapping(30000, 40000, 1000);
+		mapping.setProtocol("udp");
+		mapping.setLocalHost("10.0.0.2");
+		mapping.setCompression("zlib");
+		mapping.setIdleTimeout(1234);
+
+		List<PortMapping> ports = mapping.expand();
+
+		assertEquals(1000, ports.size());
+		for (int i = 0; i < ports.size(); i++) {
+			PortMapping port = ports.get(i);
+			assertEquals(30000 + i, port.getRemotePort());
+			assertEquals(40000 + i, port.getLocalPort());
+			assertEquals(1, port.getPortCount());
+			assertEquals("udp", port.getProtocol());
+			assertEquals("10.0.0.2", port.getLocalHost());
+			assertEquals("zlib", port.getCompression());
+			assertEquals(1234, port.getIdleTimeout());
+		}
+	}
+
+	@Test
+	void rangeMayEndAtTheLastPort() {
+		List<PortMapping> ports = mapping(65534, 65534, 2).expand();
+
+		assertEquals(2, ports.size());
+		assertEquals(65535, ports.get(1).getRemotePort());
+		assertEquals(65535, ports.get(1).getLocalPort());
+	}
+
+	@Test
+	void listExpandsInOrder() {
+		List<PortMapping> ports = PortMapping.expand(Arrays.asList(mapping(8080, 80, null),
+				mapping(30000, 30000, 3), mapping(9090, 90, 1)));
+
+		assertEquals(5, ports.size());
+		assertEquals(8080, ports.get(0).getRemotePort());
+		assertEquals(30002, ports.get(3).getRemotePort());
+		assertEquals(9090, ports.get(4).getRemotePort());
+	}
+
+	private static PortMapping mapping(int remotePort, int localPort, Integer portCount) {
+		PortMapping mapping = new PortMapping();
+		mapping.setRemotePort(remotePort);
+		mapping.setLocalPort(localPort);
+		mapping.setPortCount(portCount);
+		return mapping;
+	}
+}
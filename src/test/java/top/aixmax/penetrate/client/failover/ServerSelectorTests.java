@@ -0,0 +1,154 @@
+package top.aixmax.penetrate.client.failover;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.jupiter.api.Test;
+import top.aixmax.penetrate.config.ClientConfig;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ServerSelectorTests {
+
+	@Test
+	void parsesServerAddresses() {
+		ServerEndpoint endpoint = ServerEndpoint.parse(" relay.example.com : 7000");
+		assertEquals("relay.example.com", endpoint.getHost());
+		assertEquals(7000, endpoint.getPort());
+		assertEquals(7000, ServerEndpoint.parse("::1:7000").getPort());
+		assertThrows(IllegalArgumentException.class, () -> ServerEndpoint.parse("relay.example.com"));
+		assertThrows(IllegalArgumentException.class, () -> ServerEndpoint.parse(":7000"));
+	}
+
+	@Test
+	void selectsLowestRttAmongHealthyServers() {
+		ServerSelector selector = selector("a:7000", "b:7000", "c:7000");
+		List<ServerEndpoint> endpoints = selector.getEndpoints();
+		ServerEndpoint a = endpoints.get(0);
+		ServerEndpoint b = endpoints.get(1);
+		ServerEndpoint c = endpoints.get(2);
+
+		// 未探测时按配置顺序
+		assertSame(a, selector.select(Collections.emptySet()));
+
+		b.probeSucceeded(TimeUnit.MILLISECONDS.toNanos(20));
+		c.probeSucceeded(TimeUnit.MILLISECONDS.toNanos(5));
+		assertSame(c, selector.select(Collections.emptySet()));
+		// 已测出的优先于未测出的
+		assertSame(b, selector.select(Collections.singleton(c)));
+		assertNull(selector.select(endpoints));
+	}
+
+	@Test
+	void rttIsSmoothed() {
+		ServerEndpoint endpoint = new ServerEndpoint("a", 7000);
+		assertEquals(-1, endpoint.getRttMillis());
+
+		endpoint.probeSucceeded(TimeUnit.MILLISECONDS.toNanos(10));
+		endpoint.probeSucceeded(TimeUnit.MILLISECONDS.toNanos(50));
+
+		assertEquals(20, endpoint.getRttMillis(), 1e-9);
+	}
+
+	@Test
+	void failedServerIsDemotedUntilNextSuccessfulProbe() {
+		ServerSelector selector = selector("a:7000", "b:7000");
+		ServerEndpoint a = selector.getEndpoints().get(0);
+		ServerEndpoint b = selector.getEndpoints().get(1);
+		a.probeSucceeded(TimeUnit.MILLISECONDS.toNanos(1));
+		b.probeSucceeded(TimeUnit.MILLISECONDS.toNanos(50));
+
+		selector.markFailed(a);
+		assertSame(b, selector.select(Collections.emptySet()));
+		// 全部不可用时仍按往返时间选择
+		selector.markFailed(b);
+		assertSame(a, selector.select(Collections.emptySet()));
+
+		a.probeSucceeded(TimeUnit.MILLISECONDS.toNanos(1));
+		assertTrue(a.isHealthy());
+		assertSame(a, selector.select(Collections.singleton(b)));
+	}
+
+	@Test
+	void probeFailuresTurnUnhealthyOnceAtThreshold() {
+		ServerEndpoint endpoint = new ServerEndpoint("a", 7000);
+
+		assertFalse(endpoint.probeFailed(2));
+		assertTrue(endpoint.probeFailed(2));
+		assertFalse(endpoint.probeFailed(2));
+		assertFalse(endpoint.isHealthy());
+
+		endpoint.probeSucceeded(TimeUnit.MILLISECONDS.toNanos(1));
+		assertFalse(endpoint.probeFailed(2));
+		assertTrue(endpoint.isHealthy());
+	}
+
+	@Test
+	void singleServerIsNeverMarkedFailed() {
+		ClientConfig config = new ClientConfig();
+		ServerSelector selector = new ServerSelector(config, null, RelayMetrics.NOOP, e -> {
+		});
+		ServerEndpoint only = selector.getEndpoints().get(0);
+		assertEquals(config.getServerHost(), only.getHost());
+
+		selector.markFailed(only);
+
+		assertTrue(only.isHealthy());
+		assertSame(only, selector.select(Collections.emptySet()));
+	}
+
+	@Test
+	void probesFailOverToReachableServer() throws Exception {
+		EventLoopGroup group = new NioEventLoopGroup(1);
+		int deadPort;
+		try (ServerSocket dead = new ServerSocket()) {
+			dead.bind(new InetSocketAddress("127.0.0.1", 0));
+			deadPort = dead.getLocalPort();
+		}
+		try (ServerSocket live = new ServerSocket()) {
+			live.bind(new InetSocketAddress("127.0.0.1", 0));
+			ClientConfig config = new ClientConfig();
+			config.setServers(Arrays.asList("127.0.0.1:" + deadPort, "127.0.0.1:" + live.getLocalPort()));
+			config.setServerProbeInterval(50);
+			config.setServerProbeTimeout(500);
+			config.setServerProbeFailures(2);
+			List<ServerEndpoint> unhealthy = new CopyOnWriteArrayList<>();
+			ServerSelector selector = new ServerSelector(config, group, RelayMetrics.NOOP, unhealthy::add);
+			ServerEndpoint deadEndpoint = selector.getEndpoints().get(0);
+			ServerEndpoint liveEndpoint = selector.getEndpoints().get(1);
+
+			selector.start();
+			for (int i = 0; i < 200 && (unhealthy.isEmpty() || liveEndpoint.getRttMillis() < 0); i++) {
+				Thread.sleep(10);
+			}
+			selector.stop();
+
+			assertEquals(Collections.singletonList(deadEndpoint), unhealthy);
+			assertFalse(deadEndpoint.isHealthy());
+			assertTrue(liveEndpoint.getRttMillis() >= 0);
+			assertSame(liveEndpoint, selector.select(Collections.emptySet()));
+		} finally {
+			group.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private static ServerSelector selector(String... servers) {
+		ClientConfig config = new ClientConfig();
+		config.setServers(Arrays.asList(servers));
+		return new ServerSelector(config, null, RelayMetrics.NOOP, e -> {
+		});
+	}
+}
@@ -0,0 +1,82 @@
+package top.aixmax.penetrate.client.handler;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.client.manager.PortMappingManager;
+import top.aixmax.penetrate.common.utils.ReconnectBackoff;
+import top.aixmax.penetrate.config.ClientConfig;
+import top.aixmax.penetrate.core.protocol.FrameCodec;
+import top.aixmax.penetrate.core.protocol.MessageFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ClientHandlerTests {
+
+	@Test
+	void goAwayRetiresTunnelAndReleasesManagerOnClose() {
+		ClientConfig config = config();
+		AtomicInteger destroyed = new AtomicInteger();
+		PortMappingManager manager = manager(config, destroyed);
+		List<Channel> retiring = new ArrayList<>();
+		EmbeddedChannel tunnel = new EmbeddedChannel(new ClientHandler(manager, config,
+				new ReconnectBackoff(1000, 30000, 0), channel -> retiring.add(channel)));
+
+		tunnel.writeInbound(FrameCodec.V1.encode(ByteBufAllocator.DEFAULT, MessageFactory.createGoAwayMessage(1500)));
+		tunnel.writeInbound(FrameCodec.V1.encode(ByteBufAllocator.DEFAULT, MessageFactory.createGoAwayMessage(1000)));
+
+		// 重复的通知只切换一次
+		assertEquals(1, retiring.size());
+		assertSame(tunnel, retiring.get(0));
+		assertEquals(0, destroyed.get());
+		tunnel.close();
+		assertEquals(1, destroyed.get());
+	}
+
+	@Test
+	void goAwayWithoutAlternativeKeepsManager() {
+		ClientConfig config = config();
+		AtomicInteger destroyed = new AtomicInteger();
+		PortMappingManager manager = manager(config, destroyed);
+		AtomicInteger asked = new AtomicInteger();
+		EmbeddedChannel tunnel = new EmbeddedChannel(new ClientHandler(manager, config,
+				new ReconnectBackoff(1000, 30000, 0), channel -> asked.incrementAndGet() < 0));
+
+		tunnel.writeInbound(FrameCodec.V1.encode(ByteBufAllocator.DEFAULT, MessageFactory.createGoAwayMessage(1500)));
+		tunnel.writeInbound(FrameCodec.V1.encode(ByteBufAllocator.DEFAULT, MessageFactory.createGoAwayMessage(1000)));
+		tunnel.close();
+
+		// 没有可切换的服务端时每次通知都重新询问，隧道断开后由重连复用管理器
+		assertEquals(2, asked.get());
+		assertEquals(0, destroyed.get());
+		manager.destroy();
+	}
+
+	private static ClientConfig config() {
+		PortMapping mapping = new PortMapping();
+		mapping.setLocalPort(8080);
+		mapping.setRemotePort(8080);
+		ClientConfig config = new ClientConfig();
+		config.setClientId("client-1");
+		config.setPortMappings(Collections.singletonList(mapping));
+		return config;
+	}
+
+	private static PortMappingManager manager(ClientConfig config, AtomicInteger destroyed) {
+		return new PortMappingManager(config) {
+			@Override
+			public void destroy() {
+				destroyed.incrementAndGet();
+				super.destroy();
+			}
+		};
+	}
+}
@@ -0,0 +1,137 @@
+package top.aixmax.penetrate.client.manager;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.common.enums.MessageType;
+import top.aixmax.penetrate.config.ClientConfig;
+import top.aixmax.penetrate.core.protocol.FrameCodec;
+import top.aixmax.penetrate.core.protocol.Message;
+import top.aixmax.penetrate.core.protocol.MessageFactory;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PortMappingManagerTests {
+
+	@Test
+	void rangeFillsTheTable() {
+		PortMappingManager manager = new PortMappingManager(config(mapping(30000, 40000, 1000, "tcp")));
+		try {
+			for (int port = 30000; port < 31000; port++) {
+				assertEquals(port + 10000, manager.getMapping(port).getLocalPort());
+			}
+			assertNull(manager.getMapping(29999));
+			assertNull(manager.getMapping(31000));
+		} finally {
+			manager.destroy();
+		}
+	}
+
+	@Test
+	void lookupsOutsideTheTableMiss() {
+		PortMappingManager manager = new PortMappingManager(config(mapping(65535, 8080, null, "tcp"),
+				mapping(5353, 5353, null, "udp")));
+		try {
+			assertEquals(8080, manager.getMapping(65535).getLocalPort());
+			// 数据报映射在单独的表中
+			assertNull(manager.getMapping(5353));
+			assertNull(manager.getMapping(0));
+			assertNull(manager.getMapping(-1));
+			assertNull(manager.getMapping(65536));
+		} finally {
+			manager.destroy();
+		}
+	}
+
+	@Test
+	void rangesBeyondTheLastPortAreRejected() {
+		assertThrows(IllegalArgumentException.class,
+				() -> new PortMappingManager(config(mapping(65535, 8080, 2, "tcp"))));
+		assertThrows(IllegalArgumentException.class,
+				() -> new PortMappingManager(config(mapping(8080, 65535, 2, "tcp"))));
+		assertThrows(IllegalArgumentException.class,
+				() -> new PortMappingManager(config(mapping(8080, 8080, 0, "tcp"))));
+	}
+
+	@Test
+	void conflictingRangeLeavesTheTableUnchanged() {
+		PortMappingManager manager = new PortMappingManager(config(mapping(30000, 40000, 10, "tcp"),
+				mapping(8080, 40105, null, "tcp")));
+		try {
+			// 第6个端口的本地端口与8080冲突，已登记的端口回滚，原映射恢复
+			assertThrows(IllegalArgumentException.class,
+					() -> manager.putMapping(mapping(30000, 40100, 10, "tcp")));
+
+			for (int port = 30000; port < 30010; port++) {
+				assertEquals(port + 10000, manager.getMapping(port).getLocalPort());
+			}
+			assertEquals(40105, manager.getMapping(8080).getLocalPort());
+		} finally {
+			manager.destroy();
+		}
+	}
+
+	@Test
+	void rangeIsPutAndRemovedLocallyWithoutTunnel() {
+		PortMappingManager manager = new PortMappingManager(config(mapping(30000, 40000, 10, "tcp")));
+		try {
+			manager.putMapping(mapping(30005, 50000, 10, "tcp"));
+
+			assertEquals(40004, manager.getMapping(30004).getLocalPort());
+			assertEquals(50000, manager.getMapping(30005).getLocalPort());
+			assertEquals(50009, manager.getMapping(30014).getLocalPort());
+
+			manager.removeMapping(mapping(30000, 0, 20, "tcp"));
+
+			for (int port = 30000; port < 30020; port++) {
+				assertNull(manager.getMapping(port));
+			}
+			// 本地端口已释放，可以再次使用
+			manager.putMapping(mapping(8080, 40000, null, "tcp"));
+			assertEquals(40000, manager.getMapping(8080).getLocalPort());
+		} finally {
+			manager.destroy();
+		}
+	}
+
+	@Test
+	void connectForUnmappedPortIsAnsweredWithDisconnect() {
+		PortMappingManager manager = new PortMappingManager(config(mapping(30000, 40000, 10, "tcp")));
+		try {
+			EmbeddedChannel tunnel = new EmbeddedChannel();
+			manager.setServerChannel(tunnel);
+
+			manager.handleConnect(MessageFactory.createConnectMessage(7, 30010));
+
+			ByteBuf frame = tunnel.readOutbound();
+			Message msg = FrameCodec.V1.decode(frame, 64 * 1024);
+			frame.release();
+			assertEquals(MessageType.DISCONNECT, msg.getType());
+			assertEquals(7, msg.getChannelId());
+			assertNull(tunnel.readOutbound());
+		} finally {
+			manager.destroy();
+		}
+	}
+
+	private static ClientConfig config(PortMapping... mappings) {
+		ClientConfig config = new ClientConfig();
+		config.setClientId("client-1");
+		config.setPortMappings(Arrays.asList(mappings));
+		return config;
+	}
+
+	private static PortMapping mapping(int remotePort, int localPort, Integer portCount, String protocol) {
+		PortMapping mapping = new PortMapping();
+		mapping.setRemotePort(remotePort);
+		mapping.setLocalPort(localPort);
+		mapping.setPortCount(portCount);
+		mapping.setProtocol(protocol);
+		return mapping;
+	}
+}
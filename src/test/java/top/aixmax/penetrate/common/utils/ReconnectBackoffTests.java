@@ -0,0 +1,36 @@
+package top.aixmax.penetrate.common.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReconnectBackoffTests {
+
+	@Test
+	void immediateRetryIsGrantedOncePerFailureEpisode() {
+		ReconnectBackoff backoff = new ReconnectBackoff(1_000, 60_000, 0, new Random(1));
+
+		assertTrue(backoff.takeImmediateRetry());
+		assertFalse(backoff.takeImmediateRetry());
+		backoff.nextDelayMillis();
+		assertFalse(backoff.takeImmediateRetry());
+
+		// 注册成功后开始新一轮
+		backoff.reset();
+		assertTrue(backoff.takeImmediateRetry());
+	}
+
+	@Test
+	void retryAfterDeniesImmediateRetry() {
+		ReconnectBackoff backoff = new ReconnectBackoff(1_000, 60_000, 0, new Random(1));
+		backoff.retryAfter(30_000);
+
+		assertFalse(backoff.takeImmediateRetry());
+		assertTrue(backoff.nextDelayMillis() >= 30_000);
+		// retry-after 只对一次重连生效，本轮的立即重试机会仍在
+		assertTrue(backoff.takeImmediateRetry());
+	}
+}
@@ -0,0 +1,97 @@
+package top.aixmax.penetrate.common.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 服务端重启后数千客户端同时重连的模拟：客户端退避与服务端令牌桶准入使用真实实现，时间为虚拟时钟
+ */
+class ReconnectStormSimulationTests {
+
+	private static final int CLIENTS = 5_000;
+
+	private static final int RATE = 200;
+
+	private static final int BURST = 400;
+
+	private long now;
+
+	@Test
+	void clientsReachSteadyStateWithoutLockstepWaves() {
+		Random random = new Random(7);
+		TokenBucket acceptLimiter = new TokenBucket(RATE, BURST, () -> now);
+		TokenBucket registerLimiter = new TokenBucket(RATE, BURST, () -> now);
+
+		// 事件：{到达时间(ns), 客户端序号}
+		PriorityQueue<long[]> attempts = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+		ReconnectBackoff[] backoffs = new ReconnectBackoff[CLIENTS];
+		for (int i = 0; i < CLIENTS; i++) {
+			backoffs[i] = new ReconnectBackoff(5_000, 60_000, 0, new Random(random.nextLong()));
+			attempts.add(new long[]{TimeUnit.MILLISECONDS.toNanos(backoffs[i].nextDelayMillis()), i});
+		}
+
+		int connected = 0;
+		long totalAttempts = 0;
+		int[] admittedPerSecond = new int[3_600];
+		int[] attemptsPerSecond = new int[3_600];
+		while (!attempts.isEmpty()) {
+			long[] attempt = attempts.poll();
+			now = attempt[0];
+			int client = (int) attempt[1];
+			int second = (int) TimeUnit.NANOSECONDS.toSeconds(now);
+			totalAttempts++;
+			attemptsPerSecond[second]++;
+
+			long wait = acceptLimiter.tryAcquire();
+			if (wait == 0) {
+				wait = registerLimiter.tryAcquire();
+				if (wait != 0) {
+					backoffs[client].retryAfter(registerLimiter.retryAfterMillis(wait));
+				}
+			} else {
+				backoffs[client].retryAfter(acceptLimiter.retryAfterMillis(wait));
+			}
+
+			if (wait == 0) {
+				connected++;
+				admittedPerSecond[second]++;
+				backoffs[client].reset();
+			} else {
+				long delay = TimeUnit.MILLISECONDS.toNanos(backoffs[client].nextDelayMillis());
+				attempts.add(new long[]{now + delay, client});
+			}
+		}
+
+		double steadyStateSeconds = now / 1e9;
+		int lastSecond = (int) Math.ceil(steadyStateSeconds);
+		int peakAttempts = 0;
+		for (int count : attemptsPerSecond) {
+			peakAttempts = Math.max(peakAttempts, count);
+		}
+
+		assertEquals(CLIENTS, connected);
+		// 理论下限约为 (CLIENTS - BURST) / RATE = 23s
+		assertTrue(steadyStateSeconds < 75, "steady state took " + steadyStateSeconds + "s");
+		// 令牌桶：任意连续 k 秒内准入不超过 BURST + RATE * k
+		for (int from = 0; from <= lastSecond; from++) {
+			int admitted = 0;
+			for (int to = from; to <= lastSecond; to++) {
+				admitted += admittedPerSecond[to];
+				int seconds = to - from + 1;
+				assertTrue(admitted <= BURST + RATE * seconds,
+						admitted + " admitted in " + seconds + "s starting at " + from + "s");
+			}
+		}
+		// 按服务端要求的时间重试，大部分客户端一两次即可连上
+		assertTrue(totalAttempts < 2L * CLIENTS, "attempts per client " + (double) totalAttempts / CLIENTS);
+		// 固定间隔重连时全部客户端会在同一秒到达
+		assertTrue(peakAttempts < CLIENTS / 4, "peak attempts per second " + peakAttempts);
+	}
+
+}
@@ -0,0 +1,111 @@
+package top.aixmax.penetrate.common.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SnapshotPagerTests {
+
+	@Test
+	void cursorContinuesWhereThePreviousPageEnded() {
+		Map<Integer, String> table = table(25);
+		List<Integer> seen = new ArrayList<>();
+		Object cursor = null;
+		int pages = 0;
+		do {
+			CursorPage<Integer> page = SnapshotPager.page(table, (Integer) cursor, 10, (k, v) -> true, (k, v) -> k);
+			seen.addAll(page.getItems());
+			assertEquals(25, page.getTotal());
+			cursor = page.getNextCursor();
+			pages++;
+		} while (cursor != null);
+
+		assertEquals(3, pages);
+		assertEquals(range(1, 25), seen);
+	}
+
+	@Test
+	void nextCursorIsTheLastKeyOfAFullPage() {
+		Map<Integer, String> table = table(20);
+
+		CursorPage<Integer> first = SnapshotPager.page(table, null, 10, (k, v) -> true, (k, v) -> k);
+		assertEquals(range(1, 10), first.getItems());
+		assertEquals(10, first.getNextCursor());
+
+		// 恰好取完时没有下一页
+		CursorPage<Integer> last = SnapshotPager.page(table, 10, 10, (k, v) -> true, (k, v) -> k);
+		assertEquals(range(11, 20), last.getItems());
+		assertNull(last.getNextCursor());
+	}
+
+	@Test
+	void limitIsClampedToDefaultAndMaximum() {
+		Map<Integer, String> table = table(SnapshotPager.MAX_LIMIT + 500);
+
+		assertEquals(SnapshotPager.DEFAULT_LIMIT,
+				SnapshotPager.page(table, null, null, (k, v) -> true, (k, v) -> k).getItems().size());
+		assertEquals(SnapshotPager.DEFAULT_LIMIT,
+				SnapshotPager.page(table, null, 0, (k, v) -> true, (k, v) -> k).getItems().size());
+		CursorPage<Integer> page = SnapshotPager.page(table, null, 5_000, (k, v) -> true, (k, v) -> k);
+		assertEquals(SnapshotPager.MAX_LIMIT, page.getItems().size());
+		assertEquals(SnapshotPager.MAX_LIMIT, page.getNextCursor());
+	}
+
+	@Test
+	void filteredRecordsDoNotTakeUpThePage() {
+		Map<Integer, String> table = table(100);
+		AtomicInteger views = new AtomicInteger();
+
+		// 只有偶数通过过滤，被过滤的记录不占用堆中的位置
+		CursorPage<String> page = SnapshotPager.page(table, 90, 3, (k, v) -> k % 2 == 0,
+				(k, v) -> {
+					views.incrementAndGet();
+					return v;
+				});
+
+		assertEquals(Arrays.asList("v92", "v94", "v96"), page.getItems());
+		assertEquals(96, page.getNextCursor());
+		assertEquals(100, page.getTotal());
+		// 只为本页记录生成输出
+		assertEquals(3, views.get());
+
+		CursorPage<String> rest = SnapshotPager.page(table, 96, 3, (k, v) -> k % 2 == 0, (k, v) -> v);
+		assertEquals(Arrays.asList("v98", "v100"), rest.getItems());
+		assertNull(rest.getNextCursor());
+	}
+
+	@Test
+	void emptyTableGivesEmptyPage() {
+		CursorPage<Integer> page = SnapshotPager.page(Collections.<Integer, String>emptyMap(), null, 10,
+				(k, v) -> true, (k, v) -> k);
+
+		assertEquals(Collections.emptyList(), page.getItems());
+		assertNull(page.getNextCursor());
+		assertEquals(0, page.getTotal());
+	}
+
+	private static Map<Integer, String> table(int size) {
+		Map<Integer, String> table = new ConcurrentHashMap<>();
+		for (int i = 1; i <= size; i++) {
+			table.put(i, "v" + i);
+		}
+		return table;
+	}
+
+	private static List<Integer> range(int from, int to) {
+		List<Integer> values = new ArrayList<>();
+		for (int i = from; i <= to; i++) {
+			values.add(i);
+		}
+		return values;
+	}
+}
@@ -0,0 +1,197 @@
+package top.aixmax.penetrate.core.compress;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.DecompressionException;
+import org.junit.jupiter.api.Test;
+import top.aixmax.penetrate.common.enums.MessageType;
+import top.aixmax.penetrate.core.handler.AbstractMessageHandler;
+import top.aixmax.penetrate.core.protocol.DataFrameWriter;
+import top.aixmax.penetrate.core.protocol.FrameCodec;
+import top.aixmax.penetrate.core.protocol.Message;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameCompressorTests {
+
+	@Test
+	void snappyRoundTrip() {
+		roundTrip(PayloadCodec.SNAPPY);
+	}
+
+	@Test
+	void zlibRoundTrip() {
+		roundTrip(PayloadCodec.ZLIB);
+	}
+
+	@Test
+	void smallFramesAreSentAsIs() {
+		FrameCompressor compressor = compressor(PayloadCodec.ZLIB);
+		ByteBuf payload = Unpooled.wrappedBuffer(new byte[FrameCompressor.MIN_LENGTH - 1]);
+
+		assertNull(compressor.compress(ByteBufAllocator.DEFAULT, payload, payload.readableBytes()));
+		assertEquals(0, compressor.getBytesIn());
+	}
+
+	@Test
+	void incompressibleFramesBackOff() {
+		FrameCompressor compressor = compressor(PayloadCodec.SNAPPY);
+		ByteBuf noise = Unpooled.wrappedBuffer(random(4096));
+
+		// 第一次采样不可压缩，跳过1帧；再次不可压缩跳过2帧
+		assertNull(compressor.compress(ByteBufAllocator.DEFAULT, noise, 4096));
+		assertNull(compressor.compress(ByteBufAllocator.DEFAULT, noise, 4096));
+		assertEquals(1, compressor.getSkippedFrames());
+		assertNull(compressor.compress(ByteBufAllocator.DEFAULT, noise, 4096));
+		assertNull(compressor.compress(ByteBufAllocator.DEFAULT, noise, 4096));
+		assertNull(compressor.compress(ByteBufAllocator.DEFAULT, noise, 4096));
+		assertEquals(3, compressor.getSkippedFrames());
+		assertEquals(0, noise.readerIndex());
+
+		// 跳过结束后再次采样，可压缩时恢复逐帧压缩
+		ByteBuf text = Unpooled.wrappedBuffer(text(4096));
+		for (int i = 0; i < 2; i++) {
+			ByteBuf compressed = compressor.compress(ByteBufAllocator.DEFAULT, text, 4096);
+			assertNotNull(compressed);
+			compressed.release();
+		}
+		assertEquals(3, compressor.getSkippedFrames());
+	}
+
+	@Test
+	void corruptPayloadIsRejected() {
+		byte[] compressed = compress(PayloadCodec.ZLIB, text(4096));
+
+		assertThrows(DecompressionException.class, () -> FrameCompressor.decompress(compressed, 4095));
+		compressed[0] = 9;
+		assertThrows(DecompressionException.class, () -> FrameCompressor.decompress(compressed, 4096));
+		compressed[0] = PayloadCodec.NONE.id();
+		assertThrows(DecompressionException.class, () -> FrameCompressor.decompress(compressed, 4096));
+		assertThrows(DecompressionException.class, () -> FrameCompressor.decompress(new byte[]{2}, 4096));
+	}
+
+	@Test
+	void compressedFramesAreInflatedByTheReceiver() {
+		byte[] payload = text(40_000);
+		EmbeddedChannel sender = new EmbeddedChannel();
+		sender.attr(FrameCodec.CODEC).set(FrameCodec.V2);
+		FrameCompressor compressor = compressor(PayloadCodec.SNAPPY);
+		DataFrameWriter.writeData(sender, 5, 0, Unpooled.wrappedBuffer(payload), 16 * 1024, null, compressor);
+		assertTrue(compressor.getBytesOut() < compressor.getBytesIn());
+
+		List<Message> received = new ArrayList<>();
+		EmbeddedChannel receiver = new EmbeddedChannel(new AbstractMessageHandler(64 * 1024) {
+			@Override
+			protected void handleData(ChannelHandlerContext ctx, Message msg) {
+				received.add(msg);
+			}
+		});
+		receiver.attr(FrameCodec.CODEC).set(FrameCodec.V2);
+		for (ByteBuf frame; (frame = sender.readOutbound()) != null; ) {
+			receiver.writeInbound(frame);
+		}
+
+		assertEquals(3, received.size());
+		ByteBuf joined = Unpooled.buffer();
+		for (Message msg : received) {
+			assertFalse(msg.isCompressed());
+			assertEquals(5, msg.getChannelId());
+			joined.writeBytes(msg.getData());
+		}
+		assertArrayEquals(payload, ByteBufUtil.getBytes(joined));
+	}
+
+	@Test
+	void v1TunnelsNeverCarryCompressedFrames() {
+		EmbeddedChannel sender = new EmbeddedChannel();
+		FrameCompressor compressor = compressor(PayloadCodec.ZLIB);
+		DataFrameWriter.writeData(sender, 5, 16622, Unpooled.wrappedBuffer(text(4096)), 16 * 1024, null,
+				compressor);
+
+		ByteBuf frame = sender.readOutbound();
+		Message msg = FrameCodec.V1.decode(frame, 64 * 1024);
+		frame.release();
+		assertFalse(msg.isCompressed());
+		assertArrayEquals(text(4096), msg.getData());
+		assertEquals(0, compressor.getBytesIn());
+
+		ByteBuf compressed = Unpooled.buffer().writeByte(1);
+		assertThrows(UnsupportedOperationException.class,
+				() -> FrameCodec.V1.encodeCompressed(ByteBufAllocator.DEFAULT, msg.getType(), 5, compressed));
+		assertEquals(0, compressed.refCnt());
+	}
+
+	@Test
+	void corruptCompressedFrameClosesTheTunnel() {
+		ByteBuf body = Unpooled.wrappedBuffer(new byte[]{PayloadCodec.SNAPPY.id(), 100, 1, 2, 3});
+		ByteBuf frame = FrameCodec.V2.encodeCompressed(ByteBufAllocator.DEFAULT, MessageType.DATA, 5, body);
+		List<Message> received = new ArrayList<>();
+		EmbeddedChannel receiver = new EmbeddedChannel(new AbstractMessageHandler(64 * 1024) {
+			@Override
+			protected void handleData(ChannelHandlerContext ctx, Message msg) {
+				received.add(msg);
+			}
+		});
+		receiver.attr(FrameCodec.CODEC).set(FrameCodec.V2);
+
+		receiver.writeInbound(frame);
+
+		assertTrue(received.isEmpty());
+		assertFalse(receiver.isOpen());
+	}
+
+	private static void roundTrip(PayloadCodec codec) {
+		byte[] payload = text(16 * 1024);
+		byte[] compressed = compress(codec, payload);
+
+		assertEquals(codec.id(), compressed[0]);
+		assertTrue(compressed.length < payload.length * FrameCompressor.MAX_RATIO);
+		assertArrayEquals(payload, FrameCompressor.decompress(compressed, payload.length));
+	}
+
+	private static byte[] compress(PayloadCodec codec, byte[] payload) {
+		ByteBuf in = Unpooled.directBuffer(payload.length).writeBytes(payload);
+		ByteBuf out = compressor(codec).compress(ByteBufAllocator.DEFAULT, in, payload.length);
+		in.release();
+		assertNotNull(out);
+		byte[] compressed = ByteBufUtil.getBytes(out);
+		out.release();
+		return compressed;
+	}
+
+	private static FrameCompressor compressor(PayloadCodec codec) {
+		return new FrameCompressor(codec, new SimpleMeterRegistry(), Tags.empty());
+	}
+
+	private static byte[] text(int length) {
+		byte[] line = "GET /index.html HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+		byte[] res = new byte[length];
+		for (int i = 0; i < length; i++) {
+			res[i] = line[i % line.length];
+		}
+		return res;
+	}
+
+	private static byte[] random(int length) {
+		byte[] res = new byte[length];
+		new Random(42).nextBytes(res);
+		return res;
+	}
+}
@@ -0,0 +1,93 @@
+package top.aixmax.penetrate.core.flow;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.junit.jupiter.api.Test;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReadGateTests {
+
+	@Test
+	void readingResumesOnlyAfterEveryReasonIsCleared() {
+		RelayMetrics metrics = new RelayMetrics(new SimpleMeterRegistry(), "server");
+		EmbeddedChannel channel = new EmbeddedChannel();
+		ReadGate gate = ReadGate.of(channel, metrics);
+		assertSame(gate, ReadGate.of(channel, metrics));
+
+		assertTrue(gate.pause(PauseReason.BACKPRESSURE));
+		assertTrue(gate.pause(PauseReason.MEMORY));
+		assertFalse(gate.pause(PauseReason.MEMORY));
+		assertFalse(channel.config().isAutoRead());
+
+		assertTrue(gate.resume(PauseReason.BACKPRESSURE));
+		assertFalse(gate.resume(PauseReason.BACKPRESSURE));
+		assertFalse(channel.config().isAutoRead());
+		assertTrue(gate.isPaused(PauseReason.MEMORY));
+
+		assertTrue(gate.resume(PauseReason.MEMORY));
+		assertTrue(channel.config().isAutoRead());
+		assertFalse(gate.isPaused());
+		assertEquals(1, metrics.readPause(PauseReason.BACKPRESSURE).count());
+		assertEquals(1, metrics.readPause(PauseReason.MEMORY).count());
+	}
+
+	@Test
+	void concurrentPausesAndResumesSettleOnTheEventLoop() throws Exception {
+		EventLoopGroup group = new NioEventLoopGroup(1);
+		try {
+			NioSocketChannel channel = new NioSocketChannel();
+			group.register(channel).sync();
+			ReadGate gate = ReadGate.of(channel, RelayMetrics.NOOP);
+			PauseReason[] reasons = {PauseReason.BACKPRESSURE, PauseReason.MEMORY, PauseReason.THROTTLE,
+					PauseReason.REPLAY};
+			CountDownLatch start = new CountDownLatch(1);
+			List<Thread> threads = new ArrayList<>();
+			for (PauseReason reason : reasons) {
+				Thread thread = new Thread(() -> {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < 2_000; i++) {
+						gate.pause(reason);
+						gate.resume(reason);
+					}
+					// 最后只留下内存原因
+					if (reason == PauseReason.MEMORY) {
+						gate.pause(reason);
+					}
+				});
+				thread.start();
+				threads.add(thread);
+			}
+			start.countDown();
+			for (Thread thread : threads) {
+				thread.join();
+			}
+
+			// 事件循环执行完排队的设置后按最终状态关闭读取
+			channel.eventLoop().submit(() -> null).sync();
+			assertFalse(channel.config().isAutoRead());
+
+			gate.resume(PauseReason.MEMORY);
+			channel.eventLoop().submit(() -> null).sync();
+			assertTrue(channel.config().isAutoRead());
+			channel.close().sync();
+		} finally {
+			group.shutdownGracefully().sync();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package top.aixmax.penetrate.core.flow;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TunnelBackpressureTests {
+
+	@Test
+	void tunnelStaysPausedUntilEveryBlockedDestinationDrainsOrCloses() {
+		EmbeddedChannel tunnel = channel();
+		EmbeddedChannel first = channel();
+		EmbeddedChannel second = channel();
+		TunnelBackpressure backpressure = TunnelBackpressure.of(tunnel, RelayMetrics.NOOP);
+
+		// 可写的目标不影响隧道
+		backpressure.afterDestinationWrite(first);
+		assertTrue(tunnel.config().isAutoRead());
+
+		fill(first);
+		fill(second);
+		backpressure.afterDestinationWrite(first);
+		backpressure.afterDestinationWrite(second);
+		backpressure.afterDestinationWrite(second);
+		assertFalse(tunnel.config().isAutoRead());
+		assertEquals(2, backpressure.getBlockedDestinations());
+
+		first.flush();
+		assertTrue(first.isWritable());
+		backpressure.destinationWritable(first);
+		assertFalse(tunnel.config().isAutoRead());
+
+		second.close();
+		backpressure.destinationWritable(second);
+		assertTrue(tunnel.config().isAutoRead());
+		assertEquals(0, backpressure.getBlockedDestinations());
+		first.finishAndReleaseAll();
+	}
+
+	@Test
+	void tunnelWritableResumesEverySource() {
+		EmbeddedChannel tunnel = channel();
+		EmbeddedChannel first = channel();
+		EmbeddedChannel second = channel();
+		TunnelBackpressure backpressure = TunnelBackpressure.of(tunnel, RelayMetrics.NOOP);
+
+		backpressure.afterTunnelWrite(first);
+		assertTrue(first.config().isAutoRead());
+
+		fill(tunnel);
+		backpressure.afterTunnelWrite(first);
+		backpressure.afterTunnelWrite(second);
+		assertFalse(first.config().isAutoRead());
+		assertFalse(second.config().isAutoRead());
+		assertEquals(2, backpressure.getPausedSources());
+
+		tunnel.flush();
+		backpressure.tunnelWritable();
+		assertTrue(first.config().isAutoRead());
+		assertTrue(second.config().isAutoRead());
+		assertEquals(0, backpressure.getPausedSources());
+		tunnel.finishAndReleaseAll();
+	}
+
+	@Test
+	void closedSourceIsNotResumed() {
+		EmbeddedChannel tunnel = channel();
+		EmbeddedChannel source = channel();
+		TunnelBackpressure backpressure = TunnelBackpressure.of(tunnel, RelayMetrics.NOOP);
+		fill(tunnel);
+		backpressure.afterTunnelWrite(source);
+
+		backpressure.sourceClosed(source);
+		tunnel.flush();
+		backpressure.tunnelWritable();
+
+		assertFalse(source.config().isAutoRead());
+		tunnel.finishAndReleaseAll();
+	}
+
+	/**
+	 * 低水位1字节、高水位8字节，写入少量数据即不可写
+	 */
+	private static EmbeddedChannel channel() {
+		EmbeddedChannel channel = new EmbeddedChannel();
+		channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(1, 8));
+		return channel;
+	}
+
+	/**
+	 * 写入未刷出的数据直到不可写
+	 */
+	private static void fill(EmbeddedChannel channel) {
+		channel.write(Unpooled.wrappedBuffer(new byte[16]));
+		assertFalse(channel.isWritable());
+	}
+}
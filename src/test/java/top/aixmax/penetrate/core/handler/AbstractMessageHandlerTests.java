@@ -0,0 +1,121 @@
+package top.aixmax.penetrate.core.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import top.aixmax.penetrate.common.constants.ProtocolConstants;
+import top.aixmax.penetrate.common.enums.MessageType;
+import top.aixmax.penetrate.core.protocol.DataFrameWriter;
+import top.aixmax.penetrate.core.protocol.FrameCodec;
+import top.aixmax.penetrate.core.protocol.Message;
+import top.aixmax.penetrate.core.protocol.MessageFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AbstractMessageHandlerTests {
+
+	@Test
+	void fragmentsAreDecodedAcrossSplitReads() {
+		byte[] payload = new byte[100_000];
+		for (int i = 0; i < payload.length; i++) {
+			payload[i] = (byte) i;
+		}
+
+		EmbeddedChannel sender = new EmbeddedChannel();
+		DataFrameWriter.writeData(sender, 1001, 16622, Unpooled.wrappedBuffer(payload), 16 * 1024);
+		ByteBuf wire = Unpooled.buffer();
+		for (ByteBuf frame; (frame = sender.readOutbound()) != null; ) {
+			wire.writeBytes(frame);
+			frame.release();
+		}
+
+		List<Message> received = new ArrayList<>();
+		EmbeddedChannel receiver = new EmbeddedChannel(new AbstractMessageHandler(64 * 1024) {
+			@Override
+			protected void handleData(ChannelHandlerContext ctx, Message msg) {
+				received.add(msg);
+			}
+		});
+		// 模拟TCP任意切分
+		while (wire.isReadable()) {
+			receiver.writeInbound(wire.readRetainedSlice(Math.min(wire.readableBytes(), 7_777)));
+		}
+		wire.release();
+
+		assertEquals(7, received.size());
+		ByteBuf joined = Unpooled.buffer();
+		for (Message msg : received) {
+			assertEquals(1001, msg.getChannelId());
+			assertEquals(16622, msg.getExternalPort());
+			joined.writeBytes(msg.getData());
+		}
+		byte[] result = new byte[joined.readableBytes()];
+		joined.readBytes(result);
+		assertArrayEquals(payload, result);
+	}
+
+	@Test
+	void lengthThatOverflowsFrameSizeClosesChannel() {
+		EmbeddedChannel sender = new EmbeddedChannel();
+		DataFrameWriter.writeData(sender, 1001, 16622, Unpooled.wrappedBuffer(new byte[]{1, 2, 3}), 16 * 1024);
+		ByteBuf frame = sender.readOutbound();
+		// 长度加上帧头会溢出为负数
+		frame.setInt(frame.readerIndex() + 10, Integer.MAX_VALUE - 5);
+
+		List<Message> received = new ArrayList<>();
+		EmbeddedChannel receiver = new EmbeddedChannel(new AbstractMessageHandler(64 * 1024) {
+			@Override
+			protected void handleData(ChannelHandlerContext ctx, Message msg) {
+				received.add(msg);
+			}
+		});
+		receiver.writeInbound(frame);
+
+		assertTrue(received.isEmpty());
+		assertFalse(receiver.isOpen());
+	}
+
+	@Test
+	void switchesToNegotiatedCodecMidBuffer() {
+		EmbeddedChannel encoder = new EmbeddedChannel();
+		ByteBuf wire = Unpooled.buffer();
+		wire.writeBytes(FrameCodec.V1.encode(encoder.alloc(), MessageFactory.createRegisterAckMessage(ProtocolConstants.VERSION_2)));
+		wire.writeBytes(FrameCodec.V2.encode(encoder.alloc(), MessageFactory.createConnectMessage(300, 16622)));
+		wire.writeBytes(FrameCodec.V2.encode(encoder.alloc(), MessageFactory.createDataMessage(new byte[]{1, 2, 3}).setChannelId(300)));
+
+		List<Message> received = new ArrayList<>();
+		EmbeddedChannel receiver = new EmbeddedChannel(new AbstractMessageHandler() {
+			@Override
+			protected void handleRegisterAck(ChannelHandlerContext ctx, Message msg) {
+				ctx.channel().attr(FrameCodec.CODEC).set(FrameCodec.forVersion(msg.getData()[0]));
+			}
+
+			@Override
+			protected void handleConnect(ChannelHandlerContext ctx, Message msg) {
+				received.add(msg);
+			}
+
+			@Override
+			protected void handleData(ChannelHandlerContext ctx, Message msg) {
+				received.add(msg);
+			}
+		});
+		receiver.writeInbound(wire);
+
+		assertEquals(2, received.size());
+		assertEquals(MessageType.CONNECT, received.get(0).getType());
+		assertEquals(16622, received.get(0).getExternalPort());
+		assertEquals(300, received.get(1).getChannelId());
+		assertEquals(0, received.get(1).getExternalPort());
+		assertArrayEquals(new byte[]{1, 2, 3}, received.get(1).getData());
+	}
+
+}
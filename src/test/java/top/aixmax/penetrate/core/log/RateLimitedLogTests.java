@@ -0,0 +1,80 @@
+package top.aixmax.penetrate.core.log;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RateLimitedLogTests {
+
+	private final Logger logger = (Logger) LoggerFactory.getLogger(RateLimitedLogTests.class);
+
+	private final ListAppender<ILoggingEvent> appender = new ListAppender<>();
+
+	@BeforeEach
+	void attachAppender() {
+		appender.start();
+		logger.addAppender(appender);
+	}
+
+	@AfterEach
+	void detachAppender() {
+		logger.detachAppender(appender);
+	}
+
+	@Test
+	void warningsWithinTheIntervalAreCountedNotWritten() {
+		MeterRegistry registry = new SimpleMeterRegistry();
+		RateLimitedLog.bindTo(registry);
+		RateLimitedLog log = RateLimitedLog.of(logger, "test.suppressed", 60_000);
+
+		for (int i = 0; i < 5; i++) {
+			log.warn("Dropped frame for stream {}", i);
+		}
+
+		assertEquals(1, appender.list.size());
+		assertEquals("Dropped frame for stream 0", appender.list.get(0).getFormattedMessage());
+		assertEquals(5, log.getOccurrences());
+		assertEquals(4, log.getSuppressed());
+		assertEquals(5, registry.get("penetrate.log.warnings").tag("key", "test.suppressed")
+				.functionCounter().count());
+		assertEquals(4, registry.get("penetrate.log.warnings.suppressed").tag("key", "test.suppressed")
+				.functionCounter().count());
+	}
+
+	@Test
+	void nextWarningReportsHowManyWereSuppressed() throws InterruptedException {
+		RateLimitedLog log = RateLimitedLog.of(logger, "test.reported", 200);
+
+		log.warn("Unknown stream {}", 1L);
+		log.warn("Unknown stream {}", 2L);
+		log.warn("Unknown stream {}", 3L);
+		Thread.sleep(300);
+		log.warn("Unknown stream {}", 4L);
+		log.warn("Unknown stream {}", 5L);
+
+		assertEquals(2, appender.list.size());
+		assertEquals("Unknown stream 4 (2 similar suppressed)", appender.list.get(1).getFormattedMessage());
+		assertEquals(3, log.getSuppressed());
+	}
+
+	@Test
+	void sameKeySharesTheCounter() {
+		RateLimitedLog first = RateLimitedLog.of(logger, "test.shared", 60_000);
+		RateLimitedLog second = RateLimitedLog.of(logger, "test.shared", 60_000);
+
+		first.warn("Queue full");
+		second.warn("Queue full");
+
+		assertEquals(first, second);
+		assertEquals(2, first.getOccurrences());
+		assertEquals(1, appender.list.size());
+	}
+}
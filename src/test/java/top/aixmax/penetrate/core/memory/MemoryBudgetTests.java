@@ -0,0 +1,138 @@
+package top.aixmax.penetrate.core.memory;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.DefaultChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.junit.jupiter.api.Test;
+import top.aixmax.penetrate.core.flow.PauseReason;
+import top.aixmax.penetrate.core.flow.ReadGate;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MemoryBudgetTests {
+
+	@Test
+	void quotaPausesOnlyItsOwnSource() {
+		MemoryBudget budget = new MemoryBudget(1_000, RelayMetrics.NOOP);
+		MemoryAccount limited = budget.account(100);
+		MemoryAccount unlimited = budget.account(0);
+		EmbeddedChannel limitedSource = new EmbeddedChannel();
+		EmbeddedChannel otherSource = new EmbeddedChannel();
+		ChannelPromise write = promise(limitedSource);
+
+		limited.track(write, 150);
+		unlimited.track(promise(otherSource), 150);
+
+		assertTrue(limited.pauseIfExhausted(limitedSource));
+		assertFalse(unlimited.pauseIfExhausted(otherSource));
+		assertFalse(limitedSource.config().isAutoRead());
+		assertTrue(otherSource.config().isAutoRead());
+		assertEquals(300, budget.getUsed());
+		assertEquals(1, budget.getPausedSources());
+
+		write.setSuccess();
+		assertTrue(limitedSource.config().isAutoRead());
+		assertEquals(0, limited.getUsed());
+		assertEquals(0, budget.getPausedSources());
+	}
+
+	@Test
+	void globalPressurePausesEveryAccountUntilHalfTheBudget() {
+		MemoryBudget budget = new MemoryBudget(100, RelayMetrics.NOOP);
+		MemoryAccount first = budget.account(0);
+		MemoryAccount second = budget.account(0);
+		EmbeddedChannel firstSource = new EmbeddedChannel();
+		EmbeddedChannel secondSource = new EmbeddedChannel();
+		ChannelPromise firstWrite = promise(firstSource);
+		ChannelPromise secondWrite = promise(secondSource);
+		first.track(firstWrite, 60);
+		second.track(secondWrite, 60);
+
+		assertTrue(first.pauseIfExhausted(firstSource));
+		assertTrue(second.pauseIfExhausted(secondSource));
+		assertEquals(2, budget.getPausedSources());
+
+		// 回落到60，仍高于预算的一半
+		firstWrite.setSuccess();
+		assertTrue(budget.isUnderPressure());
+		assertFalse(firstSource.config().isAutoRead());
+		assertFalse(secondSource.config().isAutoRead());
+
+		secondWrite.setSuccess();
+		assertFalse(budget.isUnderPressure());
+		assertTrue(firstSource.config().isAutoRead());
+		assertTrue(secondSource.config().isAutoRead());
+		assertEquals(0, budget.getPausedSources());
+	}
+
+	@Test
+	void quotaResumesBelowHalf() {
+		MemoryAccount account = new MemoryBudget(0, RelayMetrics.NOOP).account(100);
+		EmbeddedChannel source = new EmbeddedChannel();
+		ChannelPromise[] writes = {promise(source), promise(source), promise(source)};
+		for (ChannelPromise write : writes) {
+			account.track(write, 40);
+		}
+		assertTrue(account.pauseIfExhausted(source));
+
+		writes[0].setSuccess();
+		assertEquals(80, account.getUsed());
+		assertFalse(source.config().isAutoRead());
+
+		writes[1].setSuccess();
+		assertTrue(source.config().isAutoRead());
+	}
+
+	@Test
+	void failedWriteIsReleased() {
+		MemoryBudget budget = new MemoryBudget(100, RelayMetrics.NOOP);
+		MemoryAccount account = budget.account(0);
+		EmbeddedChannel source = new EmbeddedChannel();
+		ChannelPromise write = promise(source);
+		account.track(write, 150);
+		assertTrue(account.pauseIfExhausted(source));
+
+		write.setFailure(new IOException("Connection reset"));
+
+		assertEquals(0, account.getUsed());
+		assertEquals(0, budget.getUsed());
+		assertTrue(source.config().isAutoRead());
+	}
+
+	@Test
+	void pauseRacingWithReleaseDoesNotStickPaused() throws Exception {
+		MemoryAccount account = new MemoryBudget(0, RelayMetrics.NOOP).account(100);
+		EmbeddedChannel source = new EmbeddedChannel();
+		AtomicBoolean done = new AtomicBoolean();
+		// 与释放线程竞争：判断超额后、加入暂停集合前数据可能已全部释放，由加入后的再次检查恢复
+		Thread pauser = new Thread(() -> {
+			while (!done.get()) {
+				account.pauseIfExhausted(source);
+			}
+		});
+		pauser.start();
+		for (int i = 0; i < 20_000; i++) {
+			ChannelPromise write = promise(source);
+			account.track(write, 200);
+			write.setSuccess();
+		}
+		done.set(true);
+		pauser.join();
+
+		assertEquals(0, account.getUsed());
+		assertFalse(ReadGate.of(source, RelayMetrics.NOOP).isPaused(PauseReason.MEMORY));
+		assertEquals(0, account.getPausedSources());
+	}
+
+	private static ChannelPromise promise(Channel channel) {
+		return new DefaultChannelPromise(channel, ImmediateEventExecutor.INSTANCE);
+	}
+}
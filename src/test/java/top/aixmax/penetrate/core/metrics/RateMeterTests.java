@@ -0,0 +1,57 @@
+package top.aixmax.penetrate.core.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RateMeterTests {
+
+	private static final long ORIGIN = 1_000_000_000_000L;
+
+	@Test
+	void bucketsRollOverWithTheClock() {
+		RateMeter meter = new RateMeter(ORIGIN);
+		meter.record(10, at(0.5));
+
+		assertEquals(10, meter.rate(1, at(1.0)), 1e-9);
+		assertEquals(5, meter.rate(1, at(1.5)), 1e-9);
+		assertEquals(0, meter.rate(1, at(2.0)), 1e-9);
+
+		// 第64秒复用第0秒的桶，旧值被清零而不是累加
+		meter.record(7, at(1.5));
+		meter.record(3, at(64.5));
+		assertEquals(3, meter.rate(1, at(64.5)), 1e-9);
+		assertEquals(3.0 / 60, meter.rate(60, at(64.5)), 1e-9);
+		// 第65秒读取时第1秒的桶已过期，只计入第64秒
+		assertEquals(3, meter.rate(1, at(65.0)), 1e-9);
+		assertEquals(0, meter.rate(1, at(66.0)), 1e-9);
+	}
+
+	@Test
+	void oldestSecondIsInterpolated() {
+		RateMeter meter = new RateMeter(ORIGIN);
+		for (int second = 0; second < 5; second++) {
+			meter.record(100, at(second + 0.1));
+		}
+
+		// 第4、3秒完整计入，第2秒按剩余的0.75计入
+		assertEquals((100 + 100 + 75) / 2.0, meter.rate(2, at(4.25)), 1e-9);
+		assertEquals((100 * 5) / 10.0, meter.rate(10, at(4.25)), 1e-9);
+	}
+
+	@Test
+	void windowOutsideRangeIsRejected() {
+		RateMeter meter = new RateMeter(ORIGIN);
+
+		assertThrows(IllegalArgumentException.class, () -> meter.rate(0, at(1)));
+		assertThrows(IllegalArgumentException.class,
+				() -> meter.rate(RateMeter.MAX_WINDOW_SECONDS + 1, at(1)));
+	}
+
+	private static long at(double seconds) {
+		return ORIGIN + (long) (seconds * TimeUnit.SECONDS.toNanos(1));
+	}
+}
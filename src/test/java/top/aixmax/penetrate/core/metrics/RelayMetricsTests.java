@@ -0,0 +1,51 @@
+package top.aixmax.penetrate.core.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RelayMetricsTests {
+
+	@Test
+	void clientTrafficIsExportedAndRemoved() {
+		MeterRegistry registry = new SimpleMeterRegistry();
+		RelayMetrics metrics = new RelayMetrics(registry, "server");
+		TrafficMeter meter = metrics.clientMeter("client-1");
+
+		meter.recordIn(100);
+		meter.recordIn(50);
+		meter.recordOut(300, 2);
+
+		assertEquals(150, registry.get("penetrate.client.bytes").tags("client", "client-1", "direction", "in")
+				.functionCounter().count());
+		assertEquals(2, registry.get("penetrate.client.frames").tags("client", "client-1", "direction", "in")
+				.functionCounter().count());
+		assertEquals(2, registry.get("penetrate.client.frames").tags("client", "client-1", "direction", "out")
+				.functionCounter().count());
+		assertEquals(300, meter.getBytesOut());
+		assertTrue(meter.getBytesInRate(TrafficMeter.DEFAULT_WINDOW_SECONDS) > 0);
+
+		metrics.remove(meter);
+		assertTrue(registry.find("penetrate.client.bytes").tag("client", "client-1").meters().isEmpty());
+	}
+
+	@Test
+	void portMeterIsSharedPerPort() {
+		MeterRegistry registry = new SimpleMeterRegistry();
+		RelayMetrics metrics = new RelayMetrics(registry, "client");
+
+		assertNull(metrics.findPortMeter(8080));
+		TrafficMeter meter = metrics.portMeter(8080);
+		assertSame(meter, metrics.portMeter(8080));
+		assertSame(meter, metrics.findPortMeter(8080));
+
+		meter.recordOut(10, 1);
+		assertEquals(10, registry.get("penetrate.port.bytes").tags("role", "client", "port", "8080",
+				"direction", "out").functionCounter().count());
+	}
+}
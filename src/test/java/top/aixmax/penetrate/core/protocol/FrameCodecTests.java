@@ -0,0 +1,48 @@
+package top.aixmax.penetrate.core.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.TooLongFrameException;
+import org.junit.jupiter.api.Test;
+import top.aixmax.penetrate.common.enums.MessageType;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FrameCodecTests {
+
+	@Test
+	void v1RoundTrip() {
+		ByteBuf frame = FrameCodec.V1.encode(ByteBufAllocator.DEFAULT,
+				MessageFactory.createDataMessage(new byte[]{1, 2, 3}).setChannelId(7).setExternalPort(16622));
+		Message msg = FrameCodec.V1.decode(frame, 1024);
+		frame.release();
+
+		assertEquals(MessageType.DATA, msg.getType());
+		assertEquals(7, msg.getChannelId());
+		assertEquals(16622, msg.getExternalPort());
+		assertArrayEquals(new byte[]{1, 2, 3}, msg.getData());
+	}
+
+	@Test
+	void v1RejectsLengthThatOverflowsFrameSize() {
+		ByteBuf frame = FrameCodec.V1.encode(ByteBufAllocator.DEFAULT,
+				MessageFactory.createDataMessage(new byte[]{1, 2, 3}).setChannelId(7));
+		// 长度加上帧头会溢出为负数
+		frame.setInt(10, Integer.MAX_VALUE - 5);
+
+		assertThrows(TooLongFrameException.class, () -> FrameCodec.V1.decode(frame, 64 * 1024));
+		frame.release();
+	}
+
+	@Test
+	void v1RejectsNegativeLength() {
+		ByteBuf frame = FrameCodec.V1.encode(ByteBufAllocator.DEFAULT,
+				MessageFactory.createDataMessage(new byte[]{1, 2, 3}).setChannelId(7));
+		frame.setInt(10, -1);
+
+		assertThrows(TooLongFrameException.class, () -> FrameCodec.V1.decode(frame, 64 * 1024));
+		frame.release();
+	}
+}
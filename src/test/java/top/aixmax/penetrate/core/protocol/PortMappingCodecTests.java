@@ -0,0 +1,76 @@
+package top.aixmax.penetrate.core.protocol;
+
+import org.junit.jupiter.api.Test;
+import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.core.compress.PayloadCodec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static top.aixmax.penetrate.core.protocol.RegisterCodecTests.mapping;
+
+class PortMappingCodecTests {
+
+	@Test
+	void putCarriesTheWholeMapping() {
+		byte[] data = PortMappingCodec.encode(PortMappingCodec.OP_PUT, mapping(65535, "tcp", "zlib"));
+
+		assertEquals(PortMappingCodec.OP_PUT, PortMappingCodec.decodeOp(data));
+		PortMapping mapping = PortMappingCodec.decodeMapping(data);
+		assertEquals(65535, mapping.getRemotePort());
+		assertEquals(65535, mapping.getLocalPort());
+		assertEquals("tcp", mapping.getProtocol());
+		assertEquals("zlib", mapping.getCompression());
+		assertTrue(mapping.getEnabled());
+	}
+
+	@Test
+	void removeCarriesPortAndProtocol() {
+		byte[] data = PortMappingCodec.encode(PortMappingCodec.OP_REMOVE, mapping(5353, "udp", null));
+
+		assertEquals(PortMappingCodec.OP_REMOVE, PortMappingCodec.decodeOp(data));
+		PortMapping mapping = PortMappingCodec.decodeMapping(data);
+		assertEquals(5353, mapping.getRemotePort());
+		assertEquals("udp", mapping.getProtocol());
+	}
+
+	@Test
+	void malformedRequestsAreRejected() {
+		byte[] data = PortMappingCodec.encode(PortMappingCodec.OP_PUT, mapping(8080, "tcp", null));
+
+		assertThrows(IllegalArgumentException.class, () -> PortMappingCodec.decodeOp(null));
+		assertThrows(IllegalArgumentException.class,
+				() -> PortMappingCodec.decodeOp(new byte[]{PortMappingCodec.OP_PUT, 0, 80}));
+		data[0] = 3;
+		assertThrows(IllegalArgumentException.class, () -> PortMappingCodec.decodeOp(data));
+	}
+
+	@Test
+	void acceptedAckCarriesCompression() {
+		byte[] ack = PortMappingCodec.encodeAck(PortMappingCodec.STATUS_OK, PayloadCodec.SNAPPY, null);
+
+		assertTrue(PortMappingCodec.isAccepted(ack));
+		assertEquals(PayloadCodec.SNAPPY, PortMappingCodec.decodeAckCompression(ack));
+		assertEquals("", PortMappingCodec.decodeAckReason(ack));
+	}
+
+	@Test
+	void rejectedAckCarriesReason() {
+		byte[] ack = PortMappingCodec.encodeAck(PortMappingCodec.STATUS_REJECTED, PayloadCodec.NONE,
+				"Server is draining");
+
+		assertFalse(PortMappingCodec.isAccepted(ack));
+		assertEquals(PayloadCodec.NONE, PortMappingCodec.decodeAckCompression(ack));
+		assertEquals("Server is draining", PortMappingCodec.decodeAckReason(ack));
+	}
+
+	@Test
+	void truncatedOrUnknownAckFallsBack() {
+		assertFalse(PortMappingCodec.isAccepted(null));
+		assertFalse(PortMappingCodec.isAccepted(new byte[]{PortMappingCodec.STATUS_OK}));
+		assertEquals(PayloadCodec.NONE, PortMappingCodec.decodeAckCompression(new byte[]{0}));
+		assertEquals(PayloadCodec.NONE, PortMappingCodec.decodeAckCompression(new byte[]{0, 9}));
+		assertEquals("", PortMappingCodec.decodeAckReason(null));
+	}
+}
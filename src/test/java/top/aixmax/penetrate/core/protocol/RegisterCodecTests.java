@@ -0,0 +1,124 @@
+package top.aixmax.penetrate.core.protocol;
+
+import org.junit.jupiter.api.Test;
+import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.common.constants.ProtocolConstants;
+import top.aixmax.penetrate.core.compress.PayloadCodec;
+import top.aixmax.penetrate.core.resume.SessionResume;
+import top.aixmax.penetrate.server.model.ClientInfo;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegisterCodecTests {
+
+	@Test
+	void registerCarriesRequestedCompression() {
+		byte[] data = RegisterCodec.encode("client-1", ProtocolConstants.VERSION_2, 3,
+				Arrays.asList(mapping(8080, "tcp", "snappy"), mapping(5353, "udp", "none"),
+						mapping(9090, "tcp", null)));
+
+		ClientInfo info = RegisterCodec.decode(data);
+
+		assertEquals("client-1", info.getClientId());
+		assertEquals(3, info.getSort());
+		assertEquals(3, info.getPortMappings().size());
+		assertEquals("snappy", info.getPortMappings().get(0).getCompression());
+		assertEquals("udp", info.getPortMappings().get(1).getProtocol());
+		assertEquals("none", info.getPortMappings().get(2).getCompression());
+		assertTrue(info.getPortMappings().get(0).getEnabled());
+		assertNull(info.getResume());
+	}
+
+	@Test
+	void ackListsAcceptedCompression() {
+		Map<Integer, PayloadCodec> compression = new HashMap<>();
+		compression.put(8080, PayloadCodec.SNAPPY);
+		compression.put(65535, PayloadCodec.ZLIB);
+
+		byte[] ack = RegisterCodec.encodeAck(ProtocolConstants.VERSION_2, compression);
+
+		assertEquals(ProtocolConstants.VERSION_2, ack[0]);
+		assertEquals(compression, RegisterCodec.decodeAckCompression(ack));
+		assertNull(RegisterCodec.decodeAckResume(ack));
+	}
+
+	@Test
+	void versionOnlyAckMeansNoCompression() {
+		byte[] ack = RegisterCodec.encodeAck(ProtocolConstants.VERSION_2, Collections.emptyMap());
+
+		assertArrayEquals(new byte[]{ProtocolConstants.VERSION_2}, ack);
+		assertTrue(RegisterCodec.decodeAckCompression(ack).isEmpty());
+		assertNull(RegisterCodec.decodeAckResume(ack));
+	}
+
+	@Test
+	void unknownCodecsInAckAreIgnored() {
+		// 版本 + 2个映射：8080使用未知算法7，8081使用zlib
+		byte[] ack = {ProtocolConstants.VERSION_2, 2, 0x1F, (byte) 0x90, 7, 0x1F, (byte) 0x91, 2};
+
+		Map<Integer, PayloadCodec> compression = RegisterCodec.decodeAckCompression(ack);
+
+		assertEquals(Collections.singletonMap(8081, PayloadCodec.ZLIB), compression);
+	}
+
+	@Test
+	void registerCarriesResumeRequest() {
+		SessionResume request = SessionResume.request(99L, 64 * 1024, Collections.singletonMap(12, 4096L));
+		byte[] data = RegisterCodec.encode("client-1", ProtocolConstants.VERSION_2, 0,
+				Collections.singletonList(mapping(8080, "tcp", "zlib")), request);
+
+		ClientInfo info = RegisterCodec.decode(data);
+
+		assertEquals("zlib", info.getPortMappings().get(0).getCompression());
+		assertEquals(99L, info.getResume().getToken());
+		assertEquals(64 * 1024, info.getResume().getReplayBufferSize());
+		assertEquals(Collections.singletonMap(12, 4096L), info.getResume().getOffsets());
+	}
+
+	@Test
+	void ackCarriesCompressionAndResume() {
+		SessionResume resume = new SessionResume(99L, true, 60, 128 * 1024, Collections.singletonMap(12, 2048L));
+
+		byte[] ack = RegisterCodec.encodeAck(ProtocolConstants.VERSION_2,
+				Collections.singletonMap(8080, PayloadCodec.SNAPPY), resume);
+
+		assertEquals(Collections.singletonMap(8080, PayloadCodec.SNAPPY), RegisterCodec.decodeAckCompression(ack));
+		SessionResume read = RegisterCodec.decodeAckResume(ack);
+		assertTrue(read.isResumed());
+		assertEquals(99L, read.getToken());
+		assertEquals(60, read.getTimeoutSeconds());
+		assertEquals(Collections.singletonMap(12, 2048L), read.getOffsets());
+
+		// 不压缩时仍写出数量0，会话恢复信息紧随其后
+		byte[] resumeOnly = RegisterCodec.encodeAck(ProtocolConstants.VERSION_2, Collections.emptyMap(), resume);
+		assertTrue(RegisterCodec.decodeAckCompression(resumeOnly).isEmpty());
+		assertEquals(99L, RegisterCodec.decodeAckResume(resumeOnly).getToken());
+	}
+
+	@Test
+	void truncatedAckIsRejected() {
+		byte[] ack = {ProtocolConstants.VERSION_2, 2, 0x1F, (byte) 0x90, 1};
+
+		assertThrows(IllegalArgumentException.class, () -> RegisterCodec.decodeAckCompression(ack));
+		assertFalse(RegisterCodec.isBinary(ack));
+	}
+
+	static PortMapping mapping(int remotePort, String protocol, String compression) {
+		PortMapping mapping = new PortMapping();
+		mapping.setRemotePort(remotePort);
+		mapping.setLocalPort(remotePort);
+		mapping.setProtocol(protocol);
+		mapping.setCompression(compression);
+		return mapping;
+	}
+}
@@ -0,0 +1,68 @@
+package top.aixmax.penetrate.core.resume;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionResumeTests {
+
+	@Test
+	void requestRoundTrip() {
+		Map<Integer, Long> offsets = new HashMap<>();
+		offsets.put(1, 0L);
+		offsets.put(300, 1L << 40);
+
+		ByteBuf out = Unpooled.buffer();
+		SessionResume.request(-7L, 256 * 1024, offsets).write(out);
+		SessionResume read = SessionResume.read(out);
+
+		assertEquals(-7L, read.getToken());
+		assertFalse(read.isResumed());
+		assertEquals(256 * 1024, read.getReplayBufferSize());
+		assertEquals(offsets, read.getOffsets());
+		assertFalse(out.isReadable());
+	}
+
+	@Test
+	void ackRoundTrip() {
+		ByteBuf out = Unpooled.buffer();
+		new SessionResume(42L, true, 60, 1024, Collections.singletonMap(5, 99L)).write(out);
+		SessionResume read = SessionResume.read(out);
+
+		assertTrue(read.isResumed());
+		assertEquals(42L, read.getToken());
+		assertEquals(60, read.getTimeoutSeconds());
+		assertEquals(Collections.singletonMap(5, 99L), read.getOffsets());
+	}
+
+	@Test
+	void dataAckOffsetsRoundTrip() {
+		Map<Integer, Long> offsets = new HashMap<>();
+		offsets.put(7, 4096L);
+		offsets.put(8, 0L);
+
+		assertEquals(offsets, SessionResume.decodeOffsets(SessionResume.encodeOffsets(offsets)));
+		assertTrue(SessionResume.decodeOffsets(SessionResume.encodeOffsets(Collections.emptyMap())).isEmpty());
+	}
+
+	@Test
+	void truncatedDataIsRejected() {
+		byte[] data = SessionResume.encodeOffsets(Collections.singletonMap(7, 4096L));
+		byte[] truncated = new byte[data.length - 1];
+		System.arraycopy(data, 0, truncated, 0, truncated.length);
+
+		assertThrows(IllegalArgumentException.class, () -> SessionResume.decodeOffsets(truncated));
+		// 声明的流数量超过剩余长度
+		assertThrows(IllegalArgumentException.class, () -> SessionResume.decodeOffsets(new byte[]{100, 1, 0}));
+		assertThrows(IllegalArgumentException.class, () -> SessionResume.read(Unpooled.wrappedBuffer(new byte[8])));
+	}
+}
@@ -0,0 +1,118 @@
+package top.aixmax.penetrate.core.resume;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamReplayTests {
+
+	@Test
+	void acknowledgedDataIsReleased() {
+		StreamReplay replay = new StreamReplay(8, 4);
+		ByteBuf first = buffer("abcdef");
+		ByteBuf second = buffer("ghij");
+		List<String> written = new ArrayList<>();
+
+		assertEquals(1, replay.send(first, data -> write(written, data)));
+		assertEquals(1, replay.send(second, data -> write(written, data)));
+		first.release();
+		second.release();
+		assertTrue(replay.isFull());
+		assertEquals(10, replay.getUnacknowledged());
+
+		// 确认落在第一段中间，第一段仍被保留
+		assertFalse(replay.acknowledge(3));
+		assertEquals(1, first.refCnt());
+		assertTrue(replay.acknowledge(6));
+		assertEquals(0, first.refCnt());
+		assertEquals(4, replay.getUnacknowledged());
+		// 超出已发送范围或回退的确认被忽略
+		replay.acknowledge(11);
+		replay.acknowledge(2);
+		assertEquals(4, replay.getUnacknowledged());
+	}
+
+	@Test
+	void heldStreamBuffersAndReplaysFromPeerOffset() {
+		StreamReplay replay = new StreamReplay(1024, 256);
+		List<String> written = new ArrayList<>();
+		replay.send(buffer("abc"), data -> write(written, data));
+		replay.send(buffer("defgh"), data -> write(written, data));
+		replay.acknowledge(3);
+
+		replay.hold();
+		assertEquals(0, replay.send(buffer("ij"), data -> write(written, data)));
+		assertFalse(replay.deliver(5, () -> true));
+		assertEquals(2, written.size());
+
+		// 对端已交付4字节，从 "e" 开始重发，挂起期间的数据排在后面
+		List<String> replayed = new ArrayList<>();
+		assertEquals(6, replay.resume(4, data -> write(replayed, data)));
+		assertEquals("efghij", String.join("", replayed));
+		assertEquals(1, replay.send(buffer("k"), data -> write(replayed, data)));
+		assertEquals("efghijk", String.join("", replayed));
+	}
+
+	@Test
+	void offsetOutsideBufferCannotResume() {
+		StreamReplay replay = new StreamReplay(1024, 256);
+		replay.send(buffer("abcdef"), data -> 1);
+		replay.acknowledge(4);
+		replay.hold();
+
+		assertEquals(-1, replay.resume(2, data -> 1));
+		assertEquals(-1, replay.resume(7, data -> 1));
+		assertEquals(0, replay.resume(6, data -> 1));
+	}
+
+	@Test
+	void acksAreTakenAtThreshold() {
+		StreamReplay replay = StreamReplay.create(4096, 1024);
+		assertTrue(replay.deliver(200, () -> true));
+		assertFalse(replay.deliver(50, () -> false));
+		assertEquals(-1, replay.takeAckIfDue());
+		replay.deliver(56, () -> true);
+		// 阈值为较小上限的四分之一
+		assertEquals(256, replay.takeAckIfDue());
+		assertEquals(-1, replay.takeAck());
+		replay.deliver(1, () -> true);
+		assertEquals(257, replay.takeAck());
+		assertEquals(257, replay.getReceivedOffset());
+	}
+
+	@Test
+	void releaseFreesBufferedData() {
+		StreamReplay replay = new StreamReplay(1024, 256);
+		ByteBuf data = buffer("abcdef");
+		replay.send(data, buf -> 1);
+		data.release();
+		assertEquals(1, data.refCnt());
+
+		replay.release();
+
+		assertEquals(0, data.refCnt());
+		assertEquals(0, replay.getUnacknowledged());
+		// 关闭后发送不再缓冲
+		ByteBuf late = buffer("x");
+		replay.send(late, buf -> 1);
+		assertEquals(1, late.refCnt());
+		assertEquals(0, replay.getUnacknowledged());
+	}
+
+	private static ByteBuf buffer(String text) {
+		return Unpooled.copiedBuffer(text, StandardCharsets.UTF_8);
+	}
+
+	private static int write(List<String> written, ByteBuf data) {
+		written.add(data.toString(StandardCharsets.UTF_8));
+		return 1;
+	}
+}
@@ -0,0 +1,151 @@
+package top.aixmax.penetrate.core.tls;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import top.aixmax.penetrate.common.enums.MessageType;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+import top.aixmax.penetrate.core.protocol.FrameCodec;
+import top.aixmax.penetrate.core.protocol.Message;
+import top.aixmax.penetrate.core.protocol.MessageFactory;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TunnelSslTests {
+
+	private static SelfSignedCertificate certificate;
+
+	private static SslContext server;
+
+	@BeforeAll
+	static void createCertificate() throws Exception {
+		certificate = new SelfSignedCertificate("localhost");
+		server = TunnelSsl.forServer(certificate.certificate().getPath(), certificate.privateKey().getPath(),
+				null, TlsProvider.JDK, 64, 3600);
+	}
+
+	@AfterAll
+	static void deleteCertificate() {
+		certificate.delete();
+	}
+
+	@Test
+	void framesPassThroughTheHandshake() throws Exception {
+		SslContext client = TunnelSsl.forClient(certificate.certificate().getPath(), TlsProvider.JDK, 64, 3600);
+		EmbeddedChannel serverChannel = serverChannel(RelayMetrics.NOOP);
+		EmbeddedChannel clientChannel = clientChannel(client, true, RelayMetrics.NOOP);
+
+		pump(clientChannel, serverChannel);
+
+		assertTrue(handler(clientChannel).handshakeFuture().isSuccess());
+		assertTrue(handler(serverChannel).handshakeFuture().isSuccess());
+
+		// 握手后隧道帧原样到达对端
+		FrameCodec.of(clientChannel).send(clientChannel,
+				MessageFactory.createDataMessage(new byte[]{1, 2, 3}).setChannelId(9));
+		pump(clientChannel, serverChannel);
+		ByteBuf plain = serverChannel.readInbound();
+		Message msg = FrameCodec.of(serverChannel).decode(plain, 64 * 1024);
+		plain.release();
+		assertEquals(MessageType.DATA, msg.getType());
+		assertEquals(9, msg.getChannelId());
+		assertArrayEquals(new byte[]{1, 2, 3}, msg.getData());
+	}
+
+	@Test
+	void untrustedCertificateFailsTheHandshake() throws Exception {
+		SelfSignedCertificate other = new SelfSignedCertificate("localhost");
+		try {
+			SslContext client = TunnelSsl.forClient(other.certificate().getPath(), TlsProvider.JDK, 64, 3600);
+			SimpleMeterRegistry registry = new SimpleMeterRegistry();
+			RelayMetrics metrics = new RelayMetrics(registry, "client");
+			EmbeddedChannel serverChannel = serverChannel(RelayMetrics.NOOP);
+			EmbeddedChannel clientChannel = clientChannel(client, true, metrics);
+			SslHandler handler = handler(clientChannel);
+
+			assertThrows(DecoderException.class, () -> pump(clientChannel, serverChannel));
+
+			assertFalse(handler.handshakeFuture().isSuccess());
+			assertEquals(1, metrics.tlsHandshake(false, false).count());
+			// 握手失败时抛出异常中断了搬运，释放两端残留的告警密文
+			clientChannel.releaseOutbound();
+			serverChannel.releaseOutbound();
+		} finally {
+			other.delete();
+		}
+	}
+
+	@Test
+	void reconnectResumesTheSession() throws Exception {
+		SslContext client = TunnelSsl.forClient(certificate.certificate().getPath(), TlsProvider.JDK, 64, 3600);
+		RelayMetrics metrics = new RelayMetrics(new SimpleMeterRegistry(), "client");
+
+		for (int i = 0; i < 2; i++) {
+			EmbeddedChannel serverChannel = serverChannel(RelayMetrics.NOOP);
+			EmbeddedChannel clientChannel = clientChannel(client, false, metrics);
+			pump(clientChannel, serverChannel);
+			// TLS 1.3 的会话票据在握手完成后才发出，交换一次数据确保客户端收到
+			clientChannel.writeAndFlush(ByteBufAllocator.DEFAULT.buffer().writeByte(1));
+			pump(clientChannel, serverChannel);
+			assertTrue(handler(clientChannel).handshakeFuture().isSuccess());
+			((ByteBuf) serverChannel.readInbound()).release();
+			clientChannel.close();
+			pump(clientChannel, serverChannel);
+		}
+
+		assertEquals(1, metrics.tlsHandshake(true, false).count());
+		assertEquals(1, metrics.tlsHandshake(true, true).count());
+	}
+
+	private static EmbeddedChannel serverChannel(RelayMetrics metrics) {
+		EmbeddedChannel channel = new EmbeddedChannel();
+		channel.pipeline().addLast(TunnelSsl.newServerHandler(server, channel.alloc(), metrics));
+		return channel;
+	}
+
+	private static EmbeddedChannel clientChannel(SslContext client, boolean verifyHostname, RelayMetrics metrics) {
+		EmbeddedChannel channel = new EmbeddedChannel();
+		channel.pipeline().addLast(TunnelSsl.newClientHandler(client, channel.alloc(), "localhost", 7000,
+				verifyHostname, metrics));
+		return channel;
+	}
+
+	private static SslHandler handler(EmbeddedChannel channel) {
+		return channel.pipeline().get(SslHandler.class);
+	}
+
+	/**
+	 * 在两端之间来回搬运密文，直到没有数据可搬
+	 */
+	private static void pump(EmbeddedChannel a, EmbeddedChannel b) {
+		boolean moved;
+		do {
+			moved = transfer(a, b) | transfer(b, a);
+		} while (moved);
+	}
+
+	private static boolean transfer(EmbeddedChannel from, EmbeddedChannel to) {
+		boolean moved = false;
+		for (ByteBuf buf; (buf = from.readOutbound()) != null; ) {
+			moved = true;
+			if (to.isOpen()) {
+				to.writeInbound(buf);
+			} else {
+				buf.release();
+			}
+		}
+		return moved;
+	}
+}
@@ -0,0 +1,64 @@
+package top.aixmax.penetrate.server;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.concurrent.Future;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import top.aixmax.penetrate.server.config.ServerConfig;
+import top.aixmax.penetrate.server.manager.ClientManager;
+import top.aixmax.penetrate.server.model.StreamInfo;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static top.aixmax.penetrate.server.TunnelFixtures.mapping;
+import static top.aixmax.penetrate.server.TunnelFixtures.registerClient;
+
+class NatServerTests {
+
+	private NatServer server;
+
+	@AfterEach
+	void stopServer() {
+		if (server != null) {
+			server.stop();
+		}
+	}
+
+	@Test
+	void drainCompletesWhenLastStreamEnds() throws Exception {
+		server = new NatServer(new ServerConfig());
+		ClientManager clientManager = server.getClientManager();
+		EmbeddedChannel tunnel = registerClient(clientManager, "client-1", mapping(8080, "tcp", null));
+		EmbeddedChannel external = new EmbeddedChannel();
+		clientManager.handleExternalConnect(external, 8080);
+		int streamId = external.attr(StreamInfo.STREAM).get().getStreamId();
+
+		Future<Boolean> drained = server.drain(10_000);
+		assertTrue(server.isDraining());
+		assertSame(drained, server.drain(10));
+		assertFalse(drained.await(300));
+
+		clientManager.handleClientDisconnect(tunnel, streamId);
+
+		assertTrue(drained.get(5, TimeUnit.SECONDS));
+		assertFalse(tunnel.isOpen());
+	}
+
+	@Test
+	void drainDeadlineClosesRemainingStreams() throws Exception {
+		server = new NatServer(new ServerConfig());
+		ClientManager clientManager = server.getClientManager();
+		EmbeddedChannel tunnel = registerClient(clientManager, "client-1", mapping(8080, "tcp", null));
+		EmbeddedChannel external = new EmbeddedChannel();
+		clientManager.handleExternalConnect(external, 8080);
+
+		Future<Boolean> drained = server.drain(100);
+
+		assertFalse(drained.get(5, TimeUnit.SECONDS));
+		assertFalse(external.isOpen());
+		assertFalse(tunnel.isOpen());
+	}
+}
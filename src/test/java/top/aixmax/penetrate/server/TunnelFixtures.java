@@ -0,0 +1,66 @@
+package top.aixmax.penetrate.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.core.protocol.FrameCodec;
+import top.aixmax.penetrate.core.protocol.Message;
+import top.aixmax.penetrate.server.manager.ClientManager;
+import top.aixmax.penetrate.server.model.ClientInfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 服务端测试共用的隧道构造与出站帧读取
+ */
+public final class TunnelFixtures {
+
+	private TunnelFixtures() {
+	}
+
+	public static ClientInfo client(String clientId, PortMapping... mappings) {
+		return client(clientId, new EmbeddedChannel(), mappings);
+	}
+
+	public static ClientInfo client(String clientId, Channel tunnel, PortMapping... mappings) {
+		ClientInfo info = new ClientInfo(clientId, tunnel);
+		info.setPortMappings(new ArrayList<>(Arrays.asList(mappings)));
+		return info;
+	}
+
+	public static PortMapping mapping(int remotePort, String protocol, String compression) {
+		PortMapping mapping = new PortMapping();
+		mapping.setRemotePort(remotePort);
+		mapping.setLocalPort(remotePort);
+		mapping.setProtocol(protocol);
+		mapping.setCompression(compression);
+		return mapping;
+	}
+
+	/**
+	 * 以新的内嵌隧道注册客户端并返回该隧道
+	 */
+	public static EmbeddedChannel registerClient(ClientManager clientManager, String clientId,
+			PortMapping... mappings) {
+		EmbeddedChannel tunnel = new EmbeddedChannel();
+		clientManager.registerClient(client(clientId, tunnel, mappings), tunnel);
+		return tunnel;
+	}
+
+	/**
+	 * 按隧道当前的帧编码解出全部出站消息，并释放读到的缓冲区
+	 */
+	public static List<Message> frames(EmbeddedChannel tunnel) {
+		List<Message> frames = new ArrayList<>();
+		for (ByteBuf buf; (buf = tunnel.readOutbound()) != null; ) {
+			for (Message msg; (msg = FrameCodec.of(tunnel).decode(buf, 64 * 1024)) != null; ) {
+				frames.add(msg);
+			}
+			buf.release();
+		}
+		return frames;
+	}
+}
@@ -0,0 +1,119 @@
+package top.aixmax.penetrate.server.cluster;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoop;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import top.aixmax.penetrate.common.enums.MessageType;
+import top.aixmax.penetrate.core.protocol.Message;
+import top.aixmax.penetrate.server.config.ServerConfig;
+import top.aixmax.penetrate.server.manager.ClientManager;
+import top.aixmax.penetrate.server.model.StreamInfo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static top.aixmax.penetrate.server.TunnelFixtures.frames;
+import static top.aixmax.penetrate.server.TunnelFixtures.mapping;
+import static top.aixmax.penetrate.server.TunnelFixtures.registerClient;
+
+class ClusterNodeTests {
+
+	private static final int PORT = 8080;
+
+	private ClientManager clientManager;
+
+	private ClusterNode node;
+
+	private EventLoop loop;
+
+	@BeforeEach
+	void startNode() {
+		ServerConfig config = new ServerConfig();
+		config.setClusterNodeId("a");
+		clientManager = new ClientManager(config);
+		node = new ClusterNode(config, clientManager);
+		loop = node.group().next();
+	}
+
+	@AfterEach
+	void stopNode() {
+		node.stop();
+	}
+
+	@Test
+	void relayedStreamReachesLocalClient() throws Exception {
+		EmbeddedChannel tunnel = registerClient(clientManager, "client-1", mapping(PORT, "tcp", null));
+		BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+
+		Channel entry = node.openStream(loop, PORT, new SimpleChannelInboundHandler<ByteBuf>() {
+			@Override
+			protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) {
+				replies.add(msg.toString(StandardCharsets.UTF_8));
+			}
+		}).get(5, TimeUnit.SECONDS);
+		entry.writeAndFlush(Unpooled.copiedBuffer("ping", StandardCharsets.UTF_8)).sync();
+		StreamInfo stream = awaitStream();
+		quiesce();
+
+		// 入口连接与真实外部连接一样建立流并转发数据，且被标记为转发来的连接
+		List<Message> frames = frames(tunnel);
+		assertEquals(MessageType.CONNECT, frames.get(0).getType());
+		assertEquals(stream.getStreamId(), frames.get(0).getChannelId());
+		assertEquals("ping", new String(frames.get(frames.size() - 1).getData(), StandardCharsets.UTF_8));
+		assertTrue(stream.getExternalChannel().attr(ClusterNode.RELAYED).get());
+
+		// 本地客户端的回复经入口连接交给链路
+		stream.getExternalChannel().writeAndFlush(Unpooled.copiedBuffer("pong", StandardCharsets.UTF_8));
+		assertEquals("pong", replies.poll(5, TimeUnit.SECONDS));
+
+		// 入口关闭经对端连接的事件循环传递，可能晚于当前排队的任务
+		entry.close().sync();
+		for (int i = 0; i < 500 && !clientManager.getStreams().isEmpty(); i++) {
+			Thread.sleep(10);
+		}
+		assertTrue(clientManager.getStreams().isEmpty());
+	}
+
+	@Test
+	void entryIsSharedPerPort() throws Exception {
+		registerClient(clientManager, "client-1", mapping(PORT, "tcp", null));
+
+		Channel first = node.openStream(loop, PORT, new ChannelInboundHandlerAdapter()).get(5, TimeUnit.SECONDS);
+		Channel second = node.openStream(loop, PORT, new ChannelInboundHandlerAdapter()).get(5, TimeUnit.SECONDS);
+
+		assertEquals(first.remoteAddress(), second.remoteAddress());
+		quiesce();
+		assertEquals(2, clientManager.getStreams().size());
+	}
+
+	private StreamInfo awaitStream() throws InterruptedException {
+		for (int i = 0; i < 500 && clientManager.getStreams().isEmpty(); i++) {
+			Thread.sleep(10);
+		}
+		StreamInfo stream = clientManager.getStreams().values().stream().findFirst().orElse(null);
+		assertNotNull(stream);
+		return stream;
+	}
+
+	/**
+	 * 入口两端都在节点唯一的事件循环中，等待已提交的任务执行完，之后在测试线程读取隧道
+	 */
+	private void quiesce() throws Exception {
+		loop.submit(() -> {
+		}).get(5, TimeUnit.SECONDS);
+	}
+}
@@ -0,0 +1,63 @@
+package top.aixmax.penetrate.server.endpoint;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import top.aixmax.penetrate.common.utils.CursorPage;
+import top.aixmax.penetrate.server.NatServer;
+import top.aixmax.penetrate.server.config.ServerConfig;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RelayEndpointTests {
+
+	private NatServer server;
+
+	private RelayEndpoint endpoint;
+
+	@BeforeEach
+	void createEndpoint() {
+		server = new NatServer(new ServerConfig());
+		StaticListableBeanFactory beans = new StaticListableBeanFactory();
+		beans.addBean("natServer", server);
+		endpoint = new RelayEndpoint(beans.getBeanProvider(NatServer.class));
+	}
+
+	@AfterEach
+	void stopServer() {
+		server.stop();
+	}
+
+	@Test
+	void unknownTableIsRejected() {
+		InvalidEndpointRequestException e = assertThrows(InvalidEndpointRequestException.class,
+				() -> endpoint.list("sessions", null, null, null, null, null, null));
+
+		assertEquals("Unknown table", e.getReason());
+	}
+
+	@Test
+	void nonNumericCursorIsRejectedForIntegerKeys() {
+		assertThrows(InvalidEndpointRequestException.class,
+				() -> endpoint.list("streams", "abc", null, null, null, null, null));
+		assertThrows(InvalidEndpointRequestException.class,
+				() -> endpoint.list("ports", "8080x", null, null, null, null, null));
+	}
+
+	@Test
+	void emptyTablesGiveEmptyPages() {
+		// 客户端ID是字符串，任意游标都合法
+		CursorPage<?> clients = endpoint.list("clients", "client-9", 10, null, null, null, null);
+		CursorPage<?> streams = endpoint.list("streams", "", 10, null, null, null, null);
+
+		assertTrue(clients.getItems().isEmpty());
+		assertNull(clients.getNextCursor());
+		assertTrue(streams.getItems().isEmpty());
+		assertEquals(false, endpoint.summary().get("draining"));
+	}
+}
@@ -0,0 +1,137 @@
+package top.aixmax.penetrate.server.handler;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import org.junit.jupiter.api.Test;
+import top.aixmax.penetrate.common.enums.MessageType;
+import top.aixmax.penetrate.core.protocol.Message;
+import top.aixmax.penetrate.server.config.ServerConfig;
+import top.aixmax.penetrate.server.manager.ClientManager;
+import top.aixmax.penetrate.server.model.DatagramSession;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static top.aixmax.penetrate.server.TunnelFixtures.frames;
+import static top.aixmax.penetrate.server.TunnelFixtures.mapping;
+import static top.aixmax.penetrate.server.TunnelFixtures.registerClient;
+
+class DatagramExternalHandlerTests {
+
+	private static final int PORT = 15353;
+
+	private static final InetSocketAddress ALICE = new InetSocketAddress("127.0.0.1", 40001);
+
+	private static final InetSocketAddress BOB = new InetSocketAddress("127.0.0.1", 40002);
+
+	@Test
+	void sessionsAreKeyedBySenderAndRepliesRouteBack() {
+		ClientManager clientManager = new ClientManager(new ServerConfig());
+		EmbeddedChannel tunnel = registerClient(clientManager, "udp-client", mapping(PORT, "udp", null));
+		DatagramExternalHandler handler = new DatagramExternalHandler(clientManager, PORT);
+		EmbeddedChannel listener = new EmbeddedChannel(handler);
+
+		listener.writeInbound(packet("a1", ALICE));
+		listener.writeInbound(packet("b1", BOB));
+		listener.writeInbound(packet("a2", ALICE));
+
+		List<Message> frames = frames(tunnel);
+		assertEquals(3, frames.size());
+		assertEquals(2, handler.getSessions().size());
+		int alice = frames.get(0).getChannelId();
+		int bob = frames.get(1).getChannelId();
+		assertNotEquals(alice, bob);
+		assertEquals(alice, frames.get(2).getChannelId());
+		assertEquals(MessageType.DATAGRAM, frames.get(0).getType());
+		assertEquals(PORT, frames.get(0).getExternalPort());
+		assertArrayEquals(bytes("a2"), frames.get(2).getData());
+
+		clientManager.handleClientDatagram(tunnel, datagram(bob, "reply"));
+		listener.flushOutbound();
+		DatagramPacket reply = listener.readOutbound();
+		assertEquals(BOB, reply.recipient());
+		assertEquals("reply", reply.content().toString(StandardCharsets.UTF_8));
+		reply.release();
+	}
+
+	@Test
+	void repliesFromOtherTunnelsAreDropped() {
+		ClientManager clientManager = new ClientManager(new ServerConfig());
+		EmbeddedChannel tunnel = registerClient(clientManager, "owner", mapping(PORT, "udp", null));
+		EmbeddedChannel other = registerClient(clientManager, "other", mapping(PORT, "udp", null));
+		DatagramExternalHandler handler = new DatagramExternalHandler(clientManager, PORT);
+		EmbeddedChannel listener = new EmbeddedChannel(handler);
+		listener.writeInbound(packet("a1", ALICE));
+		DatagramSession session = handler.getSessions().get(ALICE);
+		EmbeddedChannel owner = session.getClient().getChannel() == tunnel ? tunnel : other;
+		EmbeddedChannel stranger = owner == tunnel ? other : tunnel;
+
+		clientManager.handleClientDatagram(stranger, datagram(session.getSessionId(), "spoofed"));
+		listener.flushOutbound();
+		assertNull(listener.readOutbound());
+
+		clientManager.handleClientDatagram(owner, datagram(session.getSessionId(), "reply"));
+		listener.flushOutbound();
+		DatagramPacket reply = listener.readOutbound();
+		assertEquals("reply", reply.content().toString(StandardCharsets.UTF_8));
+		reply.release();
+	}
+
+	@Test
+	void sessionLimitDropsNewSenders() {
+		ServerConfig config = new ServerConfig();
+		config.setMaxDatagramSessions(1);
+		ClientManager clientManager = new ClientManager(config);
+		EmbeddedChannel tunnel = registerClient(clientManager, "udp-client", mapping(PORT, "udp", null));
+		DatagramExternalHandler handler = new DatagramExternalHandler(clientManager, PORT);
+		EmbeddedChannel listener = new EmbeddedChannel(handler);
+
+		listener.writeInbound(packet("a1", ALICE));
+		listener.writeInbound(packet("b1", BOB));
+
+		assertEquals(1, handler.getSessions().size());
+		assertTrue(handler.getSessions().containsKey(ALICE));
+		assertEquals(1, frames(tunnel).size());
+	}
+
+	@Test
+	void idleSessionsExpireAndNotifyClient() throws InterruptedException {
+		ServerConfig config = new ServerConfig();
+		config.setDatagramSessionTimeout(1);
+		ClientManager clientManager = new ClientManager(config);
+		EmbeddedChannel tunnel = registerClient(clientManager, "udp-client", mapping(PORT, "udp", null));
+		DatagramExternalHandler handler = new DatagramExternalHandler(clientManager, PORT);
+		EmbeddedChannel listener = new EmbeddedChannel(handler);
+		listener.writeInbound(packet("a1", ALICE));
+		int session = frames(tunnel).get(0).getChannelId();
+
+		Thread.sleep(1_200);
+		listener.runPendingTasks();
+
+		assertTrue(handler.getSessions().isEmpty());
+		assertTrue(clientManager.getDatagramSessions().isEmpty());
+		List<Message> frames = frames(tunnel);
+		assertEquals(1, frames.size());
+		assertEquals(MessageType.DISCONNECT, frames.get(0).getType());
+		assertEquals(session, frames.get(0).getChannelId());
+	}
+
+	private static DatagramPacket packet(String text, InetSocketAddress sender) {
+		return new DatagramPacket(Unpooled.wrappedBuffer(bytes(text)), new InetSocketAddress(PORT), sender);
+	}
+
+	private static Message datagram(int sessionId, String text) {
+		return new Message().setType(MessageType.DATAGRAM).setChannelId(sessionId).setData(bytes(text));
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,216 @@
+package top.aixmax.penetrate.server.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.common.constants.ProtocolConstants;
+import top.aixmax.penetrate.common.enums.MessageType;
+import top.aixmax.penetrate.core.compress.PayloadCodec;
+import top.aixmax.penetrate.core.protocol.FrameCodec;
+import top.aixmax.penetrate.core.protocol.Message;
+import top.aixmax.penetrate.core.protocol.MessageFactory;
+import top.aixmax.penetrate.core.protocol.PortMappingCodec;
+import top.aixmax.penetrate.core.protocol.RegisterCodec;
+import top.aixmax.penetrate.server.config.ServerConfig;
+import top.aixmax.penetrate.server.manager.ClientManager;
+import top.aixmax.penetrate.server.model.ClientInfo;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ServerChannelHandlerTests {
+
+	private ServerChannelHandler handler;
+
+	@AfterEach
+	void stopListeners() {
+		if (handler != null) {
+			handler.getServerManager().stop();
+		}
+	}
+
+	@Test
+	void newTunnelsAreTurnedAwayWhileDraining() {
+		ClientManager clientManager = new ClientManager(new ServerConfig());
+		handler = new ServerChannelHandler(clientManager);
+		clientManager.startDraining(10_000);
+
+		EmbeddedChannel tunnel = new EmbeddedChannel(handler);
+
+		ByteBuf frame = tunnel.readOutbound();
+		Message msg = FrameCodec.V1.decode(frame, 64 * 1024);
+		frame.release();
+		assertEquals(MessageType.GOAWAY, msg.getType());
+		assertEquals(0, MessageFactory.decodeGoAway(msg.getData()));
+		assertFalse(tunnel.isOpen());
+		assertEquals(0, clientManager.getClients().size());
+	}
+
+	@Test
+	void tunnelSwitchesCodecBeforeClientIsVisible() {
+		AtomicReference<FrameCodec> codecOnRegister = new AtomicReference<>();
+		ClientManager clientManager = new ClientManager(new ServerConfig()) {
+			@Override
+			public boolean registerClient(ClientInfo info, Channel channel) {
+				// 注册后其他线程即可选中该客户端并向隧道发帧
+				codecOnRegister.set(FrameCodec.of(channel));
+				return super.registerClient(info, channel);
+			}
+		};
+		handler = new ServerChannelHandler(clientManager);
+		EmbeddedChannel tunnel = new EmbeddedChannel(handler);
+
+		register(tunnel, ProtocolConstants.VERSION_2, mapping(freePort(), "tcp", null));
+
+		assertSame(FrameCodec.V2, codecOnRegister.get());
+		assertSame(FrameCodec.V2, FrameCodec.of(tunnel));
+	}
+
+	@Test
+	void portMappingAddsAndRemovesListener() throws Exception {
+		ClientManager clientManager = new ClientManager(new ServerConfig());
+		handler = new ServerChannelHandler(clientManager);
+		EmbeddedChannel tunnel = new EmbeddedChannel(handler);
+		register(tunnel, ProtocolConstants.VERSION_3, mapping(freePort(), "tcp", null));
+		int port = freePort();
+
+		Message ack = request(tunnel, 7, PortMappingCodec.OP_PUT, mapping(port, "tcp", "snappy"));
+
+		assertEquals(MessageType.PORT_MAPPING_ACK, ack.getType());
+		assertEquals(7, ack.getChannelId());
+		assertTrue(PortMappingCodec.isAccepted(ack.getData()));
+		assertEquals(PayloadCodec.SNAPPY, PortMappingCodec.decodeAckCompression(ack.getData()));
+		assertTrue(clientManager.isMapped(port, "tcp"));
+		awaitListening(port, true);
+
+		ack = request(tunnel, 8, PortMappingCodec.OP_REMOVE, mapping(port, "tcp", null));
+
+		assertEquals(8, ack.getChannelId());
+		assertTrue(PortMappingCodec.isAccepted(ack.getData()));
+		assertFalse(clientManager.isMapped(port, "tcp"));
+		awaitListening(port, false);
+		assertTrue(tunnel.isOpen());
+	}
+
+	@Test
+	void portMappingIsRejectedBelowV3() {
+		ClientManager clientManager = new ClientManager(new ServerConfig());
+		handler = new ServerChannelHandler(clientManager);
+		EmbeddedChannel tunnel = new EmbeddedChannel(handler);
+		register(tunnel, ProtocolConstants.VERSION_2, mapping(freePort(), "tcp", null));
+		int port = freePort();
+
+		Message ack = request(tunnel, 1, PortMappingCodec.OP_PUT, mapping(port, "tcp", null));
+
+		assertFalse(PortMappingCodec.isAccepted(ack.getData()));
+		assertEquals("Protocol version does not support port mapping updates",
+				PortMappingCodec.decodeAckReason(ack.getData()));
+		assertFalse(clientManager.isMapped(port, "tcp"));
+		assertTrue(tunnel.isOpen());
+	}
+
+	@Test
+	void invalidPortMappingIsRejected() {
+		ClientManager clientManager = new ClientManager(new ServerConfig());
+		handler = new ServerChannelHandler(clientManager);
+		EmbeddedChannel tunnel = new EmbeddedChannel(handler);
+		register(tunnel, ProtocolConstants.VERSION_3, mapping(freePort(), "tcp", null));
+
+		Message ack = request(tunnel, 1, PortMappingCodec.OP_PUT, mapping(0, "tcp", null));
+		assertFalse(PortMappingCodec.isAccepted(ack.getData()));
+		assertEquals("Invalid remote port: 0", PortMappingCodec.decodeAckReason(ack.getData()));
+
+		byte[] data = PortMappingCodec.encode(PortMappingCodec.OP_PUT, mapping(9090, "tcp", null));
+		data[0] = 3;
+		tunnel.writeInbound(FrameCodec.of(tunnel).encode(tunnel.alloc(), Message.create()
+				.setType(MessageType.PORT_MAPPING).setChannelId(2).setData(data)));
+		ack = readAck(tunnel);
+		assertEquals(2, ack.getChannelId());
+		assertEquals("Unknown port mapping operation: 3", PortMappingCodec.decodeAckReason(ack.getData()));
+		assertEquals(1, clientManager.getClients().size());
+	}
+
+	@Test
+	void unauthenticatedPortMappingClosesTunnel() {
+		ClientManager clientManager = new ClientManager(new ServerConfig());
+		handler = new ServerChannelHandler(clientManager);
+		EmbeddedChannel tunnel = new EmbeddedChannel(handler);
+
+		tunnel.writeInbound(FrameCodec.V1.encode(tunnel.alloc(),
+				MessageFactory.createPortMappingMessage(1, PortMappingCodec.OP_PUT, mapping(9090, "tcp", null))));
+
+		assertFalse(tunnel.isOpen());
+		assertEquals(0, clientManager.getClients().size());
+	}
+
+	private static void register(EmbeddedChannel tunnel, byte version, PortMapping... mappings) {
+		byte[] data = RegisterCodec.encode("client-1", version, 0, Arrays.asList(mappings));
+		tunnel.writeInbound(FrameCodec.V1.encode(tunnel.alloc(), MessageFactory.createRegisterMessage(data)));
+		// 注册确认按v1编码
+		ByteBuf frame = tunnel.readOutbound();
+		Message ack = FrameCodec.V1.decode(frame, 64 * 1024);
+		frame.release();
+		assertEquals(MessageType.REGISTER_ACK, ack.getType());
+	}
+
+	private static Message request(EmbeddedChannel tunnel, int requestId, byte op, PortMapping mapping) {
+		tunnel.writeInbound(FrameCodec.of(tunnel).encode(tunnel.alloc(),
+				MessageFactory.createPortMappingMessage(requestId, op, mapping)));
+		return readAck(tunnel);
+	}
+
+	private static Message readAck(EmbeddedChannel tunnel) {
+		ByteBuf frame = tunnel.readOutbound();
+		Message ack = FrameCodec.of(tunnel).decode(frame, 64 * 1024);
+		frame.release();
+		assertEquals(MessageType.PORT_MAPPING_ACK, ack.getType());
+		return ack;
+	}
+
+	private static PortMapping mapping(int remotePort, String protocol, String compression) {
+		PortMapping mapping = new PortMapping();
+		mapping.setRemotePort(remotePort);
+		mapping.setLocalPort(remotePort);
+		mapping.setProtocol(protocol);
+		mapping.setCompression(compression);
+		return mapping;
+	}
+
+	private static int freePort() {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * 外部端口的监听异步绑定和解绑，轮询直到端口状态符合预期。以能否绑定判断，不建立连接以免隧道收到外部连接
+	 */
+	private static void awaitListening(int port, boolean listening) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (true) {
+			boolean bound;
+			try (ServerSocket socket = new ServerSocket(port)) {
+				bound = false;
+			} catch (IOException e) {
+				bound = true;
+			}
+			if (bound == listening) {
+				return;
+			}
+			assertTrue(System.currentTimeMillis() < deadline, "port " + port + " listening: " + bound);
+			Thread.sleep(50);
+		}
+	}
+}
@@ -0,0 +1,359 @@
+package top.aixmax.penetrate.server.manager;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import top.aixmax.penetrate.client.config.PortMapping;
+import top.aixmax.penetrate.common.enums.MessageType;
+import top.aixmax.penetrate.common.constants.ProtocolConstants;
+import top.aixmax.penetrate.core.compress.PayloadCodec;
+import top.aixmax.penetrate.core.protocol.Message;
+import top.aixmax.penetrate.core.protocol.MessageFactory;
+import top.aixmax.penetrate.core.resume.SessionResume;
+import top.aixmax.penetrate.server.cluster.ClusterNode;
+import top.aixmax.penetrate.server.config.ServerConfig;
+import top.aixmax.penetrate.server.model.ClientInfo;
+import top.aixmax.penetrate.server.model.StreamInfo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static top.aixmax.penetrate.server.TunnelFixtures.client;
+import static top.aixmax.penetrate.server.TunnelFixtures.frames;
+import static top.aixmax.penetrate.server.TunnelFixtures.mapping;
+
+class ClientManagerTests {
+
+	@Test
+	void compressionIsAcceptedForTcpMappingsOnV2() {
+		ClientManager clientManager = new ClientManager(new ServerConfig());
+		ClientInfo info = client("client-1", mapping(8080, "tcp", "zlib"), mapping(5353, "udp", "snappy"),
+				mapping(9090, "tcp", "lz4"), mapping(9091, "tcp", "none"));
+
+		Map<Integer, PayloadCodec> accepted = clientManager.negotiateCompression(info, ProtocolConstants.VERSION_2);
+
+		assertEquals(Collections.singletonMap(8080, PayloadCodec.ZLIB), accepted);
+		assertEquals(Collections.singleton(8080), info.getCompressors().keySet());
+		assertEquals(PayloadCodec.ZLIB, info.getCompressors().get(8080).getCodec());
+	}
+
+	@Test
+	void compressionIsRefusedOnV1OrWhenDisabled() {
+		ClientManager clientManager = new ClientManager(new ServerConfig());
+		ClientInfo info = client("client-1", mapping(8080, "tcp", "snappy"));
+		assertTrue(clientManager.negotiateCompression(info, ProtocolConstants.VERSION_1).isEmpty());
+
+		ServerConfig config = new ServerConfig();
+		config.setEnableCompression(false);
+		assertTrue(new ClientManager(config).negotiateCompression(info, ProtocolConstants.VERSION_2).isEmpty());
+	}
+
+	@Test
+	void resumedSessionReplaysFromClientOffsets() {
+		ClientManager clientManager = new ClientManager(new ServerConfig());
+		EmbeddedChannel tunnel = new EmbeddedChannel();
+		ClientInfo info = client("client-1", tunnel, mapping(8080, "tcp", null));
+		info.setResume(SessionResume.request(0, 64 * 1024, Collections.emptyMap()));
+		long token = clientManager.issueResumeToken(info).getToken();
+		clientManager.registerClient(info, tunnel);
+
+		EmbeddedChannel external = new EmbeddedChannel();
+		clientManager.handleExternalConnect(external, 8080);
+		int streamId = external.attr(StreamInfo.STREAM).get().getStreamId();
+		clientManager.handleExternalData(external, text("abc"), 8080);
+		clientManager.handleExternalData(external, text("defgh"), 8080);
+		clientManager.handleDataAck(tunnel,
+				MessageFactory.createDataAckMessage(Collections.singletonMap(streamId, 3L)));
+		assertEquals(3, frames(tunnel).size());
+
+		// 隧道断开后新数据只进入重放缓冲
+		assertTrue(clientManager.detachClient(tunnel));
+		clientManager.handleExternalData(external, text("ij"), 8080);
+		assertTrue(frames(tunnel).isEmpty());
+
+		EmbeddedChannel resumed = new EmbeddedChannel();
+		ClientInfo request = client("client-1", mapping(8080, "tcp", null));
+		request.setResume(SessionResume.request(token, 64 * 1024, Collections.singletonMap(streamId, 4L)));
+		assertSame(info, clientManager.resumeClient(request, resumed));
+		clientManager.replayStreams(info, request.getResume().getOffsets());
+
+		StringBuilder replayed = new StringBuilder();
+		for (Message msg : frames(resumed)) {
+			assertEquals(streamId, msg.getChannelId());
+			replayed.append(new String(msg.getData(), StandardCharsets.UTF_8));
+		}
+		assertEquals("efghij", replayed.toString());
+		assertTrue(external.isOpen());
+		assertFalse(tunnel.isOpen());
+	}
+
+	@Test
+	void resumeWithUnknownTokenOrMissingStreamCloses() {
+		ClientManager clientManager = new ClientManager(new ServerConfig());
+		EmbeddedChannel tunnel = new EmbeddedChannel();
+		ClientInfo info = client("client-1", tunnel, mapping(8080, "tcp", null));
+		info.setResume(SessionResume.request(0, 64 * 1024, Collections.emptyMap()));
+		long token = clientManager.issueResumeToken(info).getToken();
+		clientManager.registerClient(info, tunnel);
+		EmbeddedChannel external = new EmbeddedChannel();
+		clientManager.handleExternalConnect(external, 8080);
+		clientManager.detachClient(tunnel);
+
+		ClientInfo forged = client("client-1", mapping(8080, "tcp", null));
+		forged.setResume(SessionResume.request(token + 1, 64 * 1024, Collections.emptyMap()));
+		assertNull(clientManager.resumeClient(forged, new EmbeddedChannel()));
+
+		// 客户端已没有该流，外部连接被关闭
+		ClientInfo request = client("client-1", mapping(8080, "tcp", null));
+		request.setResume(SessionResume.request(token, 64 * 1024, Collections.emptyMap()));
+		assertSame(info, clientManager.resumeClient(request, new EmbeddedChannel()));
+		clientManager.replayStreams(info, request.getResume().getOffsets());
+		assertFalse(external.isOpen());
+	}
+
+	@Test
+	void resumedClientKeepsItsIdentity() {
+		ClientManager clientManager = new ClientManager(new ServerConfig());
+		EmbeddedChannel tunnel = new EmbeddedChannel();
+		ClientInfo info = client("client-1", tunnel, mapping(8080, "tcp", null));
+		info.setResume(SessionResume.request(0, 64 * 1024, Collections.emptyMap()));
+		long token = clientManager.issueResumeToken(info).getToken();
+		clientManager.registerClient(info, tunnel);
+		Set<ClientInfo> seen = new HashSet<>(Collections.singleton(info));
+		clientManager.detachClient(tunnel);
+
+		ClientInfo request = client("client-1", mapping(8080, "tcp", null));
+		request.setResume(SessionResume.request(token, 64 * 1024, Collections.emptyMap()));
+		assertSame(info, clientManager.resumeClient(request, new EmbeddedChannel()));
+
+		// 换用新隧道后哈希不变，同一客户端ID的其他实例不相等
+		assertTrue(seen.contains(info));
+		assertNotEquals(info, client("client-1", info.getChannel(), mapping(8080, "tcp", null)));
+	}
+
+	@Test
+	void localClientsArePreferredOverPeers() {
+		ClientManager clientManager = new ClientManager(new ServerConfig());
+		EmbeddedChannel peer = new EmbeddedChannel();
+		ClientInfo peerInfo = client(ClusterNode.PEER_PREFIX + "b", peer, mapping(8080, "tcp", null));
+		peerInfo.setSort(Integer.MAX_VALUE);
+		clientManager.registerClient(peerInfo, peer);
+		EmbeddedChannel local = new EmbeddedChannel();
+		clientManager.registerClient(client("client-1", local, mapping(8080, "tcp", null)), local);
+
+		clientManager.handleExternalConnect(new EmbeddedChannel(), 8080);
+		assertEquals(1, frames(local).size());
+		assertTrue(frames(peer).isEmpty());
+
+		// 本地客户端离线后转发给其他节点
+		local.close();
+		clientManager.handleExternalConnect(new EmbeddedChannel(), 8080);
+		List<Message> forwarded = frames(peer);
+		assertEquals(1, forwarded.size());
+		assertEquals(MessageType.CONNECT, forwarded.get(0).getType());
+		assertEquals(8080, forwarded.get(0).getExternalPort());
+	}
+
+	@Test
+	void relayedConnectionsAreNotForwardedAgain() {
+		ClientManager clientManager = new ClientManager(new ServerConfig());
+		EmbeddedChannel peer = new EmbeddedChannel();
+		clientManager.registerClient(client(ClusterNode.PEER_PREFIX + "b", peer, mapping(8080, "tcp", null)), peer);
+		EmbeddedChannel relayed = new EmbeddedChannel();
+		relayed.attr(ClusterNode.RELAYED).set(Boolean.TRUE);
+
+		clientManager.handleExternalConnect(relayed, 8080);
+
+		assertTrue(frames(peer).isEmpty());
+		assertNull(relayed.attr(StreamInfo.STREAM).get());
+		// 等待本地客户端注册
+		assertFalse(relayed.config().isAutoRead());
+	}
+
+	@Test
+	void localPortsExcludePeersAndDatagrams() {
+		ClientManager clientManager = new ClientManager(new ServerConfig());
+		EmbeddedChannel peer = new EmbeddedChannel();
+		clientManager.registerClient(client(ClusterNode.PEER_PREFIX + "b", peer, mapping(9090, "tcp", null)), peer);
+		EmbeddedChannel local = new EmbeddedChannel();
+		clientManager.registerClient(client("client-1", local, mapping(8080, "tcp", null),
+				mapping(5353, "udp", null)), local);
+
+		assertEquals(Collections.singleton(8080), clientManager.localPorts());
+	}
+
+	@Test
+	void putMappingRoutesTheNewPort() {
+		ClientManager clientManager = new ClientManager(new ServerConfig());
+		EmbeddedChannel tunnel = new EmbeddedChannel();
+		ClientInfo info = client("client-1", tunnel, mapping(8080, "tcp", null));
+		clientManager.registerClient(info, tunnel);
+		EmbeddedChannel waiting = new EmbeddedChannel();
+		clientManager.handleExternalConnect(waiting, 9090);
+		assertNull(waiting.attr(StreamInfo.STREAM).get());
+
+		assertEquals(PayloadCodec.SNAPPY, clientManager.putMapping(info, mapping(9090, "tcp", "snappy")));
+		waiting.runPendingTasks();
+
+		assertTrue(clientManager.isMapped(9090, "tcp"));
+		assertFalse(clientManager.isMapped(9090, "udp"));
+		assertEquals(PayloadCodec.SNAPPY, info.getCompressors().get(9090).getCodec());
+		// 等待中的外部连接随映射新增分发
+		List<Message> connects = frames(tunnel);
+		assertEquals(1, connects.size());
+		assertEquals(MessageType.CONNECT, connects.get(0).getType());
+		assertEquals(9090, connects.get(0).getExternalPort());
+		assertTrue(waiting.config().isAutoRead());
+
+		// 同端口同协议覆盖原映射
+		assertEquals(PayloadCodec.NONE, clientManager.putMapping(info, mapping(9090, "tcp", "none")));
+		assertEquals(2, info.getPortMappings().size());
+		assertFalse(info.getCompressors().containsKey(9090));
+		assertEquals(PayloadCodec.NONE, clientManager.putMapping(info, mapping(5353, "udp", "snappy")));
+	}
+
+	@Test
+	void portTableRoutesEveryPortOfARange() {
+		ClientManager clientManager = new ClientManager(new ServerConfig());
+		EmbeddedChannel tunnel = new EmbeddedChannel();
+		PortMapping range = mapping(30000, "tcp", null);
+		range.setPortCount(1000);
+		ClientInfo info = client("client-1", tunnel, mapping(65535, "tcp", null));
+		info.getPortMappings().addAll(range.expand());
+		clientManager.registerClient(info, tunnel);
+
+		for (int port : new int[]{30000, 30500, 30999, 65535}) {
+			clientManager.handleExternalConnect(new EmbeddedChannel(), port);
+			List<Message> connects = frames(tunnel);
+			assertEquals(1, connects.size());
+			assertEquals(port, connects.get(0).getExternalPort());
+		}
+		assertTrue(clientManager.isMapped(30999, "tcp"));
+		assertFalse(clientManager.isMapped(31000, "tcp"));
+
+		// 表外的端口不分派，等待客户端注册
+		for (int port : new int[]{29999, 31000, 0, 65536}) {
+			EmbeddedChannel external = new EmbeddedChannel();
+			clientManager.handleExternalConnect(external, port);
+			assertTrue(frames(tunnel).isEmpty());
+			assertNull(external.attr(StreamInfo.STREAM).get());
+		}
+	}
+
+	@Test
+	void putMappingIgnoresCompressionWhenDisabled() {
+		ServerConfig config = new ServerConfig();
+		config.setEnableCompression(false);
+		ClientManager clientManager = new ClientManager(config);
+		ClientInfo info = client("client-1", mapping(8080, "tcp", null));
+		clientManager.registerClient(info, info.getChannel());
+
+		assertEquals(PayloadCodec.NONE, clientManager.putMapping(info, mapping(9090, "tcp", "zlib")));
+		assertTrue(info.getCompressors().isEmpty());
+		assertTrue(clientManager.isMapped(9090, "tcp"));
+	}
+
+	@Test
+	void removeMappingStopsRoutingButKeepsStreams() {
+		ClientManager clientManager = new ClientManager(new ServerConfig());
+		EmbeddedChannel tunnel = new EmbeddedChannel();
+		ClientInfo info = client("client-1", tunnel, mapping(8080, "tcp", "zlib"), mapping(9090, "tcp", null));
+		clientManager.registerClient(info, tunnel);
+		clientManager.negotiateCompression(info, ProtocolConstants.VERSION_3);
+		EmbeddedChannel external = new EmbeddedChannel();
+		clientManager.handleExternalConnect(external, 8080);
+		frames(tunnel);
+
+		clientManager.removeMapping(info, 8080, "tcp");
+		// 未映射的端口忽略
+		clientManager.removeMapping(info, 7070, "tcp");
+
+		assertFalse(clientManager.isMapped(8080, "tcp"));
+		assertTrue(clientManager.isMapped(9090, "tcp"));
+		assertFalse(info.getCompressors().containsKey(8080));
+		assertEquals(1, info.getPortMappings().size());
+		EmbeddedChannel next = new EmbeddedChannel();
+		clientManager.handleExternalConnect(next, 8080);
+		assertTrue(frames(tunnel).isEmpty());
+		assertNull(next.attr(StreamInfo.STREAM).get());
+		// 已建立的流继续
+		assertTrue(external.isOpen());
+		assertSame(info, external.attr(StreamInfo.STREAM).get().getClient());
+	}
+
+	@Test
+	void drainingSendsGoAwayAndClosesIdleTunnels() {
+		ClientManager clientManager = new ClientManager(new ServerConfig());
+		EmbeddedChannel waiting = new EmbeddedChannel();
+		clientManager.handleExternalConnect(waiting, 8080);
+		EmbeddedChannel busy = new EmbeddedChannel();
+		ClientInfo busyInfo = client("busy", busy, mapping(8080, "tcp", null));
+		busyInfo.setResume(SessionResume.request(0, 64 * 1024, Collections.emptyMap()));
+		clientManager.issueResumeToken(busyInfo);
+		clientManager.registerClient(busyInfo, busy);
+		EmbeddedChannel idle = new EmbeddedChannel();
+		clientManager.registerClient(client("idle", idle, mapping(9090, "tcp", null)), idle);
+		EmbeddedChannel external = new EmbeddedChannel();
+		clientManager.handleExternalConnect(external, 8080);
+		int streamId = external.attr(StreamInfo.STREAM).get().getStreamId();
+		frames(busy);
+
+		clientManager.startDraining(30_000);
+
+		assertTrue(clientManager.isDraining());
+		for (EmbeddedChannel tunnel : Arrays.asList(busy, idle)) {
+			List<Message> frames = frames(tunnel);
+			assertEquals(1, frames.size());
+			assertEquals(MessageType.GOAWAY, frames.get(0).getType());
+			assertEquals(30_000, MessageFactory.decodeGoAway(frames.get(0).getData()));
+		}
+		assertFalse(waiting.isOpen());
+		// 不再接受新的外部连接，断开的隧道也不保留会话
+		EmbeddedChannel late = new EmbeddedChannel();
+		clientManager.handleExternalConnect(late, 8080);
+		assertFalse(late.isOpen());
+		assertFalse(clientManager.detachClient(busy));
+
+		assertEquals(1, clientManager.remainingStreams());
+		clientManager.closeIdleTunnels();
+		assertFalse(idle.isOpen());
+		assertTrue(busy.isOpen());
+
+		clientManager.handleClientDisconnect(busy, streamId);
+		assertEquals(0, clientManager.remainingStreams());
+		assertFalse(external.isOpen());
+		clientManager.closeIdleTunnels();
+		assertFalse(busy.isOpen());
+	}
+
+	@Test
+	void closeAllEndsRemainingStreams() {
+		ClientManager clientManager = new ClientManager(new ServerConfig());
+		EmbeddedChannel tunnel = new EmbeddedChannel();
+		clientManager.registerClient(client("client-1", tunnel, mapping(8080, "tcp", null)), tunnel);
+		EmbeddedChannel external = new EmbeddedChannel();
+		clientManager.handleExternalConnect(external, 8080);
+		clientManager.startDraining(0);
+
+		clientManager.closeAll();
+
+		assertFalse(external.isOpen());
+		assertFalse(tunnel.isOpen());
+	}
+
+	static ByteBuf text(String text) {
+		return Unpooled.copiedBuffer(text, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,135 @@
+package top.aixmax.penetrate.server.manager;
+
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import top.aixmax.penetrate.common.enums.MessageType;
+import top.aixmax.penetrate.core.flow.PauseReason;
+import top.aixmax.penetrate.core.flow.ReadGate;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+import top.aixmax.penetrate.core.protocol.Message;
+import top.aixmax.penetrate.server.config.ServerConfig;
+import top.aixmax.penetrate.server.model.ClientInfo;
+import top.aixmax.penetrate.server.model.StreamInfo;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static top.aixmax.penetrate.server.TunnelFixtures.client;
+import static top.aixmax.penetrate.server.TunnelFixtures.frames;
+import static top.aixmax.penetrate.server.TunnelFixtures.mapping;
+
+class PendingConnectionsTests {
+
+	private static final int PORT = 8080;
+
+	@Test
+	void queuedConnectionsArePausedAndDrainedInOrder() {
+		PendingConnections pending = new PendingConnections(5_000, 4, RelayMetrics.NOOP);
+		EmbeddedChannel first = new EmbeddedChannel();
+		EmbeddedChannel second = new EmbeddedChannel();
+
+		assertTrue(pending.offer(first, PORT));
+		assertTrue(pending.offer(second, PORT));
+		assertFalse(first.config().isAutoRead());
+		assertTrue(ReadGate.of(first, RelayMetrics.NOOP).isPaused(PauseReason.PENDING));
+
+		assertEquals(Arrays.<Channel>asList(first, second), pending.drain(PORT));
+		assertTrue(pending.drain(PORT).isEmpty());
+		assertTrue(pending.drain(9090).isEmpty());
+		// 取出后仍暂停，由分派方恢复读取
+		assertFalse(first.config().isAutoRead());
+		assertTrue(first.isOpen());
+	}
+
+	@Test
+	void fullOrDisabledQueueRejects() {
+		PendingConnections pending = new PendingConnections(5_000, 1, RelayMetrics.NOOP);
+		assertTrue(pending.offer(new EmbeddedChannel(), PORT));
+		assertFalse(pending.offer(new EmbeddedChannel(), PORT));
+		assertTrue(pending.offer(new EmbeddedChannel(), 9090));
+
+		assertFalse(new PendingConnections(0, 16, RelayMetrics.NOOP).offer(new EmbeddedChannel(), PORT));
+		assertFalse(new PendingConnections(5_000, 0, RelayMetrics.NOOP).offer(new EmbeddedChannel(), PORT));
+	}
+
+	@Test
+	void expiredConnectionsAreClosed() throws InterruptedException {
+		PendingConnections pending = new PendingConnections(50, 4, RelayMetrics.NOOP);
+		EmbeddedChannel channel = new EmbeddedChannel();
+		pending.offer(channel, PORT);
+
+		Thread.sleep(100);
+		channel.runPendingTasks();
+
+		assertFalse(channel.isOpen());
+		assertTrue(pending.drain(PORT).isEmpty());
+	}
+
+	@Test
+	void drainedConnectionsDoNotExpire() throws InterruptedException {
+		PendingConnections pending = new PendingConnections(50, 4, RelayMetrics.NOOP);
+		EmbeddedChannel channel = new EmbeddedChannel();
+		pending.offer(channel, PORT);
+		pending.drain(PORT);
+
+		Thread.sleep(100);
+		channel.runPendingTasks();
+
+		assertTrue(channel.isOpen());
+	}
+
+	@Test
+	void closedConnectionsLeaveTheQueue() {
+		PendingConnections pending = new PendingConnections(5_000, 1, RelayMetrics.NOOP);
+		EmbeddedChannel channel = new EmbeddedChannel();
+		pending.offer(channel, PORT);
+
+		channel.close();
+
+		assertTrue(pending.drain(PORT).isEmpty());
+		assertTrue(pending.offer(new EmbeddedChannel(), PORT));
+	}
+
+	@Test
+	void closeAllClosesWaitingConnections() {
+		PendingConnections pending = new PendingConnections(5_000, 4, RelayMetrics.NOOP);
+		EmbeddedChannel first = new EmbeddedChannel();
+		EmbeddedChannel second = new EmbeddedChannel();
+		pending.offer(first, PORT);
+		pending.offer(second, 9090);
+
+		pending.closeAll();
+
+		assertFalse(first.isOpen());
+		assertFalse(second.isOpen());
+		assertTrue(pending.drain(PORT).isEmpty());
+	}
+
+	@Test
+	void registeringClientDispatchesWaitingConnections() {
+		ClientManager clientManager = new ClientManager(new ServerConfig());
+		EmbeddedChannel external = new EmbeddedChannel();
+		clientManager.handleExternalConnect(external, PORT);
+		assertTrue(external.isOpen());
+		assertFalse(external.config().isAutoRead());
+
+		EmbeddedChannel tunnel = new EmbeddedChannel();
+		ClientInfo info = client("client-1", tunnel, mapping(PORT, "tcp", null));
+		clientManager.registerClient(info, tunnel);
+		clientManager.dispatchPending(info);
+		external.runPendingTasks();
+
+		StreamInfo stream = external.attr(StreamInfo.STREAM).get();
+		assertNotNull(stream);
+		assertTrue(external.config().isAutoRead());
+		List<Message> frames = frames(tunnel);
+		assertEquals(1, frames.size());
+		assertEquals(MessageType.CONNECT, frames.get(0).getType());
+		assertEquals(stream.getStreamId(), frames.get(0).getChannelId());
+	}
+}
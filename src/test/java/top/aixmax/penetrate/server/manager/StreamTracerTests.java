@@ -0,0 +1,100 @@
+package top.aixmax.penetrate.server.manager;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import top.aixmax.penetrate.core.metrics.RelayMetrics;
+import top.aixmax.penetrate.core.trace.StreamTiming;
+import top.aixmax.penetrate.server.model.ClientInfo;
+import top.aixmax.penetrate.server.model.StreamInfo;
+import top.aixmax.penetrate.server.model.StreamTrace;
+import top.aixmax.penetrate.server.model.StreamTraceSample;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamTracerTests {
+
+	@Test
+	void sampleRateControlsTracing() {
+		StreamTracer off = new StreamTracer(0, RelayMetrics.NOOP);
+		StreamTracer all = new StreamTracer(1, RelayMetrics.NOOP);
+		StreamTracer half = new StreamTracer(0.5, RelayMetrics.NOOP);
+
+		int sampled = 0;
+		for (int i = 0; i < 10_000; i++) {
+			assertNull(off.sample());
+			assertNotNull(all.sample());
+			if (half.sample() != null) {
+				sampled++;
+			}
+		}
+		assertTrue(sampled > 4_000 && sampled < 6_000, "sampled " + sampled);
+	}
+
+	@Test
+	void clientTimingRoundTrips() {
+		StreamTiming timing = new StreamTiming(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(5));
+		timing.markDialStart();
+		timing.markDialDone();
+		timing.markFirstByte();
+
+		int[] decoded = StreamTiming.decode(timing.encode());
+
+		assertTrue(decoded[0] >= 5_000, "queue " + decoded[0]);
+		assertTrue(decoded[1] >= 0 && decoded[2] >= 0);
+
+		// 未发生的阶段回传为NONE，长度不足的负载被忽略
+		assertArrayEquals(new int[]{StreamTiming.NONE, StreamTiming.NONE, StreamTiming.NONE},
+				StreamTiming.decode(new StreamTiming(System.nanoTime()).encode()));
+		assertNull(StreamTiming.decode(new byte[8]));
+	}
+
+	@Test
+	void trailerIsMergedIntoStageTimers() {
+		MeterRegistry registry = new SimpleMeterRegistry();
+		StreamTracer tracer = new StreamTracer(1, new RelayMetrics(registry, "server"));
+		StreamTrace trace = new StreamTrace(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(10));
+		trace.markConnectWritten();
+		trace.markFirstResponse();
+		StreamInfo stream = new StreamInfo(7, 8080, new EmbeddedChannel(),
+				new ClientInfo("client-1", new EmbeddedChannel()), null, trace);
+
+		tracer.complete(stream, trailer(100, 200, 300));
+
+		assertEquals(1, registry.get("penetrate.stream.stage").tag("stage", "local_dial").timer().count());
+		assertEquals(1, registry.get("penetrate.stream.stage").tag("stage", "total").timer().count());
+		StreamTraceSample sample = tracer.getRecent().get(0);
+		assertEquals(7, sample.getStreamId());
+		assertEquals("client-1", sample.getClientId());
+		assertEquals(100, sample.getClientQueueMicros());
+		assertEquals(200, sample.getLocalDialMicros());
+		assertEquals(300, sample.getLocalFirstByteMicros());
+		assertTrue(sample.getAcceptMicros() >= 10_000);
+		assertTrue(sample.getTotalMicros() >= sample.getAcceptMicros());
+		assertTrue(sample.getTunnelMicros() >= 0);
+	}
+
+	@Test
+	void untracedStreamOrShortTrailerIsIgnored() {
+		StreamTracer tracer = new StreamTracer(1, RelayMetrics.NOOP);
+		ClientInfo client = new ClientInfo("client-1", new EmbeddedChannel());
+
+		tracer.complete(new StreamInfo(1, 8080, new EmbeddedChannel(), client, null), trailer(1, 2, 3));
+		tracer.complete(new StreamInfo(2, 8080, new EmbeddedChannel(), client, null,
+				new StreamTrace(System.nanoTime())), new byte[4]);
+
+		assertTrue(tracer.getRecent().isEmpty());
+	}
+
+	private static byte[] trailer(int queue, int dial, int firstByte) {
+		return ByteBuffer.allocate(12).putInt(queue).putInt(dial).putInt(firstByte).array();
+	}
+}